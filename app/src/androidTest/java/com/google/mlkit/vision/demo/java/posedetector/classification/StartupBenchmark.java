@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmarks for how long the camera screen waits for a {@link PoseClassifierProcessor}: the
+ * {@link PoseClassifierCache} and the {@link PoseClassifierWarmUp}. The processor reads the app's
+ * assets, so these run on a device rather than with the JVM benchmarks next to the unit tests,
+ * and only when asked for:
+ *
+ * <pre>
+ * ./gradlew :app:connectedDebugAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.poseClassifier.benchmarks=true \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=\
+ * com.google.mlkit.vision.demo.java.posedetector.classification.StartupBenchmark#warmUp
+ * </pre>
+ *
+ * <p>Results are logged under the {@value #TAG} tag. Run {@link #warmUp} and
+ * {@link #loadingOnFirstFrame} one at a time, so that neither finds code the other compiled.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class StartupBenchmark {
+  private static final String TAG = "PoseClassifierBenchmark";
+  private static final String ENABLED_ARGUMENT = "poseClassifier.benchmarks";
+  private static final String POSE_SAMPLES_FILE = "pose/fitness_pose_samples.csv";
+  private static final int CAMERA_OPEN_MS = 300;
+  // About 30 frames per second.
+  private static final int FRAME_INTERVAL_MS = 33;
+
+  private Context context;
+
+  @Before
+  public void setUp() {
+    assumeTrue("Pass the " + ENABLED_ARGUMENT + "=true instrumentation argument to run",
+        Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString(ENABLED_ARGUMENT)));
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+  }
+
+  @Test
+  public void classifierCache() {
+    benchmarkClassifierCache(context, /* processors= */ 5);
+  }
+
+  @Test
+  public void warmUp() throws IOException, InterruptedException {
+    benchmarkWarmUp(context, readLandmarks(context), /* warmUp= */ true, CAMERA_OPEN_MS,
+        FRAME_INTERVAL_MS, /* measuredFrames= */ 30);
+  }
+
+  @Test
+  public void loadingOnFirstFrame() throws IOException, InterruptedException {
+    benchmarkWarmUp(context, readLandmarks(context), /* warmUp= */ false, CAMERA_OPEN_MS,
+        FRAME_INTERVAL_MS, /* measuredFrames= */ 30);
+  }
+
+  private static void log(String message) {
+    Log.i(TAG, message);
+  }
+
+  /** The raw landmarks of every valid row of the bundled samples, to use as a session. */
+  private static List<List<PointF3D>> readLandmarks(Context context) throws IOException {
+    List<List<PointF3D>> frames = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)))) {
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        List<PointF3D> landmarks = PoseSample.getLandmarks(csvLine, ",");
+        if (landmarks != null) {
+          frames.add(landmarks);
+        }
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Creates {@code processors} stream-mode {@link PoseClassifierProcessor}s per backend, as the
+   * app does on every camera restart, starting from an empty {@link PoseClassifierCache}. Logs how
+   * long the first one, which loads the samples, and the later ones, which share them, took to be
+   * ready. Must not run on the main thread.
+   */
+  static void benchmarkClassifierCache(Context context, int processors) {
+    PoseClassifierCache cache = PoseClassifierCache.getInstance();
+    for (int backend = PoseClassifierProcessor.BACKEND_KNN;
+        backend <= PoseClassifierProcessor.BACKEND_HIERARCHICAL; backend++) {
+      cache.clear();
+      long[] readyNs = new long[processors];
+      for (int i = 0; i < processors; i++) {
+        long startNs = System.nanoTime();
+        new PoseClassifierProcessor(
+            context, /* isStreamMode= */ true, /* condenseSamples= */ false, backend);
+        readyNs[i] = System.nanoTime() - startNs;
+      }
+      long hitNs = 0;
+      for (int i = 1; i < processors; i++) {
+        hitNs += readyNs[i];
+      }
+      log(String.format(Locale.US,
+          "Classifier cache, backend %d: first processor ready in %.1f ms, %d more in %.2f ms "
+              + "each; %s",
+          backend, readyNs[0] / 1e6, processors - 1,
+          processors == 1 ? 0f : hitNs / 1e6f / (processors - 1), cache));
+    }
+    cache.clear();
+  }
+
+  /**
+   * Replays {@code session} on a classification thread as {@code PoseDetectorProcessor} does,
+   * with frames arriving every {@code frameIntervalMs} from {@code cameraOpenMs} after the activity
+   * started, and an empty {@link PoseClassifierCache}. With {@code warmUp}, a
+   * {@link PoseClassifierWarmUp} starts with the activity and frames are not classified until it
+   * is ready; without, the classifier is loaded on the first frame. Logs the time from the
+   * activity start to the first classified frame, the longest time a frame held up the
+   * classification thread, and the mean time of the first {@code measuredFrames} classified
+   * frames. Compare both in fresh processes, since either compiles code for the other. Must not
+   * run on the main thread.
+   */
+  static void benchmarkWarmUp(Context context, List<List<PointF3D>> session,
+      boolean warmUp, int cameraOpenMs, int frameIntervalMs, int measuredFrames)
+      throws InterruptedException {
+    PoseClassifierCache.getInstance().clear();
+    PoseClassifierWarmUp.clear();
+    long startNs = System.nanoTime();
+    PoseClassifierWarmUp classifierWarmUp = warmUp
+        ? PoseClassifierWarmUp.start(context, /* isStreamMode= */ true,
+            /* condenseSamples= */ false, PoseClassifierProcessor.BACKEND_KNN)
+        : null;
+    Thread.sleep(cameraOpenMs);
+    PoseClassifierProcessor processor = null;
+    long firstClassifiedNs = 0;
+    long longestFrameNs = 0;
+    long measuredNs = 0;
+    int classified = 0;
+    int notClassified = 0;
+    for (int frame = 0; classified < measuredFrames; frame++) {
+      long frameStartNs = System.nanoTime();
+      if (processor == null && (classifierWarmUp == null || classifierWarmUp.isReady())) {
+        processor = new PoseClassifierProcessor(context, /* isStreamMode= */ true,
+            /* condenseSamples= */ false, PoseClassifierProcessor.BACKEND_KNN);
+      }
+      if (processor != null) {
+        processor.classify(session.get(frame % session.size()));
+        if (classified == 0) {
+          firstClassifiedNs = System.nanoTime() - startNs;
+        }
+        classified++;
+        measuredNs += System.nanoTime() - frameStartNs;
+      } else {
+        notClassified++;
+      }
+      long frameNs = System.nanoTime() - frameStartNs;
+      longestFrameNs = max(longestFrameNs, frameNs);
+      Thread.sleep(max(0, frameIntervalMs - frameNs / 1_000_000));
+    }
+    log(String.format(Locale.US,
+        "%s: first classified frame %.0f ms after start, %d frames not classified, longest "
+            + "frame %.1f ms, first %d classified frames %.2f ms each",
+        warmUp ? "Warm-up" : "Loading on first frame", firstClassifiedNs / 1e6, notClassified,
+        longestFrameNs / 1e6, measuredFrames, measuredNs / 1e6 / measuredFrames));
+    PoseClassifierCache.getInstance().clear();
+    PoseClassifierWarmUp.clear();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DistanceKernel} on the Java Vector API, for desktop JVMs (JDK 17+, run with
+ * {@code --add-modules jdk.incubator.vector}). Not part of the Android build; built and tested by
+ * the {@code classification-jvm} module, see {@link DistanceKernels}.
+ *
+ * <p>The max distance is computed a full vector of embedding values at a time, with the scalar
+ * kernel's code on the values left over. A max does not depend on the order of its operands, so
+ * distances match the scalar kernel bit for bit. Samples are only abandoned between vectors, i.e.
+ * at a coarser step than the scalar kernel, which shows in the abandon counters only.
+ *
+ * <p>Sums do depend on the order of additions. The sum kernel computes the absolute differences
+ * to the original and flipped query a full vector at a time, then adds them up point by point in
+ * the scalar kernel's order, so sums match it bit for bit too, abandon counters included.
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  // Absolute differences of the sum kernel; the kernel is shared by the parallel scan's threads.
+  private final ThreadLocal<float[][]> sumDifferences = new ThreadLocal<>();
+
+  VectorDistanceKernel() {
+    // Fail here, where DistanceKernels can fall back, if vectors are not usable at all.
+    FloatVector.zero(SPECIES);
+  }
+
+  @Override
+  public void offerMaxDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats) {
+    int stride = query.length;
+    int offset = row * stride;
+    int vectorEnd = SPECIES.loopBound(stride);
+    float bound = heap.bound();
+    FloatVector originalMaxes = FloatVector.zero(SPECIES);
+    FloatVector flippedMaxes = FloatVector.zero(SPECIES);
+    int i = 0;
+    while (i < vectorEnd) {
+      FloatVector sample = FloatVector.fromArray(SPECIES, samples, offset + i);
+      originalMaxes =
+          originalMaxes.max(FloatVector.fromArray(SPECIES, query, i).sub(sample).abs());
+      flippedMaxes =
+          flippedMaxes.max(FloatVector.fromArray(SPECIES, flippedQuery, i).sub(sample).abs());
+      i += SPECIES.length();
+      if (originalMaxes.compare(VectorOperators.GT, bound).anyTrue()
+          && flippedMaxes.compare(VectorOperators.GT, bound).anyTrue()) {
+        stats.addSample(i / 3, stride / 3);
+        return;
+      }
+    }
+    float originalMax = originalMaxes.reduceLanes(VectorOperators.MAX);
+    float flippedMax = flippedMaxes.reduceLanes(VectorOperators.MAX);
+    while (i < stride) {
+      float sample = samples[offset + i];
+      originalMax = max(originalMax, abs(query[i] - sample));
+      flippedMax = max(flippedMax, abs(flippedQuery[i] - sample));
+      i++;
+      if (originalMax > bound && flippedMax > bound) {
+        stats.addSample(i / 3, stride / 3);
+        return;
+      }
+    }
+    stats.addSample(stride / 3, stride / 3);
+    heap.offer(min(originalMax, flippedMax), row);
+  }
+
+  @Override
+  public void offerSumDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats) {
+    int stride = query.length;
+    int offset = row * stride;
+    int vectorEnd = SPECIES.loopBound(stride);
+    float[][] differences = sumDifferences.get();
+    if (differences == null || differences[0].length < stride) {
+      differences = new float[2][stride];
+      sumDifferences.set(differences);
+    }
+    float[] originalDifferences = differences[0];
+    float[] flippedDifferences = differences[1];
+    int i = 0;
+    for (; i < vectorEnd; i += SPECIES.length()) {
+      FloatVector sample = FloatVector.fromArray(SPECIES, samples, offset + i);
+      FloatVector.fromArray(SPECIES, query, i).sub(sample).abs()
+          .intoArray(originalDifferences, i);
+      FloatVector.fromArray(SPECIES, flippedQuery, i).sub(sample).abs()
+          .intoArray(flippedDifferences, i);
+    }
+    for (; i < stride; i++) {
+      originalDifferences[i] = abs(query[i] - samples[offset + i]);
+      flippedDifferences[i] = abs(flippedQuery[i] - samples[offset + i]);
+    }
+
+    float bound = heap.bound();
+    float originalSum = 0;
+    float flippedSum = 0;
+    i = 0;
+    while (i < stride) {
+      originalSum +=
+          originalDifferences[i] + originalDifferences[i + 1] + originalDifferences[i + 2];
+      flippedSum += flippedDifferences[i] + flippedDifferences[i + 1] + flippedDifferences[i + 2];
+      i += 3;
+      if (originalSum > bound && flippedSum > bound) {
+        break;
+      }
+    }
+    stats.addSample(i / 3, stride / 3);
+    if (i == stride) {
+      heap.offer(min(originalSum, flippedSum), row);
+    }
+  }
+}
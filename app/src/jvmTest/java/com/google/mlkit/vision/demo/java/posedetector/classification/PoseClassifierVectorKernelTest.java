@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that {@link PoseClassifier} classifies the bundled samples with
+ * {@link VectorDistanceKernel} exactly as with {@link ScalarDistanceKernel}, on every search path
+ * that computes float distances.
+ */
+@RunWith(JUnit4.class)
+public final class PoseClassifierVectorKernelTest {
+
+  @Test
+  public void defaultKernel_isVectorKernel() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+
+    assertTrue(DistanceKernels.getDefault() instanceof VectorDistanceKernel);
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void classify_scan_matchesScalarKernel() {
+    PoseSampleMatrix sampleMatrix = bundledSamples();
+
+    assertMatchesScalarKernel(new PoseClassifier(sampleMatrix), new PoseClassifier(sampleMatrix));
+  }
+
+  @Test
+  public void classify_sampleGroups_matchesScalarKernel() {
+    PoseSampleMatrix sampleMatrix = bundledSamples();
+    SampleGroupIndex sampleGroups =
+        SampleGroupIndex.build(sampleMatrix, /* cellsPerClass= */ 8, /* seed= */ 0);
+    PoseClassifier scalar = new PoseClassifier(sampleMatrix);
+    scalar.setSampleGroups(sampleGroups);
+    PoseClassifier vector = new PoseClassifier(sampleMatrix);
+    vector.setSampleGroups(sampleGroups);
+
+    assertMatchesScalarKernel(scalar, vector);
+  }
+
+  @Test
+  public void classify_sampleIndex_matchesScalarKernel() {
+    PoseSampleMatrix sampleMatrix = bundledSamples();
+    VantagePointTree sampleIndex = VantagePointTree.build(sampleMatrix, /* seed= */ 0);
+    PoseClassifier scalar = new PoseClassifier(sampleMatrix);
+    scalar.setSampleIndex(sampleIndex);
+    PoseClassifier vector = new PoseClassifier(sampleMatrix);
+    vector.setSampleIndex(sampleIndex);
+
+    assertMatchesScalarKernel(scalar, vector);
+  }
+
+  @Test
+  public void classify_selectedDimensions_matchesScalarKernel() {
+    // Leaves values after the last full vector of most vector shapes.
+    PoseSampleMatrix sampleMatrix =
+        bundledSamples().selectDimensions(new int[] {1, 5, 9, 10, 11, 13, 14, 15, 16, 17, 18});
+
+    assertMatchesScalarKernel(new PoseClassifier(sampleMatrix), new PoseClassifier(sampleMatrix));
+  }
+
+  @Test
+  public void classify_temporalSeedingAndEarlyExit_matchesScalarKernel() {
+    PoseSampleMatrix sampleMatrix = bundledSamples();
+    PoseClassifier scalar = new PoseClassifier(sampleMatrix);
+    scalar.setTemporalSeeding(true);
+    scalar.setEarlyExit(/* margin= */ 0);
+    PoseClassifier vector = new PoseClassifier(sampleMatrix);
+    vector.setTemporalSeeding(true);
+    vector.setEarlyExit(/* margin= */ 0);
+
+    assertMatchesScalarKernel(scalar, vector);
+  }
+
+  private static PoseSampleMatrix bundledSamples() {
+    return new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+  }
+
+  private static void assertMatchesScalarKernel(PoseClassifier scalar, PoseClassifier vector) {
+    scalar.setDistanceKernel(ScalarDistanceKernel.INSTANCE);
+    vector.setDistanceKernel(new VectorDistanceKernel());
+    List<List<PointF3D>> queries = TestPoseSamples.queries();
+    for (int i = 0; i < queries.size(); i++) {
+      assertEquals("query " + i, TestPoseSamples.votes(scalar.classify(queries.get(i))),
+          TestPoseSamples.votes(vector.classify(queries.get(i))));
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.jitteredSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks {@link VectorDistanceKernel} against {@link ScalarDistanceKernel}, with
+ * {@link SampleLayoutBenchmark#compareDistanceKernels}, which compares the scalar kernel to the
+ * default one. Only here is the default the Vector API kernel; in the app's unit tests both are the
+ * scalar kernel.
+ */
+@RunWith(JUnit4.class)
+public final class VectorDistanceKernelBenchmark {
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void distanceKernels() throws IOException {
+    List<List<PointF3D>> queries = TestPoseSamples.queries();
+    SampleLayoutBenchmark.compareDistanceKernels(
+        readPoseSamples(CSV_FILE), "bundled", queries, /* rounds= */ 3);
+    SampleLayoutBenchmark.compareDistanceKernels(
+        jitteredSamples(CSV_FILE, 50_000, /* sigma= */ 0.05f, /* seed= */ 1), "50000 jittered",
+        queries.subList(0, 300), /* rounds= */ 2);
+  }
+}
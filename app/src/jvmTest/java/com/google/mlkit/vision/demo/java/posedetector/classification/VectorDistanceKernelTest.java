@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link VectorDistanceKernel}: it must keep the same nearest samples as
+ * {@link ScalarDistanceKernel}, at the same distances.
+ *
+ * <p>The samples are random embeddings of about the size of real ones, some of them repeated for
+ * ties, to cover more strides and ties than the bundled samples do; see
+ * {@link PoseClassifierVectorKernelTest} for those.
+ */
+@RunWith(JUnit4.class)
+public final class VectorDistanceKernelTest {
+  private static final int SAMPLES = 1000;
+  private static final int QUERIES = 200;
+  // All 23 embedding points, and selections of them that leave values after the last full vector.
+  private static final int[] STRIDES = {69, 48, 45, 6};
+
+  private final DistanceKernel vectorKernel = new VectorDistanceKernel();
+
+  @Test
+  public void getDefault_isVectorKernel() {
+    assertTrue(DistanceKernels.getDefault() instanceof VectorDistanceKernel);
+  }
+
+  @Test
+  public void offerMaxDistance_matchesScalarKernel() {
+    for (int stride : STRIDES) {
+      assertMatchesScalarKernel(stride, /* sum= */ false, /* k= */ 30);
+    }
+  }
+
+  @Test
+  public void offerSumDistance_matchesScalarKernel() {
+    for (int stride : STRIDES) {
+      assertMatchesScalarKernel(stride, /* sum= */ true, /* k= */ 10);
+    }
+  }
+
+  private void assertMatchesScalarKernel(int stride, boolean sum, int k) {
+    Random random = new Random(stride);
+    float[] samples = randomSamples(random, stride);
+    ClassificationStats scalarStats = new ClassificationStats();
+    ClassificationStats vectorStats = new ClassificationStats();
+    long abandoned = 0;
+    for (int q = 0; q < QUERIES; q++) {
+      // Half of the queries are samples themselves, at distance 0 from at least two rows.
+      float[] query = q % 2 == 0
+          ? Arrays.copyOfRange(samples, q * stride, (q + 1) * stride)
+          : randomEmbedding(random, stride);
+      float[] flippedQuery = query.clone();
+      for (int i = 0; i < stride; i += 3) {
+        flippedQuery[i] = -flippedQuery[i];
+      }
+      TopKHeap scalarHeap = new TopKHeap(k);
+      TopKHeap vectorHeap = new TopKHeap(k);
+      scalarStats.startFrame();
+      vectorStats.startFrame();
+      for (int row = 0; row < SAMPLES; row++) {
+        offer(ScalarDistanceKernel.INSTANCE, sum, samples, query, flippedQuery, row, scalarHeap,
+            scalarStats);
+        offer(vectorKernel, sum, samples, query, flippedQuery, row, vectorHeap, vectorStats);
+      }
+
+      assertArrayEquals("stride " + stride + ", query " + q,
+          sortedEntries(scalarHeap), sortedEntries(vectorHeap));
+      if (sum) {
+        // Sums are added up in the same order, so samples are abandoned at the same point too.
+        assertEquals(scalarStats.getLastFrameDimensionsEvaluated(),
+            vectorStats.getLastFrameDimensionsEvaluated());
+      }
+      abandoned += vectorStats.getLastFrameSamplesAbandoned();
+    }
+    assertTrue("Expected samples to be abandoned", abandoned > 0);
+  }
+
+  private static void offer(DistanceKernel kernel, boolean sum, float[] samples, float[] query,
+      float[] flippedQuery, int row, TopKHeap heap, ClassificationStats stats) {
+    if (sum) {
+      kernel.offerSumDistance(samples, query, flippedQuery, row, heap, stats);
+    } else {
+      kernel.offerMaxDistance(samples, query, flippedQuery, row, heap, stats);
+    }
+  }
+
+  /** {@code SAMPLES} rows, every tenth of them a copy of the row before. */
+  private static float[] randomSamples(Random random, int stride) {
+    float[] samples = new float[SAMPLES * stride];
+    for (int row = 0; row < SAMPLES; row++) {
+      float[] embedding = row % 10 == 1
+          ? Arrays.copyOfRange(samples, (row - 1) * stride, row * stride)
+          : randomEmbedding(random, stride);
+      System.arraycopy(embedding, 0, samples, row * stride, stride);
+    }
+    return samples;
+  }
+
+  /** Points of a normalized and weighted embedding: X and Y within a few units, Z shrunk. */
+  private static float[] randomEmbedding(Random random, int stride) {
+    float[] embedding = new float[stride];
+    for (int i = 0; i < stride; i += 3) {
+      embedding[i] = 2 * (float) random.nextGaussian();
+      embedding[i + 1] = 2 * (float) random.nextGaussian();
+      embedding[i + 2] = 0.2f * 2 * (float) random.nextGaussian();
+    }
+    return embedding;
+  }
+
+  /** Entries of {@code heap} ordered by distance and then by row, like {@link TopKHeap}. */
+  private static long[] sortedEntries(TopKHeap heap) {
+    long[] entries = new long[heap.size()];
+    for (int i = 0; i < heap.size(); i++) {
+      // Bits of non-negative floats order like the floats.
+      entries[i] = ((long) Float.floatToIntBits(heap.distanceAt(i)) << 32) | heap.rowAt(i);
+    }
+    Arrays.sort(entries);
+    return entries;
+  }
+}
@@ -51,6 +51,7 @@ import com.google.mlkit.vision.demo.CameraSourcePreview;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierWarmUp;
 import com.google.mlkit.vision.demo.java.texttospeech.TTSMessageListener;
 import com.google.mlkit.vision.demo.java.texttospeech.TextToSpeechUtil;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -87,6 +88,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String TAG = "LivePreviewActivity";
 
   private CameraSource cameraSource = null;
+  private PoseDetectorProcessor poseDetectorProcessor = null;
   private CameraSourcePreview preview;
   private GraphicOverlay graphicOverlay;
   private String selectedModel = POSE_DETECTION;
@@ -223,6 +225,14 @@ public final class LivePreviewActivity extends AppCompatActivity
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     Log.d(TAG, "onCreate");
+    if (PreferenceUtils.shouldPoseDetectionRunClassification(this)) {
+      // Load the pose classifier while the camera opens rather than on the first frame.
+      PoseClassifierWarmUp.start(
+          this,
+          /* isStreamMode = */ true,
+          /* condenseSamples = */ false,
+          PreferenceUtils.getPoseClassifierBackend(this));
+    }
     textToSpeechUtil = new TextToSpeechUtil(this);
 
     setContentView(R.layout.activity_vision_live_preview);
@@ -294,7 +304,8 @@ public final class LivePreviewActivity extends AppCompatActivity
           boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
           boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
           boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          cameraSource.setMachineLearningFrameProcessor(
+          int classifierBackend = PreferenceUtils.getPoseClassifierBackend(this);
+          poseDetectorProcessor =
                   new PoseDetectorProcessor(
                           this,
                           poseDetectorOptions,
@@ -306,7 +317,11 @@ public final class LivePreviewActivity extends AppCompatActivity
                           rescaleZ,
                           runClassification,
                           /* isStreamMode = */ true,
-                          this));
+                          classifierBackend,
+                          this);
+          poseDetectorProcessor.setActiveExercise(
+                  PreferenceUtils.getPoseClassifierExercise(this));
+          cameraSource.setMachineLearningFrameProcessor(poseDetectorProcessor);
           break;
         default:
           Log.e(TAG, "Unknown model: " + model);
@@ -350,6 +365,10 @@ public final class LivePreviewActivity extends AppCompatActivity
     super.onResume();
     Log.d(TAG, "onResume");
 //    createCameraSource(selectedModel);
+    if (poseDetectorProcessor != null) {
+      // The exercise may have been picked in the settings since.
+      poseDetectorProcessor.setActiveExercise(PreferenceUtils.getPoseClassifierExercise(this));
+    }
     startCameraSource();
   }
 
@@ -20,12 +20,14 @@ import android.content.Context;
 import android.os.Handler;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierWarmUp;
 import com.google.mlkit.vision.demo.java.posedetector.poseanalyzer.Pose2Analyzer;
 import com.google.mlkit.vision.demo.java.posedetector.poseanalyzer.Pose1Analyzer;
 import com.google.mlkit.vision.demo.java.posedetector.posevalidator.Pose1Validator;
@@ -43,6 +45,7 @@ import com.google.mlkit.vision.pose.PoseLandmark;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -58,6 +61,7 @@ public class PoseDetectorProcessor
   private final boolean rescaleZForVisualization;
   private final boolean runClassification;
   private final boolean isStreamMode;
+  private final int classifierBackend;
   private final Context context;
   private final Executor classificationExecutor;
   private final TTSMessageListener ttsMessageListener;
@@ -79,6 +83,12 @@ public class PoseDetectorProcessor
   private Pose pose;
 
   private PoseClassifierProcessor poseClassifierProcessor;
+  // Set from the UI thread, passed on to poseClassifierProcessor on the classification thread.
+  @Nullable private volatile String activeExercise;
+  // Null unless runClassification. Until it is ready, frames are shown without classification.
+  private final PoseClassifierWarmUp classifierWarmUp;
+  private final long createdNs = System.nanoTime();
+  private int framesNotClassified;
 
   private GraphicOverlay graphicOverlay;
 
@@ -112,6 +122,7 @@ public class PoseDetectorProcessor
           boolean rescaleZForVisualization,
           boolean runClassification,
           boolean isStreamMode,
+          int classifierBackend,
           TTSMessageListener ttsMessageListener
       ) {
     super(context);
@@ -124,9 +135,15 @@ public class PoseDetectorProcessor
     detector = PoseDetection.getClient(options);
     this.runClassification = runClassification;
     this.isStreamMode = isStreamMode;
+    this.classifierBackend = classifierBackend;
     this.context = context;
     this.ttsMessageListener = ttsMessageListener;
     classificationExecutor = Executors.newSingleThreadExecutor();
+    // Already started by the activity if it knew classification would run.
+    classifierWarmUp = runClassification
+        ? PoseClassifierWarmUp.start(
+            context, isStreamMode, /* condenseSamples= */ false, classifierBackend)
+        : null;
   }
 
   @Override
@@ -135,6 +152,15 @@ public class PoseDetectorProcessor
     detector.close();
   }
 
+  /**
+   * Restricts classification to {@code exercise} from the next frame on, or searches all of them
+   * again if null, see {@link PoseClassifierProcessor#setActiveExercise}. Can be called before the
+   * classifier is loaded and from any thread.
+   */
+  public void setActiveExercise(@Nullable String exercise) {
+    activeExercise = exercise;
+  }
+
   @Override
   protected Task<PoseWithClassification> detectInImage(InputImage image) {
     return detector
@@ -143,14 +169,7 @@ public class PoseDetectorProcessor
             classificationExecutor,
             task -> {
               Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
+              return new PoseWithClassification(pose, classify(pose));
             });
   }
 
@@ -162,17 +181,39 @@ public class PoseDetectorProcessor
             classificationExecutor,
             task -> {
               Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
+              return new PoseWithClassification(pose, classify(pose));
             });
   }
 
+  /**
+   * Classifies {@code pose} on the classification thread. Until the classifier has warmed up, the
+   * pose is shown without classification instead of holding up frames while it loads.
+   */
+  private List<String> classify(Pose pose) {
+    if (!runClassification) {
+      return new ArrayList<>();
+    }
+    if (poseClassifierProcessor == null) {
+      if (!classifierWarmUp.isReady()) {
+        framesNotClassified++;
+        return new ArrayList<>();
+      }
+      // Takes the warmed-up classifier from the cache.
+      poseClassifierProcessor = new PoseClassifierProcessor(
+          context, isStreamMode, /* condenseSamples= */ false, classifierBackend);
+      poseClassifierProcessor.setActiveExercise(activeExercise);
+      List<String> classificationResult = poseClassifierProcessor.getPoseResult(pose);
+      Log.i(TAG, String.format(Locale.US,
+          "First classified frame %.0f ms after processor creation, %.0f ms after warm-up start; "
+              + "%d frames shown without classification; warm-up %s",
+          (System.nanoTime() - createdNs) / 1e6f, classifierWarmUp.getElapsedMs(),
+          framesNotClassified, classifierWarmUp));
+      return classificationResult;
+    }
+    poseClassifierProcessor.setActiveExercise(activeExercise);
+    return poseClassifierProcessor.getPoseResult(pose);
+  }
+
   @Override
   protected void onSuccess(
       @NonNull PoseWithClassification poseWithClassification,
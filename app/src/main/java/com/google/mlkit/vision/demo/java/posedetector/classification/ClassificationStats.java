@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.util.Locale;
+
+/**
+ * Work counters of a {@link PoseClassifier}, for the last frame and accumulated since the last
+ * {@link #reset()}.
+ *
+ * <p>A "dimension" is one embedding point of one sample compared against the query (both
+ * orientations at once). An exhaustive search evaluates every dimension of every sample in the
+ * max-distance stage and of every survivor in the mean-distance stage; bound-based pruning stops a
+ * sample as soon as it can no longer make it into the top K ("abandoned"), and indexes rule out
+ * samples without evaluating them at all ("skipped").
+ */
+public class ClassificationStats {
+  private int lastSamples;
+  private int lastSamplesAbandoned;
+  private int lastSamplesSkipped;
+  private long lastDimensionsEvaluated;
+  private long lastDimensionsTotal;
+  private int lastEarlyExits;
+
+  private long frames;
+  private long samples;
+  private long samplesAbandoned;
+  private long samplesSkipped;
+  private long dimensionsEvaluated;
+  private long dimensionsTotal;
+  private long earlyExits;
+
+  void startFrame() {
+    lastSamples = 0;
+    lastSamplesAbandoned = 0;
+    lastSamplesSkipped = 0;
+    lastDimensionsEvaluated = 0;
+    lastDimensionsTotal = 0;
+    lastEarlyExits = 0;
+  }
+
+  /** Records one sample that evaluated {@code evaluated} out of {@code total} dimensions. */
+  void addSample(int evaluated, int total) {
+    lastSamples++;
+    lastDimensionsEvaluated += evaluated;
+    lastDimensionsTotal += total;
+    if (evaluated < total) {
+      lastSamplesAbandoned++;
+    }
+  }
+
+  /** Records samples that were ruled out without evaluating any of their dimensions. */
+  void addSkippedSamples(int count, int dimensionsPerSample) {
+    lastSamples += count;
+    lastSamplesSkipped += count;
+    lastDimensionsTotal += (long) count * dimensionsPerSample;
+  }
+
+  /** Records a frame whose mean-distance stage was skipped, see PoseClassifier#setEarlyExit. */
+  void addEarlyExit() {
+    lastEarlyExits++;
+  }
+
+  /** Adds the last-frame counters of {@code other}, e.g. a worker shard, to this frame. */
+  void addLastFrame(ClassificationStats other) {
+    lastSamples += other.lastSamples;
+    lastSamplesAbandoned += other.lastSamplesAbandoned;
+    lastSamplesSkipped += other.lastSamplesSkipped;
+    lastDimensionsEvaluated += other.lastDimensionsEvaluated;
+    lastDimensionsTotal += other.lastDimensionsTotal;
+  }
+
+  void endFrame() {
+    endFrames(1);
+  }
+
+  /** Ends a batch of {@code count} frames whose counters were recorded together. */
+  void endFrames(int count) {
+    frames += count;
+    samples += lastSamples;
+    samplesAbandoned += lastSamplesAbandoned;
+    samplesSkipped += lastSamplesSkipped;
+    dimensionsEvaluated += lastDimensionsEvaluated;
+    dimensionsTotal += lastDimensionsTotal;
+    earlyExits += lastEarlyExits;
+  }
+
+  public void reset() {
+    startFrame();
+    frames = 0;
+    samples = 0;
+    samplesAbandoned = 0;
+    samplesSkipped = 0;
+    dimensionsEvaluated = 0;
+    dimensionsTotal = 0;
+    earlyExits = 0;
+  }
+
+  /** Samples considered in the last frame over both stages, including skipped ones. */
+  public int getLastFrameSamples() {
+    return lastSamples;
+  }
+
+  /** Samples the last frame dropped before evaluating all of their dimensions. */
+  public int getLastFrameSamplesAbandoned() {
+    return lastSamplesAbandoned;
+  }
+
+  /** Samples the last frame ruled out without evaluating them. */
+  public int getLastFrameSamplesSkipped() {
+    return lastSamplesSkipped;
+  }
+
+  /** Percentage of samples the last frame skipped without evaluating them. */
+  public float getLastFrameSkippedPercent() {
+    return lastSamples == 0 ? 0f : 100f * lastSamplesSkipped / lastSamples;
+  }
+
+  public long getLastFrameDimensionsEvaluated() {
+    return lastDimensionsEvaluated;
+  }
+
+  /** Dimensions an exhaustive search would have evaluated in the last frame. */
+  public long getLastFrameDimensionsTotal() {
+    return lastDimensionsTotal;
+  }
+
+  /** Frames that skipped the mean-distance stage because the first stage was decisive. */
+  public long getEarlyExits() {
+    return earlyExits;
+  }
+
+  public long getFrames() {
+    return frames;
+  }
+
+  public long getSamples() {
+    return samples;
+  }
+
+  public long getSamplesAbandoned() {
+    return samplesAbandoned;
+  }
+
+  public long getSamplesSkipped() {
+    return samplesSkipped;
+  }
+
+  public long getDimensionsEvaluated() {
+    return dimensionsEvaluated;
+  }
+
+  public long getDimensionsTotal() {
+    return dimensionsTotal;
+  }
+
+  /** Fraction of dimensions evaluated since the last reset, in [0, 1]. */
+  public float getEvaluatedFraction() {
+    return dimensionsTotal == 0 ? 1f : (float) dimensionsEvaluated / dimensionsTotal;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "frames=%d, dims/frame=%.0f of %.0f (%.1f%%), samples/frame=%.1f "
+            + "(%.1f%% skipped, %.1f%% abandoned), early exits=%d",
+        frames,
+        frames == 0 ? 0f : (float) dimensionsEvaluated / frames,
+        frames == 0 ? 0f : (float) dimensionsTotal / frames,
+        100f * getEvaluatedFraction(),
+        frames == 0 ? 0f : (float) samples / frames,
+        samples == 0 ? 0f : 100f * samplesSkipped / samples,
+        samples == 0 ? 0f : 100f * samplesAbandoned / samples,
+        earlyExits);
+  }
+}
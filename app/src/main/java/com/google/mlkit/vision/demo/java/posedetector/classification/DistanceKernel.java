@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Inner loops of {@link PoseClassifier}: the distance from a weighted query, and its mirrored
+ * counterpart, to one sample of a {@link PoseSampleMatrix}.
+ *
+ * <p>Implementations must offer exactly the samples, with exactly the distances, that
+ * {@link ScalarDistanceKernel} offers, so that switching kernels never changes a result. They may
+ * abandon a sample at a different point, which only shows in {@link ClassificationStats}.
+ */
+interface DistanceKernel {
+  /**
+   * Offers sample {@code row} to {@code heap} by the min of its original and flipped max distance,
+   * unless both partial maxima already exceed {@code heap.bound()}.
+   */
+  void offerMaxDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats);
+
+  /**
+   * Offers sample {@code row} to {@code heap} by the min of its original and flipped sum of
+   * absolute differences, unless both partial sums already exceed {@code heap.bound()}.
+   */
+  void offerSumDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats);
+}
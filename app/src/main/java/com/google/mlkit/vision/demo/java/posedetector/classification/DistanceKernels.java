@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Picks the {@link DistanceKernel} for this runtime.
+ *
+ * <p>The Vector API kernel ({@code VectorDistanceKernel}) lives in {@code src/jvm/java} since the
+ * Android build cannot compile {@code jdk.incubator.vector}. The {@code classification-jvm} module
+ * compiles it against the app on JDK 17 and runs its tests and benchmarks with
+ * {@code --add-modules jdk.incubator.vector}, which is the only place it is picked up here.
+ * Everywhere else, including on Android and in the app's unit tests, the scalar kernel is used.
+ */
+final class DistanceKernels {
+  private static final String VECTOR_KERNEL_CLASS =
+      DistanceKernels.class.getPackage().getName() + ".VectorDistanceKernel";
+
+  private static DistanceKernel defaultKernel;
+
+  private DistanceKernels() {}
+
+  /** The fastest kernel available, looked up once. */
+  static synchronized DistanceKernel getDefault() {
+    if (defaultKernel == null) {
+      defaultKernel = loadVectorKernel();
+      if (defaultKernel == null) {
+        defaultKernel = ScalarDistanceKernel.INSTANCE;
+      }
+    }
+    return defaultKernel;
+  }
+
+  /** The Vector API kernel, or null if it is not compiled in or the Vector API is missing. */
+  static DistanceKernel loadVectorKernel() {
+    try {
+      return (DistanceKernel) Class.forName(VECTOR_KERNEL_CLASS)
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits pose samples by exercise, so that a workout whose exercise is known only searches the
+ * samples of that exercise.
+ *
+ * <p>The exercise of a class is its name up to the last underscore, e.g. {@code pushups} for
+ * {@code pushups_down} and {@code pushups_up}. The partition of an exercise holds all samples of
+ * its classes plus an "other" group: up to {@code otherSamplesPerClass} representatives of every
+ * other class, the samples closest to the centroids of that class's k-means cells. The other
+ * group keeps poses that are not part of the exercise from being forced into one of its classes,
+ * at a fraction of the samples: with 50 exercises of two classes each and two representatives per
+ * class, a partition is about 3% of the samples.
+ *
+ * <p>Partitions keep the class indices and names of the source samples, so results name the same
+ * classes as a search over all samples.
+ */
+public final class ExercisePartitions {
+  private final List<String> exercises;
+  private final Map<String, PoseSampleMatrix> partitions;
+  private final int sampleCount;
+
+  /**
+   * Partitions {@code sampleMatrix}, leaving out removed samples. The source matrix is not
+   * referenced afterwards.
+   */
+  public ExercisePartitions(PoseSampleMatrix sampleMatrix, int otherSamplesPerClass) {
+    this(sampleMatrix, otherSamplesPerClass, Collections.<String, int[]>emptyMap());
+  }
+
+  /**
+   * Partitions {@code sampleMatrix} like {@link #ExercisePartitions(PoseSampleMatrix, int)}, then
+   * keeps only the embedding points in {@code dimensionsByExercise} of exercises that have an
+   * entry, see {@code EmbeddingDimensionSelector}. Representatives are picked over all points.
+   */
+  public ExercisePartitions(PoseSampleMatrix sampleMatrix, int otherSamplesPerClass,
+      Map<String, int[]> dimensionsByExercise) {
+    Preconditions.checkArgument(otherSamplesPerClass >= 0,
+        "Negative number of other samples: %s", otherSamplesPerClass);
+    if (sampleMatrix.removedCount() > 0) {
+      int[] liveRows = new int[sampleMatrix.size() - sampleMatrix.removedCount()];
+      int live = 0;
+      for (int row = 0; row < sampleMatrix.size(); row++) {
+        if (!sampleMatrix.isRemoved(row)) {
+          liveRows[live++] = row;
+        }
+      }
+      sampleMatrix = sampleMatrix.select(liveRows);
+    }
+    this.sampleCount = sampleMatrix.size();
+
+    List<String> exercises = new ArrayList<>();
+    int[] classExercises = new int[sampleMatrix.classCount()];
+    for (int c = 0; c < classExercises.length; c++) {
+      String exercise = exerciseOf(sampleMatrix.getClassNameForIndex(c));
+      int index = exercises.indexOf(exercise);
+      if (index < 0) {
+        index = exercises.size();
+        exercises.add(exercise);
+      }
+      classExercises[c] = index;
+    }
+
+    boolean[] representatives = new boolean[sampleCount];
+    if (otherSamplesPerClass > 0 && sampleCount > 0) {
+      SampleGroupIndex cells =
+          SampleGroupIndex.build(sampleMatrix, otherSamplesPerClass, /* seed= */ 0);
+      for (int g = 0; g < cells.groupCount(); g++) {
+        representatives[cells.medoidRow(sampleMatrix.embeddings(), g)] = true;
+      }
+    }
+
+    this.partitions = new HashMap<>();
+    int[] rows = new int[sampleCount];
+    for (int e = 0; e < exercises.size(); e++) {
+      int count = 0;
+      for (int row = 0; row < sampleCount; row++) {
+        if (classExercises[sampleMatrix.getClassIndex(row)] == e || representatives[row]) {
+          rows[count++] = row;
+        }
+      }
+      int[] partitionRows = new int[count];
+      System.arraycopy(rows, 0, partitionRows, 0, count);
+      PoseSampleMatrix partition = sampleMatrix.select(partitionRows);
+      int[] dimensions = dimensionsByExercise.get(exercises.get(e));
+      partitions.put(exercises.get(e),
+          dimensions != null ? partition.selectDimensions(dimensions) : partition);
+    }
+    this.exercises = Collections.unmodifiableList(exercises);
+  }
+
+  /** The exercise a class belongs to: its name up to the last underscore, if any. */
+  public static String exerciseOf(String className) {
+    int end = className.lastIndexOf('_');
+    return end > 0 ? className.substring(0, end) : className;
+  }
+
+  /** All exercises, in the order their first class appears in the samples. */
+  public List<String> getExercises() {
+    return exercises;
+  }
+
+  /** The samples to search while {@code exercise} is in progress, or null if it has none. */
+  @Nullable
+  public PoseSampleMatrix getSamples(String exercise) {
+    return partitions.get(exercise);
+  }
+
+  /** Number of samples that were partitioned. */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Classifies a stream of poses in two levels, for when the exercise in progress is not known.
+ *
+ * <p>The first level finds the exercise with a {@link NearestCentroidClassifier}: the exercise,
+ * see {@link ExercisePartitions#exerciseOf}, of the class with the nearest centroid. The second
+ * level runs the kNN {@link PoseClassifier} over that exercise's samples only, to tell e.g.
+ * {@code pushups_up} from {@code pushups_down}.
+ *
+ * <p>Exercises change far less often than frames, so the first level only runs on the first
+ * frame, every {@code exerciseCheckInterval} frames after that, and on the frame after the second
+ * level's top class got fewer than {@code minConfidence} of its {@link #confidenceRange()} votes,
+ * which is a hint that the pose no longer fits the exercise. Frames in between only pay for the
+ * second level, over a fraction of the samples.
+ *
+ * <p>Not thread safe, and meant for a single stream: which exercise is current carries over from
+ * frame to frame.
+ */
+public class HierarchicalPoseClassifier implements PoseClassificationBackend {
+  private final NearestCentroidClassifier exerciseClassifier;
+  private final Map<String, PoseClassifier> stateClassifiers = new HashMap<>();
+  private final int exerciseCheckInterval;
+  private final float minConfidence;
+
+  private PoseClassifier stateClassifier;
+  private int framesSinceExerciseCheck;
+  private boolean lowConfidence;
+  private long frames;
+  private long exerciseChecks;
+  private long exerciseChanges;
+
+  /**
+   * Builds both levels from {@code sampleMatrix}, which must not be empty; the first with
+   * {@code cellsPerClass} centroids per class, the second with the same number of
+   * {@link SampleGroupIndex} cells per class.
+   *
+   * @param exerciseCheckInterval frames after which the exercise is found again; 1 finds it every
+   *     frame
+   * @param minConfidence fraction of the votes below which the exercise is found again on the
+   *     next frame
+   */
+  public HierarchicalPoseClassifier(PoseSampleMatrix sampleMatrix, int cellsPerClass,
+      int exerciseCheckInterval, float minConfidence) {
+    Preconditions.checkArgument(exerciseCheckInterval >= 1,
+        "Exercise check interval must be positive: %s", exerciseCheckInterval);
+    this.exerciseClassifier = new NearestCentroidClassifier(sampleMatrix, cellsPerClass);
+    ExercisePartitions partitions =
+        new ExercisePartitions(sampleMatrix, /* otherSamplesPerClass= */ 0);
+    for (String exercise : partitions.getExercises()) {
+      PoseSampleMatrix samples = partitions.getSamples(exercise);
+      PoseClassifier classifier = new PoseClassifier(samples);
+      classifier.setSampleGroups(SampleGroupIndex.build(samples, cellsPerClass, /* seed= */ 0));
+      classifier.setEarlyExit(/* margin= */ 0);
+      stateClassifiers.put(exercise, classifier);
+    }
+    this.exerciseCheckInterval = exerciseCheckInterval;
+    this.minConfidence = minConfidence;
+  }
+
+  private HierarchicalPoseClassifier(HierarchicalPoseClassifier other) {
+    this.exerciseClassifier = other.exerciseClassifier.newInstance();
+    for (Map.Entry<String, PoseClassifier> entry : other.stateClassifiers.entrySet()) {
+      stateClassifiers.put(entry.getKey(), entry.getValue().newInstance());
+    }
+    this.exerciseCheckInterval = other.exerciseCheckInterval;
+    this.minConfidence = other.minConfidence;
+  }
+
+  @Override
+  public String getName() {
+    return "hierarchical";
+  }
+
+  /** Starts without a current exercise, and with counters at zero. */
+  @Override
+  public HierarchicalPoseClassifier newInstance() {
+    return new HierarchicalPoseClassifier(this);
+  }
+
+  @Override
+  public ClassificationResult classify(List<PointF3D> landmarks) {
+    // Return early if no landmarks detected.
+    if (landmarks.isEmpty()) {
+      return new ClassificationResult();
+    }
+
+    frames++;
+    if (stateClassifier == null || lowConfidence
+        || framesSinceExerciseCheck >= exerciseCheckInterval) {
+      String exercise = ExercisePartitions.exerciseOf(
+          exerciseClassifier.classify(landmarks).getMaxConfidenceClass());
+      PoseClassifier classifier = stateClassifiers.get(exercise);
+      if (classifier != stateClassifier) {
+        exerciseChanges++;
+      }
+      stateClassifier = classifier;
+      framesSinceExerciseCheck = 0;
+      exerciseChecks++;
+    }
+    framesSinceExerciseCheck++;
+
+    ClassificationResult result = stateClassifier.classify(landmarks);
+    lowConfidence = result.getClassConfidence(result.getMaxConfidenceClass())
+        < minConfidence * stateClassifier.confidenceRange();
+    return result;
+  }
+
+  @Override
+  public int confidenceRange() {
+    return PoseClassifier.MEAN_DISTANCE_TOP_K;
+  }
+
+  @Override
+  public long getSizeBytes() {
+    long sizeBytes = exerciseClassifier.getSizeBytes();
+    for (PoseClassifier classifier : stateClassifiers.values()) {
+      sizeBytes += classifier.getSizeBytes();
+    }
+    return sizeBytes;
+  }
+
+  /** Frames classified so far. */
+  public long getFrames() {
+    return frames;
+  }
+
+  /** Frames on which the first level ran. */
+  public long getExerciseChecks() {
+    return exerciseChecks;
+  }
+
+  /** Times the first level switched to another exercise. */
+  public long getExerciseChanges() {
+    return exerciseChanges;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "frames=%d, exercise checks=%d (%.1f%%), changes=%d", frames,
+        exerciseChecks, frames == 0 ? 0f : 100f * exerciseChecks / frames, exerciseChanges);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Skips classification of stream frames whose pose has not moved since the last classified frame,
+ * e.g. while a pose is held or between sets, and hands out that frame's result again instead.
+ *
+ * <p>Landmarks are compared after the translation and scale normalization of
+ * {@link PoseEmbedding}, i.e. in units of 1% of the pose size, by the largest change of any
+ * coordinate, with the classifier's axes weights applied. A frame reuses the last result while it
+ * is within {@code epsilon} of the last classified frame, not of the previous one, so slow drift
+ * still leads to a new classification; and at most {@code maxReuseFrames} frames in a row.
+ *
+ * <p>Counters cover the whole session: frames seen, frames skipped, and the classification time
+ * those skips saved, estimated from the mean time of the classified frames.
+ */
+public class MotionGate {
+  private static final float DEFAULT_EPSILON = 1f;
+  private static final int DEFAULT_MAX_REUSE_FRAMES = 5;
+
+  private final float epsilon;
+  private final int maxReuseFrames;
+  private final PointF3D axesWeights;
+
+  // Normalized packed poses, see PoseEmbedding; swapped when a frame is classified.
+  private float[] currentLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+  private float[] referenceLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+  private boolean hasCurrent;
+  private boolean hasReference;
+  private ClassificationResult referenceResult;
+  private int reuseCount;
+
+  private long frames;
+  private long skippedFrames;
+  private long classifiedFrames;
+  private long classifiedNs;
+  private long gateNs;
+
+  public MotionGate() {
+    this(DEFAULT_EPSILON, DEFAULT_MAX_REUSE_FRAMES);
+  }
+
+  /**
+   * @param epsilon largest change of any weighted, normalized coordinate, in 1% of the pose size,
+   *     that still counts as the same pose; 0 only reuses results for identical landmarks
+   * @param maxReuseFrames frames in a row that may reuse a result before one is classified again
+   */
+  public MotionGate(float epsilon, int maxReuseFrames) {
+    Preconditions.checkArgument(epsilon >= 0, "Negative epsilon %s", epsilon);
+    Preconditions.checkArgument(maxReuseFrames >= 0, "Negative reuse age %s", maxReuseFrames);
+    this.epsilon = epsilon;
+    this.maxReuseFrames = maxReuseFrames;
+    this.axesWeights = PoseClassifier.AXES_WEIGHTS;
+  }
+
+  /**
+   * Returns the last classified result if {@code landmarks} can reuse it, or null if they have to
+   * be classified, in which case {@link #onClassified} must follow.
+   */
+  @Nullable
+  public ClassificationResult reuse(List<PointF3D> landmarks) {
+    long startNs = System.nanoTime();
+    frames++;
+    hasCurrent = !landmarks.isEmpty();
+    if (hasCurrent) {
+      PoseEmbedding.packLandmarks(landmarks, currentLandmarks, 0);
+      PoseEmbedding.normalize(currentLandmarks);
+    }
+    boolean reusable = hasCurrent
+        && hasReference
+        && reuseCount < maxReuseFrames
+        && maxChange(currentLandmarks, referenceLandmarks) <= epsilon;
+    gateNs += System.nanoTime() - startNs;
+    if (!reusable) {
+      return null;
+    }
+    reuseCount++;
+    skippedFrames++;
+    return referenceResult;
+  }
+
+  /**
+   * Records the result of classifying the landmarks last passed to {@link #reuse}, which took
+   * {@code elapsedNs}.
+   */
+  public void onClassified(ClassificationResult result, long elapsedNs) {
+    float[] swap = referenceLandmarks;
+    referenceLandmarks = currentLandmarks;
+    currentLandmarks = swap;
+    hasReference = hasCurrent;
+    hasCurrent = false;
+    referenceResult = result;
+    reuseCount = 0;
+    classifiedFrames++;
+    classifiedNs += elapsedNs;
+  }
+
+  /**
+   * Forgets the last classified result, e.g. because the classifier changed, so that the next
+   * frame is classified again.
+   */
+  public void invalidate() {
+    hasReference = false;
+    referenceResult = null;
+  }
+
+  private float maxChange(float[] a, float[] b) {
+    float change = 0;
+    for (int i = 0; i < a.length; i += 3) {
+      change = max(change, max(abs(a[i] - b[i]) * axesWeights.getX(),
+          max(abs(a[i + 1] - b[i + 1]) * axesWeights.getY(),
+              abs(a[i + 2] - b[i + 2]) * axesWeights.getZ())));
+    }
+    return change;
+  }
+
+  public long getFrames() {
+    return frames;
+  }
+
+  /** Frames that reused the last result instead of being classified. */
+  public long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  public float getSkippedPercent() {
+    return frames == 0 ? 0f : 100f * skippedFrames / frames;
+  }
+
+  /** Classification time saved by skipped frames, at the mean time of the classified frames. */
+  public long getSavedNs() {
+    return classifiedFrames == 0 ? 0 : skippedFrames * classifiedNs / classifiedFrames;
+  }
+
+  /** Time spent deciding whether frames can be skipped. */
+  public long getGateNs() {
+    return gateNs;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "frames=%d, skipped=%d (%.1f%%), saved %.1f ms of classification for %.1f ms of gating",
+        frames, skippedFrames, getSkippedPercent(), getSavedNs() / 1e6f, gateNs / 1e6f);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.List;
+
+/**
+ * Classifies a pose by its nearest class centroid instead of its nearest samples.
+ *
+ * <p>Every class is split into up to {@code cellsPerClass} k-means cells, see
+ * {@link SampleGroupIndex#build}, so that e.g. left and right facing samples of a class are not
+ * averaged into one blurred pose. A query is compared with every centroid by the mean distance of
+ * {@link PoseClassifier}'s second stage, mirrored or not, and the class of the nearest centroid
+ * gets all {@link #confidenceRange()} votes. This costs a few dozen distances per frame however
+ * many samples there are, at the price of accuracy near class boundaries.
+ */
+public class NearestCentroidClassifier implements PoseClassificationBackend {
+  private final int stride;
+  private final int centroidCount;
+  private final float[] centroids;
+  private final int[] centroidClasses;
+  private final String[] classNames;
+  private final PointF3D axesWeights;
+  private final int confidenceRange;
+
+  // Per-frame scratch, reused across calls to classify().
+  private final float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+  private final float[] query;
+
+  public NearestCentroidClassifier(PoseSampleMatrix sampleMatrix, int cellsPerClass) {
+    this(sampleMatrix, cellsPerClass, PoseClassifier.MEAN_DISTANCE_TOP_K);
+  }
+
+  /**
+   * Computes the centroids of {@code sampleMatrix}; the samples are not referenced afterwards. The
+   * nearest class gets {@code confidenceRange} votes. Without samples, every result is empty.
+   */
+  public NearestCentroidClassifier(
+      PoseSampleMatrix sampleMatrix, int cellsPerClass, int confidenceRange) {
+    Preconditions.checkArgument(sampleMatrix.removedCount() == 0,
+        "Expected a sample set without removed samples");
+    SampleGroupIndex groups = sampleMatrix.size() == 0
+        ? null : SampleGroupIndex.build(sampleMatrix, cellsPerClass, /* seed= */ 0);
+    // The query always has every embedding point, whether or not there are samples.
+    this.stride = groups == null ? 3 * PoseEmbedding.DIMENSIONS : sampleMatrix.stride();
+    this.centroidCount = groups == null ? 0 : groups.groupCount();
+    this.centroids = groups == null ? new float[0] : groups.centroids();
+    this.centroidClasses = new int[centroidCount];
+    for (int g = 0; g < centroidCount; g++) {
+      centroidClasses[g] = groups.getGroupClass(g);
+    }
+    this.classNames = new String[sampleMatrix.classCount()];
+    for (int c = 0; c < classNames.length; c++) {
+      classNames[c] = sampleMatrix.getClassNameForIndex(c);
+    }
+    this.axesWeights = sampleMatrix.getAxesWeights();
+    this.confidenceRange = confidenceRange;
+    this.query = new float[stride];
+  }
+
+  private NearestCentroidClassifier(NearestCentroidClassifier other) {
+    this.stride = other.stride;
+    this.centroidCount = other.centroidCount;
+    this.centroids = other.centroids;
+    this.centroidClasses = other.centroidClasses;
+    this.classNames = other.classNames;
+    this.axesWeights = other.axesWeights;
+    this.confidenceRange = other.confidenceRange;
+    this.query = new float[stride];
+  }
+
+  @Override
+  public String getName() {
+    return "nearest centroid";
+  }
+
+  @Override
+  public NearestCentroidClassifier newInstance() {
+    return new NearestCentroidClassifier(this);
+  }
+
+  @Override
+  public ClassificationResult classify(List<PointF3D> landmarks) {
+    ClassificationResult result = new ClassificationResult();
+    // Return early if no landmarks detected.
+    if (landmarks.isEmpty()) {
+      return result;
+    }
+
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, query, 0);
+    PoseSampleMatrix.applyWeights(query, 0, query.length, axesWeights);
+    int nearest = -1;
+    float nearestDistance = Float.POSITIVE_INFINITY;
+    for (int g = 0; g < centroidCount; g++) {
+      // The mirrored query only negates X, so both distances are summed in one pass.
+      float distance = 0;
+      float flippedDistance = 0;
+      int offset = g * stride;
+      for (int i = 0; i < stride; i += 3) {
+        float centroidX = centroids[offset + i];
+        float common = abs(query[i + 1] - centroids[offset + i + 1])
+            + abs(query[i + 2] - centroids[offset + i + 2]);
+        distance += abs(query[i] - centroidX) + common;
+        flippedDistance += abs(query[i] + centroidX) + common;
+      }
+      distance = min(distance, flippedDistance);
+      if (distance < nearestDistance) {
+        nearestDistance = distance;
+        nearest = g;
+      }
+    }
+    if (nearest < 0) {
+      // No centroids, or no distance was finite, e.g. for landmarks with NaN coordinates.
+      return result;
+    }
+    result.putClassConfidence(classNames[centroidClasses[nearest]], confidenceRange);
+    return result;
+  }
+
+  @Override
+  public int confidenceRange() {
+    return confidenceRange;
+  }
+
+  @Override
+  public long getSizeBytes() {
+    return 4L * centroidCount * (stride + 1);
+  }
+
+  /** Number of centroids, i.e. distances computed per frame. */
+  public int getCentroidCount() {
+    return centroidCount;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the max-distance stage of {@link PoseClassifier} over shards of the sample matrix in
+ * parallel. Every shard keeps a local top K, and the local results are merged into the caller's
+ * heap. Heap entries are totally ordered by (distance, row), so the merged top K is exactly the one
+ * a serial scan finds.
+ *
+ * <p>The calling thread scans the first shard itself, the others go to a fixed pool. Each
+ * {@link PoseClassifier} needs its own instance since the shard heaps are reused across frames;
+ * the pool can be shared.
+ */
+public class ParallelSampleScan {
+  private static final String TAG = "ParallelSampleScan";
+  // Below this many samples the hand-off to other threads costs more than it saves.
+  private static final int DEFAULT_MIN_SAMPLES = 2048;
+  // Keep shards big enough to amortize the hand-off and fill their local heaps quickly.
+  private static final int MIN_ROWS_PER_SHARD = 512;
+  private static final String CPU_DIR = "/sys/devices/system/cpu";
+
+  private static ExecutorService defaultExecutor;
+
+  private final ExecutorService executor;
+  private final int shardCount;
+  private final int minSamples;
+  private final Shard[] shards;
+  private final Future<?>[] futures;
+
+  // Inputs of the frame being scanned, published to the workers by submit().
+  private DistanceKernel kernel;
+  private PoseSampleMatrix sampleMatrix;
+  private float[] query;
+  private float[] flippedQuery;
+
+  /**
+   * Uses one shard per big CPU core and a process-wide pool, which is only started once a sample
+   * set is large enough to be scanned in parallel.
+   */
+  public ParallelSampleScan() {
+    this(null, getBigCoreCount(), DEFAULT_MIN_SAMPLES);
+  }
+
+  /**
+   * @param executor runs shards {@code 1..shardCount-1}, or null for the process-wide pool; needs
+   *     at least {@code shardCount - 1} threads to reach full parallelism
+   * @param shardCount number of shards, including the one scanned by the calling thread
+   * @param minSamples sample count below which {@link PoseClassifier} keeps scanning serially
+   */
+  public ParallelSampleScan(ExecutorService executor, int shardCount, int minSamples) {
+    this.executor = executor;
+    this.shardCount = max(1, shardCount);
+    this.minSamples = minSamples;
+    this.shards = new Shard[this.shardCount];
+    this.futures = new Future<?>[this.shardCount];
+  }
+
+  /** A scan with the same executor and shard count, and shard heaps of its own. */
+  ParallelSampleScan newInstance() {
+    return new ParallelSampleScan(executor, shardCount, minSamples);
+  }
+
+  public int getMinSamples() {
+    return minSamples;
+  }
+
+  public int getShardCount() {
+    return shardCount;
+  }
+
+  /** Offers every row of {@code sampleMatrix} to {@code heap}, which must be empty. */
+  void scan(DistanceKernel kernel, PoseSampleMatrix sampleMatrix, float[] query,
+      float[] flippedQuery, TopKHeap heap, ClassificationStats stats) {
+    int size = sampleMatrix.size();
+    int activeShards = min(shardCount, max(1, size / MIN_ROWS_PER_SHARD));
+    // Shards start from the ceiling of the caller's heap, if any, so they prune as tightly.
+    float ceiling = heap.bound();
+    this.kernel = kernel;
+    this.sampleMatrix = sampleMatrix;
+    this.query = query;
+    this.flippedQuery = flippedQuery;
+
+    int rowsPerShard = (size + activeShards - 1) / activeShards;
+    for (int s = 0; s < activeShards; s++) {
+      Shard shard = shards[s];
+      if (shard == null || shard.heap.capacity() != heap.capacity()) {
+        shard = new Shard(heap.capacity());
+        shards[s] = shard;
+      }
+      shard.ceiling = ceiling;
+      shard.fromRow = min(size, s * rowsPerShard);
+      shard.toRow = min(size, shard.fromRow + rowsPerShard);
+    }
+    ExecutorService shardExecutor = executor != null ? executor : getDefaultExecutor();
+    try {
+      for (int s = 1; s < activeShards; s++) {
+        futures[s] = shardExecutor.submit(shards[s]);
+      }
+      shards[0].call();
+      for (int s = 1; s < activeShards; s++) {
+        futures[s].get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning pose samples", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Pose sample scan failed", e.getCause());
+    } finally {
+      for (int s = 1; s < activeShards; s++) {
+        futures[s] = null;
+      }
+      this.kernel = null;
+      this.sampleMatrix = null;
+      this.query = null;
+      this.flippedQuery = null;
+    }
+
+    for (int s = 0; s < activeShards; s++) {
+      TopKHeap shardHeap = shards[s].heap;
+      for (int i = 0; i < shardHeap.size(); i++) {
+        heap.offer(shardHeap.distanceAt(i), shardHeap.rowAt(i));
+      }
+      stats.addLastFrame(shards[s].stats);
+    }
+  }
+
+  private final class Shard implements Callable<Void> {
+    private final TopKHeap heap;
+    private final ClassificationStats stats = new ClassificationStats();
+    private float ceiling;
+    private int fromRow;
+    private int toRow;
+
+    Shard(int topK) {
+      heap = new TopKHeap(topK);
+    }
+
+    @Override
+    public Void call() {
+      heap.clear(ceiling);
+      stats.startFrame();
+      PoseClassifier.scanMaxDistance(
+          kernel, sampleMatrix, query, flippedQuery, fromRow, toRow, heap, stats);
+      return null;
+    }
+  }
+
+  private static synchronized ExecutorService getDefaultExecutor() {
+    if (defaultExecutor == null) {
+      int bigCores = getBigCoreCount();
+      // The calling thread scans one shard itself.
+      defaultExecutor =
+          Executors.newFixedThreadPool(max(1, bigCores - 1), new ScanThreadFactory());
+      Log.d(TAG, "Started parallel scan pool for " + bigCores + " big cores");
+    }
+    return defaultExecutor;
+  }
+
+  /**
+   * Counts the cores outside the slowest cluster on big.LITTLE devices, i.e. the cores whose max
+   * frequency is above the lowest max frequency. Falls back to all cores if frequencies are not
+   * readable or all cores are alike.
+   */
+  static int getBigCoreCount() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    long[] maxFrequencies = new long[cores];
+    long lowest = Long.MAX_VALUE;
+    try {
+      for (int cpu = 0; cpu < cores; cpu++) {
+        File file = new File(CPU_DIR + "/cpu" + cpu + "/cpufreq/cpuinfo_max_freq");
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+          maxFrequencies[cpu] = Long.parseLong(reader.readLine().trim());
+        }
+        lowest = min(lowest, maxFrequencies[cpu]);
+      }
+    } catch (IOException | RuntimeException e) {
+      return cores;
+    }
+    int bigCores = 0;
+    for (long frequency : maxFrequencies) {
+      if (frequency > lowest) {
+        bigCores++;
+      }
+    }
+    return bigCores == 0 ? cores : bigCores;
+  }
+
+  private static class ScanThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PoseSampleScan-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
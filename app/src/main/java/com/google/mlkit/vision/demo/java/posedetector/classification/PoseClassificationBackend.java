@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.List;
+
+/**
+ * Turns the landmarks of one pose into per-class confidences. {@link PoseClassifierProcessor}
+ * smooths them with {@link EMASmoothing} and counts reps with {@link RepetitionCounter}, so every
+ * backend reports confidences on the scale of the kNN {@link PoseClassifier}: from 0 to
+ * {@link #confidenceRange()}, summing to at most that, with the {@link RepetitionCounter}
+ * thresholds meaning the same thing.
+ *
+ * <p>Implementations are not expected to be thread safe; use one instance per classification
+ * thread, e.g. from {@link #newInstance()}.
+ */
+public interface PoseClassificationBackend {
+  /** Short name for logs and benchmarks. */
+  String getName();
+
+  /**
+   * Classifies the 33 landmarks of a pose, as returned by ML Kit. Returns an empty result if
+   * {@code landmarks} is empty.
+   */
+  ClassificationResult classify(List<PointF3D> landmarks);
+
+  /** The highest confidence a class can get. */
+  int confidenceRange();
+
+  /** Approximate bytes of samples or weights the backend holds on to. */
+  long getSizeBytes();
+
+  /**
+   * A backend with the same settings that shares this one's samples or weights, which are never
+   * modified, but has scratch buffers and stream state of its own. Nothing is loaded or
+   * recomputed, so this is cheap; see {@link PoseClassifierCache}.
+   */
+  PoseClassificationBackend newInstance();
+}
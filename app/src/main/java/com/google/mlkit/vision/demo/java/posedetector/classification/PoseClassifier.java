@@ -16,40 +16,87 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
-import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getPoseEmbedding;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.maxAbs;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiply;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.sumAbs;
-import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import android.util.Pair;
+import com.google.common.base.Preconditions;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * Classifies {link Pose} based on given {@link PoseSample}s.
  *
  * <p>Inspired by K-Nearest Neighbors Algorithm with outlier filtering.
  * https://en.wikipedia.org/wiki/K-nearest_neighbors_algorithm
+ *
+ * <p>Not thread safe: {@link #classify} reuses per-instance scratch buffers so that the search
+ * itself does not allocate. Use one instance per classification thread.
+ *
+ * <p>Samples are either kept as floats in a {@link PoseSampleMatrix}, or as bytes in a
+ * {@link QuantizedSampleMatrix} for devices short on memory. Indexes and parallel scans are only
+ * available on float samples.
  */
-public class PoseClassifier {
+public class PoseClassifier implements PoseClassificationBackend {
   private static final String TAG = "PoseClassifier";
-  private static final int MAX_DISTANCE_TOP_K = 30;
-  private static final int MEAN_DISTANCE_TOP_K = 10;
+  static final int MAX_DISTANCE_TOP_K = 30;
+  static final int MEAN_DISTANCE_TOP_K = 10;
   // Note Z has a lower weight as it is generally less accurate than X & Y.
-  private static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+  static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+  // Values per frame in the packed landmarks taken by classifyBatch(): x, y, z of 33 landmarks.
+  private static final int BATCH_FRAME_VALUES = PoseEmbedding.PACKED_LANDMARK_VALUES;
+  // classifyBatch() compares blocks of this many frames against blocks of this many samples, so a
+  // sample block (about 35 KB) stays in cache while every frame of the block is scanned over it.
+  private static final int BATCH_FRAME_BLOCK = 16;
+  private static final int BATCH_SAMPLE_BLOCK = 128;
+
+  /** Margin for {@link #setEarlyExit} that always runs the mean-distance stage. */
+  public static final int EARLY_EXIT_OFF = -1;
 
-  private final List<PoseSample> poseSamples;
+  // Swapped for the store's latest snapshot at the start of a frame if there is a store.
+  private PoseSampleMatrix sampleMatrix;
+  private final QuantizedSampleMatrix quantizedSamples;
+  private final PoseSampleStore sampleStore;
+  private PoseSampleStore.Snapshot storeSnapshot;
   private final int maxDistanceTopK;
   private final int meanDistanceTopK;
   private final PointF3D axesWeights;
+  // Embedding points the samples hold, or null for all of them.
+  private final int[] embeddingDimensions;
+
+  // Per-frame scratch, reused across calls to classify().
+  private final float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+  private final float[] query;
+  private final float[] flippedQuery;
+  private final long[] queryLanes;
+  private final TopKHeap maxDistances;
+  private final TopKHeap meanDistances;
+  private final ClassificationStats stats = new ClassificationStats();
+  private DistanceKernel distanceKernel = DistanceKernels.getDefault();
+  private ParallelSampleScan parallelScan;
+  private VantagePointTree sampleIndex;
+  private SampleGroupIndex sampleGroups;
+  private float[] groupBounds;
+  private float[] groupKeys;
+  private int[] groupOrder;
+  private int[] visitStamps;
+  private int visitStamp;
+  // See setEarlyExit(). The decisive class of the current frame, or -1 if stage two ran.
+  private int earlyExitMargin = EARLY_EXIT_OFF;
+  private int[] survivorVotes;
+  private int earlyExitClass = -1;
+  private int earlyExitVotes;
+  // Top K rows of the previous frame's max-distance stage, see setTemporalSeeding().
+  private boolean temporalSeeding;
+  private int[] seedRows;
+  private int seedCount;
+  private TopKHeap seedDistances;
+  // Scratch of classifyBatch(), allocated on first use.
+  private float[][] batchQueries;
+  private float[][] batchFlippedQueries;
+  private TopKHeap[] batchMaxDistances;
 
   public PoseClassifier(List<PoseSample> poseSamples) {
     this(poseSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
@@ -57,10 +104,87 @@ public class PoseClassifier {
 
   public PoseClassifier(List<PoseSample> poseSamples, int maxDistanceTopK,
       int meanDistanceTopK, PointF3D axesWeights) {
-    this.poseSamples = poseSamples;
+    this(new PoseSampleMatrix(poseSamples, axesWeights), maxDistanceTopK, meanDistanceTopK);
+  }
+
+  public PoseClassifier(PoseSampleMatrix sampleMatrix) {
+    this(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+  }
+
+  /** Creates a classifier over an already packed sample matrix; its axes weights are reused. */
+  public PoseClassifier(PoseSampleMatrix sampleMatrix, int maxDistanceTopK,
+      int meanDistanceTopK) {
+    this(sampleMatrix, /* sampleStore= */ null, maxDistanceTopK, meanDistanceTopK);
+  }
+
+  public PoseClassifier(PoseSampleStore sampleStore) {
+    this(sampleStore, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+  }
+
+  /**
+   * Creates a classifier over the samples of {@code sampleStore} as they change. Each frame is
+   * classified with the store's latest snapshot, and its sample groups if it has any; a
+   * {@link VantagePointTree} cannot be set.
+   */
+  public PoseClassifier(PoseSampleStore sampleStore, int maxDistanceTopK, int meanDistanceTopK) {
+    this(sampleStore.snapshot().getSampleMatrix(), sampleStore, maxDistanceTopK,
+        meanDistanceTopK);
+  }
+
+  private PoseClassifier(PoseSampleMatrix sampleMatrix, PoseSampleStore sampleStore,
+      int maxDistanceTopK, int meanDistanceTopK) {
+    this.sampleMatrix = sampleMatrix;
+    this.quantizedSamples = null;
+    this.sampleStore = sampleStore;
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+    this.axesWeights = sampleMatrix.getAxesWeights();
+    this.embeddingDimensions = sampleMatrix.getEmbeddingDimensions();
+    this.query = new float[queryLength(sampleMatrix.stride(), embeddingDimensions)];
+    this.flippedQuery = new float[query.length];
+    this.queryLanes = null;
+    this.maxDistances = new TopKHeap(maxDistanceTopK);
+    this.meanDistances = new TopKHeap(meanDistanceTopK);
+    if (sampleStore != null) {
+      useLatestSnapshot();
+    }
+  }
+
+  public PoseClassifier(QuantizedSampleMatrix quantizedSamples) {
+    this(quantizedSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+  }
+
+  /**
+   * Creates a classifier over quantized samples; its axes weights are reused. Votes can differ from
+   * the float classifier where quantization reorders near ties.
+   */
+  public PoseClassifier(QuantizedSampleMatrix quantizedSamples, int maxDistanceTopK,
+      int meanDistanceTopK) {
+    this.sampleMatrix = null;
+    this.quantizedSamples = quantizedSamples;
+    this.sampleStore = null;
     this.maxDistanceTopK = maxDistanceTopK;
     this.meanDistanceTopK = meanDistanceTopK;
-    this.axesWeights = axesWeights;
+    this.axesWeights = quantizedSamples.getAxesWeights();
+    this.embeddingDimensions = quantizedSamples.getEmbeddingDimensions();
+    this.query = new float[queryLength(quantizedSamples.stride(), embeddingDimensions)];
+    this.flippedQuery = new float[query.length];
+    this.queryLanes = new long[4 * quantizedSamples.words()];
+    this.maxDistances = new TopKHeap(maxDistanceTopK);
+    this.meanDistances = new TopKHeap(meanDistanceTopK);
+  }
+
+  /**
+   * Floats of a query embedding. An empty sample set has no stride, but the query is still
+   * embedded, and a {@link PoseSampleStore} may gain samples of {@code embeddingDimensions} later.
+   */
+  private static int queryLength(int stride, int[] embeddingDimensions) {
+    if (stride > 0) {
+      return stride;
+    }
+    int dimensions =
+        embeddingDimensions == null ? PoseEmbedding.DIMENSIONS : embeddingDimensions.length;
+    return 3 * dimensions;
   }
 
   private static List<PointF3D> extractPoseLandmarks(Pose pose) {
@@ -77,14 +201,214 @@ public class PoseClassifier {
    * <p><Since we calculate confidence by counting {@link PoseSample}s that survived
    * outlier-filtering by maxDistanceTopK and meanDistanceTopK, this range is the minimum of two.
    */
+  @Override
   public int confidenceRange() {
     return min(maxDistanceTopK, meanDistanceTopK);
   }
 
+  @Override
+  public String getName() {
+    return quantizedSamples != null ? "kNN (quantized)" : "kNN";
+  }
+
+  /**
+   * Shares the samples, the sample store if any, and the indexes, and copies every setting; the
+   * parallel scan is replaced by one with the same pool. Work counters start from zero.
+   */
+  @Override
+  public PoseClassifier newInstance() {
+    PoseClassifier classifier = quantizedSamples != null
+        ? new PoseClassifier(quantizedSamples, maxDistanceTopK, meanDistanceTopK)
+        : new PoseClassifier(sampleMatrix, sampleStore, maxDistanceTopK, meanDistanceTopK);
+    classifier.distanceKernel = distanceKernel;
+    if (sampleIndex != null) {
+      // Already checked against these samples.
+      classifier.sampleIndex = sampleIndex;
+      classifier.visitStamps = new int[sampleMatrix.size()];
+    }
+    if (sampleGroups != null && sampleStore == null) {
+      classifier.useSampleGroups(sampleGroups);
+    }
+    if (parallelScan != null) {
+      classifier.parallelScan = parallelScan.newInstance();
+    }
+    classifier.setEarlyExit(earlyExitMargin);
+    classifier.setTemporalSeeding(temporalSeeding);
+    return classifier;
+  }
+
+  /** Bytes of the sample embeddings and class indices, not counting indexes or sample names. */
+  @Override
+  public long getSizeBytes() {
+    if (quantizedSamples != null) {
+      return quantizedSamples.getCodeBytes() + 4L * quantizedSamples.size();
+    }
+    return 4L * sampleMatrix.size() * (sampleMatrix.stride() + 1);
+  }
+
+  /**
+   * Float samples, or null if this classifier runs on {@link QuantizedSampleMatrix}. With a
+   * {@link PoseSampleStore}, the snapshot of the last frame.
+   */
+  public PoseSampleMatrix getSampleMatrix() {
+    return sampleMatrix;
+  }
+
+  /** Quantized samples, or null if this classifier runs on a {@link PoseSampleMatrix}. */
+  public QuantizedSampleMatrix getQuantizedSamples() {
+    return quantizedSamples;
+  }
+
+  /** The store this classifier takes its samples from, or null. */
+  PoseSampleStore getSampleStore() {
+    return sampleStore;
+  }
+
+  /** Whether {@link #setTemporalSeeding} is on. */
+  boolean isTemporalSeeding() {
+    return temporalSeeding;
+  }
+
+  /** The index set with {@link #setSampleIndex}, or null. */
+  VantagePointTree getSampleIndex() {
+    return sampleIndex;
+  }
+
+  /** The scan set with {@link #setParallelScan}, or null. */
+  ParallelSampleScan getParallelScan() {
+    return parallelScan;
+  }
+
+  /**
+   * Computes float distances with {@code distanceKernel} instead of the fastest kernel available.
+   * Results are identical either way.
+   */
+  void setDistanceKernel(DistanceKernel distanceKernel) {
+    this.distanceKernel = Preconditions.checkNotNull(distanceKernel);
+  }
+
+  /**
+   * Starts the max-distance stage of every frame from the previous frame's top K samples, for
+   * streams of consecutive camera frames. Those samples are re-scored against the new query first,
+   * and the K-th best of them bounds the search from the first sample on, so far more samples are
+   * abandoned early or skipped. Results are identical either way; unrelated consecutive queries
+   * only pay for re-scoring K samples. With sample groups every query pays for it: the nearest
+   * groups bound the search as tightly as the seeds do.
+   */
+  public void setTemporalSeeding(boolean temporalSeeding) {
+    this.temporalSeeding = temporalSeeding;
+    this.seedCount = 0;
+    if (temporalSeeding && seedRows == null) {
+      seedRows = new int[maxDistanceTopK];
+      seedDistances = new TopKHeap(maxDistanceTopK);
+    }
+  }
+
+  /**
+   * Skips the mean-distance stage when the max-distance survivors are decisive, i.e. at most
+   * {@code margin} of them are outside the class most of them belong to. That class then gets
+   * all {@code min(meanDistanceTopK, survivors)} votes. Stays off with {@link #EARLY_EXIT_OFF}.
+   *
+   * <p>With margin 0, i.e. unanimous survivors, results are identical: the mean-distance stage can
+   * only pick among samples of that one class. A larger margin trades exactness for speed; the
+   * leading class may get up to {@code margin} votes more than the full search would give it, and
+   * other classes as many less. With the default top K values, margins up to 3 keep every frame on
+   * the same side of the default {@link RepetitionCounter} thresholds (more than 6 of 10 votes to
+   * enter, less than 4 to exit) before smoothing.
+   */
+  public void setEarlyExit(int margin) {
+    Preconditions.checkArgument(margin >= EARLY_EXIT_OFF, "Invalid early exit margin %s", margin);
+    this.earlyExitMargin = margin;
+    if (margin != EARLY_EXIT_OFF && survivorVotes == null) {
+      survivorVotes = new int[
+          quantizedSamples != null ? quantizedSamples.classCount() : sampleMatrix.classCount()];
+    }
+  }
+
+  /**
+   * Splits the max-distance stage across worker threads for large sample sets, or goes back to the
+   * serial scan when {@code parallelScan} is null. Results are identical either way.
+   */
+  public void setParallelScan(ParallelSampleScan parallelScan) {
+    checkFloatSamples();
+    this.parallelScan = parallelScan;
+  }
+
+  /**
+   * Answers the max-distance stage from a metric index instead of scanning, or goes back to
+   * scanning when {@code sampleIndex} is null. Results are identical either way.
+   *
+   * @throws IllegalArgumentException if the index was built for different samples
+   */
+  public void setSampleIndex(VantagePointTree sampleIndex) {
+    checkFloatSamples();
+    Preconditions.checkState(sampleStore == null, "Not supported with a pose sample store");
+    Preconditions.checkArgument(
+        sampleIndex == null || sampleIndex.matches(sampleMatrix),
+        "Index was built for different pose samples");
+    this.sampleIndex = sampleIndex;
+    this.visitStamps = sampleIndex == null ? null : new int[sampleMatrix.size()];
+    this.visitStamp = 0;
+  }
+
+  /**
+   * Skips whole groups of samples whose bounding box is already farther than the current K-th
+   * best in the max-distance stage, or scans every sample when {@code sampleGroups} is null.
+   * Results are identical either way. A {@link VantagePointTree} takes precedence if both are set.
+   */
+  public void setSampleGroups(SampleGroupIndex sampleGroups) {
+    checkFloatSamples();
+    Preconditions.checkState(sampleStore == null, "Sample groups come from the sample store");
+    useSampleGroups(sampleGroups);
+  }
+
+  private void useSampleGroups(SampleGroupIndex sampleGroups) {
+    this.sampleGroups = sampleGroups;
+    int groupCount = sampleGroups == null ? 0 : sampleGroups.groupCount();
+    this.groupBounds = new float[groupCount];
+    this.groupKeys = new float[groupCount];
+    this.groupOrder = new int[groupCount];
+  }
+
+  /**
+   * Switches to the latest snapshot of the sample store if it changed. Only runs between frames,
+   * so every frame is searched against one snapshot.
+   */
+  private void useLatestSnapshot() {
+    PoseSampleStore.Snapshot latest = sampleStore.snapshot();
+    if (latest == storeSnapshot) {
+      return;
+    }
+    storeSnapshot = latest;
+    sampleMatrix = latest.getSampleMatrix();
+    SampleGroupIndex latestGroups = latest.getSampleGroups();
+    if (latestGroups != null
+        && (groupOrder == null || groupOrder.length < latestGroups.groupCount())) {
+      useSampleGroups(latestGroups);
+    } else {
+      sampleGroups = latestGroups;
+    }
+    // Rows may have moved, and classes may have been added.
+    seedCount = 0;
+    if (survivorVotes != null && survivorVotes.length < sampleMatrix.classCount()) {
+      survivorVotes = new int[sampleMatrix.classCount()];
+    }
+  }
+
+  private void checkFloatSamples() {
+    Preconditions.checkState(sampleMatrix != null, "Not supported on quantized samples");
+  }
+
+  /** Counters of the work done by {@link #classify}, see {@link ClassificationStats}. */
+  public ClassificationStats getStats() {
+    return stats;
+  }
+
   public ClassificationResult classify(Pose pose) {
     return classify(extractPoseLandmarks(pose));
   }
 
+  @Override
   public ClassificationResult classify(List<PointF3D> landmarks) {
     ClassificationResult result = new ClassificationResult();
     // Return early if no landmarks detected.
@@ -92,79 +416,310 @@ public class PoseClassifier {
       return result;
     }
 
-    // We do flipping on X-axis so we are horizontal (mirror) invariant.
-    List<PointF3D> flippedLandmarks = new ArrayList<>(landmarks);
-    multiplyAll(flippedLandmarks, PointF3D.from(-1, 1, 1));
+    if (sampleStore != null) {
+      useLatestSnapshot();
+    }
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    writeQuery(packedLandmarks, query, flippedQuery);
+    searchTopK();
+    return collectResult();
+  }
+
+  /**
+   * Classifies an embedding that is already weighted like the samples, e.g. the sample at
+   * {@code offset} of {@link PoseSampleMatrix#embeddings} of a matrix with the same axes weights.
+   */
+  ClassificationResult classifyWeighted(float[] embeddings, int offset) {
+    if (sampleStore != null) {
+      useLatestSnapshot();
+    }
+    System.arraycopy(embeddings, offset, query, 0, query.length);
+    writeFlippedQuery(query, flippedQuery);
+    searchTopK();
+    return collectResult();
+  }
+
+  /** Votes of the samples found by the last {@link #searchTopK()}. */
+  private ClassificationResult collectResult() {
+    ClassificationResult result = new ClassificationResult();
+    if (earlyExitClass >= 0) {
+      result.putClassConfidence(quantizedSamples != null
+          ? quantizedSamples.getClassNameForIndex(earlyExitClass)
+          : sampleMatrix.getClassNameForIndex(earlyExitClass), earlyExitVotes);
+      return result;
+    }
+    for (int i = 0; i < meanDistances.size(); i++) {
+      int row = meanDistances.rowAt(i);
+      result.incrementClassConfidence(quantizedSamples != null
+          ? quantizedSamples.getClassName(row) : sampleMatrix.getClassName(row));
+    }
+    return result;
+  }
+
+  /**
+   * Copies the rows kept by the max-distance stage of the last classification into {@code rows}
+   * and returns how many there are. Rows that are not among them cannot change the result.
+   */
+  int copyMaxDistanceRows(int[] rows) {
+    for (int i = 0; i < maxDistances.size(); i++) {
+      rows[i] = maxDistances.rowAt(i);
+    }
+    return maxDistances.size();
+  }
+
+  /**
+   * Classifies {@code frameCount} frames at once, e.g. to re-score recorded sessions. Frame
+   * {@code f} is read from {@code landmarks} as x, y, z of all 33 landmarks starting at
+   * {@code f * 99}.
+   *
+   * <p>Returns the votes of every frame, as {@link #classify} would count them: entry
+   * {@code f * classCount + c} is the number of votes of frame {@code f} for the class with index
+   * {@code c} in {@link PoseSampleMatrix#getClassNameForIndex} (or
+   * {@link QuantizedSampleMatrix#getClassNameForIndex}).
+   *
+   * <p>Without an index or sample groups, the max-distance stage is blocked: each block of samples
+   * is scanned for a block of frames while it is still in cache. The votes are the same either way.
+   * {@link #getStats()} counts all frames of a block as one "last frame".
+   */
+  public int[] classifyBatch(float[] landmarks, int frameCount) {
+    Preconditions.checkArgument(landmarks.length >= frameCount * BATCH_FRAME_VALUES,
+        "Expected %s landmark values per frame", BATCH_FRAME_VALUES);
+    if (sampleStore != null) {
+      // The whole batch is classified with one snapshot, so class indices stay the same.
+      useLatestSnapshot();
+    }
+    int classCount =
+        quantizedSamples != null ? quantizedSamples.classCount() : sampleMatrix.classCount();
+    int[] votes = new int[frameCount * classCount];
+    if (quantizedSamples != null || sampleIndex != null || sampleGroups != null) {
+      // These already avoid most of the scan, so search frame by frame.
+      for (int frame = 0; frame < frameCount; frame++) {
+        System.arraycopy(landmarks, frame * BATCH_FRAME_VALUES, packedLandmarks, 0,
+            BATCH_FRAME_VALUES);
+        writeQuery(packedLandmarks, query, flippedQuery);
+        searchTopK();
+        addVotes(meanDistances, votes, frame * classCount);
+      }
+      return votes;
+    }
+
+    if (batchQueries == null) {
+      batchQueries = new float[BATCH_FRAME_BLOCK][query.length];
+      batchFlippedQueries = new float[BATCH_FRAME_BLOCK][query.length];
+      batchMaxDistances = new TopKHeap[BATCH_FRAME_BLOCK];
+      for (int i = 0; i < BATCH_FRAME_BLOCK; i++) {
+        batchMaxDistances[i] = new TopKHeap(maxDistanceTopK);
+      }
+    }
+    int size = sampleMatrix.size();
+    for (int firstFrame = 0; firstFrame < frameCount; firstFrame += BATCH_FRAME_BLOCK) {
+      int frames = min(BATCH_FRAME_BLOCK, frameCount - firstFrame);
+      for (int i = 0; i < frames; i++) {
+        System.arraycopy(landmarks, (firstFrame + i) * BATCH_FRAME_VALUES, packedLandmarks, 0,
+            BATCH_FRAME_VALUES);
+        writeQuery(packedLandmarks, batchQueries[i], batchFlippedQueries[i]);
+        batchMaxDistances[i].clear();
+      }
+      stats.startFrame();
+      for (int fromRow = 0; fromRow < size; fromRow += BATCH_SAMPLE_BLOCK) {
+        int toRow = min(size, fromRow + BATCH_SAMPLE_BLOCK);
+        for (int i = 0; i < frames; i++) {
+          scanMaxDistance(distanceKernel, sampleMatrix, batchQueries[i], batchFlippedQueries[i],
+              fromRow, toRow, batchMaxDistances[i], stats);
+        }
+      }
+      for (int i = 0; i < frames; i++) {
+        searchMeanDistanceTopK(batchQueries[i], batchFlippedQueries[i], batchMaxDistances[i]);
+        addVotes(meanDistances, votes, (firstFrame + i) * classCount);
+      }
+      stats.endFrames(frames);
+    }
+    return votes;
+  }
+
+  private void addVotes(TopKHeap heap, int[] votes, int offset) {
+    if (earlyExitClass >= 0) {
+      votes[offset + earlyExitClass] += earlyExitVotes;
+      return;
+    }
+    for (int i = 0; i < heap.size(); i++) {
+      int row = heap.rowAt(i);
+      votes[offset + (quantizedSamples != null
+          ? quantizedSamples.getClassIndex(row) : sampleMatrix.getClassIndex(row))]++;
+    }
+  }
 
-    List<PointF3D> embedding = getPoseEmbedding(landmarks);
-    List<PointF3D> flippedEmbedding = getPoseEmbedding(flippedLandmarks);
+  /**
+   * Writes the weighted embedding of the packed pose {@code landmarks}, which is overwritten, and
+   * its mirrored counterpart.
+   */
+  private void writeQuery(float[] landmarks, float[] query, float[] flippedQuery) {
+    // Samples are stored pre-weighted, so weight the query the same way once up front. Only the
+    // embedding points the samples hold are computed.
+    PoseEmbedding.writePoseEmbedding(landmarks, embeddingDimensions, query, 0);
+    PoseSampleMatrix.applyWeights(query, 0, query.length, axesWeights);
+    writeFlippedQuery(query, flippedQuery);
+  }
 
+  private static void writeFlippedQuery(float[] query, float[] flippedQuery) {
+    // We do flipping on X-axis so we are horizontal (mirror) invariant. Negating X of every
+    // landmark only negates X of every embedding point, so there is no need to embed it again.
+    for (int i = 0; i < query.length; i += 3) {
+      flippedQuery[i] = -query[i];
+      flippedQuery[i + 1] = query[i + 1];
+      flippedQuery[i + 2] = query[i + 2];
+    }
+  }
 
+  /** Searches the samples closest to {@code query} into {@code meanDistances}. */
+  private void searchTopK() {
     // Classification is done in two stages:
     //  * First we pick top-K samples by MAX distance. It allows to remove samples that are almost
     //    the same as given pose, but maybe has few joints bent in the other direction.
     //  * Then we pick top-K samples by MEAN distance. After outliers are removed, we pick samples
     //    that are closest by average.
+    stats.startFrame();
+    if (quantizedSamples != null) {
+      searchQuantizedTopK();
+    } else {
+      searchMaxDistanceTopK();
+      searchMeanDistanceTopK(query, flippedQuery, maxDistances);
+    }
+    stats.endFrame();
+  }
+
+  /** Runs both stages on integer distances between the quantized query and samples. */
+  private void searchQuantizedTopK() {
+    quantizedSamples.writeQuery(query, flippedQuery, queryLanes);
+    maxDistances.clear(seedBound());
+    quantizedSamples.scanMaxDistance(
+        queryLanes, 0, quantizedSamples.size(), maxDistances, stats);
+    keepSeeds();
+    meanDistances.clear();
+    if (isDecisive(maxDistances)) {
+      return;
+    }
+    for (int k = 0; k < maxDistances.size(); k++) {
+      quantizedSamples.offerSumDistance(queryLanes, maxDistances.rowAt(k), meanDistances, stats);
+    }
+  }
 
-    // Keeps max distance on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> maxDistances = new PriorityQueue<>(
-        maxDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-    // Retrieve top K poseSamples by least distance to remove outliers.
-    for (PoseSample poseSample : poseSamples) {
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-      float originalMax = 0;
-      float flippedMax = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalMax =
-            max(
-                originalMax,
-                maxAbs(multiply(subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights)));
-        flippedMax =
-            max(
-                flippedMax,
-                maxAbs(
-                    multiply(
-                        subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights)));
+  /** Retrieves top K samples by least max distance into {@code maxDistances}. */
+  private void searchMaxDistanceTopK() {
+    maxDistances.clear(seedBound());
+    if (sampleIndex != null) {
+      if (++visitStamp == 0) {
+        // Wrapped around: old stamps could collide with new ones.
+        Arrays.fill(visitStamps, 0);
+        visitStamp = 1;
       }
-      // Set the max distance as min of original and flipped max distance.
-      maxDistances.add(new Pair<>(poseSample, min(originalMax, flippedMax)));
-      // We only want to retain top n so pop the highest distance.
-      if (maxDistances.size() > maxDistanceTopK) {
-        maxDistances.poll();
+      sampleIndex.search(distanceKernel, sampleMatrix, query, flippedQuery, maxDistances, stats,
+          visitStamps, visitStamp);
+    } else if (sampleGroups != null) {
+      sampleGroups.search(distanceKernel, sampleMatrix, query, flippedQuery, maxDistances, stats,
+          groupBounds, groupKeys, groupOrder);
+    } else if (parallelScan != null && sampleMatrix.size() >= parallelScan.getMinSamples()) {
+      parallelScan.scan(distanceKernel, sampleMatrix, query, flippedQuery, maxDistances, stats);
+    } else {
+      scanMaxDistance(distanceKernel, sampleMatrix, query, flippedQuery, 0, sampleMatrix.size(),
+          maxDistances, stats);
+    }
+    keepSeeds();
+  }
+
+  /**
+   * Returns the K-th best max distance among the previous frame's top K samples for the current
+   * query, or infinity without temporal seeding. The current top K cannot be farther than that.
+   */
+  private float seedBound() {
+    if (!temporalSeeding || seedCount < maxDistanceTopK) {
+      return Float.POSITIVE_INFINITY;
+    }
+    seedDistances.clear();
+    for (int i = 0; i < seedCount; i++) {
+      if (quantizedSamples != null) {
+        quantizedSamples.offerMaxDistance(queryLanes, seedRows[i], seedDistances, stats);
+      } else {
+        distanceKernel.offerMaxDistance(
+            sampleMatrix.embeddings(), query, flippedQuery, seedRows[i], seedDistances, stats);
       }
     }
+    return seedDistances.bound();
+  }
 
-    // Keeps higher mean distances on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> meanDistances = new PriorityQueue<>(
-        meanDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-    // Retrive top K poseSamples by least mean distance to remove outliers.
-    for (Pair<PoseSample, Float> sampleDistances : maxDistances) {
-      PoseSample poseSample = sampleDistances.first;
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-      float originalSum = 0;
-      float flippedSum = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalSum += sumAbs(multiply(
-            subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights));
-        flippedSum += sumAbs(
-            multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights));
+  private void keepSeeds() {
+    if (temporalSeeding) {
+      seedCount = maxDistances.size();
+      for (int i = 0; i < seedCount; i++) {
+        seedRows[i] = maxDistances.rowAt(i);
       }
-      // Set the mean distance as min of original and flipped mean distances.
-      float meanDistance = min(originalSum, flippedSum) / (embedding.size() * 2);
-      meanDistances.add(new Pair<>(poseSample, meanDistance));
-      // We only want to retain top k so pop the highest mean distance.
-      if (meanDistances.size() > meanDistanceTopK) {
-        meanDistances.poll();
+    }
+  }
+
+  /**
+   * Offers rows {@code [fromRow, toRow)} of the matrix that were not removed to {@code heap} by
+   * least max distance.
+   */
+  static void scanMaxDistance(DistanceKernel kernel, PoseSampleMatrix sampleMatrix, float[] query,
+      float[] flippedQuery, int fromRow, int toRow, TopKHeap heap, ClassificationStats stats) {
+    float[] samples = sampleMatrix.embeddings();
+    if (sampleMatrix.removedCount() == 0) {
+      for (int row = fromRow; row < toRow; row++) {
+        kernel.offerMaxDistance(samples, query, flippedQuery, row, heap, stats);
+      }
+      return;
+    }
+    for (int row = fromRow; row < toRow; row++) {
+      if (!sampleMatrix.isRemoved(row)) {
+        kernel.offerMaxDistance(samples, query, flippedQuery, row, heap, stats);
       }
     }
+  }
 
-    for (Pair<PoseSample, Float> sampleDistances : meanDistances) {
-      String className = sampleDistances.first.getClassName();
-      result.incrementClassConfidence(className);
+  /**
+   * Retrieves top K of the {@code maxDistances} survivors into {@code meanDistances} by least mean
+   * distance. Like the first stage, a survivor is abandoned once both partial sums exceed the
+   * current K-th best.
+   */
+  private void searchMeanDistanceTopK(
+      float[] query, float[] flippedQuery, TopKHeap maxDistances) {
+    meanDistances.clear();
+    if (isDecisive(maxDistances)) {
+      return;
+    }
+    float[] samples = sampleMatrix.embeddings();
+    for (int k = 0; k < maxDistances.size(); k++) {
+      distanceKernel.offerSumDistance(
+          samples, query, flippedQuery, maxDistances.rowAt(k), meanDistances, stats);
     }
+  }
 
-    return result;
+  /**
+   * Checks whether the {@code survivors} of the max-distance stage make the mean-distance stage
+   * unnecessary, see {@link #setEarlyExit}, and if so records the decisive class and its votes.
+   */
+  private boolean isDecisive(TopKHeap survivors) {
+    earlyExitClass = -1;
+    if (earlyExitMargin == EARLY_EXIT_OFF || survivors.size() == 0) {
+      return false;
+    }
+    Arrays.fill(survivorVotes, 0);
+    int leader = 0;
+    for (int i = 0; i < survivors.size(); i++) {
+      int row = survivors.rowAt(i);
+      int classIndex = quantizedSamples != null
+          ? quantizedSamples.getClassIndex(row) : sampleMatrix.getClassIndex(row);
+      if (++survivorVotes[classIndex] > survivorVotes[leader]) {
+        leader = classIndex;
+      }
+    }
+    if (survivors.size() - survivorVotes[leader] > earlyExitMargin) {
+      return false;
+    }
+    earlyExitClass = leader;
+    // The mean-distance stage keeps its first K candidates whatever their distances.
+    earlyExitVotes = min(meanDistanceTopK, survivors.size());
+    stats.addEarlyExit();
+    return true;
   }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import androidx.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide cache of loaded classifiers, keyed by where their samples came from, so that the
+ * {@link PoseClassifierProcessor} created for every camera source does not read and embed the
+ * samples again.
+ *
+ * <p>An entry holds a loaded classifier that is never used to classify itself: every
+ * {@link #get} caller takes a {@link PoseClassificationBackend#newInstance()} of it, which shares
+ * the samples and indexes and has scratch buffers and stream state of its own. Per-session state
+ * such as {@link EMASmoothing} and {@link RepetitionCounter} stays with the processor.
+ *
+ * <p>Thread safe. A miss only puts a placeholder for its key into the cache under the cache's
+ * lock, and loads under the placeholder's lock. So a second caller for the same key waits for the
+ * first load instead of loading again, while callers for other keys go on.
+ */
+final class PoseClassifierCache {
+  // Entries kept, least recently used dropped first. Keys change when the user records samples,
+  // and the previous sample set should not stay in memory for long.
+  private static final int MAX_ENTRIES = 2;
+  private static final PoseClassifierCache INSTANCE = new PoseClassifierCache();
+
+  private final Map<String, Slot> entries =
+      new LinkedHashMap<String, Slot>(MAX_ENTRIES, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private long hits;
+  private long hitNs;
+  private long misses;
+  private long missNs;
+
+  /** Loads a classifier on a cache miss. */
+  interface Loader {
+    Entry load();
+  }
+
+  /** A loaded classifier, and the sample store it searches if any. */
+  static final class Entry {
+    private final PoseClassificationBackend classifier;
+    @Nullable private final PoseSampleStore sampleStore;
+
+    Entry(PoseClassificationBackend classifier, @Nullable PoseSampleStore sampleStore) {
+      this.classifier = classifier;
+      this.sampleStore = sampleStore;
+    }
+
+    /** A classifier of the caller's own, see {@link PoseClassificationBackend#newInstance}. */
+    PoseClassificationBackend newClassifier() {
+      return classifier.newInstance();
+    }
+
+    /** The store shared by all classifiers of this entry, or null. */
+    @Nullable
+    PoseSampleStore getSampleStore() {
+      return sampleStore;
+    }
+  }
+
+  /** The entry of a key, empty until its first caller has loaded it. Guarded by itself. */
+  private static final class Slot {
+    @Nullable Entry entry;
+  }
+
+  PoseClassifierCache() {}
+
+  /** The cache shared by the whole process. */
+  static PoseClassifierCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * The entry for {@code key}, loaded with {@code loader} if it is not cached. Waits if another
+   * caller is loading the same key.
+   */
+  Entry get(String key, Loader loader) {
+    long startNs = System.nanoTime();
+    Slot slot;
+    synchronized (this) {
+      slot = entries.get(key);
+      if (slot == null) {
+        slot = new Slot();
+        entries.put(key, slot);
+      }
+    }
+    Entry entry;
+    boolean loaded = false;
+    synchronized (slot) {
+      if (slot.entry == null) {
+        try {
+          slot.entry = loader.load();
+        } finally {
+          if (slot.entry == null) {
+            // Failed; the next caller loads again, but the empty slot should not take a place.
+            synchronized (this) {
+              if (entries.get(key) == slot) {
+                entries.remove(key);
+              }
+            }
+          }
+        }
+        loaded = true;
+      }
+      entry = slot.entry;
+    }
+    synchronized (this) {
+      if (loaded) {
+        misses++;
+        missNs += System.nanoTime() - startNs;
+      } else {
+        hits++;
+        hitNs += System.nanoTime() - startNs;
+      }
+    }
+    return entry;
+  }
+
+  /** Drops all entries; classifiers already handed out keep working. */
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "entries=%d, hits=%d (%.2f ms mean), misses=%d (%.1f ms mean)",
+        entries.size(), hits, hits == 0 ? 0f : hitNs / 1e6f / hits, misses,
+        misses == 0 ? 0f : missNs / 1e6f / misses);
+  }
+}
@@ -16,20 +16,34 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.ToneGenerator;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.demo.BuildConfig;
 import com.google.mlkit.vision.pose.Pose;
-import java.io.BufferedReader;
+import com.google.mlkit.vision.pose.PoseLandmark;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Accepts a stream of {@link Pose} for classification and Rep counting.
@@ -37,6 +51,45 @@ import java.util.Locale;
 public class PoseClassifierProcessor {
   private static final String TAG = "PoseClassifierProcessor";
   private static final String POSE_SAMPLES_FILE = "pose/fitness_pose_samples.csv";
+  // Precomputed embeddings of POSE_SAMPLES_FILE, see PoseSamplePack. Falls back to the csv if the
+  // pack was produced from another version of it.
+  private static final String POSE_SAMPLES_PACK_FILE = "pose/fitness_pose_samples.pack";
+  // Softmax model trained offline from POSE_SAMPLES_FILE by the generatePoseSoftmaxModel Gradle
+  // task. Trained again at load time if it was trained on another version of the csv.
+  private static final String SOFTMAX_MODEL_FILE = "pose/fitness_pose_softmax.model";
+  // User-recorded sample csv files, in the app's files dir, are classified along with the bundled
+  // samples.
+  private static final String USER_SAMPLES_DIR = "pose_samples";
+  // Condensed sample sets are cached as packs in the app's cache dir, named by a hash of the
+  // loaded samples, so a sample set is only condensed once.
+  private static final String CONDENSED_SAMPLES_DIR = "condensed_pose_samples";
+  // Classifier work counters are logged and reset every this many frames.
+  private static final int STATS_LOG_INTERVAL_FRAMES = 300;
+  // Sample sets at least this large are searched through a VantagePointTree built at load time.
+  static final int SAMPLE_INDEX_MIN_SAMPLES = 4096;
+  // Smaller sample sets are pre-filtered by class, split into this many k-means cells each.
+  private static final int SAMPLE_GROUP_CELLS_PER_CLASS = 8;
+  // Stream frames whose normalized landmarks moved less than this many percent of the pose size
+  // since the last classified frame reuse its result, up to MOTION_GATE_MAX_REUSE_FRAMES in a row.
+  private static final float MOTION_GATE_EPSILON = 1f;
+  private static final int MOTION_GATE_MAX_REUSE_FRAMES = 5;
+  // While an exercise is active, every other class is searched through this many representative
+  // samples, see ExercisePartitions.
+  static final int OTHER_SAMPLES_PER_CLASS = 2;
+  // BACKEND_HIERARCHICAL finds the exercise again every this many frames, and after a frame whose
+  // top class got less than this fraction of the votes.
+  private static final int EXERCISE_CHECK_INTERVAL_FRAMES = 5;
+  private static final float EXERCISE_CHECK_MIN_CONFIDENCE = 0.6f;
+  // Embedding points compared while an exercise is active, as picked for the bundled samples by
+  // EmbeddingDimensionSelector at an agreement of 0.995. Rerun it when the samples change.
+  private static final Map<String, int[]> EXERCISE_EMBEDDING_DIMENSIONS = new HashMap<>();
+
+  static {
+    EXERCISE_EMBEDDING_DIMENSIONS.put("pushups",
+        new int[] {2, 3, 5, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 21, 22});
+    EXERCISE_EMBEDDING_DIMENSIONS.put("squats",
+        new int[] {1, 5, 9, 10, 11, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22});
+  }
 
   // Specify classes for which we want rep counting.
   // These are the labels in the given {@code POSE_SAMPLES_FILE}. You can set your own class labels
@@ -47,48 +100,315 @@ public class PoseClassifierProcessor {
     PUSHUPS_CLASS, SQUATS_CLASS
   };
 
+  /** Classifies with the kNN {@link PoseClassifier}. */
+  public static final int BACKEND_KNN = 1;
+  /** Classifies with a {@link NearestCentroidClassifier}. */
+  public static final int BACKEND_NEAREST_CENTROID = 2;
+  /** Classifies with a {@link SoftmaxPoseClassifier}. */
+  public static final int BACKEND_SOFTMAX = 3;
+  /** Classifies with a {@link HierarchicalPoseClassifier}. */
+  public static final int BACKEND_HIERARCHICAL = 4;
+
   private final boolean isStreamMode;
+  private final boolean condenseSamples;
+  private final int backend;
 
   private EMASmoothing emaSmoothing;
+  private MotionGate motionGate;
   private List<RepetitionCounter> repCounters;
+  private PoseClassificationBackend classifier;
   private PoseClassifier poseClassifier;
+  private PoseSampleStore sampleStore;
   private String lastRepResult;
+  // See setActiveExercise(). The classifier of the active exercise is built on the exercise
+  // executor and published to the classification thread, which keeps classifying with the last
+  // one published, or over all samples, meanwhile. Partitions and the classifiers built from them
+  // are only touched by the exercise executor, and are rebuilt when the store has changed since.
+  @Nullable private volatile String activeExercise;
+  @Nullable private volatile ExerciseClassifier exerciseClassifier;
+  private volatile boolean exerciseClassifierPending;
+  private PoseClassificationBackend frameClassifier;
+  private ExercisePartitions exercisePartitions;
+  private int exercisePartitionsVersion;
+  private final Map<String, PoseClassifier> exerciseClassifiers = new HashMap<>();
+  private static ExecutorService exerciseExecutor;
 
   @WorkerThread
   public PoseClassifierProcessor(Context context, boolean isStreamMode) {
+    this(context, isStreamMode, /* condenseSamples= */ false);
+  }
+
+  /**
+   * @param condenseSamples whether to drop pose samples the classifier does not need with
+   *     {@link SampleCondenser} after loading; this takes several seconds per 1000 samples the
+   *     first time a sample set is seen, and a cached pack is loaded after that
+   */
+  @WorkerThread
+  public PoseClassifierProcessor(Context context, boolean isStreamMode, boolean condenseSamples) {
+    this(context, isStreamMode, condenseSamples, BACKEND_KNN);
+  }
+
+  /**
+   * @param condenseSamples see {@link #PoseClassifierProcessor(Context, boolean, boolean)}; only
+   *     used by {@link #BACKEND_KNN}
+   * @param backend which {@link PoseClassificationBackend} classifies poses, one of
+   *     {@link #BACKEND_KNN}, {@link #BACKEND_NEAREST_CENTROID}, {@link #BACKEND_SOFTMAX} and
+   *     {@link #BACKEND_HIERARCHICAL}
+   */
+  @WorkerThread
+  public PoseClassifierProcessor(
+      Context context, boolean isStreamMode, boolean condenseSamples, int backend) {
     Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
+    Preconditions.checkArgument(backend >= BACKEND_KNN && backend <= BACKEND_HIERARCHICAL,
+        "Unknown pose classifier backend %s", backend);
     this.isStreamMode = isStreamMode;
+    this.condenseSamples = condenseSamples;
+    this.backend = backend;
     if (isStreamMode) {
       emaSmoothing = new EMASmoothing();
+      motionGate = new MotionGate(MOTION_GATE_EPSILON, MOTION_GATE_MAX_REUSE_FRAMES);
       repCounters = new ArrayList<>();
       lastRepResult = "";
     }
     loadPoseSamples(context);
+    if (isStreamMode) {
+      for (String className : POSE_CLASSES) {
+        repCounters.add(new RepetitionCounter(className));
+      }
+    }
   }
 
+  /**
+   * Takes a classifier of its own from the process-wide {@link PoseClassifierCache}, which only
+   * loads the samples the first time they are asked for.
+   */
   private void loadPoseSamples(Context context) {
-    List<PoseSample> poseSamples = new ArrayList<>();
-    try {
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)));
-      String csvLine = reader.readLine();
-      while (csvLine != null) {
-        // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
-        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
-        if (poseSample != null) {
-          poseSamples.add(poseSample);
+    long startNs = System.nanoTime();
+    List<File> userSampleFiles = listUserSampleFiles(context);
+    boolean quantized = isQuantized(context, backend);
+    PoseClassifierCache cache = PoseClassifierCache.getInstance();
+    PoseClassifierCache.Entry entry = cache.get(
+        cacheKey(userSampleFiles, condenseSamples, backend, quantized),
+        () -> loadClassifier(context, userSampleFiles, condenseSamples, backend, quantized));
+    classifier = entry.newClassifier();
+    sampleStore = entry.getSampleStore();
+    if (classifier instanceof PoseClassifier) {
+      poseClassifier = (PoseClassifier) classifier;
+      setUpTemporalSeeding(poseClassifier, isStreamMode);
+    }
+    Log.d(TAG, String.format(Locale.US, "Classifier stats, cache: %s ready in %.1f ms; %s",
+        classifier.getName(), (System.nanoTime() - startNs) / 1e6, cache));
+  }
+
+  private static List<File> listUserSampleFiles(Context context) {
+    List<File> csvFiles = new ArrayList<>();
+    File[] userSampleFiles = new File(context.getFilesDir(), USER_SAMPLES_DIR).listFiles();
+    if (userSampleFiles != null) {
+      Arrays.sort(userSampleFiles);
+      for (File file : userSampleFiles) {
+        if (file.getName().endsWith(".csv")) {
+          csvFiles.add(file);
         }
-        csvLine = reader.readLine();
       }
+    }
+    return csvFiles;
+  }
+
+  /**
+   * Key of the {@link PoseClassifierCache} entry that a processor created now with these
+   * arguments takes its classifier from. Changes when the user's sample files do.
+   */
+  static String cacheKey(Context context, boolean condenseSamples, int backend) {
+    return cacheKey(listUserSampleFiles(context), condenseSamples, backend,
+        isQuantized(context, backend));
+  }
+
+  /**
+   * Identifies the samples a classifier is loaded from and how it is built. Bundled assets cannot
+   * change while the app runs; user sample files are told apart by size and modification time.
+   */
+  private static String cacheKey(
+      List<File> userSampleFiles, boolean condenseSamples, int backend, boolean quantized) {
+    // Only the kNN backend condenses samples.
+    StringBuilder key = new StringBuilder(String.format(Locale.US,
+        "%s,backend=%d,condense=%b,quantized=%b", POSE_SAMPLES_PACK_FILE, backend,
+        condenseSamples && backend == BACKEND_KNN, quantized));
+    for (File file : userSampleFiles) {
+      key.append(',').append(file.getPath()).append(':').append(file.length()).append(':')
+          .append(file.lastModified());
+    }
+    return key.toString();
+  }
+
+  private static PoseClassifierCache.Entry loadClassifier(Context context,
+      List<File> userSampleFiles, boolean condenseSamples, int backend, boolean quantized) {
+    long startMs = SystemClock.elapsedRealtime();
+    List<PoseSampleMatrix> parts = new ArrayList<>();
+    List<PoseSampleLoader.Source> csvSources = new ArrayList<>();
+    try {
+      parts.add(PoseSamplePack.load(context, POSE_SAMPLES_PACK_FILE,
+          BuildConfig.POSE_SAMPLES_CSV_HASH, PoseClassifier.AXES_WEIGHTS));
     } catch (IOException e) {
-      Log.e(TAG, "Error when loading pose samples.\n" + e);
+      Log.w(TAG, "Falling back to csv pose samples: " + e);
+      csvSources.add(PoseSampleLoader.Source.asset(POSE_SAMPLES_FILE));
     }
-    poseClassifier = new PoseClassifier(poseSamples);
-    if (isStreamMode) {
-      for (String className : POSE_CLASSES) {
-        repCounters.add(new RepetitionCounter(className));
+    for (File file : userSampleFiles) {
+      csvSources.add(PoseSampleLoader.Source.file(file));
+    }
+    if (!csvSources.isEmpty()) {
+      PoseSampleLoader.Result loaded =
+          new PoseSampleLoader().load(context, csvSources, PoseClassifier.AXES_WEIGHTS);
+      for (PoseSampleLoader.SourceStats stats : loaded.getSourceStats()) {
+        Log.d(TAG, "Pose sample source " + stats);
+      }
+      parts.add(loaded.getSampleMatrix());
+    }
+    PoseSampleMatrix sampleMatrix = parts.size() == 1
+        ? parts.get(0) : PoseSampleMatrix.concat(parts, PoseClassifier.AXES_WEIGHTS);
+    Log.d(TAG, "Loaded " + sampleMatrix.size() + " pose samples in "
+        + (SystemClock.elapsedRealtime() - startMs) + " ms");
+    PoseClassificationBackend classifier;
+    PoseSampleStore sampleStore = null;
+    if (sampleMatrix.size() == 0) {
+      // The other backends are built from samples; a plain kNN over none returns empty results.
+      Log.e(TAG, "No pose samples loaded, poses will not be classified");
+      classifier = new PoseClassifier(sampleMatrix);
+    } else if (backend == BACKEND_NEAREST_CENTROID) {
+      classifier = new NearestCentroidClassifier(sampleMatrix, SAMPLE_GROUP_CELLS_PER_CLASS);
+    } else if (backend == BACKEND_SOFTMAX) {
+      classifier = loadSoftmaxClassifier(context, sampleMatrix, !userSampleFiles.isEmpty());
+    } else if (backend == BACKEND_HIERARCHICAL) {
+      classifier = new HierarchicalPoseClassifier(sampleMatrix, SAMPLE_GROUP_CELLS_PER_CLASS,
+          EXERCISE_CHECK_INTERVAL_FRAMES, EXERCISE_CHECK_MIN_CONFIDENCE);
+    } else {
+      if (condenseSamples) {
+        sampleMatrix = condense(context, sampleMatrix);
+      }
+      PoseClassifier poseClassifier = newKnnClassifier(sampleMatrix, quantized);
+      sampleStore = poseClassifier.getSampleStore();
+      classifier = poseClassifier;
+    }
+    Log.d(TAG, "Built " + classifier.getName() + " classifier in "
+        + (SystemClock.elapsedRealtime() - startMs) + " ms, " + classifier.getSizeBytes()
+        + " bytes of model data");
+    return new PoseClassifierCache.Entry(classifier, sampleStore);
+  }
+
+  /**
+   * Builds the kNN classifier for {@code sampleMatrix} and picks how it searches: quantized
+   * samples scanned in full if {@code quantized}, otherwise a {@link VantagePointTree} from
+   * {@value #SAMPLE_INDEX_MIN_SAMPLES} samples on and the sample groups of a
+   * {@link PoseSampleStore} below that. There is no {@link ParallelSampleScan}: both indexes only
+   * search a small part of the samples, which a scan split across cores still reads in full.
+   */
+  static PoseClassifier newKnnClassifier(PoseSampleMatrix sampleMatrix, boolean quantized) {
+    PoseClassifier poseClassifier;
+    if (quantized) {
+      // Keep only byte codes of the samples; the float copy is dropped right away.
+      poseClassifier = new PoseClassifier(new QuantizedSampleMatrix(sampleMatrix));
+      Log.d(TAG, "Low-RAM device, using quantized pose samples");
+    } else if (sampleMatrix.size() >= SAMPLE_INDEX_MIN_SAMPLES) {
+      poseClassifier = new PoseClassifier(sampleMatrix);
+      poseClassifier.setSampleIndex(
+          VantagePointTree.build(poseClassifier.getSampleMatrix(), /* seed= */ 0));
+    } else {
+      // The store keeps its sample groups up to date as samples are added and removed.
+      poseClassifier = new PoseClassifier(
+          new PoseSampleStore(sampleMatrix, SAMPLE_GROUP_CELLS_PER_CLASS, /* seed= */ 0));
+    }
+    // Unanimous first-stage survivors decide the vote on their own; results are unchanged.
+    poseClassifier.setEarlyExit(/* margin= */ 0);
+    return poseClassifier;
+  }
+
+  /**
+   * Seeds every stream frame's search with the previous frame's neighbours where that prunes more
+   * than it costs: on a {@link VantagePointTree} and on a full scan of quantized samples. Not on
+   * the sample groups of a {@link PoseSampleStore}, i.e. not for sample sets under
+   * {@value #SAMPLE_INDEX_MIN_SAMPLES} samples like the bundled one: the groups closest to the
+   * query already give as tight a bound as the seeds, so the same samples are skipped and the K
+   * re-scored seeds only add work, about 10% per frame on the bundled samples.
+   */
+  static void setUpTemporalSeeding(PoseClassifier poseClassifier, boolean isStreamMode) {
+    poseClassifier.setTemporalSeeding(isStreamMode && poseClassifier.getSampleStore() == null);
+  }
+
+  /**
+   * Reads the bundled softmax model, or trains one on {@code sampleMatrix} when it also holds
+   * user samples, which the bundled model has not seen.
+   */
+  private static SoftmaxPoseClassifier loadSoftmaxClassifier(
+      Context context, PoseSampleMatrix sampleMatrix, boolean hasUserSamples) {
+    if (!hasUserSamples) {
+      try {
+        return SoftmaxPoseClassifier.load(context, SOFTMAX_MODEL_FILE,
+            BuildConfig.POSE_SAMPLES_CSV_HASH, PoseClassifier.AXES_WEIGHTS);
+      } catch (IOException e) {
+        Log.w(TAG, "Training a softmax model instead of loading it: " + e);
+      }
+    }
+    long startMs = SystemClock.elapsedRealtime();
+    SoftmaxPoseClassifier softmaxClassifier = SoftmaxPoseClassifier.train(sampleMatrix);
+    Log.d(TAG, "Trained a softmax model on " + sampleMatrix.size() + " pose samples in "
+        + (SystemClock.elapsedRealtime() - startMs) + " ms");
+    return softmaxClassifier;
+  }
+
+  private static PoseSampleMatrix condense(Context context, PoseSampleMatrix sampleMatrix) {
+    long startMs = SystemClock.elapsedRealtime();
+    File cacheDir = new File(context.getCacheDir(), CONDENSED_SAMPLES_DIR);
+    File cacheFile = new File(cacheDir, String.format(
+        Locale.US, "%08x_%d.pack", sampleMatrix.contentHash(), sampleMatrix.size()));
+    if (cacheFile.exists()) {
+      try (FileInputStream in = new FileInputStream(cacheFile)) {
+        PoseSampleMatrix condensed = PoseSamplePack.read(
+            in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, cacheFile.length()),
+            sampleMatrix.contentHash(), PoseClassifier.AXES_WEIGHTS);
+        Log.d(TAG, "Loaded " + condensed.size() + " cached condensed pose samples in "
+            + (SystemClock.elapsedRealtime() - startMs) + " ms");
+        return condensed;
+      } catch (IOException e) {
+        Log.w(TAG, "Condensing pose samples again: " + e);
+      }
+    }
+
+    SampleCondenser.Result condensed = new SampleCondenser().condense(sampleMatrix);
+    Log.d(TAG, "Condensed pose samples in " + (SystemClock.elapsedRealtime() - startMs) + " ms: "
+        + condensed);
+    File[] staleFiles = cacheDir.listFiles();
+    if (staleFiles != null) {
+      for (File file : staleFiles) {
+        file.delete();
+      }
+    }
+    // Written next to the cache file first, so a partly written pack is never picked up.
+    File tmpFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+    try {
+      if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+        throw new IOException("Cannot create " + cacheDir);
+      }
+      try (OutputStream out = new FileOutputStream(tmpFile)) {
+        PoseSamplePack.write(condensed.getSampleMatrix(), sampleMatrix.contentHash(), out);
       }
+      if (!tmpFile.renameTo(cacheFile)) {
+        throw new IOException("Cannot rename " + tmpFile);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not cache condensed pose samples: " + e);
+      tmpFile.delete();
     }
+    return condensed.getSampleMatrix();
+  }
+
+  /** Whether the kNN backend keeps byte codes of the samples only, see QuantizedSampleMatrix. */
+  private static boolean isQuantized(Context context, int backend) {
+    return backend == BACKEND_KNN && isLowRamDevice(context);
+  }
+
+  private static boolean isLowRamDevice(Context context) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    return activityManager != null && activityManager.isLowRamDevice();
   }
 
   /**
@@ -103,7 +423,7 @@ public class PoseClassifierProcessor {
   public List<String> getPoseResult(Pose pose) {
     Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
     List<String> result = new ArrayList<>();
-    ClassificationResult classification = poseClassifier.classify(pose);
+    ClassificationResult classification = classify(extractPoseLandmarks(pose));
 
     // Update {@link RepetitionCounter}s if {@code isStreamMode}.
     if (isStreamMode) {
@@ -139,11 +459,207 @@ public class PoseClassifierProcessor {
           "%s : %.2f confidence",
           maxConfidenceClass,
           classification.getClassConfidence(maxConfidenceClass)
-              / poseClassifier.confidenceRange());
+              / classifier.confidenceRange());
       result.add(maxConfidenceClassResult);
     }
 
     return result;
   }
 
+  /**
+   * Classifies the landmarks of a pose, or reuses the last result in stream mode if it has not
+   * moved, without smoothing or rep counting; {@link PoseClassifierWarmUp} runs this on made-up
+   * poses.
+   */
+  @WorkerThread
+  ClassificationResult classify(List<PointF3D> landmarks) {
+    ClassificationResult classification;
+    PoseClassificationBackend frameClassifier = exerciseClassifier();
+    if (motionGate == null) {
+      classification = frameClassifier.classify(landmarks);
+    } else {
+      classification = motionGate.reuse(landmarks);
+      if (classification == null) {
+        long startNs = System.nanoTime();
+        classification = frameClassifier.classify(landmarks);
+        motionGate.onClassified(classification, System.nanoTime() - startNs);
+      }
+      if (motionGate.getFrames() % STATS_LOG_INTERVAL_FRAMES == 0) {
+        Log.d(TAG, "Motion gate: " + motionGate);
+      }
+    }
+    logClassificationStats();
+    return classification;
+  }
+
+  /**
+   * The classifier for the active exercise's partition, or the one over all samples if no
+   * exercise is active, its classifier is not built yet or the samples cannot be partitioned.
+   * Starts building the classifier if the exercise or the samples have changed since it was built.
+   */
+  private PoseClassificationBackend exerciseClassifier() {
+    String exercise = activeExercise;
+    PoseClassificationBackend backend = classifier;
+    if (exercise != null && poseClassifier != null && poseClassifier.getSampleMatrix() != null) {
+      ExerciseClassifier built = exerciseClassifier;
+      boolean sameExercise = built != null && built.exercise.equals(exercise);
+      int version = sampleStore != null ? sampleStore.snapshot().getVersion() : 0;
+      if ((!sameExercise || built.version != version) && !exerciseClassifierPending) {
+        exerciseClassifierPending = true;
+        getExerciseExecutor().execute(this::buildExerciseClassifier);
+      }
+      // Until then, a classifier built before the last sample changes is still close enough.
+      if (sameExercise && built.classifier != null) {
+        backend = built.classifier;
+      }
+    }
+    if (backend != frameClassifier) {
+      // The last result was classified in another scope; do not let the motion gate reuse it.
+      frameClassifier = backend;
+      if (motionGate != null) {
+        motionGate.invalidate();
+      }
+    }
+    return backend;
+  }
+
+  /**
+   * Builds the classifier of the active exercise over the latest samples on the exercise
+   * executor, and publishes it for the next frame.
+   */
+  private void buildExerciseClassifier() {
+    String exercise = activeExercise;
+    try {
+      if (exercise == null) {
+        return;
+      }
+      PoseSampleMatrix sampleMatrix = poseClassifier.getSampleMatrix();
+      int version = 0;
+      if (sampleStore != null) {
+        PoseSampleStore.Snapshot snapshot = sampleStore.snapshot();
+        sampleMatrix = snapshot.getSampleMatrix();
+        version = snapshot.getVersion();
+      }
+      long startNs = System.nanoTime();
+      if (exercisePartitions == null || version != exercisePartitionsVersion) {
+        exercisePartitions = new ExercisePartitions(
+            sampleMatrix, OTHER_SAMPLES_PER_CLASS, EXERCISE_EMBEDDING_DIMENSIONS);
+        exercisePartitionsVersion = version;
+        exerciseClassifiers.clear();
+      }
+      PoseClassifier partitionClassifier = exerciseClassifiers.get(exercise);
+      if (partitionClassifier == null) {
+        PoseSampleMatrix samples = exercisePartitions.getSamples(exercise);
+        if (samples != null) {
+          partitionClassifier = new PoseClassifier(samples);
+          partitionClassifier.setSampleGroups(
+              SampleGroupIndex.build(samples, SAMPLE_GROUP_CELLS_PER_CLASS, /* seed= */ 0));
+          partitionClassifier.setEarlyExit(/* margin= */ 0);
+          exerciseClassifiers.put(exercise, partitionClassifier);
+        }
+      }
+      exerciseClassifier = new ExerciseClassifier(exercise, version, partitionClassifier);
+      Log.d(TAG, String.format(Locale.US, "Classifier for %s, samples version %d, ready in %.1f ms",
+          exercise, version, (System.nanoTime() - startNs) / 1e6));
+    } catch (RuntimeException e) {
+      // Searches all samples until the exercise or the samples change again.
+      Log.e(TAG, "Failed to build the classifier for " + exercise, e);
+      exerciseClassifier = new ExerciseClassifier(exercise,
+          sampleStore != null ? sampleStore.snapshot().getVersion() : 0, /* classifier= */ null);
+    } finally {
+      exerciseClassifierPending = false;
+    }
+  }
+
+  private static synchronized ExecutorService getExerciseExecutor() {
+    if (exerciseExecutor == null) {
+      // One thread for all processors, so a processor's partitions stay on a single thread.
+      exerciseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PoseExerciseClassifier");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return exerciseExecutor;
+  }
+
+  /**
+   * Restricts classification to the classes of {@code exercise}, plus a few samples of every
+   * other class, from the first frame after its classifier is built in the background; null
+   * searches all classes again from the next frame on. Exercises are class names up to the last
+   * underscore, see {@link ExercisePartitions#exerciseOf}; an exercise without samples searches
+   * all classes. Exercises with an entry in {@code EXERCISE_EMBEDDING_DIMENSIONS} also compare
+   * only those embedding points. Only the kNN backend on float samples is restricted. Can be
+   * called from any thread.
+   */
+  public void setActiveExercise(@Nullable String exercise) {
+    activeExercise = exercise;
+  }
+
+  /** The exercises of the rep-counted classes, e.g. to pass to {@link #setActiveExercise}. */
+  public static List<String> getExercises() {
+    List<String> exercises = new ArrayList<>();
+    for (String className : POSE_CLASSES) {
+      exercises.add(ExercisePartitions.exerciseOf(className));
+    }
+    return exercises;
+  }
+
+  private static List<PointF3D> extractPoseLandmarks(Pose pose) {
+    List<PointF3D> landmarks = new ArrayList<>();
+    for (PoseLandmark poseLandmark : pose.getAllPoseLandmarks()) {
+      landmarks.add(poseLandmark.getPosition3D());
+    }
+    return landmarks;
+  }
+
+  /**
+   * Samples to add the user's own recorded poses to, or remove them from, from any thread while
+   * frames are classified. Shared with every other processor on the same samples, see
+   * {@link PoseClassifierCache}. Null if the samples are quantized or indexed by a
+   * {@link VantagePointTree}, which cannot change, or if the backend is not {@link #BACKEND_KNN}.
+   */
+  @Nullable
+  public PoseSampleStore getSampleStore() {
+    return sampleStore;
+  }
+
+  /** Skipped-frame counters of this session, or null if not in stream mode. */
+  @Nullable
+  public MotionGate getMotionGate() {
+    return motionGate;
+  }
+
+  private void logClassificationStats() {
+    if (poseClassifier == null) {
+      // Only the kNN search counts its work.
+      return;
+    }
+    logClassificationStats("all samples", poseClassifier.getStats());
+    ExerciseClassifier built = exerciseClassifier;
+    if (built != null && built.classifier != null) {
+      logClassificationStats(built.exercise + " samples", built.classifier.getStats());
+    }
+  }
+
+  private static void logClassificationStats(String label, ClassificationStats stats) {
+    if (stats.getFrames() >= STATS_LOG_INTERVAL_FRAMES) {
+      Log.d(TAG, "Classifier stats, " + label + ": " + stats);
+      stats.reset();
+    }
+  }
+
+  /** A classifier of an exercise's partition, as built for a version of the samples. */
+  private static final class ExerciseClassifier {
+    final String exercise;
+    final int version;
+    // Null if the exercise has no samples.
+    @Nullable final PoseClassifier classifier;
+
+    ExerciseClassifier(String exercise, int version, @Nullable PoseClassifier classifier) {
+      this.exercise = exercise;
+      this.version = version;
+      this.classifier = classifier;
+    }
+  }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Loads the pose classifier on a background thread before the first camera frame needs it, so
+ * that frame does not wait for the samples to be read and embedded.
+ *
+ * <p>The warm-up builds a {@link PoseClassifierProcessor}, which puts the loaded classifier into
+ * the {@link PoseClassifierCache}, and classifies {@code WARM_UP_FRAMES} made-up poses with it so
+ * that the classification code is compiled before real frames arrive. Processors created after
+ * {@link #isReady()} turns true take their classifier from the cache right away. Until then,
+ * callers should show frames without classifying them rather than wait.
+ *
+ * <p>Whether the user's pose sample files changed since the last warm-up is checked on the
+ * warm-up thread too, since that lists and stats files. When they have not, the warm-up only takes
+ * the classifier from the cache, and is ready a few milliseconds after it starts.
+ *
+ * <p>Thread safe.
+ */
+public final class PoseClassifierWarmUp {
+  private static final String TAG = "PoseClassifierWarmUp";
+  // Made-up poses classified once the classifier is loaded. Each takes several times as long as a
+  // real pose, whose neighbours are closer, so a few are enough.
+  private static final int WARM_UP_FRAMES = 30;
+  // Made-up landmarks are spread over a box this large, in pixels, like a pose in a camera frame.
+  private static final float POSE_SIZE = 500f;
+
+  private static PoseClassifierWarmUp current;
+
+  private final Context context;
+  private final boolean isStreamMode;
+  private final boolean condenseSamples;
+  private final int backend;
+  // Key the previous warm-up with the same arguments loaded for, see
+  // PoseClassifierProcessor#cacheKey, or null if there was none.
+  @Nullable private final String previousCacheKey;
+  // Key this warm-up loaded for, set on the warm-up thread.
+  @Nullable private volatile String cacheKey;
+  private final long startNs = System.nanoTime();
+  private volatile long loadedNs;
+  private volatile long readyNs;
+  private volatile boolean ready;
+  private volatile boolean unchanged;
+
+  private PoseClassifierWarmUp(Context context, boolean isStreamMode, boolean condenseSamples,
+      int backend, @Nullable String previousCacheKey) {
+    this.context = context;
+    this.isStreamMode = isStreamMode;
+    this.condenseSamples = condenseSamples;
+    this.backend = backend;
+    this.previousCacheKey = previousCacheKey;
+  }
+
+  /**
+   * Starts warming up a classifier for {@link PoseClassifierProcessor}s created with the same
+   * arguments, or returns the warm-up already running for them. Does no I/O, so it can be called
+   * from any thread, typically the main thread while the camera opens.
+   */
+  public static synchronized PoseClassifierWarmUp start(
+      Context context, boolean isStreamMode, boolean condenseSamples, int backend) {
+    boolean sameArguments = current != null && current.isStreamMode == isStreamMode
+        && current.condenseSamples == condenseSamples && current.backend == backend;
+    // A finished warm-up is not reused as is: samples may have been recorded or deleted since.
+    if (!sameArguments || current.ready) {
+      // The cache outlives the activity, so the warm-up must not hold on to it.
+      current = new PoseClassifierWarmUp(context.getApplicationContext(), isStreamMode,
+          condenseSamples, backend, sameArguments ? current.cacheKey : null);
+      Thread thread = new Thread(current::run, TAG);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return current;
+  }
+
+  /** Forgets the current warm-up, so that the next {@link #start} starts over; for benchmarks. */
+  static synchronized void clear() {
+    current = null;
+  }
+
+  private void run() {
+    try {
+      String key = PoseClassifierProcessor.cacheKey(context, condenseSamples, backend);
+      cacheKey = key;
+      unchanged = key.equals(previousCacheKey);
+      // With unchanged samples this takes the classifier from the cache, and the code it runs has
+      // been compiled by the previous warm-up.
+      PoseClassifierProcessor processor =
+          new PoseClassifierProcessor(context, isStreamMode, condenseSamples, backend);
+      loadedNs = System.nanoTime();
+      if (!unchanged) {
+        Random random = new Random(0);
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+          processor.classify(randomLandmarks(random));
+        }
+      }
+    } catch (RuntimeException e) {
+      // Processors load again on their own and report the error themselves.
+      Log.w(TAG, "Pose classifier warm-up failed", e);
+    } finally {
+      readyNs = System.nanoTime();
+      ready = true;
+    }
+    Log.d(TAG, "Pose classifier ready: " + this);
+  }
+
+  private static List<PointF3D> randomLandmarks(Random random) {
+    List<PointF3D> landmarks = new ArrayList<>(PoseEmbedding.LANDMARKS);
+    for (int i = 0; i < PoseEmbedding.LANDMARKS; i++) {
+      landmarks.add(PointF3D.from(POSE_SIZE * random.nextFloat(),
+          POSE_SIZE * random.nextFloat(), POSE_SIZE * (random.nextFloat() - 0.5f)));
+    }
+    return landmarks;
+  }
+
+  /**
+   * Whether the warm-up is over, so that a {@link PoseClassifierProcessor} can be created without
+   * loading. Also true if it failed.
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /** Milliseconds since the warm-up started. */
+  public float getElapsedMs() {
+    return (System.nanoTime() - startNs) / 1e6f;
+  }
+
+  @Override
+  public String toString() {
+    long loaded = loadedNs;
+    long warmedUp = readyNs;
+    if (!ready) {
+      return String.format(Locale.US, "warming up for %.0f ms", getElapsedMs());
+    }
+    if (loaded == 0) {
+      return String.format(Locale.US, "failed after %.0f ms", (warmedUp - startNs) / 1e6f);
+    }
+    return unchanged
+        ? String.format(Locale.US, "samples unchanged, taken from the cache in %.1f ms",
+            (loaded - startNs) / 1e6f)
+        : String.format(Locale.US, "loaded in %.0f ms, %d poses classified in %.0f ms",
+            (loaded - startNs) / 1e6f, WARM_UP_FRAMES, (warmedUp - loaded) / 1e6f);
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.mlkit.vision.demo.java.posedetector.classification.Util
 import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
 import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtractAll;
 
+import androidx.annotation.Nullable;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.PoseLandmark;
 import java.util.ArrayList;
@@ -33,6 +34,82 @@ import java.util.List;
 public class PoseEmbedding {
   // Multiplier to apply to the torso to get minimal body size. Picked this by experimentation.
   private static final float TORSO_MULTIPLIER = 2.5f;
+  // Pseudo landmarks for the pair table: the centers between the hips and the shoulders.
+  private static final int HIPS_CENTER = -1;
+  private static final int SHOULDERS_CENTER = -2;
+
+  // We use several pairwise 3D distances to form pose embedding. These were selected
+  // based on experimentation for best results with our default pose classes as captued in the
+  // pose samples csv. Feel free to play with this and add or remove for your use-cases.
+  //
+  // Embedding point i is landmark EMBEDDING_PAIRS[2 * i + 1] minus landmark EMBEDDING_PAIRS[2 * i].
+  // We group our distances by number of joints between the pairs. Note that the two "five
+  // joints" pairs repeat the two "four joints" pairs, so hips to wrists count twice.
+  private static final int[] EMBEDDING_PAIRS = {
+    // One joint.
+    HIPS_CENTER, SHOULDERS_CENTER,
+    PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ELBOW,
+    PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ELBOW,
+    PoseLandmark.LEFT_ELBOW, PoseLandmark.LEFT_WRIST,
+    PoseLandmark.RIGHT_ELBOW, PoseLandmark.RIGHT_WRIST,
+    PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_KNEE,
+    PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_KNEE,
+    PoseLandmark.LEFT_KNEE, PoseLandmark.LEFT_ANKLE,
+    PoseLandmark.RIGHT_KNEE, PoseLandmark.RIGHT_ANKLE,
+    // Two joints.
+    PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_WRIST,
+    PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_WRIST,
+    PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_ANKLE,
+    PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_ANKLE,
+    // Four joints.
+    PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST,
+    PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST,
+    // Five joints.
+    PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ANKLE,
+    PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ANKLE,
+    PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST,
+    PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST,
+    // Cross body.
+    PoseLandmark.LEFT_ELBOW, PoseLandmark.RIGHT_ELBOW,
+    PoseLandmark.LEFT_KNEE, PoseLandmark.RIGHT_KNEE,
+    PoseLandmark.LEFT_WRIST, PoseLandmark.RIGHT_WRIST,
+    PoseLandmark.LEFT_ANKLE, PoseLandmark.RIGHT_ANKLE,
+  };
+  private static final String[] DIMENSION_NAMES = {
+    "hips - shoulders",
+    "left shoulder - left elbow",
+    "right shoulder - right elbow",
+    "left elbow - left wrist",
+    "right elbow - right wrist",
+    "left hip - left knee",
+    "right hip - right knee",
+    "left knee - left ankle",
+    "right knee - right ankle",
+    "left shoulder - left wrist",
+    "right shoulder - right wrist",
+    "left hip - left ankle",
+    "right hip - right ankle",
+    "left hip - left wrist",
+    "right hip - right wrist",
+    "left shoulder - left ankle",
+    "right shoulder - right ankle",
+    "left hip - left wrist (again)",
+    "right hip - right wrist (again)",
+    "left elbow - right elbow",
+    "left knee - right knee",
+    "left wrist - right wrist",
+    "left ankle - right ankle",
+  };
+
+  /** Number of points of the full embedding. */
+  public static final int DIMENSIONS = EMBEDDING_PAIRS.length / 2;
+  /** Number of landmarks of a pose. */
+  public static final int LANDMARKS = 33;
+  /**
+   * Number of values of a packed pose, as taken by {@link #writePoseEmbedding}: x, y, z of every
+   * landmark in {@link PoseLandmark} order.
+   */
+  public static final int PACKED_LANDMARK_VALUES = 3 * LANDMARKS;
 
   public static List<PointF3D> getPoseEmbedding(List<PointF3D> landmarks) {
     List<PointF3D> normalizedLandmarks = normalize(landmarks);
@@ -78,64 +155,130 @@ public class PoseEmbedding {
     return maxDistance;
   }
 
-  private static List<PointF3D> getEmbedding(List<PointF3D> lm) {
-    List<PointF3D> embedding = new ArrayList<>();
-
-    // We use several pairwise 3D distances to form pose embedding. These were selected
-    // based on experimentation for best results with our default pose classes as captued in the
-    // pose samples csv. Feel free to play with this and add or remove for your use-cases.
-
-    // We group our distances by number of joints between the pairs.
-    // One joint.
-    embedding.add(subtract(
-        average(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.RIGHT_HIP)),
-        average(lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.RIGHT_SHOULDER))
-    ));
-
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ELBOW)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ELBOW)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_ELBOW), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_KNEE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_KNEE)));
+  /**
+   * Embedding points of the given embedding, e.g. a subset chosen by
+   * {@code EmbeddingDimensionSelector}; all {@link #DIMENSIONS} points in order if null. Only the
+   * selected points are computed.
+   */
+  public static List<PointF3D> getPoseEmbedding(
+      List<PointF3D> landmarks, @Nullable int[] dimensions) {
+    List<PointF3D> normalizedLandmarks = normalize(landmarks);
+    if (dimensions == null) {
+      return getEmbedding(normalizedLandmarks);
+    }
+    List<PointF3D> embedding = new ArrayList<>(dimensions.length);
+    for (int dimension : dimensions) {
+      embedding.add(getEmbeddingPoint(normalizedLandmarks, dimension));
+    }
+    return embedding;
+  }
 
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_KNEE), lm.get(PoseLandmark.RIGHT_ANKLE)));
+  /** Writes {@code landmarks} as a packed pose into {@code out} starting at {@code offset}. */
+  public static void packLandmarks(List<PointF3D> landmarks, float[] out, int offset) {
+    for (int i = 0; i < landmarks.size(); i++) {
+      PointF3D landmark = landmarks.get(i);
+      out[offset++] = landmark.getX();
+      out[offset++] = landmark.getY();
+      out[offset++] = landmark.getZ();
+    }
+  }
 
-    // Two joints.
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_WRIST)));
+  /**
+   * Computes the embedding of a packed pose without allocating, e.g. once per stream frame. The
+   * pose at {@code landmarks[0]} is normalized in place, and the embedding points selected like
+   * {@link #getPoseEmbedding(List, int[])} are written as x, y, z into {@code out} starting at
+   * {@code offset}. Matches {@link #getPoseEmbedding(List, int[])} exactly.
+   *
+   * <p>The embedding of the mirrored pose is this one with X negated, so there is no need to
+   * compute it separately.
+   */
+  public static void writePoseEmbedding(
+      float[] landmarks, @Nullable int[] dimensions, float[] out, int offset) {
+    normalize(landmarks);
+    int count = dimensions == null ? DIMENSIONS : dimensions.length;
+    for (int i = 0; i < count; i++) {
+      int dimension = dimensions == null ? i : dimensions[i];
+      int from = EMBEDDING_PAIRS[2 * dimension];
+      int to = EMBEDDING_PAIRS[2 * dimension + 1];
+      for (int axis = 0; axis < 3; axis++) {
+        out[offset++] = packedLandmark(landmarks, to, axis) - packedLandmark(landmarks, from, axis);
+      }
+    }
+  }
 
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_ANKLE)));
+  /**
+   * Normalizes a packed pose in place like {@link #getPoseEmbedding(List)}: centered between the
+   * hips and scaled to a pose size of 100.
+   */
+  static void normalize(float[] landmarks) {
+    // Normalize translation.
+    float centerX = packedLandmark(landmarks, HIPS_CENTER, 0);
+    float centerY = packedLandmark(landmarks, HIPS_CENTER, 1);
+    float centerZ = packedLandmark(landmarks, HIPS_CENTER, 2);
+    for (int i = 0; i < PACKED_LANDMARK_VALUES; i += 3) {
+      landmarks[i] -= centerX;
+      landmarks[i + 1] -= centerY;
+      landmarks[i + 2] -= centerZ;
+    }
 
-    // Four joints.
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
+    // Normalize scale. Same operations in the same order as getPoseSize() and multiplyAll(), so
+    // results are bit for bit the same.
+    float hipsX = packedLandmark(landmarks, HIPS_CENTER, 0);
+    float hipsY = packedLandmark(landmarks, HIPS_CENTER, 1);
+    float maxDistance = TORSO_MULTIPLIER * (float) Math.hypot(
+        packedLandmark(landmarks, SHOULDERS_CENTER, 0) - hipsX,
+        packedLandmark(landmarks, SHOULDERS_CENTER, 1) - hipsY);
+    for (int i = 0; i < PACKED_LANDMARK_VALUES; i += 3) {
+      float distance = (float) Math.hypot(landmarks[i] - hipsX, landmarks[i + 1] - hipsY);
+      if (distance > maxDistance) {
+        maxDistance = distance;
+      }
+    }
+    float scale = 1 / maxDistance;
+    for (int i = 0; i < PACKED_LANDMARK_VALUES; i++) {
+      // Multiplication by 100 is not required, but makes it easier to debug.
+      landmarks[i] = landmarks[i] * scale * 100;
+    }
+  }
 
-    // Five joints.
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ANKLE)));
+  private static float packedLandmark(float[] landmarks, int landmark, int axis) {
+    if (landmark == HIPS_CENTER) {
+      return (landmarks[3 * PoseLandmark.LEFT_HIP + axis]
+          + landmarks[3 * PoseLandmark.RIGHT_HIP + axis]) * 0.5f;
+    }
+    if (landmark == SHOULDERS_CENTER) {
+      return (landmarks[3 * PoseLandmark.LEFT_SHOULDER + axis]
+          + landmarks[3 * PoseLandmark.RIGHT_SHOULDER + axis]) * 0.5f;
+    }
+    return landmarks[3 * landmark + axis];
+  }
 
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
+  /** Short description of an embedding point, e.g. {@code "left hip - left knee"}. */
+  public static String getDimensionName(int dimension) {
+    return DIMENSION_NAMES[dimension];
+  }
 
-    // Cross body.
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.RIGHT_ELBOW)));
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.RIGHT_KNEE)));
+  private static List<PointF3D> getEmbedding(List<PointF3D> lm) {
+    List<PointF3D> embedding = new ArrayList<>(DIMENSIONS);
+    for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+      embedding.add(getEmbeddingPoint(lm, dimension));
+    }
+    return embedding;
+  }
 
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_WRIST), lm.get(PoseLandmark.RIGHT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ANKLE), lm.get(PoseLandmark.RIGHT_ANKLE)));
+  private static PointF3D getEmbeddingPoint(List<PointF3D> lm, int dimension) {
+    return subtract(getLandmark(lm, EMBEDDING_PAIRS[2 * dimension]),
+        getLandmark(lm, EMBEDDING_PAIRS[2 * dimension + 1]));
+  }
 
-    return embedding;
+  private static PointF3D getLandmark(List<PointF3D> lm, int landmark) {
+    if (landmark == HIPS_CENTER) {
+      return average(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.RIGHT_HIP));
+    }
+    if (landmark == SHOULDERS_CENTER) {
+      return average(lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.RIGHT_SHOULDER));
+    }
+    return lm.get(landmark);
   }
 
   private PoseEmbedding() {}
@@ -54,14 +54,28 @@ public class PoseSample {
 
   public static PoseSample getPoseSample(String csvLine, String separator) {
     List<String> tokens = Splitter.onPattern(separator).splitToList(csvLine);
+    List<PointF3D> landmarks = parseLandmarks(tokens);
+    if (landmarks == null) {
+      return null;
+    }
+    return new PoseSample(tokens.get(0), tokens.get(1), landmarks);
+  }
+
+  /**
+   * Parses the landmarks of a csv line without computing its embedding, or returns null if the
+   * line is not a valid {@link PoseSample}.
+   */
+  static List<PointF3D> getLandmarks(String csvLine, String separator) {
+    return parseLandmarks(Splitter.onPattern(separator).splitToList(csvLine));
+  }
+
+  private static List<PointF3D> parseLandmarks(List<String> tokens) {
     // Format is expected to be Name,Class,X1,Y1,Z1,X2,Y2,Z2...
     // + 2 is for Name & Class.
     if (tokens.size() != (NUM_LANDMARKS * NUM_DIMS) + 2) {
       Log.e(TAG, "Invalid number of tokens for PoseSample");
       return null;
     }
-    String name = tokens.get(0);
-    String className = tokens.get(1);
     List<PointF3D> landmarks = new ArrayList<>();
     // Read from the third token, first 2 tokens are name and class.
     for (int i = 2; i < tokens.size(); i += NUM_DIMS) {
@@ -76,6 +90,6 @@ public class PoseSample {
         return null;
       }
     }
-    return new PoseSample(name, className, landmarks);
+    return landmarks;
   }
 }
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+
+import android.content.Context;
+import android.util.Log;
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads pose samples from several csv sources into one {@link PoseSampleMatrix}.
+ *
+ * <p>Sources are streamed one line at a time on the calling thread. Lines are handed to worker
+ * threads in chunks, which tokenize them without regular expressions and compute the embeddings.
+ * Only a bounded number of chunks is in flight at a time, so the raw text of a source is never
+ * held in memory as a whole. Rows that do not parse, or whose embedding is not finite, are
+ * rejected and counted per source.
+ */
+public class PoseSampleLoader {
+  private static final String TAG = "PoseSampleLoader";
+  private static final int NUM_LANDMARKS = 33;
+  private static final int NUM_DIMS = 3;
+  private static final int LANDMARK_VALUES = NUM_LANDMARKS * NUM_DIMS;
+  private static final char SEPARATOR = ',';
+  private static final int DEFAULT_CHUNK_ROWS = 128;
+  // Rejected rows are counted, but only the first few of every source are logged.
+  private static final int MAX_LOGGED_REJECTIONS = 3;
+
+  private final ExecutorService executor;
+  private final int threads;
+  private final int chunkRows;
+
+  /** Parses and embeds on a pool with one thread per core, which only lives during a load. */
+  public PoseSampleLoader() {
+    this(null, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_ROWS);
+  }
+
+  /**
+   * @param executor parses and embeds chunks, or null for a pool of {@code threads} threads that
+   *     only lives during {@link #load}
+   * @param threads number of threads of {@code executor}; twice as many chunks are kept in flight
+   * @param chunkRows number of lines handed to a worker at once
+   */
+  public PoseSampleLoader(ExecutorService executor, int threads, int chunkRows) {
+    this.executor = executor;
+    this.threads = max(1, threads);
+    this.chunkRows = max(1, chunkRows);
+  }
+
+  /** A csv file of pose samples, in the format read by {@link PoseSample#getPoseSample}. */
+  public static final class Source {
+    private final String assetPath;
+    private final File file;
+
+    private Source(String assetPath, File file) {
+      this.assetPath = assetPath;
+      this.file = file;
+    }
+
+    public static Source asset(String assetPath) {
+      return new Source(assetPath, null);
+    }
+
+    public static Source file(File file) {
+      return new Source(null, file);
+    }
+
+    public String getName() {
+      return assetPath != null ? assetPath : file.getPath();
+    }
+
+    InputStream open(Context context) throws IOException {
+      return assetPath != null ? context.getAssets().open(assetPath) : new FileInputStream(file);
+    }
+  }
+
+  /** What loading one {@link Source} took and produced. */
+  public static final class SourceStats {
+    private final String name;
+    private int samples;
+    private int rejectedRows;
+    private long readNs;
+    private long parseNs;
+    private long embedNs;
+    private String error;
+
+    SourceStats(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Number of samples loaded from this source. */
+    public int getSamples() {
+      return samples;
+    }
+
+    /** Number of non-empty rows that were not valid pose samples. */
+    public int getRejectedRows() {
+      return rejectedRows;
+    }
+
+    /** Time spent reading lines of the source on the loading thread. */
+    public long getReadNs() {
+      return readNs;
+    }
+
+    /** Time spent tokenizing rows, summed over worker threads. */
+    public long getParseNs() {
+      return parseNs;
+    }
+
+    /** Time spent computing embeddings, summed over worker threads. */
+    public long getEmbedNs() {
+      return embedNs;
+    }
+
+    /** Why the source could not be read to the end, or null if it was. */
+    public String getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "%s: %d samples, %d rejected rows, read %.1f ms, parse %.1f ms, embed %.1f ms%s",
+          name, samples, rejectedRows, readNs / 1e6, parseNs / 1e6, embedNs / 1e6,
+          error == null ? "" : ", failed: " + error);
+    }
+  }
+
+  /** Merged samples of all sources, with per-source stats in source order. */
+  public static final class Result {
+    private final PoseSampleMatrix sampleMatrix;
+    private final List<SourceStats> sourceStats;
+
+    Result(PoseSampleMatrix sampleMatrix, List<SourceStats> sourceStats) {
+      this.sampleMatrix = sampleMatrix;
+      this.sourceStats = Collections.unmodifiableList(sourceStats);
+    }
+
+    public PoseSampleMatrix getSampleMatrix() {
+      return sampleMatrix;
+    }
+
+    public List<SourceStats> getSourceStats() {
+      return sourceStats;
+    }
+  }
+
+  /**
+   * Loads all {@code sources} in order. A source that fails to open or read keeps the samples read
+   * before the failure and reports it in {@link SourceStats#getError()}; the others still load.
+   */
+  public Result load(Context context, List<Source> sources, PointF3D axesWeights) {
+    Load load = new Load(executor != null ? executor : Executors.newFixedThreadPool(threads));
+    try {
+      List<SourceStats> sourceStats = new ArrayList<>();
+      for (Source source : sources) {
+        SourceStats stats = new SourceStats(source.getName());
+        sourceStats.add(stats);
+        readSource(context, source, stats, axesWeights, load);
+      }
+      load.collectUntil(0);
+      return new Result(PoseSampleMatrix.concat(load.parts, axesWeights), sourceStats);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading pose samples", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Computing pose embeddings failed", e.getCause());
+    } finally {
+      if (executor == null) {
+        load.executor.shutdownNow();
+      }
+    }
+  }
+
+  private void readSource(Context context, Source source, SourceStats stats,
+      PointF3D axesWeights, Load load) throws InterruptedException, ExecutionException {
+    long startNs = System.nanoTime();
+    long waitNs = 0;
+    LineChunk chunk = new LineChunk(stats, axesWeights, chunkRows, 1);
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(source.open(context), StandardCharsets.UTF_8))) {
+      int lineNumber = 0;
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        lineNumber++;
+        chunk.lines[chunk.size++] = csvLine;
+        if (chunk.size == chunkRows) {
+          long waitStartNs = System.nanoTime();
+          load.submit(chunk, 2 * threads);
+          waitNs += System.nanoTime() - waitStartNs;
+          chunk = new LineChunk(stats, axesWeights, chunkRows, lineNumber + 1);
+        }
+      }
+    } catch (IOException e) {
+      stats.error = e.toString();
+      Log.e(TAG, "Error when loading pose samples from " + source.getName() + ".\n" + e);
+    }
+    if (chunk.size > 0) {
+      load.submit(chunk, 2 * threads);
+    }
+    stats.readNs += System.nanoTime() - startNs - waitNs;
+  }
+
+  /** Chunks of one {@link #load} call, collected in submission order. */
+  private static final class Load {
+    private final ExecutorService executor;
+    private final Deque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+    private final List<PoseSampleMatrix> parts = new ArrayList<>();
+
+    Load(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    /** Submits a chunk once fewer than {@code maxPending} chunks are still unprocessed. */
+    void submit(LineChunk chunk, int maxPending) throws InterruptedException, ExecutionException {
+      collectUntil(maxPending - 1);
+      pending.add(executor.submit(chunk));
+    }
+
+    void collectUntil(int maxPending) throws InterruptedException, ExecutionException {
+      while (pending.size() > maxPending) {
+        ParsedChunk chunk = pending.poll().get();
+        SourceStats stats = chunk.stats;
+        for (String rejection : chunk.rejections) {
+          if (++stats.rejectedRows <= MAX_LOGGED_REJECTIONS) {
+            Log.w(TAG, stats.name + ":" + rejection);
+          }
+        }
+        stats.samples += chunk.sampleMatrix.size();
+        stats.parseNs += chunk.parseNs;
+        stats.embedNs += chunk.embedNs;
+        parts.add(chunk.sampleMatrix);
+      }
+    }
+  }
+
+  /**
+   * Tokenizes a csv row in the format {@code Name,Class,X1,Y1,Z1,...,X33,Y33,Z33} into
+   * {@code nameAndClass} and {@code landmarks}.
+   *
+   * @return why the row is not a valid sample, or null if it is
+   */
+  static String parseRow(String csvLine, String[] nameAndClass, float[] landmarks) {
+    int start = 0;
+    int field = 0;
+    int length = csvLine.length();
+    while (start <= length) {
+      int end = csvLine.indexOf(SEPARATOR, start);
+      if (end < 0) {
+        end = length;
+      }
+      if (field < 2) {
+        nameAndClass[field] = csvLine.substring(start, end);
+      } else if (field - 2 < LANDMARK_VALUES) {
+        try {
+          landmarks[field - 2] = Float.parseFloat(csvLine.substring(start, end));
+        } catch (NumberFormatException e) {
+          return "Invalid value " + csvLine.substring(start, end) + " for landmark position";
+        }
+      }
+      field++;
+      start = end + 1;
+    }
+    if (field != LANDMARK_VALUES + 2) {
+      return "Invalid number of tokens for PoseSample: " + field;
+    }
+    return null;
+  }
+
+  /** Consecutive lines of one source; {@link #call()} parses and embeds them on a worker. */
+  private static final class LineChunk implements Callable<ParsedChunk> {
+    private final SourceStats stats;
+    private final PointF3D axesWeights;
+    private final String[] lines;
+    private final int firstLineNumber;
+    private int size;
+
+    LineChunk(SourceStats stats, PointF3D axesWeights, int capacity, int firstLineNumber) {
+      this.stats = stats;
+      this.axesWeights = axesWeights;
+      this.lines = new String[capacity];
+      this.firstLineNumber = firstLineNumber;
+    }
+
+    @Override
+    public ParsedChunk call() {
+      long startNs = System.nanoTime();
+      List<String> rejections = new ArrayList<>();
+      List<String> names = new ArrayList<>(size);
+      List<String> classNames = new ArrayList<>(size);
+      List<List<PointF3D>> rowLandmarks = new ArrayList<>(size);
+      List<Integer> lineNumbers = new ArrayList<>(size);
+      String[] nameAndClass = new String[2];
+      float[] landmarks = new float[LANDMARK_VALUES];
+      for (int i = 0; i < size; i++) {
+        if (lines[i].trim().isEmpty()) {
+          continue;
+        }
+        String rejection = parseRow(lines[i], nameAndClass, landmarks);
+        if (rejection != null) {
+          rejections.add((firstLineNumber + i) + ": " + rejection);
+          continue;
+        }
+        List<PointF3D> points = new ArrayList<>(NUM_LANDMARKS);
+        for (int j = 0; j < LANDMARK_VALUES; j += NUM_DIMS) {
+          points.add(PointF3D.from(landmarks[j], landmarks[j + 1], landmarks[j + 2]));
+        }
+        names.add(nameAndClass[0]);
+        classNames.add(nameAndClass[1]);
+        rowLandmarks.add(points);
+        lineNumbers.add(firstLineNumber + i);
+      }
+
+      long parsedNs = System.nanoTime();
+      List<PoseSample> poseSamples = new ArrayList<>(rowLandmarks.size());
+      for (int row = 0; row < rowLandmarks.size(); row++) {
+        PoseSample poseSample =
+            new PoseSample(names.get(row), classNames.get(row), rowLandmarks.get(row));
+        if (isFinite(poseSample.getEmbedding())) {
+          poseSamples.add(poseSample);
+        } else {
+          // E.g. all landmarks at one point, which leaves no pose size to normalize by.
+          rejections.add(lineNumbers.get(row) + ": Embedding is not finite");
+        }
+      }
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, axesWeights);
+      return new ParsedChunk(stats, sampleMatrix, rejections, parsedNs - startNs,
+          System.nanoTime() - parsedNs);
+    }
+
+    private static boolean isFinite(List<PointF3D> embedding) {
+      for (PointF3D point : embedding) {
+        if (!isFinite(point.getX()) || !isFinite(point.getY()) || !isFinite(point.getZ())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean isFinite(float value) {
+      return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+  }
+
+  private static final class ParsedChunk {
+    private final SourceStats stats;
+    private final PoseSampleMatrix sampleMatrix;
+    private final List<String> rejections;
+    private final long parseNs;
+    private final long embedNs;
+
+    ParsedChunk(SourceStats stats, PoseSampleMatrix sampleMatrix, List<String> rejections,
+        long parseNs, long embedNs) {
+      this.stats = stats;
+      this.sampleMatrix = sampleMatrix;
+      this.rejections = rejections;
+      this.parseNs = parseNs;
+      this.embedNs = embedNs;
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed, read-only copy of {@link PoseSample} embeddings used by {@link PoseClassifier}.
+ *
+ * <p>All embeddings live in one {@code float[]} with a fixed stride of {@code 3 * dimensions}
+ * floats per sample (x, y, z of every embedding point, interleaved). The axes weights are applied
+ * once here, so the classifier only has to weight the query and then subtract and compare.
+ */
+public class PoseSampleMatrix {
+  private static final int NUM_AXES = 3;
+
+  private final int size;
+  private final int dimensions;
+  private final int stride;
+  private final float[] embeddings;
+  private final int[] classIndices;
+  private final String[] classNames;
+  private final String[] sampleNames;
+  private final PointF3D axesWeights;
+  // Bitset of rows a PoseSampleStore removed, or null if there are none. Searches skip them.
+  private final long[] removedRows;
+  private final int removedCount;
+  // Embedding points held, see selectDimensions(), or null for all points in embedding order.
+  private final int[] embeddingDimensions;
+
+  /**
+   * Packs the given samples. Weights must be non-negative so that {@code |q * w - s * w|} equals
+   * the weighted distance {@code |(q - s) * w|}.
+   */
+  public PoseSampleMatrix(List<PoseSample> poseSamples, PointF3D axesWeights) {
+    Preconditions.checkArgument(
+        axesWeights.getX() >= 0 && axesWeights.getY() >= 0 && axesWeights.getZ() >= 0,
+        "Axes weights must be non-negative");
+    this.size = poseSamples.size();
+    this.dimensions = size == 0 ? 0 : poseSamples.get(0).getEmbedding().size();
+    this.stride = dimensions * NUM_AXES;
+    this.embeddings = new float[size * stride];
+    this.classIndices = new int[size];
+    this.sampleNames = new String[size];
+    this.axesWeights = axesWeights;
+
+    Map<String, Integer> classIds = new HashMap<>();
+    for (int row = 0; row < size; row++) {
+      PoseSample poseSample = poseSamples.get(row);
+      List<PointF3D> embedding = poseSample.getEmbedding();
+      Preconditions.checkArgument(
+          embedding.size() == dimensions, "All samples must have the same embedding size");
+      writeWeighted(embedding, axesWeights, embeddings, row * stride);
+
+      Integer classId = classIds.get(poseSample.getClassName());
+      if (classId == null) {
+        classId = classIds.size();
+        classIds.put(poseSample.getClassName(), classId);
+      }
+      classIndices[row] = classId;
+      sampleNames[row] = poseSample.getName();
+    }
+    this.classNames = new String[classIds.size()];
+    for (Map.Entry<String, Integer> entry : classIds.entrySet()) {
+      classNames[entry.getValue()] = entry.getKey();
+    }
+    this.removedRows = null;
+    this.removedCount = 0;
+    this.embeddingDimensions = null;
+  }
+
+  /**
+   * Wraps already weighted embeddings, e.g. read from a {@link PoseSamplePack}. The arrays are
+   * used as is and must not be modified afterwards.
+   */
+  PoseSampleMatrix(int dimensions, float[] embeddings, int[] classIndices, String[] classNames,
+      String[] sampleNames, PointF3D axesWeights) {
+    this(classIndices.length, dimensions, embeddings, classIndices, classNames, sampleNames,
+        /* removedRows= */ null, /* removedCount= */ 0, axesWeights);
+    Preconditions.checkArgument(
+        embeddings.length == size * stride && sampleNames.length == size,
+        "Embeddings and names must match the number of samples");
+  }
+
+  /**
+   * Views the first {@code size} rows of arrays that may have room for more rows, leaving the
+   * {@code removedCount} rows set in {@code removedRows} out of every search. The arrays are used
+   * as is; see {@link PoseSampleStore} for how rows past {@code size} may still be written.
+   */
+  PoseSampleMatrix(int size, int dimensions, float[] embeddings, int[] classIndices,
+      String[] classNames, String[] sampleNames, long[] removedRows, int removedCount,
+      PointF3D axesWeights) {
+    this(size, dimensions, embeddings, classIndices, classNames, sampleNames, removedRows,
+        removedCount, axesWeights, /* embeddingDimensions= */ null);
+  }
+
+  private PoseSampleMatrix(int size, int dimensions, float[] embeddings, int[] classIndices,
+      String[] classNames, String[] sampleNames, long[] removedRows, int removedCount,
+      PointF3D axesWeights, int[] embeddingDimensions) {
+    this.size = size;
+    this.dimensions = dimensions;
+    this.stride = dimensions * NUM_AXES;
+    Preconditions.checkArgument(embeddings.length >= size * stride
+            && classIndices.length >= size && sampleNames.length >= size,
+        "Embeddings and names must hold the number of samples");
+    this.embeddings = embeddings;
+    this.classIndices = classIndices;
+    this.classNames = classNames;
+    this.sampleNames = sampleNames;
+    this.removedRows = removedRows;
+    this.removedCount = removedCount;
+    this.axesWeights = axesWeights;
+    this.embeddingDimensions = embeddingDimensions;
+  }
+
+  /**
+   * Concatenates the samples of {@code parts} in order, merging their class names. All parts must
+   * have the same axes weights and, unless empty, the same number of embedding points.
+   */
+  static PoseSampleMatrix concat(List<PoseSampleMatrix> parts, PointF3D axesWeights) {
+    int size = 0;
+    int dimensions = 0;
+    for (PoseSampleMatrix part : parts) {
+      Preconditions.checkArgument(sameAxesWeights(part.axesWeights, axesWeights),
+          "All parts must have the same axes weights");
+      Preconditions.checkArgument(part.embeddingDimensions == null,
+          "Parts must have all embedding points");
+      if (part.size > 0) {
+        Preconditions.checkArgument(dimensions == 0 || part.dimensions == dimensions,
+            "All samples must have the same embedding size");
+        dimensions = part.dimensions;
+        size += part.size;
+      }
+    }
+
+    int stride = dimensions * NUM_AXES;
+    float[] embeddings = new float[size * stride];
+    int[] classIndices = new int[size];
+    String[] sampleNames = new String[size];
+    Map<String, Integer> classIds = new HashMap<>();
+    List<String> classNames = new ArrayList<>();
+    int row = 0;
+    for (PoseSampleMatrix part : parts) {
+      System.arraycopy(part.embeddings, 0, embeddings, row * stride, part.size * part.stride);
+      for (int partRow = 0; partRow < part.size; partRow++, row++) {
+        String className = part.getClassName(partRow);
+        Integer classId = classIds.get(className);
+        if (classId == null) {
+          classId = classNames.size();
+          classIds.put(className, classId);
+          classNames.add(className);
+        }
+        classIndices[row] = classId;
+        sampleNames[row] = part.sampleNames[partRow];
+      }
+    }
+    return new PoseSampleMatrix(dimensions, embeddings, classIndices,
+        classNames.toArray(new String[0]), sampleNames, axesWeights);
+  }
+
+  /**
+   * Returns the samples at {@code rows}, in that order. Class indices and names stay the same, so
+   * classes may end up without samples.
+   */
+  PoseSampleMatrix select(int[] rows) {
+    float[] selected = new float[rows.length * stride];
+    int[] selectedClassIndices = new int[rows.length];
+    String[] selectedSampleNames = new String[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      System.arraycopy(embeddings, rows[i] * stride, selected, i * stride, stride);
+      selectedClassIndices[i] = classIndices[rows[i]];
+      selectedSampleNames[i] = sampleNames[rows[i]];
+    }
+    return new PoseSampleMatrix(rows.length, dimensions, selected, selectedClassIndices,
+        classNames, selectedSampleNames, /* removedRows= */ null, /* removedCount= */ 0,
+        axesWeights, embeddingDimensions);
+  }
+
+  /**
+   * Returns the samples with only the embedding points {@code dimensions}, in that order, as
+   * {@link PoseEmbedding#getPoseEmbedding(List, int[])} computes them for a query. Classifiers over
+   * the result compute and compare only these points. Removed samples are copied as well.
+   */
+  PoseSampleMatrix selectDimensions(int[] dimensions) {
+    Preconditions.checkState(embeddingDimensions == null, "Dimensions were already selected");
+    int selectedStride = dimensions.length * NUM_AXES;
+    float[] selected = new float[size * selectedStride];
+    for (int row = 0; row < size; row++) {
+      for (int i = 0; i < dimensions.length; i++) {
+        Preconditions.checkArgument(dimensions[i] >= 0 && dimensions[i] < this.dimensions,
+            "No embedding point %s", dimensions[i]);
+        System.arraycopy(embeddings, row * stride + dimensions[i] * NUM_AXES, selected,
+            row * selectedStride + i * NUM_AXES, NUM_AXES);
+      }
+    }
+    return new PoseSampleMatrix(size, dimensions.length, selected, classIndices, classNames,
+        sampleNames, removedRows, removedCount, axesWeights, dimensions.clone());
+  }
+
+  /** Hash of the weighted embeddings and class names of all samples, e.g. to key cached files. */
+  int contentHash() {
+    int hash = size;
+    for (int i = 0; i < size * stride; i++) {
+      hash = 31 * hash + Float.floatToIntBits(embeddings[i]);
+    }
+    for (int row = 0; row < size; row++) {
+      hash = 31 * hash + getClassName(row).hashCode();
+    }
+    return hash;
+  }
+
+  /** Whether two sets of axes weights are equal; {@link PointF3D} does not define equality. */
+  static boolean sameAxesWeights(PointF3D a, PointF3D b) {
+    return a.getX() == b.getX() && a.getY() == b.getY() && a.getZ() == b.getZ();
+  }
+
+  /** Writes {@code embedding * axesWeights} into {@code out} starting at {@code offset}. */
+  static void writeWeighted(
+      List<PointF3D> embedding, PointF3D axesWeights, float[] out, int offset) {
+    for (int i = 0; i < embedding.size(); i++) {
+      PointF3D point = embedding.get(i);
+      out[offset++] = point.getX() * axesWeights.getX();
+      out[offset++] = point.getY() * axesWeights.getY();
+      out[offset++] = point.getZ() * axesWeights.getZ();
+    }
+  }
+
+  /** Multiplies the embedding values {@code values[offset, offset + length)} by axes weights. */
+  static void applyWeights(float[] values, int offset, int length, PointF3D axesWeights) {
+    for (int i = offset; i < offset + length; i += 3) {
+      values[i] *= axesWeights.getX();
+      values[i + 1] *= axesWeights.getY();
+      values[i + 2] *= axesWeights.getZ();
+    }
+  }
+
+  /** Number of samples, including removed ones. */
+  public int size() {
+    return size;
+  }
+
+  /** Number of samples removed by a {@link PoseSampleStore}, see {@link #isRemoved}. */
+  public int removedCount() {
+    return removedCount;
+  }
+
+  /** Whether the sample at {@code row} was removed. Removed samples are never search results. */
+  public boolean isRemoved(int row) {
+    return removedRows != null && (removedRows[row >>> 6] & (1L << row)) != 0;
+  }
+
+  /** Number of embedding points per sample. */
+  public int dimensions() {
+    return dimensions;
+  }
+
+  /**
+   * The points of the full embedding that samples hold, in order, or null if they hold all of
+   * them. Callers must not modify it.
+   */
+  @Nullable
+  public int[] getEmbeddingDimensions() {
+    return embeddingDimensions;
+  }
+
+  /** Number of floats per sample, i.e. {@code 3 * dimensions()}. */
+  public int stride() {
+    return stride;
+  }
+
+  /**
+   * Weighted embeddings, sample {@code i} occupying {@code [i * stride(), (i + 1) * stride())}.
+   * The array may be longer than {@code size() * stride()}. Callers must not modify it.
+   */
+  float[] embeddings() {
+    return embeddings;
+  }
+
+  public PointF3D getAxesWeights() {
+    return axesWeights;
+  }
+
+  public int getClassIndex(int row) {
+    return classIndices[row];
+  }
+
+  public String getClassName(int row) {
+    return classNames[classIndices[row]];
+  }
+
+  public String getSampleName(int row) {
+    return sampleNames[row];
+  }
+
+  /** Number of distinct class names. */
+  public int classCount() {
+    return classNames.length;
+  }
+
+  /** Class name for a class index as returned by {@link #getClassIndex(int)}. */
+  public String getClassNameForIndex(int classIndex) {
+    return classNames[classIndex];
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Binary form of a {@link PoseSampleMatrix}, so the app does not have to parse the sample csv and
+ * compute every embedding on startup.
+ *
+ * <p>Layout, little endian: a header (magic, version, source hash, sample count, embedding points
+ * per sample, class count, axes weights), then the weighted embeddings as one float block, the
+ * class index of every sample, and finally the class names and sample names as length-prefixed
+ * UTF-8. The bundled pack is produced from the bundled csv by the {@code generatePoseSamplePack}
+ * Gradle task. The source hash identifies the csv a pack was produced from: its CRC32, which
+ * the build stores for the bundled csv as {@code BuildConfig.POSE_SAMPLES_CSV_HASH}, so that a pack left behind by a change to the csv is
+ * rejected instead of silently classifying with the old samples.
+ *
+ * <p>Assets in this format are stored uncompressed (see {@code aaptOptions.noCompress}) so they
+ * can be memory-mapped straight from the APK; the embeddings are then bulk-copied into the
+ * matrix.
+ */
+public final class PoseSamplePack {
+  private static final int MAGIC = 0x31505350; // "PSP1" in little endian
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 9 * 4;
+
+  private PoseSamplePack() {}
+
+  /**
+   * Maps an uncompressed pack asset and reads it.
+   *
+   * @param sourceHash CRC32 of the csv the pack must have been produced from
+   * @throws IOException if the asset is missing, compressed, malformed, was produced from another
+   *     source, or was written with other axes weights than {@code axesWeights}
+   */
+  public static PoseSampleMatrix load(Context context, String assetPath, int sourceHash,
+      PointF3D axesWeights) throws IOException {
+    try (AssetFileDescriptor fd = context.getAssets().openFd(assetPath);
+        FileInputStream in = fd.createInputStream()) {
+      ByteBuffer buffer = in.getChannel()
+          .map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+      return read(buffer, sourceHash, axesWeights);
+    }
+  }
+
+  /**
+   * Reads a pack from {@code buffer}, starting at its current position, if it was produced from
+   * the source with {@code sourceHash}.
+   */
+  static PoseSampleMatrix read(ByteBuffer buffer, int sourceHash, PointF3D axesWeights)
+      throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Not a version " + VERSION + " pose sample pack");
+      }
+      int packSourceHash = buffer.getInt();
+      if (packSourceHash != sourceHash) {
+        throw new IOException(String.format(Locale.US,
+            "Stale pose sample pack, produced from source %08x instead of %08x",
+            packSourceHash, sourceHash));
+      }
+      int size = buffer.getInt();
+      int dimensions = buffer.getInt();
+      int classCount = buffer.getInt();
+      PointF3D packWeights =
+          PointF3D.from(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+      if (size < 0 || dimensions < 0 || classCount < 0
+          || (long) size * dimensions * 3 * 4 > buffer.remaining()) {
+        throw new IOException("Corrupt pose sample pack header");
+      }
+      if (!PoseSampleMatrix.sameAxesWeights(packWeights, axesWeights)) {
+        throw new IOException("Pose sample pack was written with different axes weights");
+      }
+
+      float[] embeddings = new float[size * dimensions * 3];
+      buffer.asFloatBuffer().get(embeddings);
+      buffer.position(buffer.position() + 4 * embeddings.length);
+      int[] classIndices = new int[size];
+      buffer.asIntBuffer().get(classIndices);
+      buffer.position(buffer.position() + 4 * size);
+      for (int classIndex : classIndices) {
+        if (classIndex < 0 || classIndex >= classCount) {
+          throw new IOException("Corrupt class index " + classIndex + " in pose sample pack");
+        }
+      }
+      String[] classNames = new String[classCount];
+      for (int c = 0; c < classCount; c++) {
+        classNames[c] = readString(buffer);
+      }
+      String[] sampleNames = new String[size];
+      for (int row = 0; row < size; row++) {
+        sampleNames[row] = readString(buffer);
+      }
+      return new PoseSampleMatrix(
+          dimensions, embeddings, classIndices, classNames, sampleNames, axesWeights);
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      throw new IOException("Truncated pose sample pack", e);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes {@code sampleMatrix} as a pack.
+   *
+   * @param sourceHash identifies what {@code sampleMatrix} was made from, typically the CRC32 of
+   *     its csv
+   */
+  public static void write(PoseSampleMatrix sampleMatrix, int sourceHash, OutputStream out)
+      throws IOException {
+    Preconditions.checkArgument(sampleMatrix.getEmbeddingDimensions() == null,
+        "Packs hold all embedding points");
+    int size = sampleMatrix.size();
+    List<byte[]> strings = new ArrayList<>();
+    int stringBytes = 0;
+    for (int c = 0; c < sampleMatrix.classCount(); c++) {
+      strings.add(sampleMatrix.getClassNameForIndex(c).getBytes(StandardCharsets.UTF_8));
+    }
+    for (int row = 0; row < size; row++) {
+      strings.add(sampleMatrix.getSampleName(row).getBytes(StandardCharsets.UTF_8));
+    }
+    for (byte[] string : strings) {
+      stringBytes += 4 + string.length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(
+        HEADER_BYTES + 4 * (size * sampleMatrix.stride() + size) + stringBytes)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    PointF3D axesWeights = sampleMatrix.getAxesWeights();
+    buffer.putInt(MAGIC)
+        .putInt(VERSION)
+        .putInt(sourceHash)
+        .putInt(size)
+        .putInt(sampleMatrix.dimensions())
+        .putInt(sampleMatrix.classCount())
+        .putFloat(axesWeights.getX())
+        .putFloat(axesWeights.getY())
+        .putFloat(axesWeights.getZ());
+    buffer.asFloatBuffer().put(sampleMatrix.embeddings(), 0, size * sampleMatrix.stride());
+    buffer.position(buffer.position() + 4 * size * sampleMatrix.stride());
+    for (int row = 0; row < size; row++) {
+      buffer.putInt(sampleMatrix.getClassIndex(row));
+    }
+    for (byte[] string : strings) {
+      buffer.putInt(string.length).put(string);
+    }
+    out.write(buffer.array());
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pose samples that can be added and removed while a {@link PoseClassifier} classifies with them,
+ * e.g. reps the user records so the classifier adapts to their body.
+ *
+ * <p>Changes are serialized on the store, and every change publishes a new immutable
+ * {@link Snapshot} through a volatile field. A classifier created with
+ * {@link PoseClassifier#PoseClassifier(PoseSampleStore)} picks up the latest snapshot at the start
+ * of each frame, so classification never waits for a writer and a frame never sees half a change.
+ *
+ * <p>Snapshots share the packed sample arrays, which have spare capacity: new samples are written
+ * past the rows of every published snapshot, and removed samples are only marked in the next
+ * snapshot's tombstones, which searches skip. The arrays are only copied when they are full, or
+ * compacted when more than a quarter of their rows are tombstones. The {@link SampleGroupIndex} is
+ * updated per sample, see {@link SampleGroupIndex#withSample}, instead of being rebuilt.
+ */
+public final class PoseSampleStore {
+  private static final int MIN_CAPACITY = 64;
+  // Removed rows are compacted away once they are more than this fraction of all rows.
+  private static final int MAX_REMOVED_FRACTION_INVERSE = 4;
+
+  private final int dimensions;
+  private final int stride;
+  private final PointF3D axesWeights;
+
+  // Writer state, guarded by this. Rows below the latest snapshot's size are never written again.
+  private float[] embeddings;
+  private int[] classIndices;
+  private String[] sampleNames;
+  private String[] classNames;
+  private int size;
+  private long[] removedRows;
+  private int removedCount;
+  private int[] sampleIds;
+  private final Map<Integer, Integer> rowsBySampleId = new HashMap<>();
+  private final Map<String, Integer> classIdsByName = new HashMap<>();
+  private int nextSampleId;
+  private SampleGroupIndex sampleGroups;
+  private int version;
+
+  private volatile Snapshot snapshot;
+
+  /** Samples published together; immutable. */
+  public static final class Snapshot {
+    private final PoseSampleMatrix sampleMatrix;
+    @Nullable private final SampleGroupIndex sampleGroups;
+    private final int version;
+
+    private Snapshot(
+        PoseSampleMatrix sampleMatrix, @Nullable SampleGroupIndex sampleGroups, int version) {
+      this.sampleMatrix = sampleMatrix;
+      this.sampleGroups = sampleGroups;
+      this.version = version;
+    }
+
+    /** The samples, including removed ones that searches skip, see {@link #getSampleCount()}. */
+    public PoseSampleMatrix getSampleMatrix() {
+      return sampleMatrix;
+    }
+
+    /** Groups of the samples, or null if the store was created without groups. */
+    @Nullable
+    public SampleGroupIndex getSampleGroups() {
+      return sampleGroups;
+    }
+
+    /** Number of samples that were not removed. */
+    public int getSampleCount() {
+      return sampleMatrix.size() - sampleMatrix.removedCount();
+    }
+
+    /** Counts the changes made to the store before this snapshot was published. */
+    public int getVersion() {
+      return version;
+    }
+  }
+
+  /**
+   * Starts from {@code sampleMatrix}, which must not be empty, without sample groups. The initial
+   * samples get ids {@code 0} to {@code sampleMatrix.size() - 1} by row.
+   */
+  public PoseSampleStore(PoseSampleMatrix sampleMatrix) {
+    this(sampleMatrix, /* sampleGroups= */ null);
+  }
+
+  /**
+   * Starts from {@code sampleMatrix}, grouped like {@link SampleGroupIndex#build}. Later samples
+   * join the nearest group of their class.
+   */
+  public PoseSampleStore(PoseSampleMatrix sampleMatrix, int cellsPerClass, long seed) {
+    this(sampleMatrix, SampleGroupIndex.build(sampleMatrix, cellsPerClass, seed));
+  }
+
+  private PoseSampleStore(
+      PoseSampleMatrix sampleMatrix, @Nullable SampleGroupIndex sampleGroups) {
+    Preconditions.checkArgument(sampleMatrix.size() > 0 && sampleMatrix.removedCount() == 0,
+        "Expected a non-empty sample set without removed samples");
+    Preconditions.checkArgument(sampleMatrix.getEmbeddingDimensions() == null,
+        "Expected samples with all embedding points");
+    this.dimensions = sampleMatrix.dimensions();
+    this.stride = sampleMatrix.stride();
+    this.axesWeights = sampleMatrix.getAxesWeights();
+    this.size = sampleMatrix.size();
+    int capacity = max(MIN_CAPACITY, 2 * size);
+    this.embeddings = Arrays.copyOf(sampleMatrix.embeddings(), capacity * stride);
+    this.classIndices = new int[capacity];
+    this.sampleNames = new String[capacity];
+    this.sampleIds = new int[capacity];
+    for (int row = 0; row < size; row++) {
+      classIndices[row] = sampleMatrix.getClassIndex(row);
+      sampleNames[row] = sampleMatrix.getSampleName(row);
+      sampleIds[row] = row;
+      rowsBySampleId.put(row, row);
+    }
+    this.nextSampleId = size;
+    this.classNames = new String[sampleMatrix.classCount()];
+    for (int c = 0; c < classNames.length; c++) {
+      classNames[c] = sampleMatrix.getClassNameForIndex(c);
+      classIdsByName.put(classNames[c], c);
+    }
+    this.sampleGroups = sampleGroups;
+    publish();
+  }
+
+  /** The latest published samples. Never blocks. */
+  public Snapshot snapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Adds a labelled sample and publishes it; classifiers use it from their next frame on.
+   *
+   * @return an id to {@link #remove} the sample with
+   */
+  public synchronized int add(PoseSample poseSample) {
+    List<PointF3D> embedding = poseSample.getEmbedding();
+    Preconditions.checkArgument(embedding.size() == dimensions,
+        "Expected an embedding of %s points, got %s", dimensions, embedding.size());
+    if (size == classIndices.length) {
+      // Full: continue in bigger arrays. Published snapshots keep reading the old ones.
+      moveRows(null, 2 * size);
+    }
+    Integer classId = classIdsByName.get(poseSample.getClassName());
+    if (classId == null) {
+      classId = classNames.length;
+      classIdsByName.put(poseSample.getClassName(), classId);
+      classNames = Arrays.copyOf(classNames, classId + 1);
+      classNames[classId] = poseSample.getClassName();
+    }
+    int row = size++;
+    PoseSampleMatrix.writeWeighted(embedding, axesWeights, embeddings, row * stride);
+    classIndices[row] = classId;
+    sampleNames[row] = poseSample.getName();
+    int sampleId = nextSampleId++;
+    sampleIds[row] = sampleId;
+    rowsBySampleId.put(sampleId, row);
+    if (sampleGroups != null) {
+      sampleGroups = sampleGroups.withSample(embeddings, row, classId);
+    }
+    publish();
+    return sampleId;
+  }
+
+  /**
+   * Removes a sample added with {@link #add}, or one of the initial samples, and publishes the
+   * change.
+   *
+   * @return whether the sample was there
+   */
+  public synchronized boolean remove(int sampleId) {
+    Integer row = rowsBySampleId.remove(sampleId);
+    if (row == null) {
+      return false;
+    }
+    // Copied, since published snapshots hold on to the old tombstones.
+    removedRows = removedRows == null
+        ? new long[(classIndices.length + 63) >>> 6]
+        : Arrays.copyOf(removedRows, removedRows.length);
+    removedRows[row >>> 6] |= 1L << row;
+    removedCount++;
+    if (removedCount * MAX_REMOVED_FRACTION_INVERSE > size) {
+      int[] newRows = new int[size];
+      int live = 0;
+      for (int r = 0; r < size; r++) {
+        newRows[r] = (removedRows[r >>> 6] & (1L << r)) != 0 ? -1 : live++;
+      }
+      moveRows(newRows, 2 * live);
+    }
+    publish();
+    return true;
+  }
+
+  /**
+   * Copies the rows into new arrays of {@code capacity} rows, dropping and renumbering them by
+   * {@code newRows} unless it is null.
+   */
+  private void moveRows(@Nullable int[] newRows, int capacity) {
+    capacity = max(MIN_CAPACITY, capacity);
+    float[] newEmbeddings = new float[capacity * stride];
+    int[] newClassIndices = new int[capacity];
+    String[] newSampleNames = new String[capacity];
+    int[] newSampleIds = new int[capacity];
+    int newSize = 0;
+    for (int row = 0; row < size; row++) {
+      int newRow = newRows == null ? row : newRows[row];
+      if (newRow < 0) {
+        continue;
+      }
+      System.arraycopy(embeddings, row * stride, newEmbeddings, newRow * stride, stride);
+      newClassIndices[newRow] = classIndices[row];
+      newSampleNames[newRow] = sampleNames[row];
+      newSampleIds[newRow] = sampleIds[row];
+      rowsBySampleId.put(sampleIds[row], newRow);
+      newSize++;
+    }
+    embeddings = newEmbeddings;
+    classIndices = newClassIndices;
+    sampleNames = newSampleNames;
+    sampleIds = newSampleIds;
+    size = newSize;
+    if (newRows != null) {
+      removedRows = null;
+      removedCount = 0;
+      if (sampleGroups != null) {
+        sampleGroups = sampleGroups.withRowsMoved(newRows);
+      }
+    } else if (removedRows != null) {
+      removedRows = Arrays.copyOf(removedRows, (capacity + 63) >>> 6);
+    }
+  }
+
+  private void publish() {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(size, dimensions, embeddings,
+        classIndices, classNames, sampleNames, removedRows, removedCount, axesWeights);
+    snapshot = new Snapshot(sampleMatrix, sampleGroups, version++);
+  }
+}
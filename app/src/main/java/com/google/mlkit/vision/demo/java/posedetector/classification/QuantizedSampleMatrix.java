@@ -0,0 +1,311 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+
+/**
+ * Compact copy of a {@link PoseSampleMatrix} with every weighted embedding value quantized to one
+ * byte, for devices short on memory. Takes about a quarter of the memory of the float matrix.
+ *
+ * <p>Value {@code i} of a sample is stored as {@code round((v - offset[i]) / scale)}, clamped to
+ * [-127, 127], where {@code offset[i]} centers dimension {@code i} and {@code scale} is shared by
+ * all dimensions. A shared scale keeps the axes weights intact, so integer distances are the float
+ * distances in units of {@code scale} (up to rounding) and rank samples the same way.
+ *
+ * <p>Eight codes are packed per {@code long}. Distances are computed SWAR-style: a word is split
+ * into two sets of four 16-bit lanes, and absolute differences, lane maxima and lane sums are done
+ * four lanes at a time with plain {@code long} arithmetic.
+ */
+public class QuantizedSampleMatrix {
+  private static final int CODE_RANGE = 127;
+  private static final int CODES_PER_WORD = 8;
+  // Lane value of a code: code + LANE_ZERO. Sample lanes stay within LANE_ZERO +- 127; queries may
+  // fall outside the sample range and are clamped to [0, 2 * LANE_ZERO].
+  private static final int LANE_ZERO = 512;
+  private static final int MAX_LANE_DIFF = LANE_ZERO + CODE_RANGE;
+  private static final long BYTE_LANES = 0x00FF00FF00FF00FFL;
+  private static final long LANE_HIGH_BITS = 0x8000800080008000L;
+  private static final long LANE_LOW_BITS = 0x7FFF7FFF7FFF7FFFL;
+  // Adds LANE_ZERO - 128 to every lane of an unpacked word, turning unsigned bytes into lanes.
+  private static final long SAMPLE_LANE_BIAS = (LANE_ZERO - 128) * 0x0001000100010001L;
+
+  private final int size;
+  private final int dimensions;
+  private final int stride;
+  private final int words;
+  private final long[] codes;
+  private final float scale;
+  private final float[] offsets;
+  private final int[] classIndices;
+  private final String[] classNames;
+  private final PointF3D axesWeights;
+  private final int[] embeddingDimensions;
+
+  /**
+   * Quantizes every sample of {@code sampleMatrix}. The float matrix is not referenced afterwards
+   * and can be dropped.
+   */
+  public QuantizedSampleMatrix(PoseSampleMatrix sampleMatrix) {
+    Preconditions.checkArgument(
+        sampleMatrix.removedCount() == 0, "Removed samples are not supported");
+    this.size = sampleMatrix.size();
+    this.dimensions = sampleMatrix.dimensions();
+    this.stride = sampleMatrix.stride();
+    this.words = (stride + CODES_PER_WORD - 1) / CODES_PER_WORD;
+    // Both code sets of a word add up in the same lanes, so lane sums must fit in 15 bits.
+    Preconditions.checkArgument(2 * words * MAX_LANE_DIFF <= Short.MAX_VALUE,
+        "Embedding too large to quantize: %s values", stride);
+    this.axesWeights = sampleMatrix.getAxesWeights();
+    this.embeddingDimensions = sampleMatrix.getEmbeddingDimensions();
+    this.classIndices = new int[size];
+    this.classNames = new String[sampleMatrix.classCount()];
+    for (int c = 0; c < classNames.length; c++) {
+      classNames[c] = sampleMatrix.getClassNameForIndex(c);
+    }
+
+    float[] embeddings = sampleMatrix.embeddings();
+    float[] lower = new float[stride];
+    float[] upper = new float[stride];
+    for (int i = 0; i < stride; i++) {
+      lower[i] = Float.POSITIVE_INFINITY;
+      upper[i] = Float.NEGATIVE_INFINITY;
+    }
+    for (int row = 0; row < size; row++) {
+      for (int i = 0; i < stride; i++) {
+        lower[i] = min(lower[i], embeddings[row * stride + i]);
+        upper[i] = max(upper[i], embeddings[row * stride + i]);
+      }
+    }
+    float widest = 0;
+    this.offsets = new float[stride];
+    for (int i = 0; i < stride && size > 0; i++) {
+      offsets[i] = (lower[i] + upper[i]) / 2;
+      widest = max(widest, upper[i] - lower[i]);
+    }
+    this.scale = widest > 0 ? widest / (2 * CODE_RANGE) : 1f;
+
+    this.codes = new long[size * words];
+    for (int row = 0; row < size; row++) {
+      classIndices[row] = sampleMatrix.getClassIndex(row);
+      for (int i = 0; i < words * CODES_PER_WORD; i++) {
+        // Padding codes are 0 in samples and queries alike, so they never add to a distance.
+        int code = i < stride ? clamp(quantize(embeddings[row * stride + i], i), CODE_RANGE) : 0;
+        codes[row * words + i / CODES_PER_WORD] |=
+            (long) (code + 128) << (8 * (i % CODES_PER_WORD));
+      }
+    }
+  }
+
+  private int quantize(float value, int i) {
+    return round((value - offsets[i]) / scale);
+  }
+
+  private static int clamp(int code, int range) {
+    return max(-range, min(range, code));
+  }
+
+  /** Number of samples. */
+  public int size() {
+    return size;
+  }
+
+  /** Number of embedding points per sample. */
+  public int dimensions() {
+    return dimensions;
+  }
+
+  /** Number of values per sample before packing, i.e. {@code 3 * dimensions()}. */
+  public int stride() {
+    return stride;
+  }
+
+  /** Number of {@code long}s per packed sample. */
+  public int words() {
+    return words;
+  }
+
+  /** Size of one code step in weighted embedding units. */
+  public float getScale() {
+    return scale;
+  }
+
+  /** Bytes taken by the packed codes. */
+  public long getCodeBytes() {
+    return 8L * codes.length;
+  }
+
+  public PointF3D getAxesWeights() {
+    return axesWeights;
+  }
+
+  /** See {@link PoseSampleMatrix#getEmbeddingDimensions()}. */
+  @Nullable
+  public int[] getEmbeddingDimensions() {
+    return embeddingDimensions;
+  }
+
+  public int getClassIndex(int row) {
+    return classIndices[row];
+  }
+
+  public String getClassName(int row) {
+    return classNames[classIndices[row]];
+  }
+
+  /** Number of distinct class names. */
+  public int classCount() {
+    return classNames.length;
+  }
+
+  /** Class name for a class index as returned by {@link #getClassIndex(int)}. */
+  public String getClassNameForIndex(int classIndex) {
+    return classNames[classIndex];
+  }
+
+  /**
+   * Writes the lanes of a weighted query and its mirrored counterpart into {@code out}, which must
+   * hold {@code 4 * words()} longs: low lanes, high lanes, flipped low lanes, flipped high lanes.
+   */
+  void writeQuery(float[] query, float[] flippedQuery, long[] out) {
+    for (int j = 0; j < words; j++) {
+      out[j] = 0;
+      out[words + j] = 0;
+      out[2 * words + j] = 0;
+      out[3 * words + j] = 0;
+    }
+    for (int i = 0; i < words * CODES_PER_WORD; i++) {
+      int word = i / CODES_PER_WORD;
+      int part = (i % 2) * words;
+      int shift = 16 * ((i % CODES_PER_WORD) / 2);
+      int code = i < stride ? clamp(quantize(query[i], i), LANE_ZERO) : 0;
+      int flippedCode = i < stride ? clamp(quantize(flippedQuery[i], i), LANE_ZERO) : 0;
+      out[part + word] |= (long) (code + LANE_ZERO) << shift;
+      out[2 * words + part + word] |= (long) (flippedCode + LANE_ZERO) << shift;
+    }
+  }
+
+  /** Offers rows {@code [fromRow, toRow)} to {@code heap} by least integer max distance. */
+  void scanMaxDistance(long[] queryLanes, int fromRow, int toRow, TopKHeap heap,
+      ClassificationStats stats) {
+    for (int row = fromRow; row < toRow; row++) {
+      offerMaxDistance(queryLanes, row, heap, stats);
+    }
+  }
+
+  /**
+   * Offers one sample by the min of its original and flipped max distance, abandoning it after any
+   * word once both partial maxima exceed the current K-th best.
+   */
+  void offerMaxDistance(long[] queryLanes, int row, TopKHeap heap, ClassificationStats stats) {
+    float bound = heap.bound();
+    int offset = row * words;
+    long originalMax = 0;
+    long flippedMax = 0;
+    int j = 0;
+    while (j < words) {
+      long word = codes[offset + j];
+      long low = (word & BYTE_LANES) + SAMPLE_LANE_BIAS;
+      long high = ((word >>> 8) & BYTE_LANES) + SAMPLE_LANE_BIAS;
+      originalMax = maxLanes(originalMax, maxLanes(
+          absDiffLanes(queryLanes[j], low), absDiffLanes(queryLanes[words + j], high)));
+      flippedMax = maxLanes(flippedMax, maxLanes(
+          absDiffLanes(queryLanes[2 * words + j], low),
+          absDiffLanes(queryLanes[3 * words + j], high)));
+      j++;
+      if (horizontalMax(originalMax) > bound && horizontalMax(flippedMax) > bound) {
+        break;
+      }
+    }
+    stats.addSample(evaluatedDimensions(j), dimensions);
+    if (j == words) {
+      heap.offer(min(horizontalMax(originalMax), horizontalMax(flippedMax)), row);
+    }
+  }
+
+  /**
+   * Offers one sample by the min of its original and flipped sum of absolute differences, with the
+   * same early abandoning as {@link #offerMaxDistance}.
+   */
+  void offerSumDistance(long[] queryLanes, int row, TopKHeap heap, ClassificationStats stats) {
+    float bound = heap.bound();
+    int offset = row * words;
+    long originalSum = 0;
+    long flippedSum = 0;
+    int j = 0;
+    while (j < words) {
+      long word = codes[offset + j];
+      long low = (word & BYTE_LANES) + SAMPLE_LANE_BIAS;
+      long high = ((word >>> 8) & BYTE_LANES) + SAMPLE_LANE_BIAS;
+      // Lane sums cannot carry into the next lane, see the size check in the constructor.
+      originalSum += absDiffLanes(queryLanes[j], low) + absDiffLanes(queryLanes[words + j], high);
+      flippedSum += absDiffLanes(queryLanes[2 * words + j], low)
+          + absDiffLanes(queryLanes[3 * words + j], high);
+      j++;
+      if (horizontalSum(originalSum) > bound && horizontalSum(flippedSum) > bound) {
+        break;
+      }
+    }
+    stats.addSample(evaluatedDimensions(j), dimensions);
+    if (j == words) {
+      heap.offer(min(horizontalSum(originalSum), horizontalSum(flippedSum)), row);
+    }
+  }
+
+  private int evaluatedDimensions(int evaluatedWords) {
+    return (min(stride, evaluatedWords * CODES_PER_WORD) + 2) / 3;
+  }
+
+  /** Lane-wise {@code |a - b|} of four 15-bit lanes. */
+  static long absDiffLanes(long a, long b) {
+    // The high bit of every lane absorbs the borrow; it stays set exactly where a >= b.
+    long forward = (a | LANE_HIGH_BITS) - b;
+    long backward = (b | LANE_HIGH_BITS) - a;
+    long select = lanesWithHighBit(forward);
+    return (forward & select) | (backward & ~select & LANE_LOW_BITS);
+  }
+
+  /** Lane-wise max of four 15-bit lanes. */
+  static long maxLanes(long a, long b) {
+    long select = lanesWithHighBit((a | LANE_HIGH_BITS) - b);
+    return (a & select) | (b & ~select);
+  }
+
+  /** Returns 0x7FFF in every lane whose high bit is set and 0 in the others. */
+  private static long lanesWithHighBit(long lanes) {
+    long ones = (lanes & LANE_HIGH_BITS) >>> 15;
+    return (ones << 15) - ones;
+  }
+
+  static int horizontalMax(long lanes) {
+    int result = (int) (lanes & 0xFFFF);
+    result = max(result, (int) ((lanes >>> 16) & 0xFFFF));
+    result = max(result, (int) ((lanes >>> 32) & 0xFFFF));
+    return max(result, (int) (lanes >>> 48));
+  }
+
+  static int horizontalSum(long lanes) {
+    long pairs = (lanes & 0x0000FFFF0000FFFFL) + ((lanes >>> 16) & 0x0000FFFF0000FFFFL);
+    return (int) ((pairs & 0xFFFFFFFFL) + (pairs >>> 32));
+  }
+}
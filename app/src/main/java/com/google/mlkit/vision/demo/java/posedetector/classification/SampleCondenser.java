@@ -0,0 +1,284 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Shrinks a sample set by dropping samples the classifier does not need, e.g. near-duplicate
+ * frames of the same pose.
+ *
+ * <p>Works backwards from the full set under the exact {@link PoseClassifier} search and vote:
+ * samples are tried one at a time, most redundant first, and dropped if every sample of the full
+ * set still classifies with the same outcome without it. Only samples that had the dropped one
+ * among their max-distance survivors can change, so only those are re-classified. Outcomes differ
+ * when the top class differs, or when any class's votes fall on the other side of the
+ * {@link RepetitionCounter} thresholds; rep counting sees the same thing either way. Passes repeat
+ * until a pass drops nothing, since a drop can make room for another.
+ *
+ * <p>Every sample of the full set classifies the same with the condensed set. Other poses may
+ * not, so compare on recorded sessions before relying on a condensed set.
+ *
+ * <p>Hart's condensed nearest neighbour rule, which grows the set from one sample per class
+ * instead, keeps about as many samples but lets 4% of the full-set samples change outcome under
+ * the top K vote, and lost a rep on a replayed session where this reduction did not.
+ */
+public final class SampleCondenser {
+  private static final int MAX_PASSES = 10;
+
+  private final int maxDistanceTopK;
+  private final int meanDistanceTopK;
+
+  /** Condenses for a classifier with the default top K values. */
+  public SampleCondenser() {
+    this(PoseClassifier.MAX_DISTANCE_TOP_K, PoseClassifier.MEAN_DISTANCE_TOP_K);
+  }
+
+  public SampleCondenser(int maxDistanceTopK, int meanDistanceTopK) {
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+  }
+
+  /** Outcome of {@link #condense}. */
+  public static final class Result {
+    private final PoseSampleMatrix sampleMatrix;
+    private final int[] keptRows;
+    private final int fullSize;
+    private final int passes;
+
+    private Result(PoseSampleMatrix sampleMatrix, int[] keptRows, int fullSize, int passes) {
+      this.sampleMatrix = sampleMatrix;
+      this.keptRows = keptRows;
+      this.fullSize = fullSize;
+      this.passes = passes;
+    }
+
+    /** The kept samples, in their original order. */
+    public PoseSampleMatrix getSampleMatrix() {
+      return sampleMatrix;
+    }
+
+    /** Rows of the full set that were kept, ascending. */
+    public int[] getKeptRows() {
+      return keptRows.clone();
+    }
+
+    public int getPasses() {
+      return passes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "kept %d of %d samples (%.1f%%) in %d passes",
+          keptRows.length, fullSize, 100f * keptRows.length / fullSize, passes);
+    }
+  }
+
+  /**
+   * Condenses {@code sampleMatrix}. Each try re-classifies about {@code maxDistanceTopK} samples,
+   * each against its own pool of {@code 2 * maxDistanceTopK} nearest kept samples.
+   */
+  public Result condense(PoseSampleMatrix sampleMatrix) {
+    int size = sampleMatrix.size();
+    int stride = sampleMatrix.stride();
+    float[] embeddings = sampleMatrix.embeddings();
+    int poolSize = 2 * maxDistanceTopK;
+    PoseClassifier full = new PoseClassifier(sampleMatrix, maxDistanceTopK, meanDistanceTopK);
+    PoseClassifier fullPools = new PoseClassifier(sampleMatrix, poolSize, meanDistanceTopK);
+    ClassificationResult[] expected = new ClassificationResult[size];
+    // Max-distance survivors of every sample against the current set, as rows of the full set.
+    int[][] survivors = new int[size][maxDistanceTopK];
+    int[] survivorCounts = new int[size];
+    // The first poolSize samples by max distance from every sample, in some superset of the
+    // current set, ascending. Kept ones among them are a prefix of the current set's order, so
+    // while more than maxDistanceTopK are kept, classifying against them alone is exact.
+    int[][] pools = new int[size][poolSize];
+    int[] poolKeptCounts = new int[size];
+    float[] nearestDistances = new float[size];
+    Arrays.fill(nearestDistances, Float.MAX_VALUE);
+    for (int row = 0; row < size; row++) {
+      expected[row] = full.classifyWeighted(embeddings, row * stride);
+      survivorCounts[row] = full.copyMaxDistanceRows(survivors[row]);
+      fullPools.classifyWeighted(embeddings, row * stride);
+      poolKeptCounts[row] = fullPools.copyMaxDistanceRows(pools[row]);
+      pools[row] = Arrays.copyOf(pools[row], poolKeptCounts[row]);
+      Arrays.sort(pools[row]);
+      for (int other = 0; other < row; other++) {
+        float distance = maxDistance(embeddings, row * stride, other * stride, stride);
+        nearestDistances[row] = Math.min(nearestDistances[row], distance);
+        nearestDistances[other] = Math.min(nearestDistances[other], distance);
+      }
+    }
+    Integer[] order = new Integer[size];
+    for (int row = 0; row < size; row++) {
+      order[row] = row;
+    }
+    // Samples closest to another sample go first.
+    Arrays.sort(order, (a, b) -> Float.compare(nearestDistances[a], nearestDistances[b]));
+
+    boolean[] kept = new boolean[size];
+    Arrays.fill(kept, true);
+    int keptCount = size;
+    int[] affected = new int[size];
+    int[][] trialSurvivors = new int[size][maxDistanceTopK];
+    int[] trialSurvivorCounts = new int[size];
+    int[] poolRows = new int[poolSize];
+    int passes = 0;
+    boolean changed = true;
+    while (changed && passes < MAX_PASSES) {
+      changed = false;
+      passes++;
+      for (int candidate : order) {
+        if (!kept[candidate]) {
+          continue;
+        }
+        int affectedCount = 0;
+        for (int row = 0; row < size; row++) {
+          if (contains(survivors[row], survivorCounts[row], candidate)) {
+            affected[affectedCount++] = row;
+          }
+        }
+        kept[candidate] = false;
+        boolean same = true;
+        for (int i = 0; i < affectedCount && same; i++) {
+          int row = affected[i];
+          int poolRowCount = 0;
+          for (int pooled : pools[row]) {
+            if (kept[pooled]) {
+              poolRows[poolRowCount++] = pooled;
+            }
+          }
+          int[] trialRows = Arrays.copyOf(poolRows, poolRowCount);
+          PoseClassifier trial = new PoseClassifier(
+              sampleMatrix.select(trialRows), maxDistanceTopK, meanDistanceTopK);
+          same = sameOutcome(expected[row], trial.classifyWeighted(embeddings, row * stride));
+          int count = trial.copyMaxDistanceRows(trialSurvivors[i]);
+          trialSurvivorCounts[i] = count;
+          for (int k = 0; k < count; k++) {
+            trialSurvivors[i][k] = trialRows[trialSurvivors[i][k]];
+          }
+        }
+        if (!same) {
+          kept[candidate] = true;
+          continue;
+        }
+        keptCount--;
+        for (int i = 0; i < affectedCount; i++) {
+          int row = affected[i];
+          int[] swap = survivors[row];
+          survivors[row] = trialSurvivors[i];
+          trialSurvivors[i] = swap;
+          survivorCounts[row] = trialSurvivorCounts[i];
+        }
+        refillPools(sampleMatrix, kept, keptCount, candidate, pools, poolKeptCounts, poolRows);
+        changed = true;
+      }
+    }
+
+    int[] keptRows = keptRows(kept);
+    return new Result(sampleMatrix.select(keptRows), keptRows, size, passes);
+  }
+
+  /**
+   * Updates pool counts after {@code dropped} was dropped, and re-queries pools that no longer
+   * hold more than {@code maxDistanceTopK} kept samples against the kept set.
+   */
+  private void refillPools(PoseSampleMatrix sampleMatrix, boolean[] kept, int keptCount,
+      int dropped, int[][] pools, int[] poolKeptCounts, int[] poolRows) {
+    int stride = sampleMatrix.stride();
+    int[] keptRows = null;
+    PoseClassifier keptPools = null;
+    for (int row = 0; row < pools.length; row++) {
+      if (Arrays.binarySearch(pools[row], 0, pools[row].length, dropped) >= 0) {
+        poolKeptCounts[row]--;
+      }
+      if (poolKeptCounts[row] > maxDistanceTopK || poolKeptCounts[row] == keptCount) {
+        continue;
+      }
+      if (keptPools == null) {
+        keptRows = keptRows(kept);
+        keptPools = new PoseClassifier(
+            sampleMatrix.select(keptRows), poolRows.length, meanDistanceTopK);
+      }
+      keptPools.classifyWeighted(sampleMatrix.embeddings(), row * stride);
+      int count = keptPools.copyMaxDistanceRows(poolRows);
+      pools[row] = new int[count];
+      for (int i = 0; i < count; i++) {
+        pools[row][i] = keptRows[poolRows[i]];
+      }
+      Arrays.sort(pools[row]);
+      poolKeptCounts[row] = count;
+    }
+  }
+
+  private static float maxDistance(float[] embeddings, int a, int b, int stride) {
+    float distance = 0;
+    for (int i = 0; i < stride; i++) {
+      distance = Math.max(distance, Math.abs(embeddings[a + i] - embeddings[b + i]));
+    }
+    return distance;
+  }
+
+  private static boolean contains(int[] rows, int count, int row) {
+    for (int i = 0; i < count; i++) {
+      if (rows[i] == row) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int[] keptRows(boolean[] kept) {
+    int count = 0;
+    for (boolean k : kept) {
+      count += k ? 1 : 0;
+    }
+    int[] rows = new int[count];
+    for (int row = 0, i = 0; row < kept.length; row++) {
+      if (kept[row]) {
+        rows[i++] = row;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Whether two results have the same top class and put every class on the same side of the
+   * default {@link RepetitionCounter} thresholds.
+   */
+  static boolean sameOutcome(ClassificationResult a, ClassificationResult b) {
+    if (!a.getMaxConfidenceClass().equals(b.getMaxConfidenceClass())) {
+      return false;
+    }
+    Set<String> classNames = new HashSet<>(a.getAllClasses());
+    classNames.addAll(b.getAllClasses());
+    for (String className : classNames) {
+      float confidenceA = a.getClassConfidence(className);
+      float confidenceB = b.getClassConfidence(className);
+      if ((confidenceA > RepetitionCounter.DEFAULT_ENTER_THRESHOLD)
+              != (confidenceB > RepetitionCounter.DEFAULT_ENTER_THRESHOLD)
+          || (confidenceA < RepetitionCounter.DEFAULT_EXIT_THRESHOLD)
+              != (confidenceB < RepetitionCounter.DEFAULT_EXIT_THRESHOLD)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
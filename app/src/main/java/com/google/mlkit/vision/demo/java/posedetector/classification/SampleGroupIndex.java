@@ -0,0 +1,395 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Coarse pre-filter for the max-distance stage of {@link PoseClassifier}.
+ *
+ * <p>Samples are grouped by class, and optionally by k-means cell within a class. Every group keeps
+ * its centroid and a per-dimension bounding box of its (weighted) embeddings. No member of a group
+ * can be closer to the query than the L-inf distance from the query to the box, so a group whose
+ * bound is above the current K-th best is skipped without touching its members. Groups are visited
+ * closest centroid first so the bound tightens quickly.
+ *
+ * <p>Rounding is monotone, so the float box bound never exceeds the float distance of a member, and
+ * skipped groups could not have contributed: results are identical to the linear scan.
+ */
+public class SampleGroupIndex {
+  private static final int KMEANS_ITERATIONS = 10;
+
+  private final int stride;
+  private final int[][] members;
+  private final int[] groupClasses;
+  private final float[] lowerBounds;
+  private final float[] upperBounds;
+  private final float[] centroids;
+
+  private SampleGroupIndex(int stride, List<int[]> members, List<Integer> groupClasses,
+      float[] samples) {
+    this.stride = stride;
+    this.members = members.toArray(new int[0][]);
+    this.groupClasses = new int[members.size()];
+    this.lowerBounds = new float[members.size() * stride];
+    this.upperBounds = new float[members.size() * stride];
+    this.centroids = new float[members.size() * stride];
+    for (int g = 0; g < this.members.length; g++) {
+      this.groupClasses[g] = groupClasses.get(g);
+      int groupOffset = g * stride;
+      for (int i = 0; i < stride; i++) {
+        lowerBounds[groupOffset + i] = Float.POSITIVE_INFINITY;
+        upperBounds[groupOffset + i] = Float.NEGATIVE_INFINITY;
+      }
+      for (int row : this.members[g]) {
+        int offset = row * stride;
+        for (int i = 0; i < stride; i++) {
+          float value = samples[offset + i];
+          lowerBounds[groupOffset + i] = min(lowerBounds[groupOffset + i], value);
+          upperBounds[groupOffset + i] = max(upperBounds[groupOffset + i], value);
+          centroids[groupOffset + i] += value;
+        }
+      }
+      for (int i = 0; i < stride; i++) {
+        centroids[groupOffset + i] /= this.members[g].length;
+      }
+    }
+  }
+
+  private SampleGroupIndex(int stride, int[][] members, int[] groupClasses, float[] lowerBounds,
+      float[] upperBounds, float[] centroids) {
+    this.stride = stride;
+    this.members = members;
+    this.groupClasses = groupClasses;
+    this.lowerBounds = lowerBounds;
+    this.upperBounds = upperBounds;
+    this.centroids = centroids;
+  }
+
+  /**
+   * Groups the samples of {@code sampleMatrix} by class, splitting every class into up to
+   * {@code cellsPerClass} k-means cells. {@code seed} makes the cells reproducible.
+   */
+  public static SampleGroupIndex build(
+      PoseSampleMatrix sampleMatrix, int cellsPerClass, long seed) {
+    int stride = sampleMatrix.stride();
+    float[] samples = sampleMatrix.embeddings();
+    List<List<Integer>> rowsByClass = new ArrayList<>();
+    for (int c = 0; c < sampleMatrix.classCount(); c++) {
+      rowsByClass.add(new ArrayList<>());
+    }
+    for (int row = 0; row < sampleMatrix.size(); row++) {
+      rowsByClass.get(sampleMatrix.getClassIndex(row)).add(row);
+    }
+
+    Random random = new Random(seed);
+    List<int[]> members = new ArrayList<>();
+    List<Integer> groupClasses = new ArrayList<>();
+    for (int c = 0; c < rowsByClass.size(); c++) {
+      for (int[] cell : kMeans(samples, stride, rowsByClass.get(c), cellsPerClass, random)) {
+        members.add(cell);
+        groupClasses.add(c);
+      }
+    }
+    return new SampleGroupIndex(stride, members, groupClasses, samples);
+  }
+
+  /** Splits {@code rows} into at most {@code k} non-empty cells by squared L2 k-means. */
+  private static List<int[]> kMeans(
+      float[] samples, int stride, List<Integer> rows, int k, Random random) {
+    List<int[]> cells = new ArrayList<>();
+    int n = rows.size();
+    k = min(max(1, k), n);
+    if (k <= 1) {
+      if (n > 0) {
+        cells.add(toArray(rows));
+      }
+      return cells;
+    }
+
+    // Farthest-point initialisation from a random first center.
+    float[] centers = new float[k * stride];
+    float[] nearest = new float[n];
+    Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+    int next = random.nextInt(n);
+    for (int c = 0; c < k; c++) {
+      System.arraycopy(samples, rows.get(next) * stride, centers, c * stride, stride);
+      int farthest = 0;
+      for (int j = 0; j < n; j++) {
+        nearest[j] = min(nearest[j], squaredDistance(samples, rows.get(j) * stride, centers,
+            c * stride, stride));
+        if (nearest[j] > nearest[farthest]) {
+          farthest = j;
+        }
+      }
+      next = farthest;
+    }
+
+    int[] assignment = new int[n];
+    int[] counts = new int[k];
+    for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+      boolean changed = false;
+      for (int j = 0; j < n; j++) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+          float distance =
+              squaredDistance(samples, rows.get(j) * stride, centers, c * stride, stride);
+          if (distance < bestDistance) {
+            bestDistance = distance;
+            best = c;
+          }
+        }
+        changed |= assignment[j] != best || iteration == 0;
+        assignment[j] = best;
+      }
+      if (!changed) {
+        break;
+      }
+      Arrays.fill(centers, 0);
+      Arrays.fill(counts, 0);
+      for (int j = 0; j < n; j++) {
+        int offset = rows.get(j) * stride;
+        int centerOffset = assignment[j] * stride;
+        for (int i = 0; i < stride; i++) {
+          centers[centerOffset + i] += samples[offset + i];
+        }
+        counts[assignment[j]]++;
+      }
+      for (int c = 0; c < k; c++) {
+        for (int i = 0; i < stride && counts[c] > 0; i++) {
+          centers[c * stride + i] /= counts[c];
+        }
+      }
+    }
+
+    for (int c = 0; c < k; c++) {
+      List<Integer> cell = new ArrayList<>();
+      for (int j = 0; j < n; j++) {
+        if (assignment[j] == c) {
+          cell.add(rows.get(j));
+        }
+      }
+      if (!cell.isEmpty()) {
+        cells.add(toArray(cell));
+      }
+    }
+    return cells;
+  }
+
+  private static float squaredDistance(
+      float[] a, int offsetA, float[] b, int offsetB, int length) {
+    float sum = 0;
+    for (int i = 0; i < length; i++) {
+      float d = a[offsetA + i] - b[offsetB + i];
+      sum += d * d;
+    }
+    return sum;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Returns a copy with {@code row} of {@code samples} added to the group of class
+   * {@code classIndex} with the nearest centroid, or to a new group if the class has none. That
+   * group's box is widened to the new sample and its centroid moved towards it; cells are not
+   * re-clustered, and the other groups' members are shared with this index.
+   */
+  SampleGroupIndex withSample(float[] samples, int row, int classIndex) {
+    int offset = row * stride;
+    int nearest = -1;
+    float nearestDistance = Float.POSITIVE_INFINITY;
+    for (int g = 0; g < members.length; g++) {
+      if (groupClasses[g] == classIndex) {
+        float distance = squaredDistance(samples, offset, centroids, g * stride, stride);
+        if (distance < nearestDistance) {
+          nearestDistance = distance;
+          nearest = g;
+        }
+      }
+    }
+    int groupCount = nearest >= 0 ? members.length : members.length + 1;
+    int[][] newMembers = Arrays.copyOf(members, groupCount);
+    int[] newGroupClasses = Arrays.copyOf(groupClasses, groupCount);
+    float[] newLowerBounds = Arrays.copyOf(lowerBounds, groupCount * stride);
+    float[] newUpperBounds = Arrays.copyOf(upperBounds, groupCount * stride);
+    float[] newCentroids = Arrays.copyOf(centroids, groupCount * stride);
+    int g = nearest;
+    if (g < 0) {
+      g = groupCount - 1;
+      newMembers[g] = new int[0];
+      newGroupClasses[g] = classIndex;
+      Arrays.fill(newLowerBounds, g * stride, groupCount * stride, Float.POSITIVE_INFINITY);
+      Arrays.fill(newUpperBounds, g * stride, groupCount * stride, Float.NEGATIVE_INFINITY);
+    }
+    int memberCount = newMembers[g].length;
+    newMembers[g] = Arrays.copyOf(newMembers[g], memberCount + 1);
+    newMembers[g][memberCount] = row;
+    int groupOffset = g * stride;
+    for (int i = 0; i < stride; i++) {
+      float value = samples[offset + i];
+      newLowerBounds[groupOffset + i] = min(newLowerBounds[groupOffset + i], value);
+      newUpperBounds[groupOffset + i] = max(newUpperBounds[groupOffset + i], value);
+      newCentroids[groupOffset + i] += (value - newCentroids[groupOffset + i]) / (memberCount + 1);
+    }
+    return new SampleGroupIndex(stride, newMembers, newGroupClasses, newLowerBounds,
+        newUpperBounds, newCentroids);
+  }
+
+  /**
+   * Returns a copy for samples that were moved to {@code newRows[row]}, or dropped where that is
+   * negative. Groups left without members are dropped. Boxes and centroids are kept: a box that
+   * held every old member still holds the remaining ones, so the search stays exact.
+   */
+  SampleGroupIndex withRowsMoved(int[] newRows) {
+    List<int[]> newMembers = new ArrayList<>();
+    List<Integer> keptGroups = new ArrayList<>();
+    for (int g = 0; g < members.length; g++) {
+      int[] rows = new int[members[g].length];
+      int count = 0;
+      for (int row : members[g]) {
+        if (newRows[row] >= 0) {
+          rows[count++] = newRows[row];
+        }
+      }
+      if (count > 0) {
+        newMembers.add(Arrays.copyOf(rows, count));
+        keptGroups.add(g);
+      }
+    }
+    int groupCount = keptGroups.size();
+    int[] newGroupClasses = new int[groupCount];
+    float[] newLowerBounds = new float[groupCount * stride];
+    float[] newUpperBounds = new float[groupCount * stride];
+    float[] newCentroids = new float[groupCount * stride];
+    for (int i = 0; i < groupCount; i++) {
+      int g = keptGroups.get(i);
+      newGroupClasses[i] = groupClasses[g];
+      System.arraycopy(lowerBounds, g * stride, newLowerBounds, i * stride, stride);
+      System.arraycopy(upperBounds, g * stride, newUpperBounds, i * stride, stride);
+      System.arraycopy(centroids, g * stride, newCentroids, i * stride, stride);
+    }
+    return new SampleGroupIndex(stride, newMembers.toArray(new int[0][]), newGroupClasses,
+        newLowerBounds, newUpperBounds, newCentroids);
+  }
+
+  public int groupCount() {
+    return members.length;
+  }
+
+  /** Class index, as in {@link PoseSampleMatrix#getClassIndex}, of all members of a group. */
+  public int getGroupClass(int group) {
+    return groupClasses[group];
+  }
+
+  public int getGroupSize(int group) {
+    return members[group].length;
+  }
+
+  /**
+   * Mean weighted embedding of every group, group {@code g} occupying
+   * {@code [g * stride, (g + 1) * stride)}. Callers must not modify it.
+   */
+  float[] centroids() {
+    return centroids;
+  }
+
+  /** The member of {@code group} closest to its centroid, as a row of {@code samples}. */
+  int medoidRow(float[] samples, int group) {
+    int medoid = -1;
+    float medoidDistance = Float.POSITIVE_INFINITY;
+    for (int row : members[group]) {
+      float distance = squaredDistance(samples, row * stride, centroids, group * stride, stride);
+      if (distance < medoidDistance) {
+        medoidDistance = distance;
+        medoid = row;
+      }
+    }
+    return medoid;
+  }
+
+  /**
+   * Offers every sample that was not removed and can still make it into the top K to
+   * {@code heap}, which must be empty. The scratch arrays must hold at least
+   * {@link #groupCount()} entries.
+   */
+  void search(DistanceKernel kernel, PoseSampleMatrix sampleMatrix, float[] query,
+      float[] flippedQuery, TopKHeap heap, ClassificationStats stats, float[] groupBounds,
+      float[] groupKeys, int[] groupOrder) {
+    int groupCount = members.length;
+    for (int g = 0; g < groupCount; g++) {
+      int offset = g * stride;
+      groupBounds[g] = min(boxDistance(query, offset), boxDistance(flippedQuery, offset));
+      groupKeys[g] = min(centroidDistance(query, offset), centroidDistance(flippedQuery, offset));
+      // Insertion sort by centroid distance; there are only a handful of groups.
+      int j = g;
+      while (j > 0 && groupKeys[groupOrder[j - 1]] > groupKeys[g]) {
+        groupOrder[j] = groupOrder[j - 1];
+        j--;
+      }
+      groupOrder[j] = g;
+    }
+
+    float[] samples = sampleMatrix.embeddings();
+    int dimensions = stride / 3;
+    for (int k = 0; k < groupCount; k++) {
+      int g = groupOrder[k];
+      int[] rows = members[g];
+      if (groupBounds[g] > heap.bound()) {
+        stats.addSkippedSamples(rows.length, dimensions);
+        continue;
+      }
+      for (int row : rows) {
+        if (!sampleMatrix.isRemoved(row)) {
+          kernel.offerMaxDistance(samples, query, flippedQuery, row, heap, stats);
+        }
+      }
+    }
+  }
+
+  /** L-inf distance from {@code query} to the bounding box of the group at {@code offset}. */
+  private float boxDistance(float[] query, int offset) {
+    float distance = 0;
+    for (int i = 0; i < stride; i++) {
+      float value = query[i];
+      distance = max(distance,
+          max(lowerBounds[offset + i] - value, value - upperBounds[offset + i]));
+    }
+    return distance;
+  }
+
+  private float centroidDistance(float[] query, int offset) {
+    float distance = 0;
+    for (int i = 0; i < stride; i++) {
+      distance = max(distance, abs(query[i] - centroids[offset + i]));
+    }
+    return distance;
+  }
+}
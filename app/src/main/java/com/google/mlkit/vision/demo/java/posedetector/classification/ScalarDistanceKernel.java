@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Plain Java {@link DistanceKernel}, one embedding point at a time. Runs everywhere and defines
+ * the results every other kernel must reproduce.
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+  static final ScalarDistanceKernel INSTANCE = new ScalarDistanceKernel();
+
+  private ScalarDistanceKernel() {}
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The max distance only grows as more embedding points are compared, so a sample is abandoned
+   * as soon as both its original and flipped partial maxima exceed the current K-th best.
+   */
+  @Override
+  public void offerMaxDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats) {
+    int stride = query.length;
+    int offset = row * stride;
+    float bound = heap.bound();
+    float originalMax = 0;
+    float flippedMax = 0;
+    int i = 0;
+    while (i < stride) {
+      float sampleX = samples[offset + i];
+      float sampleY = samples[offset + i + 1];
+      float sampleZ = samples[offset + i + 2];
+      originalMax = max(originalMax, max(abs(query[i] - sampleX),
+          max(abs(query[i + 1] - sampleY), abs(query[i + 2] - sampleZ))));
+      flippedMax = max(flippedMax, max(abs(flippedQuery[i] - sampleX),
+          max(abs(flippedQuery[i + 1] - sampleY), abs(flippedQuery[i + 2] - sampleZ))));
+      i += 3;
+      if (originalMax > bound && flippedMax > bound) {
+        break;
+      }
+    }
+    stats.addSample(i / 3, stride / 3);
+    if (i == stride) {
+      // Set the max distance as min of original and flipped max distance.
+      heap.offer(min(originalMax, flippedMax), row);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Sums are accumulated point by point in embedding order; other kernels must keep that order,
+   * since float addition is not associative.
+   */
+  @Override
+  public void offerSumDistance(float[] samples, float[] query, float[] flippedQuery, int row,
+      TopKHeap heap, ClassificationStats stats) {
+    int stride = query.length;
+    int offset = row * stride;
+    float bound = heap.bound();
+    float originalSum = 0;
+    float flippedSum = 0;
+    int i = 0;
+    while (i < stride) {
+      float sampleX = samples[offset + i];
+      float sampleY = samples[offset + i + 1];
+      float sampleZ = samples[offset + i + 2];
+      originalSum +=
+          abs(query[i] - sampleX) + abs(query[i + 1] - sampleY) + abs(query[i + 2] - sampleZ);
+      flippedSum += abs(flippedQuery[i] - sampleX) + abs(flippedQuery[i + 1] - sampleY)
+          + abs(flippedQuery[i + 2] - sampleZ);
+      i += 3;
+      if (originalSum > bound && flippedSum > bound) {
+        break;
+      }
+    }
+    stats.addSample(i / 3, stride / 3);
+    if (i == stride) {
+      // Dividing by the number of values would give the mean distance; it doesn't change the
+      // order, so rank by the min of original and flipped sums directly.
+      heap.offer(min(originalSum, flippedSum), row);
+    }
+  }
+}
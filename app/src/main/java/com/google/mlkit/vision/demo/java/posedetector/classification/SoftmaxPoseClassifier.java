@@ -0,0 +1,352 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.exp;
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+
+import android.content.Context;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Linear softmax (multinomial logistic regression) model over the weighted pose embedding: one
+ * dot product per class per frame, with a model of a few KB instead of the samples.
+ *
+ * <p>The model is trained from the same samples as {@link PoseClassifier}, by {@link #train} at
+ * startup or offline by the {@code generatePoseSoftmaxModel} Gradle task, with every sample also
+ * mirrored on the X axis. At inference the class probabilities of the pose and of its mirror
+ * image are averaged, so the model is as mirror invariant as the kNN search. Confidences are these
+ * probabilities times {@link #confidenceRange()}.
+ *
+ * <p>Model files, little endian: a header (magic, version, source hash, class count, values per
+ * embedding, axes weights), then the weights as one float block of class count rows, the bias of
+ * every class, and finally the class names as length-prefixed UTF-8. The source hash is the
+ * CRC32 of the csv the model was trained on, as in a {@link PoseSamplePack}.
+ */
+public class SoftmaxPoseClassifier implements PoseClassificationBackend {
+  private static final int MAGIC = 0x314D5350; // "PSM1" in little endian
+  private static final int VERSION = 2;
+  // Full-batch gradient descent on standardized features; converges well within these epochs on
+  // the bundled samples.
+  private static final int TRAINING_EPOCHS = 500;
+  private static final double LEARNING_RATE = 0.5;
+  private static final double L2_PENALTY = 1e-4;
+
+  private final int classCount;
+  private final int stride;
+  private final float[] weights;
+  private final float[] biases;
+  private final String[] classNames;
+  private final PointF3D axesWeights;
+  private final int confidenceRange;
+
+  // Per-frame scratch, reused across calls to classify().
+  private final float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+  private final float[] query;
+  private final double[] logits;
+  private final double[] flippedLogits;
+
+  /**
+   * Wraps trained parameters: the logit of class {@code c} is {@code biases[c]} plus the dot
+   * product of row {@code c} of {@code weights} with the weighted embedding. The arrays are used as
+   * is and must not be modified afterwards.
+   */
+  SoftmaxPoseClassifier(int stride, float[] weights, float[] biases, String[] classNames,
+      PointF3D axesWeights) {
+    Preconditions.checkArgument(
+        biases.length == classNames.length && weights.length == classNames.length * stride,
+        "Weights and biases must match the number of classes");
+    this.classCount = classNames.length;
+    this.stride = stride;
+    this.weights = weights;
+    this.biases = biases;
+    this.classNames = classNames;
+    this.axesWeights = axesWeights;
+    this.confidenceRange = PoseClassifier.MEAN_DISTANCE_TOP_K;
+    this.query = new float[stride];
+    this.logits = new double[classCount];
+    this.flippedLogits = new double[classCount];
+  }
+
+  /** Trains a model on the samples of {@code sampleMatrix} and their mirror images. */
+  public static SoftmaxPoseClassifier train(PoseSampleMatrix sampleMatrix) {
+    Preconditions.checkArgument(sampleMatrix.size() > 0 && sampleMatrix.removedCount() == 0,
+        "Expected a non-empty sample set without removed samples");
+    int size = sampleMatrix.size();
+    int stride = sampleMatrix.stride();
+    int classCount = sampleMatrix.classCount();
+    float[] samples = sampleMatrix.embeddings();
+
+    // Mirroring negates X, so X has mean 0 over the augmented set and mirrored rows are never
+    // materialized: row r >= size is row r - size with X negated.
+    int rows = 2 * size;
+    double[] means = new double[stride];
+    double[] scales = new double[stride];
+    for (int row = 0; row < size; row++) {
+      for (int i = 0; i < stride; i++) {
+        double value = samples[row * stride + i];
+        means[i] += i % 3 == 0 ? 0 : 2 * value;
+        scales[i] += 2 * value * value;
+      }
+    }
+    for (int i = 0; i < stride; i++) {
+      means[i] /= rows;
+      double variance = scales[i] / rows - means[i] * means[i];
+      scales[i] = variance > 1e-12 ? 1 / sqrt(variance) : 1;
+    }
+
+    double[] w = new double[classCount * stride];
+    double[] b = new double[classCount];
+    double[] gradW = new double[classCount * stride];
+    double[] gradB = new double[classCount];
+    double[] x = new double[stride];
+    double[] p = new double[classCount];
+    for (int epoch = 0; epoch < TRAINING_EPOCHS; epoch++) {
+      Arrays.fill(gradW, 0);
+      Arrays.fill(gradB, 0);
+      for (int row = 0; row < rows; row++) {
+        int sample = row % size;
+        boolean mirrored = row >= size;
+        for (int i = 0; i < stride; i++) {
+          double value = samples[sample * stride + i];
+          x[i] = ((mirrored && i % 3 == 0 ? -value : value) - means[i]) * scales[i];
+        }
+        for (int c = 0; c < classCount; c++) {
+          double logit = b[c];
+          for (int i = 0; i < stride; i++) {
+            logit += w[c * stride + i] * x[i];
+          }
+          p[c] = logit;
+        }
+        softmax(p);
+        p[sampleMatrix.getClassIndex(sample)] -= 1;
+        for (int c = 0; c < classCount; c++) {
+          gradB[c] += p[c];
+          for (int i = 0; i < stride; i++) {
+            gradW[c * stride + i] += p[c] * x[i];
+          }
+        }
+      }
+      for (int c = 0; c < classCount; c++) {
+        b[c] -= LEARNING_RATE * gradB[c] / rows;
+        for (int i = 0; i < stride; i++) {
+          int j = c * stride + i;
+          w[j] -= LEARNING_RATE * (gradW[j] / rows + L2_PENALTY * w[j]);
+        }
+      }
+    }
+
+    // Fold the standardization into the parameters, so inference works on raw embeddings.
+    float[] weights = new float[classCount * stride];
+    float[] biases = new float[classCount];
+    for (int c = 0; c < classCount; c++) {
+      double bias = b[c];
+      for (int i = 0; i < stride; i++) {
+        double weight = w[c * stride + i] * scales[i];
+        weights[c * stride + i] = (float) weight;
+        bias -= weight * means[i];
+      }
+      biases[c] = (float) bias;
+    }
+    String[] classNames = new String[classCount];
+    for (int c = 0; c < classCount; c++) {
+      classNames[c] = sampleMatrix.getClassNameForIndex(c);
+    }
+    return new SoftmaxPoseClassifier(
+        stride, weights, biases, classNames, sampleMatrix.getAxesWeights());
+  }
+
+  /** Turns {@code logits} into probabilities in place. */
+  private static void softmax(double[] logits) {
+    double maxLogit = Double.NEGATIVE_INFINITY;
+    for (double logit : logits) {
+      maxLogit = max(maxLogit, logit);
+    }
+    double sum = 0;
+    for (int c = 0; c < logits.length; c++) {
+      logits[c] = exp(logits[c] - maxLogit);
+      sum += logits[c];
+    }
+    for (int c = 0; c < logits.length; c++) {
+      logits[c] /= sum;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "softmax";
+  }
+
+  @Override
+  public SoftmaxPoseClassifier newInstance() {
+    return new SoftmaxPoseClassifier(stride, weights, biases, classNames, axesWeights);
+  }
+
+  @Override
+  public ClassificationResult classify(List<PointF3D> landmarks) {
+    ClassificationResult result = new ClassificationResult();
+    // Return early if no landmarks detected.
+    if (landmarks.isEmpty()) {
+      return result;
+    }
+
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, query, 0);
+    PoseSampleMatrix.applyWeights(query, 0, query.length, axesWeights);
+    for (int c = 0; c < classCount; c++) {
+      // The mirrored query only negates X, so both logits share the Y and Z terms.
+      float xTerms = 0;
+      float otherTerms = biases[c];
+      int offset = c * stride;
+      for (int i = 0; i < stride; i += 3) {
+        xTerms += weights[offset + i] * query[i];
+        otherTerms += weights[offset + i + 1] * query[i + 1]
+            + weights[offset + i + 2] * query[i + 2];
+      }
+      logits[c] = otherTerms + xTerms;
+      flippedLogits[c] = otherTerms - xTerms;
+    }
+    softmax(logits);
+    softmax(flippedLogits);
+    for (int c = 0; c < classCount; c++) {
+      result.putClassConfidence(
+          classNames[c], (float) (confidenceRange * (logits[c] + flippedLogits[c]) / 2));
+    }
+    return result;
+  }
+
+  @Override
+  public int confidenceRange() {
+    return confidenceRange;
+  }
+
+  @Override
+  public long getSizeBytes() {
+    return 4L * classCount * (stride + 1);
+  }
+
+  /**
+   * Reads a model asset.
+   *
+   * @param sourceHash CRC32 of the csv the model must have been trained on
+   * @throws IOException if the asset is missing or malformed, was trained on another csv, or was
+   *     trained with other axes weights than {@code axesWeights}
+   */
+  public static SoftmaxPoseClassifier load(Context context, String assetPath, int sourceHash,
+      PointF3D axesWeights) throws IOException {
+    // Models are a few KB, so the asset may as well be compressed and read in one go.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = context.getAssets().open(assetPath)) {
+      byte[] chunk = new byte[8192];
+      for (int n = in.read(chunk); n > 0; n = in.read(chunk)) {
+        bytes.write(chunk, 0, n);
+      }
+    }
+    return read(ByteBuffer.wrap(bytes.toByteArray()), sourceHash, axesWeights);
+  }
+
+  /**
+   * Reads a model from {@code buffer}, starting at its current position, if it was trained on the
+   * csv with {@code sourceHash}.
+   */
+  static SoftmaxPoseClassifier read(ByteBuffer buffer, int sourceHash, PointF3D axesWeights)
+      throws IOException {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Not a version " + VERSION + " softmax pose model");
+      }
+      int modelSourceHash = buffer.getInt();
+      if (modelSourceHash != sourceHash) {
+        throw new IOException(String.format(Locale.US,
+            "Stale softmax pose model, trained on csv %08x instead of %08x",
+            modelSourceHash, sourceHash));
+      }
+      int classCount = buffer.getInt();
+      int stride = buffer.getInt();
+      PointF3D modelAxesWeights =
+          PointF3D.from(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+      if (!PoseSampleMatrix.sameAxesWeights(modelAxesWeights, axesWeights)) {
+        throw new IOException("Model was trained with other axes weights");
+      }
+      if (classCount <= 0 || stride <= 0 || stride % 3 != 0) {
+        throw new IOException("Bad model header");
+      }
+      float[] weights = new float[classCount * stride];
+      buffer.asFloatBuffer().get(weights);
+      buffer.position(buffer.position() + 4 * weights.length);
+      float[] biases = new float[classCount];
+      buffer.asFloatBuffer().get(biases);
+      buffer.position(buffer.position() + 4 * biases.length);
+      String[] classNames = new String[classCount];
+      for (int c = 0; c < classCount; c++) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        classNames[c] = new String(name, StandardCharsets.UTF_8);
+      }
+      return new SoftmaxPoseClassifier(stride, weights, biases, classNames, axesWeights);
+    } catch (BufferUnderflowException | NegativeArraySizeException e) {
+      throw new IOException("Truncated softmax pose model", e);
+    }
+  }
+
+  /**
+   * Writes the model in the format {@link #read} expects.
+   *
+   * @param sourceHash CRC32 of the csv the model was trained on
+   */
+  public void write(int sourceHash, OutputStream out) throws IOException {
+    List<byte[]> names = new ArrayList<>();
+    int nameBytes = 0;
+    for (String className : classNames) {
+      byte[] name = className.getBytes(StandardCharsets.UTF_8);
+      names.add(name);
+      nameBytes += 4 + name.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(
+        8 * 4 + 4 * (weights.length + biases.length) + nameBytes)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC)
+        .putInt(VERSION)
+        .putInt(sourceHash)
+        .putInt(classCount)
+        .putInt(stride)
+        .putFloat(axesWeights.getX())
+        .putFloat(axesWeights.getY())
+        .putFloat(axesWeights.getZ());
+    buffer.asFloatBuffer().put(weights).put(biases);
+    buffer.position(buffer.position() + 4 * (weights.length + biases.length));
+    for (byte[] name : names) {
+      buffer.putInt(name.length).put(name);
+    }
+    out.write(buffer.array());
+  }
+}
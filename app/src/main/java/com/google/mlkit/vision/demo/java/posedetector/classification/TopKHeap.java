@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Fixed-capacity max-heap of (distance, sample row) pairs that keeps the K closest samples without
+ * boxing. The farthest kept sample sits on top so it can be replaced in place.
+ *
+ * <p>Entries are ordered by distance and then by row, so the kept set does not depend on the order
+ * in which candidates are offered.
+ */
+final class TopKHeap {
+  private final float[] distances;
+  private final int[] rows;
+  private int size;
+  private float ceiling = Float.POSITIVE_INFINITY;
+
+  TopKHeap(int capacity) {
+    distances = new float[capacity];
+    rows = new int[capacity];
+  }
+
+  void clear() {
+    clear(Float.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Empties the heap and rejects candidates farther than {@code ceiling} until the next clear. If
+   * at least K candidates are known to be within {@code ceiling}, the kept set is unchanged; the
+   * bound is just tight from the first offer.
+   */
+  void clear(float ceiling) {
+    size = 0;
+    this.ceiling = ceiling;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return rows.length;
+  }
+
+  boolean isFull() {
+    return size == rows.length;
+  }
+
+  /**
+   * Returns the distance a candidate has to beat to be kept: the farthest kept distance once the
+   * heap is full, the ceiling (infinity by default) before that.
+   */
+  float bound() {
+    return isFull() && size > 0 ? distances[0] : ceiling;
+  }
+
+  /** Returns the row of the farthest kept sample. Only valid when the heap is not empty. */
+  int topRow() {
+    return rows[0];
+  }
+
+  /** Distance of the i-th entry, in heap order. */
+  float distanceAt(int i) {
+    return distances[i];
+  }
+
+  /** Row of the i-th entry, in heap order. */
+  int rowAt(int i) {
+    return rows[i];
+  }
+
+  /** Offers a candidate and returns whether it was kept. */
+  boolean offer(float distance, int row) {
+    if (distance > ceiling) {
+      return false;
+    }
+    if (size < rows.length) {
+      siftUp(size++, distance, row);
+      return true;
+    }
+    if (size == 0 || !isCloser(distance, row, distances[0], rows[0])) {
+      return false;
+    }
+    siftDown(0, distance, row);
+    return true;
+  }
+
+  /** Whether {@code (distance, row)} orders before {@code (otherDistance, otherRow)}. */
+  static boolean isCloser(float distance, int row, float otherDistance, int otherRow) {
+    return distance < otherDistance || (distance == otherDistance && row < otherRow);
+  }
+
+  private void siftUp(int index, float distance, int row) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!isCloser(distances[parent], rows[parent], distance, row)) {
+        break;
+      }
+      distances[index] = distances[parent];
+      rows[index] = rows[parent];
+      index = parent;
+    }
+    distances[index] = distance;
+    rows[index] = row;
+  }
+
+  private void siftDown(int index, float distance, int row) {
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && isCloser(distances[child], rows[child], distances[right], rows[right])) {
+        child = right;
+      }
+      if (!isCloser(distance, row, distances[child], rows[child])) {
+        break;
+      }
+      distances[index] = distances[child];
+      rows[index] = rows[child];
+      index = child;
+    }
+    distances[index] = distance;
+    rows[index] = row;
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.common.base.Preconditions;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Exact vantage-point tree over a {@link PoseSampleMatrix} for the max-distance stage of
+ * {@link PoseClassifier}, i.e. k-nearest-neighbour search under the weighted Chebyshev (L-inf)
+ * metric.
+ *
+ * <p>The tree indexes every sample twice, as is and mirrored (X negated). The distance from the
+ * mirrored query to a sample equals the distance from the query to the mirrored sample, so the
+ * classifier's {@code min(original, flipped)} distance becomes a plain nearest-neighbour query over
+ * both variants. A visited sample is offered once with exactly the distance the linear scan
+ * computes, and subtrees are only pruned when their lower bound is strictly above the current K-th
+ * best (with a little slack for float rounding). Results are therefore identical to the scan.
+ *
+ * <p>Nodes are stored implicitly: the subtree over {@code order[lo, hi)} has its vantage point at
+ * {@code lo}, points within {@code radius[lo]} in {@code [lo + 1, split[lo])} and the rest in
+ * {@code [split[lo], hi)}. Small ranges are leaves ({@code split[lo] == LEAF}) and are scanned.
+ */
+public class VantagePointTree {
+  private static final int MAGIC = 0x56505431; // "VPT1"
+  private static final int VERSION = 1;
+  private static final int LEAF = -1;
+  private static final int LEAF_SIZE = 16;
+  // Relative slack on pruning bounds so float rounding can never prune a true neighbour.
+  private static final float BOUND_SLACK = 1e-5f;
+
+  private final int sampleCount;
+  private final int stride;
+  private final int checksum;
+  // Point ids in tree order: id < sampleCount is a sample, otherwise the mirrored sample
+  // id - sampleCount.
+  private final int[] order;
+  private final float[] radius;
+  private final int[] split;
+
+  private VantagePointTree(
+      int sampleCount, int stride, int checksum, int[] order, float[] radius, int[] split) {
+    this.sampleCount = sampleCount;
+    this.stride = stride;
+    this.checksum = checksum;
+    this.order = order;
+    this.radius = radius;
+    this.split = split;
+  }
+
+  /** Builds the tree for {@code sampleMatrix}. {@code seed} makes vantage choices reproducible. */
+  public static VantagePointTree build(PoseSampleMatrix sampleMatrix, long seed) {
+    Preconditions.checkArgument(
+        sampleMatrix.removedCount() == 0, "Removed samples are not supported");
+    int points = 2 * sampleMatrix.size();
+    int[] order = new int[points];
+    for (int i = 0; i < points; i++) {
+      order[i] = i;
+    }
+    VantagePointTree tree = new VantagePointTree(sampleMatrix.size(), sampleMatrix.stride(),
+        checksum(sampleMatrix), order, new float[points], new int[points]);
+    tree.build(sampleMatrix, 0, points, new float[points], new Random(seed));
+    return tree;
+  }
+
+  private void build(PoseSampleMatrix sampleMatrix, int lo, int hi, float[] scratch,
+      Random random) {
+    if (hi - lo <= LEAF_SIZE) {
+      split[lo] = LEAF;
+      return;
+    }
+    swap(order, lo, lo + random.nextInt(hi - lo));
+    float[] samples = sampleMatrix.embeddings();
+    int vantage = order[lo];
+    for (int i = lo + 1; i < hi; i++) {
+      scratch[i] = pointDistance(samples, vantage, order[i]);
+    }
+    // Median split: the closer half goes inside the vantage point's ball.
+    sortByDistance(scratch, lo + 1, hi);
+    int mid = (lo + 1 + hi) >>> 1;
+    radius[lo] = scratch[mid - 1];
+    split[lo] = mid;
+    build(sampleMatrix, lo + 1, mid, scratch, random);
+    build(sampleMatrix, mid, hi, scratch, random);
+  }
+
+  private void sortByDistance(float[] distances, int from, int to) {
+    // Sorts order[from, to) by distances[from, to), keeping both arrays aligned.
+    long[] keyed = new long[to - from];
+    for (int i = from; i < to; i++) {
+      // Non-negative floats sort like their int bits.
+      keyed[i - from] = ((long) Float.floatToIntBits(distances[i]) << 32) | order[i];
+    }
+    Arrays.sort(keyed);
+    for (int i = from; i < to; i++) {
+      order[i] = (int) keyed[i - from];
+      distances[i] = Float.intBitsToFloat((int) (keyed[i - from] >>> 32));
+    }
+  }
+
+  /** Weighted L-inf distance between two point ids. */
+  private float pointDistance(float[] samples, int a, int b) {
+    int offsetA = (a % sampleCount) * stride;
+    int offsetB = (b % sampleCount) * stride;
+    // X of exactly one mirrored point flips the sign of the difference to a sum.
+    boolean mirrored = (a >= sampleCount) != (b >= sampleCount);
+    float distance = 0;
+    for (int i = 0; i < stride; i += 3) {
+      float dx = mirrored
+          ? samples[offsetA + i] + samples[offsetB + i]
+          : samples[offsetA + i] - samples[offsetB + i];
+      distance = max(distance, max(abs(dx), max(
+          abs(samples[offsetA + i + 1] - samples[offsetB + i + 1]),
+          abs(samples[offsetA + i + 2] - samples[offsetB + i + 2]))));
+    }
+    return distance;
+  }
+
+  /** Whether this tree was built for exactly the samples of {@code sampleMatrix}. */
+  public boolean matches(PoseSampleMatrix sampleMatrix) {
+    return sampleMatrix.size() == sampleCount && sampleMatrix.stride() == stride
+        && checksum(sampleMatrix) == checksum;
+  }
+
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Offers the K nearest samples to {@code heap}, which must be empty.
+   *
+   * @param visitStamps scratch of at least {@code getSampleCount()} ints, owned by the caller
+   * @param stamp a value not yet stored in {@code visitStamps}, marks samples of this query
+   */
+  void search(DistanceKernel kernel, PoseSampleMatrix sampleMatrix, float[] query,
+      float[] flippedQuery, TopKHeap heap, ClassificationStats stats, int[] visitStamps,
+      int stamp) {
+    int visited = search(kernel, sampleMatrix.embeddings(), query, flippedQuery, 0, order.length,
+        heap, stats, visitStamps, stamp);
+    stats.addSkippedSamples(sampleCount - visited, stride / 3);
+  }
+
+  private int search(DistanceKernel kernel, float[] samples, float[] query, float[] flippedQuery,
+      int lo, int hi, TopKHeap heap, ClassificationStats stats, int[] visitStamps, int stamp) {
+    if (lo >= hi) {
+      return 0;
+    }
+    if (split[lo] == LEAF) {
+      int visited = 0;
+      for (int i = lo; i < hi; i++) {
+        if (visit(kernel, samples, query, flippedQuery, order[i], heap, stats, visitStamps,
+            stamp)) {
+          visited++;
+        }
+      }
+      return visited;
+    }
+
+    int vantage = order[lo];
+    int row = vantage % sampleCount;
+    int offset = row * stride;
+    float originalMax = 0;
+    float flippedMax = 0;
+    for (int i = 0; i < stride; i++) {
+      float sample = samples[offset + i];
+      originalMax = max(originalMax, abs(query[i] - sample));
+      flippedMax = max(flippedMax, abs(flippedQuery[i] - sample));
+    }
+    int visited = 0;
+    if (visitStamps[row] != stamp) {
+      visitStamps[row] = stamp;
+      stats.addSample(stride / 3, stride / 3);
+      heap.offer(min(originalMax, flippedMax), row);
+      visited++;
+    }
+
+    // Distance from the query to this vantage point, which is the mirrored sample for ids past
+    // sampleCount.
+    float distance = vantage < sampleCount ? originalMax : flippedMax;
+    float mu = radius[lo];
+    float slack = BOUND_SLACK * (distance + mu);
+    int mid = split[lo];
+    if (distance <= mu) {
+      visited += search(kernel, samples, query, flippedQuery, lo + 1, mid, heap, stats,
+          visitStamps, stamp);
+      if (mu - distance <= heap.bound() + slack) {
+        visited += search(kernel, samples, query, flippedQuery, mid, hi, heap, stats, visitStamps,
+            stamp);
+      }
+    } else {
+      visited += search(kernel, samples, query, flippedQuery, mid, hi, heap, stats, visitStamps,
+          stamp);
+      if (distance - mu <= heap.bound() + slack) {
+        visited += search(kernel, samples, query, flippedQuery, lo + 1, mid, heap, stats,
+            visitStamps, stamp);
+      }
+    }
+    return visited;
+  }
+
+  /** Offers a leaf point's sample once per query, abandoning it early if it cannot make it. */
+  private boolean visit(DistanceKernel kernel, float[] samples, float[] query,
+      float[] flippedQuery, int point, TopKHeap heap, ClassificationStats stats, int[] visitStamps,
+      int stamp) {
+    int row = point % sampleCount;
+    if (visitStamps[row] == stamp) {
+      return false;
+    }
+    visitStamps[row] = stamp;
+    kernel.offerMaxDistance(samples, query, flippedQuery, row, heap, stats);
+    return true;
+  }
+
+  /** Serializes the tree so it can ship next to its samples. */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(sampleCount);
+    out.writeInt(stride);
+    out.writeInt(checksum);
+    for (int i = 0; i < order.length; i++) {
+      out.writeInt(order[i]);
+      out.writeFloat(radius[i]);
+      out.writeInt(split[i]);
+    }
+  }
+
+  /**
+   * Reads a tree written by {@link #writeTo}.
+   *
+   * @throws IOException if the data is malformed or was built for different samples
+   */
+  public static VantagePointTree readFrom(DataInputStream in, PoseSampleMatrix sampleMatrix)
+      throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a version " + VERSION + " vantage-point tree");
+    }
+    int sampleCount = in.readInt();
+    int stride = in.readInt();
+    int checksum = in.readInt();
+    int points = 2 * sampleCount;
+    int[] order = new int[points];
+    float[] radius = new float[points];
+    int[] split = new int[points];
+    boolean[] seen = new boolean[points];
+    for (int i = 0; i < points; i++) {
+      order[i] = in.readInt();
+      radius[i] = in.readFloat();
+      split[i] = in.readInt();
+      // Every point must appear exactly once, or searches would miss samples.
+      if (order[i] < 0 || order[i] >= points || seen[order[i]]) {
+        throw new IOException("Corrupt vantage-point tree node " + i);
+      }
+      seen[order[i]] = true;
+    }
+    VantagePointTree tree =
+        new VantagePointTree(sampleCount, stride, checksum, order, radius, split);
+    int corruptNode = tree.findCorruptNode(0, points);
+    if (corruptNode >= 0) {
+      throw new IOException("Corrupt vantage-point tree node " + corruptNode);
+    }
+    if (!tree.matches(sampleMatrix)) {
+      throw new IOException("Vantage-point tree was built for different pose samples");
+    }
+    return tree;
+  }
+
+  /**
+   * Returns the first node of the subtree over {@code order[lo, hi)} whose split is outside the
+   * subtree or whose radius is negative or not finite, or -1 if there is none. Such a node would
+   * make searches index out of bounds, recurse forever, or prune true neighbours.
+   */
+  private int findCorruptNode(int lo, int hi) {
+    if (lo >= hi || split[lo] == LEAF) {
+      return -1;
+    }
+    int mid = split[lo];
+    float mu = radius[lo];
+    if (mid <= lo || mid > hi || !(mu >= 0) || Float.isInfinite(mu)) {
+      return lo;
+    }
+    int corruptNode = findCorruptNode(lo + 1, mid);
+    return corruptNode >= 0 ? corruptNode : findCorruptNode(mid, hi);
+  }
+
+  private static int checksum(PoseSampleMatrix sampleMatrix) {
+    float[] samples = sampleMatrix.embeddings();
+    int hash = sampleMatrix.size();
+    for (int i = 0; i < sampleMatrix.size() * sampleMatrix.stride(); i++) {
+      hash = 31 * hash + Float.floatToIntBits(samples[i]);
+    }
+    return hash;
+  }
+
+  private static void swap(int[] array, int i, int j) {
+    int tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+}
@@ -27,6 +27,7 @@ import androidx.annotation.StringRes;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSource.SizePair;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +42,7 @@ public class LivePreviewPreferenceFragment extends PreferenceFragment {
     addPreferencesFromResource(R.xml.preference_live_preview_quickstart);
     setUpCameraPreferences();
     setUpFaceDetectionPreferencesForStreamMode();
+    setUpPoseClassifierExercisePreference();
   }
 
   void setUpCameraPreferences() {
@@ -122,6 +124,23 @@ public class LivePreviewPreferenceFragment extends PreferenceFragment {
     }
   }
 
+  private void setUpPoseClassifierExercisePreference() {
+    ListPreference exercisePreference =
+        (ListPreference)
+            findPreference(getString(R.string.pref_key_pose_detector_classifier_exercise));
+    List<String> exercises = PoseClassifierProcessor.getExercises();
+    String[] entries = new String[exercises.size() + 1];
+    String[] entryValues = new String[exercises.size() + 1];
+    entries[0] = getString(R.string.pref_entries_pose_detector_classifier_exercise_all);
+    entryValues[0] = "";
+    for (int i = 0; i < exercises.size(); i++) {
+      entries[i + 1] = exercises.get(i);
+      entryValues[i + 1] = exercises.get(i);
+    }
+    exercisePreference.setEntries(entries);
+    exercisePreference.setEntryValues(entryValues);
+  }
+
   private void setUpFaceDetectionPreferencesForStreamMode() {
     EditTextPreference minFaceSizePreference =
         (EditTextPreference)
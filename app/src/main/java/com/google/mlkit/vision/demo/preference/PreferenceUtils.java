@@ -39,6 +39,7 @@ import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions;
 public class PreferenceUtils {
 
   private static final int POSE_DETECTOR_PERFORMANCE_MODE_FAST = 1;
+  private static final int POSE_CLASSIFIER_BACKEND_KNN = 1;
 
   static void saveString(Context context, @StringRes int prefKeyId, @Nullable String value) {
     PreferenceManager.getDefaultSharedPreferences(context)
@@ -211,6 +212,27 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  /**
+   * Which pose classifier backend to run, as one of the {@code BACKEND_*} constants of
+   * {@code PoseClassifierProcessor}.
+   */
+  public static int getPoseClassifierBackend(Context context) {
+    return getModeTypePreferenceValue(
+        context, R.string.pref_key_pose_detector_classifier_backend, POSE_CLASSIFIER_BACKEND_KNN);
+  }
+
+  /**
+   * The exercise to restrict pose classification to, see
+   * {@code PoseClassifierProcessor#setActiveExercise}, or null for all exercises.
+   */
+  @Nullable
+  public static String getPoseClassifierExercise(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_pose_detector_classifier_exercise);
+    String exercise = sharedPreferences.getString(prefKey, "");
+    return exercise.isEmpty() ? null : exercise;
+  }
+
   public static boolean shouldSegmentationEnableRawSizeMask(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_segmentation_raw_size_mask);
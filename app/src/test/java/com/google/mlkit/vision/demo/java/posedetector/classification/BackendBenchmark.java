@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.WARM_UP_ROUNDS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.log;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.logLatencies;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.searchedPerFrame;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.usedHeapBytes;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.AXES_WEIGHTS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MAX_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MEAN_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks for the {@link PoseClassificationBackend}s, and for classifying within one exercise
+ * of a library of many. See {@link Benchmarks} for how to run them.
+ */
+@RunWith(JUnit4.class)
+public final class BackendBenchmark {
+  // Standard deviation, in pixels, of the offsets that make the copies of the bundled exercises.
+  private static final float EXERCISE_SPREAD = 30f;
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void backends() throws IOException {
+    compareBackends(CSV_FILE, Benchmarks.SOFTMAX_MODEL_FILE, /* cellsPerClass= */ 8,
+        /* rounds= */ 5);
+  }
+
+  @Test
+  public void exerciseScope() throws IOException {
+    List<PoseSample> poseSamples = readPoseSamples(CSV_FILE);
+    List<List<PointF3D>> landmarks = readLandmarks(CSV_FILE);
+    List<List<PointF3D>> session = new ArrayList<>();
+    for (int i = 0; i < poseSamples.size(); i++) {
+      if (poseSamples.get(i).getClassName().startsWith("pushups")) {
+        session.add(landmarks.get(i));
+      }
+    }
+    for (int copies : new int[] {1, 5, 25}) {
+      benchmarkExerciseScope(
+          exerciseLibrary(poseSamples, landmarks, copies, EXERCISE_SPREAD, /* seed= */ 0),
+          session, "pushups", /* otherSamplesPerClass= */ 2, /* cellsPerClass= */ 8);
+    }
+  }
+
+  @Test
+  public void hierarchical() throws IOException {
+    compareHierarchical(readPoseSamples(CSV_FILE), readLandmarks(CSV_FILE),
+        new int[] {1, 5, 25}, EXERCISE_SPREAD, /* cellsPerClass= */ 8,
+        /* exerciseCheckInterval= */ 5, /* minConfidence= */ 0.6f);
+  }
+
+  /**
+   * Classifies the landmarks of every sample of {@code csvFile} with each
+   * {@link PoseClassificationBackend}: the kNN {@link PoseClassifier}, a
+   * {@link NearestCentroidClassifier} with {@code cellsPerClass} cells, and a
+   * {@link SoftmaxPoseClassifier} read from {@code modelFile} as well as one trained from the
+   * samples. Logs the per-frame latency of each over {@code rounds} passes, its model size and the
+   * heap it retains, and how many frames it gives the same top class as kNN.
+   */
+  static void compareBackends(String csvFile, String modelFile, int cellsPerClass, int rounds)
+      throws IOException {
+    List<PoseSample> poseSamples = readPoseSamples(csvFile);
+    List<List<PointF3D>> queries = readLandmarks(csvFile);
+    int csvHash = PoseSamplePackTool.sourceHash(csvFile);
+    List<PoseClassificationBackend> backends = new ArrayList<>();
+    List<Long> heapBytes = new ArrayList<>();
+    // The samples are already on the heap, so only what each backend keeps is counted.
+    long heapBeforeBytes = usedHeapBytes();
+    backends.add(new PoseClassifier(new PoseSampleMatrix(poseSamples, AXES_WEIGHTS),
+        MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K));
+    heapBytes.add(usedHeapBytes() - heapBeforeBytes);
+    heapBeforeBytes = usedHeapBytes();
+    backends.add(new NearestCentroidClassifier(
+        new PoseSampleMatrix(poseSamples, AXES_WEIGHTS), cellsPerClass, MEAN_DISTANCE_TOP_K));
+    heapBytes.add(usedHeapBytes() - heapBeforeBytes);
+    heapBeforeBytes = usedHeapBytes();
+    backends.add(SoftmaxPoseClassifier.read(
+        PoseSamplePackTest.readFile(modelFile), csvHash, AXES_WEIGHTS));
+    heapBytes.add(usedHeapBytes() - heapBeforeBytes);
+    heapBeforeBytes = usedHeapBytes();
+    long trainStartNs = System.nanoTime();
+    backends.add(SoftmaxPoseClassifier.train(new PoseSampleMatrix(poseSamples, AXES_WEIGHTS)));
+    long trainNs = System.nanoTime() - trainStartNs;
+    heapBytes.add(usedHeapBytes() - heapBeforeBytes);
+    log(String.format(Locale.US, "Trained a softmax model on %d samples in %.0f ms",
+        poseSamples.size(), trainNs / 1e6));
+
+    String[] knnClasses = new String[queries.size()];
+    for (int i = 0; i < queries.size(); i++) {
+      knnClasses[i] = backends.get(0).classify(queries.get(i)).getMaxConfidenceClass();
+    }
+    for (int b = 0; b < backends.size(); b++) {
+      PoseClassificationBackend backend = backends.get(b);
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+        for (List<PointF3D> landmarks : queries) {
+          backend.classify(landmarks);
+        }
+      }
+      long[] latenciesNs = new long[rounds * queries.size()];
+      int disagreements = 0;
+      for (int round = 0; round < rounds; round++) {
+        for (int i = 0; i < queries.size(); i++) {
+          long startNs = System.nanoTime();
+          ClassificationResult result = backend.classify(queries.get(i));
+          latenciesNs[round * queries.size() + i] = System.nanoTime() - startNs;
+          if (round == 0 && !result.getMaxConfidenceClass().equals(knnClasses[i])) {
+            disagreements++;
+          }
+        }
+      }
+      String label =
+          b == backends.size() - 1 ? backend.getName() + " (trained)" : backend.getName();
+      log(String.format(Locale.US,
+          "Backend %s: %d model bytes, %d heap bytes, same top class as kNN on %d of %d samples "
+              + "(%.1f%%)",
+          label, backend.getSizeBytes(), heapBytes.get(b), queries.size() - disagreements,
+          queries.size(), 100f * (queries.size() - disagreements) / queries.size()));
+      logLatencies(String.format(Locale.US, "Backend %s", label), latenciesNs, disagreements);
+    }
+  }
+
+  /**
+   * Builds a library of {@code copies} times the exercises of {@code poseSamples}, whose raw
+   * landmarks are {@code landmarks}. Copy 0 is the samples themselves; copy {@code i} renames every
+   * class to {@code ex<i>_<class>}, a separate exercise, and moves every landmark of all its
+   * samples by one random offset per landmark with standard deviation {@code spread}, so that each
+   * copy is a distinct set of poses. The same {@code seed} gives the same offsets, see
+   * {@link #exerciseLandmarks}.
+   */
+  static List<PoseSample> exerciseLibrary(
+      List<PoseSample> poseSamples, List<List<PointF3D>> landmarks, int copies, float spread,
+      long seed) {
+    List<List<PointF3D>> libraryLandmarks = exerciseLandmarks(landmarks, copies, spread, seed);
+    List<PoseSample> library = new ArrayList<>(libraryLandmarks.size());
+    for (int i = 0; i < libraryLandmarks.size(); i++) {
+      PoseSample poseSample = poseSamples.get(i % poseSamples.size());
+      library.add(new PoseSample(poseSample.getName(),
+          exerciseClassName(poseSample.getClassName(), i / poseSamples.size()),
+          libraryLandmarks.get(i)));
+    }
+    return library;
+  }
+
+  /** The landmarks of {@link #exerciseLibrary}, copy by copy, for use as queries. */
+  static List<List<PointF3D>> exerciseLandmarks(
+      List<List<PointF3D>> landmarks, int copies, float spread, long seed) {
+    Random random = new Random(seed);
+    List<List<PointF3D>> libraryLandmarks = new ArrayList<>(landmarks);
+    for (int copy = 1; copy < copies; copy++) {
+      float[] offsets = new float[33 * 3];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = spread * (float) random.nextGaussian();
+      }
+      for (List<PointF3D> sampleLandmarks : landmarks) {
+        List<PointF3D> moved = new ArrayList<>();
+        for (int i = 0; i < sampleLandmarks.size(); i++) {
+          PointF3D point = sampleLandmarks.get(i);
+          moved.add(PointF3D.from(point.getX() + offsets[3 * i],
+              point.getY() + offsets[3 * i + 1], point.getZ() + offsets[3 * i + 2]));
+        }
+        libraryLandmarks.add(moved);
+      }
+    }
+    return libraryLandmarks;
+  }
+
+  private static String exerciseClassName(String className, int copy) {
+    return copy == 0 ? className : "ex" + copy + "_" + className;
+  }
+
+  /**
+   * Classifies {@code session}, poses of {@code exercise}, against all of {@code librarySamples}
+   * and against the {@link ExercisePartitions} partition of {@code exercise} with
+   * {@code otherSamplesPerClass} representatives of every other class. Both searches use
+   * {@link SampleGroupIndex} with {@code cellsPerClass} cells. Logs the samples searched per
+   * frame, the time per frame, and how many frames get another top class than the full search.
+   */
+  static void benchmarkExerciseScope(List<PoseSample> librarySamples,
+      List<List<PointF3D>> session, String exercise, int otherSamplesPerClass,
+      int cellsPerClass) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(librarySamples, AXES_WEIGHTS);
+    PoseClassifier full = new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    full.setSampleGroups(SampleGroupIndex.build(sampleMatrix, cellsPerClass, /* seed= */ 0));
+    long startNs = System.nanoTime();
+    ExercisePartitions partitions = new ExercisePartitions(sampleMatrix, otherSamplesPerClass);
+    PoseSampleMatrix partition = partitions.getSamples(exercise);
+    long partitionNs = System.nanoTime() - startNs;
+    PoseClassifier scoped =
+        new PoseClassifier(partition, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    scoped.setSampleGroups(SampleGroupIndex.build(partition, cellsPerClass, /* seed= */ 0));
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> landmarks : session) {
+        full.classify(landmarks);
+        scoped.classify(landmarks);
+      }
+    }
+    full.getStats().reset();
+    scoped.getStats().reset();
+
+    long fullNs = 0;
+    long scopedNs = 0;
+    int topClassMismatches = 0;
+    for (List<PointF3D> landmarks : session) {
+      long frameStartNs = System.nanoTime();
+      ClassificationResult fullResult = full.classify(landmarks);
+      long midNs = System.nanoTime();
+      ClassificationResult scopedResult = scoped.classify(landmarks);
+      scopedNs += System.nanoTime() - midNs;
+      fullNs += midNs - frameStartNs;
+      if (!fullResult.getMaxConfidenceClass().equals(scopedResult.getMaxConfidenceClass())) {
+        topClassMismatches++;
+      }
+    }
+    log(String.format(Locale.US,
+        "Exercise scope %s, %d exercises, %d samples: partition of %d samples (%.1f%%) built in "
+            + "%.0f ms; %.1f vs %.1f samples searched per frame; %.3f vs %.3f ms/frame; "
+            + "%d of %d frames with another top class",
+        exercise, partitions.getExercises().size(), sampleMatrix.size(), partition.size(),
+        100f * partition.size() / sampleMatrix.size(), partitionNs / 1e6,
+        searchedPerFrame(scoped.getStats()), searchedPerFrame(full.getStats()),
+        scopedNs / 1e6 / session.size(), fullNs / 1e6 / session.size(), topClassMismatches,
+        session.size()));
+  }
+
+  /**
+   * Compares a {@link HierarchicalPoseClassifier} with the flat kNN {@link PoseClassifier} as the
+   * number of classes grows. For every entry of {@code copies}, both are built from the even rows
+   * of {@link #exerciseLibrary} with that many copies, and classify the odd rows in library order,
+   * i.e. as a session going through every class and exercise in turn. Both use
+   * {@link SampleGroupIndex} with {@code cellsPerClass} cells. Logs how many held-out frames each
+   * gets right, the time per frame, and how often the hierarchical classifier ran its first level.
+   */
+  static void compareHierarchical(List<PoseSample> poseSamples,
+      List<List<PointF3D>> landmarks, int[] copies, float spread, int cellsPerClass,
+      int exerciseCheckInterval, float minConfidence) {
+    List<PoseSample> trainSamples = new ArrayList<>();
+    List<List<PointF3D>> trainLandmarks = new ArrayList<>();
+    List<PoseSample> testSamples = new ArrayList<>();
+    List<List<PointF3D>> testLandmarks = new ArrayList<>();
+    for (int i = 0; i < poseSamples.size(); i++) {
+      (i % 2 == 0 ? trainSamples : testSamples).add(poseSamples.get(i));
+      (i % 2 == 0 ? trainLandmarks : testLandmarks).add(landmarks.get(i));
+    }
+
+    for (int copyCount : copies) {
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(exerciseLibrary(
+          trainSamples, trainLandmarks, copyCount, spread, /* seed= */ 0), AXES_WEIGHTS);
+      List<List<PointF3D>> session =
+          exerciseLandmarks(testLandmarks, copyCount, spread, /* seed= */ 0);
+      PoseClassifier flat =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      flat.setSampleGroups(SampleGroupIndex.build(sampleMatrix, cellsPerClass, /* seed= */ 0));
+      flat.setEarlyExit(/* margin= */ 0);
+      HierarchicalPoseClassifier hierarchical = new HierarchicalPoseClassifier(
+          sampleMatrix, cellsPerClass, exerciseCheckInterval, minConfidence);
+      // Warm up on another stream, so the measured one starts without a current exercise.
+      HierarchicalPoseClassifier warmUp = new HierarchicalPoseClassifier(
+          sampleMatrix, cellsPerClass, exerciseCheckInterval, minConfidence);
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+        for (List<PointF3D> frame : session) {
+          flat.classify(frame);
+          warmUp.classify(frame);
+        }
+      }
+
+      long[] flatNs = new long[session.size()];
+      long[] hierarchicalNs = new long[session.size()];
+      int flatCorrect = 0;
+      int hierarchicalCorrect = 0;
+      for (int i = 0; i < session.size(); i++) {
+        String className = exerciseClassName(
+            testSamples.get(i % testSamples.size()).getClassName(), i / testSamples.size());
+        long startNs = System.nanoTime();
+        ClassificationResult flatResult = flat.classify(session.get(i));
+        long midNs = System.nanoTime();
+        ClassificationResult hierarchicalResult = hierarchical.classify(session.get(i));
+        hierarchicalNs[i] = System.nanoTime() - midNs;
+        flatNs[i] = midNs - startNs;
+        if (flatResult.getMaxConfidenceClass().equals(className)) {
+          flatCorrect++;
+        }
+        if (hierarchicalResult.getMaxConfidenceClass().equals(className)) {
+          hierarchicalCorrect++;
+        }
+      }
+      log(String.format(Locale.US,
+          "Hierarchical, %d classes, %d samples: %d vs %d of %d held-out frames right (flat); %s",
+          sampleMatrix.classCount(), sampleMatrix.size(), hierarchicalCorrect, flatCorrect,
+          session.size(), hierarchical));
+      logLatencies(String.format(Locale.US, "Flat, %d classes", sampleMatrix.classCount()),
+          flatNs, 0);
+      logLatencies(String.format(Locale.US, "Hierarchical, %d classes", sampleMatrix.classCount()),
+          hierarchicalNs, 0);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getPoseEmbedding;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.maxAbs;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiply;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.sumAbs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The brute-force two-stage search that {@link PoseClassifier} started from, on lists of points,
+ * kept as the reference its results are checked against.
+ *
+ * <p>Only {@code android.util.Pair} is replaced, since Android classes do nothing in unit tests.
+ */
+final class BaselinePoseClassifier {
+  private final List<PoseSample> poseSamples;
+  private final int maxDistanceTopK;
+  private final int meanDistanceTopK;
+  private final PointF3D axesWeights;
+
+  BaselinePoseClassifier(List<PoseSample> poseSamples) {
+    this(poseSamples, PoseClassifier.MAX_DISTANCE_TOP_K, PoseClassifier.MEAN_DISTANCE_TOP_K,
+        PoseClassifier.AXES_WEIGHTS);
+  }
+
+  BaselinePoseClassifier(List<PoseSample> poseSamples, int maxDistanceTopK,
+      int meanDistanceTopK, PointF3D axesWeights) {
+    this.poseSamples = poseSamples;
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+    this.axesWeights = axesWeights;
+  }
+
+  private static final class SampleDistance {
+    final PoseSample poseSample;
+    final float distance;
+
+    SampleDistance(PoseSample poseSample, float distance) {
+      this.poseSample = poseSample;
+      this.distance = distance;
+    }
+  }
+
+  ClassificationResult classify(List<PointF3D> landmarks) {
+    ClassificationResult result = new ClassificationResult();
+    // Return early if no landmarks detected.
+    if (landmarks.isEmpty()) {
+      return result;
+    }
+
+    // We do flipping on X-axis so we are horizontal (mirror) invariant.
+    List<PointF3D> flippedLandmarks = new ArrayList<>(landmarks);
+    multiplyAll(flippedLandmarks, PointF3D.from(-1, 1, 1));
+
+    List<PointF3D> embedding = getPoseEmbedding(landmarks);
+    List<PointF3D> flippedEmbedding = getPoseEmbedding(flippedLandmarks);
+
+    // Keeps max distance on top so we can pop it when top_k size is reached.
+    PriorityQueue<SampleDistance> maxDistances = new PriorityQueue<>(
+        maxDistanceTopK, (o1, o2) -> -Float.compare(o1.distance, o2.distance));
+    // Retrieve top K poseSamples by least distance to remove outliers.
+    for (PoseSample poseSample : poseSamples) {
+      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
+
+      float originalMax = 0;
+      float flippedMax = 0;
+      for (int i = 0; i < embedding.size(); i++) {
+        originalMax = max(originalMax,
+            maxAbs(multiply(subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights)));
+        flippedMax = max(flippedMax, maxAbs(
+            multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights)));
+      }
+      // Set the max distance as min of original and flipped max distance.
+      maxDistances.add(new SampleDistance(poseSample, min(originalMax, flippedMax)));
+      // We only want to retain top n so pop the highest distance.
+      if (maxDistances.size() > maxDistanceTopK) {
+        maxDistances.poll();
+      }
+    }
+
+    // Keeps higher mean distances on top so we can pop it when top_k size is reached.
+    PriorityQueue<SampleDistance> meanDistances = new PriorityQueue<>(
+        meanDistanceTopK, (o1, o2) -> -Float.compare(o1.distance, o2.distance));
+    // Retrive top K poseSamples by least mean distance to remove outliers.
+    for (SampleDistance sampleDistance : maxDistances) {
+      List<PointF3D> sampleEmbedding = sampleDistance.poseSample.getEmbedding();
+
+      float originalSum = 0;
+      float flippedSum = 0;
+      for (int i = 0; i < embedding.size(); i++) {
+        originalSum += sumAbs(multiply(
+            subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights));
+        flippedSum += sumAbs(
+            multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights));
+      }
+      // Set the mean distance as min of original and flipped mean distances.
+      float meanDistance = min(originalSum, flippedSum) / (embedding.size() * 2);
+      meanDistances.add(new SampleDistance(sampleDistance.poseSample, meanDistance));
+      // We only want to retain top k so pop the highest mean distance.
+      if (meanDistances.size() > meanDistanceTopK) {
+        meanDistances.poll();
+      }
+    }
+
+    for (SampleDistance sampleDistance : meanDistances) {
+      result.incrementClassConfidence(sampleDistance.poseSample.getClassName());
+    }
+
+    return result;
+  }
+}
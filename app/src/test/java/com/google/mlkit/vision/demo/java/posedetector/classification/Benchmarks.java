@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assume.assumeTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * What the pose classifier benchmarks share: reading samples, making sessions from them, and
+ * logging results.
+ *
+ * <p>The benchmarks are JUnit classes named {@code *Benchmark} next to the unit tests, so they are
+ * compiled against the classifier but never shipped. Their tests are skipped unless the
+ * {@value #ENABLED_PROPERTY} system property is true, which
+ * {@code ./gradlew :app:benchmarkPoseClassifier} sets; results go to standard output. Like the
+ * unit tests, they run in the app module directory and read the bundled assets from the source
+ * tree.
+ */
+final class Benchmarks {
+  static final String ENABLED_PROPERTY = "poseClassifier.benchmarks";
+  static final String PACK_FILE = "src/main/assets/pose/fitness_pose_samples.pack";
+  static final String SOFTMAX_MODEL_FILE = "src/main/assets/pose/fitness_pose_softmax.model";
+  static final int WARM_UP_ROUNDS = 2;
+
+  private static final String TAG = "PoseClassifierBenchmark";
+
+  private Benchmarks() {}
+
+  /** Skips the calling test unless benchmarks were asked for. */
+  static void assumeEnabled() {
+    assumeTrue("Set -D" + ENABLED_PROPERTY + "=true to run", Boolean.getBoolean(ENABLED_PROPERTY));
+  }
+
+  // android.util.Log prints nothing in unit tests.
+  static void log(String message) {
+    System.out.println(TAG + ": " + message);
+  }
+
+  /** Reads all valid {@link PoseSample}s from a csv file. */
+  static List<PoseSample> readPoseSamples(String csvFile) throws IOException {
+    List<PoseSample> poseSamples = new ArrayList<>();
+    for (String csvLine : readLines(csvFile)) {
+      PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
+      if (poseSample != null) {
+        poseSamples.add(poseSample);
+      }
+    }
+    return poseSamples;
+  }
+
+  /** Reads the raw landmarks of every valid row of a csv file, e.g. to use them as queries. */
+  static List<List<PointF3D>> readLandmarks(String csvFile) throws IOException {
+    List<List<PointF3D>> frames = new ArrayList<>();
+    for (String csvLine : readLines(csvFile)) {
+      List<PointF3D> landmarks = PoseSample.getLandmarks(csvLine, ",");
+      if (landmarks != null) {
+        frames.add(landmarks);
+      }
+    }
+    return frames;
+  }
+
+  /** Opens a csv file as {@link PoseSampleLoader} reads csv sources. */
+  static BufferedReader openCsv(String csvFile) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(new FileInputStream(csvFile), StandardCharsets.UTF_8));
+  }
+
+  private static List<String> readLines(String csvFile) throws IOException {
+    List<String> csvLines = new ArrayList<>();
+    try (BufferedReader reader = openCsv(csvFile)) {
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        csvLines.add(csvLine);
+      }
+    }
+    return csvLines;
+  }
+
+  /**
+   * Builds {@code count} samples by cycling through the rows of a csv file and adding Gaussian
+   * noise with standard deviation {@code sigma} to every landmark coordinate, so that sample
+   * libraries larger than the bundled one can be benchmarked.
+   */
+  static List<PoseSample> jitteredSamples(String csvFile, int count, float sigma, long seed)
+      throws IOException {
+    List<PoseSample> rows = readPoseSamples(csvFile);
+    List<List<PointF3D>> rowLandmarks = readLandmarks(csvFile);
+    Random random = new Random(seed);
+    List<PoseSample> poseSamples = new ArrayList<>(count);
+    for (int i = 0; i < count && !rows.isEmpty(); i++) {
+      int row = i % rows.size();
+      poseSamples.add(new PoseSample("sample_" + i, rows.get(row).getClassName(),
+          jittered(rowLandmarks.get(row), sigma, random)));
+    }
+    return poseSamples;
+  }
+
+  private static List<PointF3D> jittered(List<PointF3D> landmarks, float sigma, Random random) {
+    List<PointF3D> moved = new ArrayList<>(landmarks.size());
+    for (PointF3D point : landmarks) {
+      moved.add(PointF3D.from(
+          point.getX() + sigma * (float) random.nextGaussian(),
+          point.getY() + sigma * (float) random.nextGaussian(),
+          point.getZ() + sigma * (float) random.nextGaussian()));
+    }
+    return moved;
+  }
+
+  /**
+   * Turns key poses into a camera-like stream: {@code framesPerKeyPose} frames per key pose, moving
+   * linearly from each key pose to the next.
+   */
+  static List<List<PointF3D>> interpolatedSession(
+      List<List<PointF3D>> keyPoses, int framesPerKeyPose) {
+    List<List<PointF3D>> frames = new ArrayList<>();
+    for (int k = 0; k + 1 < keyPoses.size(); k++) {
+      List<PointF3D> from = keyPoses.get(k);
+      List<PointF3D> to = keyPoses.get(k + 1);
+      for (int f = 0; f < framesPerKeyPose; f++) {
+        float t = (float) f / framesPerKeyPose;
+        List<PointF3D> landmarks = new ArrayList<>(from.size());
+        for (int i = 0; i < from.size(); i++) {
+          PointF3D a = from.get(i);
+          PointF3D b = to.get(i);
+          landmarks.add(PointF3D.from(a.getX() + t * (b.getX() - a.getX()),
+              a.getY() + t * (b.getY() - a.getY()), a.getZ() + t * (b.getZ() - a.getZ())));
+        }
+        frames.add(landmarks);
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Like {@link #interpolatedSession}, but holds every key pose for {@code holdFrames} frames
+   * before moving on, and adds Gaussian noise with standard deviation {@code sigma} to every
+   * landmark coordinate of every frame, like a detector tracking a person who pauses.
+   */
+  static List<List<PointF3D>> heldSession(List<List<PointF3D>> keyPoses, int holdFrames,
+      int moveFrames, float sigma, long seed) {
+    List<List<PointF3D>> moving = interpolatedSession(keyPoses, moveFrames);
+    Random random = new Random(seed);
+    List<List<PointF3D>> frames = new ArrayList<>();
+    for (int f = 0; f < moving.size(); f++) {
+      int copies = f % moveFrames == 0 ? holdFrames : 1;
+      for (int c = 0; c < copies; c++) {
+        frames.add(jittered(moving.get(f), sigma, random));
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * A {@link #heldSession} of {@code reps} repetitions of every exercise in {@code exercises},
+   * going back and forth between an {@code <exercise>_up} and an {@code <exercise>_down} sample
+   * of {@code poseSamples}, whose raw landmarks are {@code landmarks}.
+   */
+  static List<List<PointF3D>> repSession(List<PoseSample> poseSamples,
+      List<List<PointF3D>> landmarks, String[] exercises, int reps, float sigma) {
+    Map<String, List<List<PointF3D>>> byClass = new TreeMap<>();
+    for (int i = 0; i < poseSamples.size(); i++) {
+      String className = poseSamples.get(i).getClassName();
+      if (!byClass.containsKey(className)) {
+        byClass.put(className, new ArrayList<>());
+      }
+      byClass.get(className).add(landmarks.get(i));
+    }
+    List<List<PointF3D>> keyPoses = new ArrayList<>();
+    for (String exercise : exercises) {
+      List<List<PointF3D>> up = byClass.get(exercise + "_up");
+      List<List<PointF3D>> down = byClass.get(exercise + "_down");
+      for (int i = 0; i < reps; i++) {
+        keyPoses.add(up.get(i % up.size()));
+        keyPoses.add(down.get(i * 7 % down.size()));
+      }
+    }
+    return heldSession(keyPoses, /* holdFrames= */ 6, /* moveFrames= */ 8, sigma, /* seed= */ 7);
+  }
+
+  /** Packs frames of 33 landmarks into the layout taken by {@link PoseClassifier#classifyBatch}. */
+  static float[] packLandmarks(List<List<PointF3D>> frames) {
+    float[] landmarks = new float[frames.size() * 33 * 3];
+    int i = 0;
+    for (List<PointF3D> frame : frames) {
+      for (PointF3D point : frame) {
+        landmarks[i++] = point.getX();
+        landmarks[i++] = point.getY();
+        landmarks[i++] = point.getZ();
+      }
+    }
+    return landmarks;
+  }
+
+  /** Logs mean/p50/p95 latency and the single-stream throughput for a set of frame latencies. */
+  static void logLatencies(String label, long[] latenciesNs, int mismatches) {
+    if (latenciesNs.length == 0) {
+      return;
+    }
+    long[] sorted = latenciesNs.clone();
+    Arrays.sort(sorted);
+    long totalNs = 0;
+    for (long latencyNs : sorted) {
+      totalNs += latencyNs;
+    }
+    double meanMs = totalNs / 1e6 / sorted.length;
+    log(String.format(Locale.US,
+        "%s: mean %.3f ms, p50 %.3f ms, p95 %.3f ms, %.0f frames/s, %d vote mismatches",
+        label, meanMs, sorted[sorted.length / 2] / 1e6,
+        sorted[(int) (sorted.length * 0.95)] / 1e6, 1000 / meanMs, mismatches));
+  }
+
+  /**
+   * Rep counts of every class of {@code repClasses} after {@link EMASmoothing}, as
+   * {@link PoseClassifierProcessor} counts them.
+   */
+  static int[] countReps(List<ClassificationResult> results, String[] repClasses) {
+    EMASmoothing emaSmoothing = new EMASmoothing();
+    List<RepetitionCounter> repCounters = new ArrayList<>();
+    for (String className : repClasses) {
+      repCounters.add(new RepetitionCounter(className));
+    }
+    for (ClassificationResult result : results) {
+      ClassificationResult smoothed = emaSmoothing.getSmoothedResult(result);
+      for (RepetitionCounter repCounter : repCounters) {
+        repCounter.addClassificationResult(smoothed);
+      }
+    }
+    int[] reps = new int[repClasses.length];
+    for (int i = 0; i < reps.length; i++) {
+      reps[i] = repCounters.get(i).getNumRepeats();
+    }
+    return reps;
+  }
+
+  static float searchedPerFrame(ClassificationStats stats) {
+    return stats.getFrames() == 0
+        ? 0f : (float) (stats.getSamples() - stats.getSamplesSkipped()) / stats.getFrames();
+  }
+
+  /** Heap in use after a collection; only a rough figure, since gc() is a hint. */
+  static long usedHeapBytes() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 2; i++) {
+      runtime.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  static boolean sameVotes(ClassificationResult a, ClassificationResult b) {
+    if (!a.getAllClasses().equals(b.getAllClasses())) {
+      return false;
+    }
+    for (String className : a.getAllClasses()) {
+      if (a.getClassConfidence(className) != b.getClassConfidence(className)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
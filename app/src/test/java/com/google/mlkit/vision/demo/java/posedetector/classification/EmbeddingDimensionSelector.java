@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ranks the points of the {@link PoseEmbedding} by how much a sample set needs them, so that an
+ * exercise can be classified over fewer points, see
+ * {@link PoseSampleMatrix#selectDimensions(int[])}. Embedding and distance cost drop with the
+ * number of points kept.
+ *
+ * <p>Works backwards from all points: each step drops the point whose removal keeps the most
+ * held-out samples classifying with the same outcome, see {@link SampleCondenser#sameOutcome},
+ * as with all points. Odd rows are held out and classified against even rows, so agreement
+ * reflects poses the classifier has not seen. The points dropped last rank first.
+ *
+ * <p>Selection only looks at the given samples. A point that no sample needs can still be what
+ * tells an unseen pose apart, so keep the agreement bar high and compare on recorded sessions.
+ *
+ * <p>An offline tool like {@link PoseSamplePackTool}: the points it picks for the bundled samples
+ * are hard-coded in {@link PoseClassifierProcessor}.
+ */
+public final class EmbeddingDimensionSelector {
+  private final int maxDistanceTopK;
+  private final int meanDistanceTopK;
+
+  /** Selects for a classifier with the default top K values. */
+  public EmbeddingDimensionSelector() {
+    this(PoseClassifier.MAX_DISTANCE_TOP_K, PoseClassifier.MEAN_DISTANCE_TOP_K);
+  }
+
+  public EmbeddingDimensionSelector(int maxDistanceTopK, int meanDistanceTopK) {
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+  }
+
+  /** Outcome of {@link #rank}. */
+  public static final class Result {
+    private final int[] ranking;
+    private final float[] agreements;
+
+    private Result(int[] ranking, float[] agreements) {
+      this.ranking = ranking;
+      this.agreements = agreements;
+    }
+
+    /** All embedding points, the most needed first. */
+    public int[] getRanking() {
+      return ranking.clone();
+    }
+
+    /**
+     * Fraction of held-out samples that classify with the same outcome over the first
+     * {@code count} points of the ranking as over all points.
+     */
+    public float getAgreement(int count) {
+      return agreements[count];
+    }
+
+    /**
+     * The fewest leading points of the ranking such that neither they nor any longer prefix fall
+     * below {@code minAgreement}, ascending, as passed to
+     * {@link PoseSampleMatrix#selectDimensions}. Agreement is not monotonic in the number of
+     * points, and a short prefix that only clears the bar by chance is not worth the risk.
+     */
+    public int[] selectDimensions(float minAgreement) {
+      int count = ranking.length;
+      while (count > 1 && agreements[count - 1] >= minAgreement) {
+        count--;
+      }
+      int[] dimensions = Arrays.copyOf(ranking, count);
+      Arrays.sort(dimensions);
+      return dimensions;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < ranking.length; i++) {
+        builder.append(String.format(Locale.US, "%2d. %-32s agreement with %2d points: %.3f%n",
+            i + 1, PoseEmbedding.getDimensionName(ranking[i]), i + 1, agreements[i + 1]));
+      }
+      return builder.toString();
+    }
+  }
+
+  /**
+   * Ranks the points of {@code sampleMatrix}, which must hold all points and at least two
+   * samples. Each step classifies the held-out half once per remaining point.
+   */
+  public Result rank(PoseSampleMatrix sampleMatrix) {
+    Preconditions.checkArgument(sampleMatrix.getEmbeddingDimensions() == null,
+        "Expected samples with all embedding points");
+    Preconditions.checkArgument(sampleMatrix.size() >= 2, "Expected at least two samples");
+    int dimensions = sampleMatrix.dimensions();
+    int[] trainRows = new int[(sampleMatrix.size() + 1) / 2];
+    int[] testRows = new int[sampleMatrix.size() / 2];
+    for (int row = 0; row < sampleMatrix.size(); row++) {
+      if (row % 2 == 0) {
+        trainRows[row / 2] = row;
+      } else {
+        testRows[row / 2] = row;
+      }
+    }
+    PoseSampleMatrix train = sampleMatrix.select(trainRows);
+    PoseSampleMatrix test = sampleMatrix.select(testRows);
+    PoseClassifier full = new PoseClassifier(train, maxDistanceTopK, meanDistanceTopK);
+    ClassificationResult[] expected = new ClassificationResult[test.size()];
+    for (int row = 0; row < test.size(); row++) {
+      expected[row] = full.classifyWeighted(test.embeddings(), row * test.stride());
+    }
+
+    List<Integer> kept = new ArrayList<>();
+    for (int dimension = 0; dimension < dimensions; dimension++) {
+      kept.add(dimension);
+    }
+    int[] ranking = new int[dimensions];
+    float[] agreements = new float[dimensions + 1];
+    agreements[dimensions] = 1f;
+    for (int count = dimensions; count > 1; count--) {
+      int bestIndex = 0;
+      float bestAgreement = -1f;
+      for (int i = 0; i < kept.size(); i++) {
+        List<Integer> trial = new ArrayList<>(kept);
+        trial.remove(i);
+        float agreement = agreement(train, test, toArray(trial), expected);
+        if (agreement > bestAgreement) {
+          bestIndex = i;
+          bestAgreement = agreement;
+        }
+      }
+      ranking[count - 1] = kept.remove(bestIndex);
+      agreements[count - 1] = bestAgreement;
+    }
+    ranking[0] = kept.get(0);
+    return new Result(ranking, agreements);
+  }
+
+  private float agreement(PoseSampleMatrix train, PoseSampleMatrix test, int[] dimensions,
+      ClassificationResult[] expected) {
+    PoseClassifier classifier = new PoseClassifier(
+        train.selectDimensions(dimensions), maxDistanceTopK, meanDistanceTopK);
+    PoseSampleMatrix queries = test.selectDimensions(dimensions);
+    int same = 0;
+    for (int row = 0; row < queries.size(); row++) {
+      if (SampleCondenser.sameOutcome(expected[row],
+          classifier.classifyWeighted(queries.embeddings(), row * queries.stride()))) {
+        same++;
+      }
+    }
+    return (float) same / queries.size();
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Ranks the points of every exercise's {@link ExercisePartitions partition} of a sample csv, as
+   * {@link PoseClassifierProcessor} searches it while the exercise is active, and prints the
+   * ranking and the points to keep for the given agreement, 0.995 by default. Run it with
+   * {@code ./gradlew :app:runPoseClassifierTool -Ptool=EmbeddingDimensionSelector -PtoolArgs=...}.
+   *
+   * <p>Usage: {@code EmbeddingDimensionSelector <samples.csv> [<minAgreement>]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1 && args.length != 2) {
+      System.err.println("Usage: EmbeddingDimensionSelector <samples.csv> [<minAgreement>]");
+      System.exit(2);
+    }
+    float minAgreement = args.length == 2 ? Float.parseFloat(args[1]) : 0.995f;
+    List<PoseSample> poseSamples = PoseSamplePackTool.readCsv(args[0]);
+    ExercisePartitions partitions = new ExercisePartitions(
+        new PoseSampleMatrix(poseSamples, PoseClassifier.AXES_WEIGHTS),
+        PoseClassifierProcessor.OTHER_SAMPLES_PER_CLASS);
+    EmbeddingDimensionSelector selector = new EmbeddingDimensionSelector();
+    for (String exercise : partitions.getExercises()) {
+      PoseSampleMatrix samples = partitions.getSamples(exercise);
+      long startNs = System.nanoTime();
+      Result result = selector.rank(samples);
+      int[] dimensions = result.selectDimensions(minAgreement);
+      System.out.printf(Locale.US, "%s: %d samples, ranked in %.0f ms%n%s", exercise,
+          samples.size(), (System.nanoTime() - startNs) / 1e6, result);
+      System.out.printf(Locale.US, "%s: keep %d of %d points at agreement %.3f: %s%n%n",
+          exercise, dimensions.length, samples.dimensions(),
+          result.getAgreement(dimensions.length), Arrays.toString(dimensions));
+    }
+  }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores {@link PoseClassifier} settings, i.e. top K values and axes weights, by leave-one-out
+ * accuracy over a sample set: every sample is classified against all others, and counts as right
+ * if its own class gets more votes than any other class.
+ *
+ * <p>Distances between two samples only depend on the axes weights through a few per-axis
+ * aggregates: with non-negative weights, the weighted max distance is the largest of each axis's
+ * weight times that axis's largest difference, and the weighted sum is the weighted sum of each
+ * axis's sum of differences. X has its own aggregates for the mirrored sample. So the eight
+ * aggregates of every pair are computed once, and every setting of the grid is scored from them
+ * without touching the embeddings again.
+ *
+ * <p>The aggregates of all pairs would take {@code 16 * n * n} bytes, too much for large sample
+ * sets, so they are computed one row at a time, and every setting is scored on a row before it
+ * is dropped. Rows are spread across threads.
+ *
+ * <p>Sums over the aggregates round differently from the classifier's sums, so a near tie can
+ * rarely go the other way than in {@link PoseClassifier}.
+ *
+ * <p>An offline tool like {@link PoseSamplePackTool}, for picking the classifier's defaults.
+ */
+public final class LeaveOneOutEvaluator {
+  // Rows handed to a worker at a time.
+  private static final int ROWS_PER_TASK = 16;
+  // Aggregates per pair: largest X, mirrored X, Y and Z difference, then the sums likewise.
+  private static final int AGGREGATES = 8;
+
+  private final int size;
+  private final int stride;
+  private final float[] embeddings;
+  private final int[] classIndices;
+  private final PoseSampleMatrix sampleMatrix;
+
+  /** A point of the grid. */
+  public static final class Setting {
+    private final int maxDistanceTopK;
+    private final int meanDistanceTopK;
+    private final PointF3D axesWeights;
+
+    public Setting(int maxDistanceTopK, int meanDistanceTopK, PointF3D axesWeights) {
+      this.maxDistanceTopK = maxDistanceTopK;
+      this.meanDistanceTopK = meanDistanceTopK;
+      this.axesWeights = axesWeights;
+    }
+
+    public int getMaxDistanceTopK() {
+      return maxDistanceTopK;
+    }
+
+    public int getMeanDistanceTopK() {
+      return meanDistanceTopK;
+    }
+
+    public PointF3D getAxesWeights() {
+      return axesWeights;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "max K %d, mean K %d, weights (%.2f, %.2f, %.2f)",
+          maxDistanceTopK, meanDistanceTopK, axesWeights.getX(), axesWeights.getY(),
+          axesWeights.getZ());
+    }
+  }
+
+  /** Leave-one-out score of a {@link Setting}, and optionally its classification time. */
+  public static final class Result {
+    private final Setting setting;
+    private final int correct;
+    private final int total;
+    private double nsPerFrame = Double.NaN;
+
+    private Result(Setting setting, int correct, int total) {
+      this.setting = setting;
+      this.correct = correct;
+      this.total = total;
+    }
+
+    public Setting getSetting() {
+      return setting;
+    }
+
+    /** Fraction of samples whose own class gets the most votes. */
+    public float getAccuracy() {
+      return total == 0 ? 0f : (float) correct / total;
+    }
+
+    /** Mean time {@link PoseClassifier} takes per frame, or NaN if not measured. */
+    public double getNsPerFrame() {
+      return nsPerFrame;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s: %d of %d right (%.2f%%), %.3f ms/frame", setting,
+          correct, total, 100f * getAccuracy(), nsPerFrame / 1e6);
+    }
+  }
+
+  /** Evaluates over {@code poseSamples}, which need at least two classes to be meaningful. */
+  public LeaveOneOutEvaluator(List<PoseSample> poseSamples) {
+    // Unweighted, so that any weights can be applied to the aggregates.
+    this.sampleMatrix = new PoseSampleMatrix(poseSamples, PointF3D.from(1, 1, 1));
+    this.size = sampleMatrix.size();
+    this.stride = sampleMatrix.stride();
+    this.embeddings = sampleMatrix.embeddings();
+    this.classIndices = new int[size];
+    for (int row = 0; row < size; row++) {
+      classIndices[row] = sampleMatrix.getClassIndex(row);
+    }
+  }
+
+  /** Number of samples. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Scores every combination of the given top K values and axes weights in which the mean K is
+   * at most the max K, on {@code threads} threads. Results are in grid order: by weights, then
+   * max K, then mean K.
+   */
+  public List<Result> evaluate(int[] maxDistanceTopKs, int[] meanDistanceTopKs,
+      List<PointF3D> axesWeights, int threads) {
+    Preconditions.checkArgument(threads >= 1, "Need at least one thread: %s", threads);
+    List<Setting> settings = new ArrayList<>();
+    for (PointF3D weights : axesWeights) {
+      Preconditions.checkArgument(
+          weights.getX() >= 0 && weights.getY() >= 0 && weights.getZ() >= 0,
+          "Axes weights must not be negative");
+      for (int maxK : maxDistanceTopKs) {
+        for (int meanK : meanDistanceTopKs) {
+          if (meanK <= maxK) {
+            settings.add(new Setting(maxK, meanK, weights));
+          }
+        }
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      AtomicInteger nextRow = new AtomicInteger();
+      List<Future<int[]>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(executor.submit(new Worker(settings, nextRow)));
+      }
+      int[] correct = new int[settings.size()];
+      for (Future<int[]> future : futures) {
+        int[] workerCorrect = future.get();
+        for (int s = 0; s < correct.length; s++) {
+          correct[s] += workerCorrect[s];
+        }
+      }
+      List<Result> results = new ArrayList<>();
+      for (int s = 0; s < settings.size(); s++) {
+        results.add(new Result(settings.get(s), correct[s], size));
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while evaluating", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Evaluation failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Measures the mean time {@link PoseClassifier} with each result's setting takes to classify up
+   * to {@code frames} samples, spread over the set, and stores it in the result. Runs on the
+   * calling thread, one setting after the other, so that timings do not compete.
+   */
+  public void measureCost(List<Result> results, int frames) {
+    int step = max(1, size / max(1, frames));
+    for (Result result : results) {
+      Setting setting = result.setting;
+      PoseSampleMatrix weighted = weighted(setting.axesWeights);
+      PoseClassifier classifier = new PoseClassifier(
+          weighted, setting.maxDistanceTopK, setting.meanDistanceTopK);
+      // One pass to warm up, one to measure.
+      long elapsedNs = 0;
+      int measured = 0;
+      for (int pass = 0; pass < 2; pass++) {
+        long startNs = System.nanoTime();
+        for (int row = 0; row < size; row += step) {
+          classifier.classifyWeighted(weighted.embeddings(), row * stride);
+          measured += pass;
+        }
+        elapsedNs = System.nanoTime() - startNs;
+      }
+      result.nsPerFrame = (double) elapsedNs / max(1, measured);
+    }
+  }
+
+  /** The samples with {@code axesWeights} applied, as a classifier with them holds them. */
+  private PoseSampleMatrix weighted(PointF3D axesWeights) {
+    float[] weightedEmbeddings = embeddings.clone();
+    PoseSampleMatrix.applyWeights(weightedEmbeddings, 0, weightedEmbeddings.length, axesWeights);
+    String[] classNames = new String[sampleMatrix.classCount()];
+    for (int c = 0; c < classNames.length; c++) {
+      classNames[c] = sampleMatrix.getClassNameForIndex(c);
+    }
+    String[] sampleNames = new String[size];
+    for (int row = 0; row < size; row++) {
+      sampleNames[row] = sampleMatrix.getSampleName(row);
+    }
+    return new PoseSampleMatrix(sampleMatrix.dimensions(), weightedEmbeddings,
+        classIndices.clone(), classNames, sampleNames, axesWeights);
+  }
+
+  /** Votes per class index for {@code row} classified against all other samples. */
+  int[] classifyLeftOut(int row, Setting setting) {
+    Worker worker = new Worker(Arrays.asList(setting), new AtomicInteger());
+    worker.computeAggregates(row);
+    worker.rankByMaxDistance(row, setting.axesWeights);
+    return worker.votes(setting.axesWeights, setting.maxDistanceTopK, setting.meanDistanceTopK)
+        .clone();
+  }
+
+  /** Scores all settings on rows taken from a shared counter. */
+  private final class Worker implements Callable<int[]> {
+    private final List<Setting> settings;
+    private final AtomicInteger nextRow;
+    // Aggregates of the current row against every sample.
+    private final float[] aggregates = new float[AGGREGATES * size];
+    private final TopKHeap maxDistances;
+    // Mean stage heaps by capacity, created as the grid needs them.
+    private final TopKHeap[] meanDistanceHeaps;
+    // Closest samples of the current row by max distance, for the weights last ranked by.
+    private final int[] survivors;
+    private final float[] survivorDistances;
+    private int survivorCount;
+    private final int[] votes = new int[sampleMatrix.classCount()];
+
+    Worker(List<Setting> settings, AtomicInteger nextRow) {
+      this.settings = settings;
+      this.nextRow = nextRow;
+      int maxK = 0;
+      int meanK = 0;
+      for (Setting setting : settings) {
+        maxK = max(maxK, setting.maxDistanceTopK);
+        meanK = max(meanK, setting.meanDistanceTopK);
+      }
+      this.maxDistances = new TopKHeap(maxK);
+      this.meanDistanceHeaps = new TopKHeap[meanK + 1];
+      this.survivors = new int[maxK];
+      this.survivorDistances = new float[maxK];
+    }
+
+    @Override
+    public int[] call() {
+      int[] correct = new int[settings.size()];
+      for (int from = nextRow.getAndAdd(ROWS_PER_TASK); from < size;
+          from = nextRow.getAndAdd(ROWS_PER_TASK)) {
+        for (int row = from; row < min(size, from + ROWS_PER_TASK); row++) {
+          computeAggregates(row);
+          // Settings come grouped by weights, and the max distance ranking only depends on them.
+          PointF3D rankedWeights = null;
+          for (int s = 0; s < settings.size(); s++) {
+            Setting setting = settings.get(s);
+            if (setting.axesWeights != rankedWeights) {
+              rankByMaxDistance(row, setting.axesWeights);
+              rankedWeights = setting.axesWeights;
+            }
+            if (isRight(row, votes(setting.axesWeights, setting.maxDistanceTopK,
+                setting.meanDistanceTopK))) {
+              correct[s]++;
+            }
+          }
+        }
+      }
+      return correct;
+    }
+
+    private boolean isRight(int row, int[] votes) {
+      int own = votes[classIndices[row]];
+      for (int c = 0; c < votes.length; c++) {
+        if (c != classIndices[row] && votes[c] >= own) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void computeAggregates(int row) {
+      int queryOffset = row * stride;
+      for (int other = 0; other < size; other++) {
+        int offset = other * stride;
+        float maxX = 0;
+        float maxFlippedX = 0;
+        float maxY = 0;
+        float maxZ = 0;
+        float sumX = 0;
+        float sumFlippedX = 0;
+        float sumY = 0;
+        float sumZ = 0;
+        for (int i = 0; i < stride; i += 3) {
+          float x = abs(embeddings[queryOffset + i] - embeddings[offset + i]);
+          // The mirrored query negates X.
+          float flippedX = abs(embeddings[queryOffset + i] + embeddings[offset + i]);
+          float y = abs(embeddings[queryOffset + i + 1] - embeddings[offset + i + 1]);
+          float z = abs(embeddings[queryOffset + i + 2] - embeddings[offset + i + 2]);
+          maxX = max(maxX, x);
+          maxFlippedX = max(maxFlippedX, flippedX);
+          maxY = max(maxY, y);
+          maxZ = max(maxZ, z);
+          sumX += x;
+          sumFlippedX += flippedX;
+          sumY += y;
+          sumZ += z;
+        }
+        int a = other * AGGREGATES;
+        aggregates[a] = maxX;
+        aggregates[a + 1] = maxFlippedX;
+        aggregates[a + 2] = maxY;
+        aggregates[a + 3] = maxZ;
+        aggregates[a + 4] = sumX;
+        aggregates[a + 5] = sumFlippedX;
+        aggregates[a + 6] = sumY;
+        aggregates[a + 7] = sumZ;
+      }
+    }
+
+    /**
+     * First stage of the search for {@code row}: ranks the closest samples by max distance, from
+     * the aggregates of that row. The heap holds the largest max K of the grid, so every max K
+     * takes the closest entries of this one ranking.
+     */
+    void rankByMaxDistance(int row, PointF3D axesWeights) {
+      float wx = axesWeights.getX();
+      float wy = axesWeights.getY();
+      float wz = axesWeights.getZ();
+      maxDistances.clear();
+      for (int other = 0; other < size; other++) {
+        if (other == row) {
+          continue;
+        }
+        int a = other * AGGREGATES;
+        float common = max(wy * aggregates[a + 2], wz * aggregates[a + 3]);
+        maxDistances.offer(
+            min(max(wx * aggregates[a], common), max(wx * aggregates[a + 1], common)), other);
+      }
+      survivorCount = maxDistances.size();
+      for (int i = 0; i < survivorCount; i++) {
+        survivors[i] = maxDistances.rowAt(i);
+        survivorDistances[i] = maxDistances.distanceAt(i);
+      }
+      sortByDistance(survivors, survivorDistances, survivorCount);
+    }
+
+    /**
+     * Votes of the two-stage search for the row last ranked by {@link #rankByMaxDistance} with the
+     * same weights: the second stage over its {@code maxDistanceTopK} closest samples.
+     */
+    int[] votes(PointF3D axesWeights, int maxDistanceTopK, int meanDistanceTopK) {
+      float wx = axesWeights.getX();
+      float wy = axesWeights.getY();
+      float wz = axesWeights.getZ();
+      TopKHeap meanDistances = meanDistanceHeaps[meanDistanceTopK];
+      if (meanDistances == null) {
+        meanDistances = new TopKHeap(meanDistanceTopK);
+        meanDistanceHeaps[meanDistanceTopK] = meanDistances;
+      }
+      meanDistances.clear();
+      for (int i = 0; i < min(survivorCount, maxDistanceTopK); i++) {
+        int a = survivors[i] * AGGREGATES;
+        float common = wy * aggregates[a + 6] + wz * aggregates[a + 7];
+        meanDistances.offer(
+            min(wx * aggregates[a + 4] + common, wx * aggregates[a + 5] + common), survivors[i]);
+      }
+      Arrays.fill(votes, 0);
+      for (int i = 0; i < meanDistances.size(); i++) {
+        votes[classIndices[meanDistances.rowAt(i)]]++;
+      }
+      return votes;
+    }
+  }
+
+  /** Sorts the first {@code count} entries by (distance, row), like {@link TopKHeap}. */
+  private static void sortByDistance(int[] rows, float[] distances, int count) {
+    for (int i = 1; i < count; i++) {
+      int row = rows[i];
+      float distance = distances[i];
+      int j = i - 1;
+      while (j >= 0 && TopKHeap.isCloser(distance, row, distances[j], rows[j])) {
+        rows[j + 1] = rows[j];
+        distances[j + 1] = distances[j];
+        j--;
+      }
+      rows[j + 1] = row;
+      distances[j + 1] = distance;
+    }
+  }
+
+  /**
+   * Sweeps a grid of top K values and Z weights over a sample csv and prints every setting's
+   * leave-one-out accuracy and classification time, best first. Run it with
+   * {@code ./gradlew :app:runPoseClassifierTool -Ptool=LeaveOneOutEvaluator -PtoolArgs=...}.
+   *
+   * <p>Usage: {@code LeaveOneOutEvaluator <samples.csv> [<threads>]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1 && args.length != 2) {
+      System.err.println("Usage: LeaveOneOutEvaluator <samples.csv> [<threads>]");
+      System.exit(2);
+    }
+    int threads = args.length == 2
+        ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    List<PoseSample> poseSamples = PoseSamplePackTool.readCsv(args[0]);
+    LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(poseSamples);
+    List<PointF3D> axesWeights = new ArrayList<>();
+    for (float z : new float[] {0f, 0.1f, 0.2f, 0.5f, 1f}) {
+      axesWeights.add(PointF3D.from(1, 1, z));
+    }
+    long startNs = System.nanoTime();
+    List<Result> results = evaluator.evaluate(new int[] {5, 10, 20, 30, 50, 100},
+        new int[] {1, 3, 5, 10, 20}, axesWeights, threads);
+    long evaluateNs = System.nanoTime() - startNs;
+    startNs = System.nanoTime();
+    evaluator.measureCost(results, /* frames= */ 200);
+    System.out.printf(Locale.US,
+        "%d samples, %d settings: evaluated in %.1f s on %d threads, timed in %.1f s%n",
+        evaluator.size(), results.size(), evaluateNs / 1e9, threads,
+        (System.nanoTime() - startNs) / 1e9);
+    results = new ArrayList<>(results);
+    Collections.sort(results, (a, b) -> a.correct != b.correct
+        ? Integer.compare(b.correct, a.correct) : Double.compare(a.nsPerFrame, b.nsPerFrame));
+    for (Result result : results) {
+      System.out.println(result);
+    }
+  }
+}
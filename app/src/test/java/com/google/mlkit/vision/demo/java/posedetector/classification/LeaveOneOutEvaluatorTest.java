@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LeaveOneOutEvaluator}. */
+@RunWith(JUnit4.class)
+public final class LeaveOneOutEvaluatorTest {
+  private static final int[] MAX_DISTANCE_TOP_KS = {10, 30};
+  private static final int[] MEAN_DISTANCE_TOP_KS = {1, 5, 10};
+  private static final List<PointF3D> AXES_WEIGHTS =
+      Arrays.asList(PointF3D.from(1, 1, 0.2f), PointF3D.from(1, 1, 1));
+  // Rows left out for the comparison with the baseline, which searches all samples per row.
+  private static final int BASELINE_ROW_STEP = 8;
+
+  @Test
+  public void evaluate_matchesClassifyLeftOut() {
+    LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(TestPoseSamples.samples());
+
+    List<LeaveOneOutEvaluator.Result> results = evaluator.evaluate(
+        MAX_DISTANCE_TOP_KS, MEAN_DISTANCE_TOP_KS, AXES_WEIGHTS, /* threads= */ 3);
+
+    assertEquals(AXES_WEIGHTS.size() * MAX_DISTANCE_TOP_KS.length * MEAN_DISTANCE_TOP_KS.length,
+        results.size());
+    int[] classIndices = classIndices();
+    for (LeaveOneOutEvaluator.Result result : results) {
+      int correct = 0;
+      for (int row = 0; row < evaluator.size(); row++) {
+        int[] votes = evaluator.classifyLeftOut(row, result.getSetting());
+        if (isRight(votes, classIndices[row])) {
+          correct++;
+        }
+      }
+      assertEquals(result.getSetting().toString(),
+          (float) correct / evaluator.size(), result.getAccuracy(), 0f);
+    }
+  }
+
+  @Test
+  public void classifyLeftOut_matchesBaselineWithoutTheSample() {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(samples);
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(samples, PoseClassifier.AXES_WEIGHTS);
+
+    for (int row = 0; row < samples.size(); row += BASELINE_ROW_STEP) {
+      List<PoseSample> others = new ArrayList<>(samples);
+      others.remove(row);
+      BaselinePoseClassifier baseline = new BaselinePoseClassifier(others);
+      LeaveOneOutEvaluator.Setting setting = new LeaveOneOutEvaluator.Setting(
+          PoseClassifier.MAX_DISTANCE_TOP_K, PoseClassifier.MEAN_DISTANCE_TOP_K,
+          PoseClassifier.AXES_WEIGHTS);
+
+      // Queries alternate between the samples as they are and mirrored with noise.
+      List<PointF3D> landmarks = TestPoseSamples.queries().get(2 * row);
+      assertEquals("row " + row, TestPoseSamples.votes(baseline.classify(landmarks)),
+          votes(evaluator.classifyLeftOut(row, setting), sampleMatrix));
+    }
+  }
+
+  private static int[] classIndices() {
+    PoseSampleMatrix sampleMatrix =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    int[] classIndices = new int[sampleMatrix.size()];
+    for (int row = 0; row < classIndices.length; row++) {
+      classIndices[row] = sampleMatrix.getClassIndex(row);
+    }
+    return classIndices;
+  }
+
+  private static boolean isRight(int[] votes, int classIndex) {
+    for (int c = 0; c < votes.length; c++) {
+      if (c != classIndex && votes[c] >= votes[classIndex]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** {@code votes} by class index, in the form of {@link TestPoseSamples#votes}. */
+  private static String votes(int[] votes, PoseSampleMatrix sampleMatrix) {
+    Map<String, Float> byName = new TreeMap<>();
+    for (int c = 0; c < votes.length; c++) {
+      if (votes[c] > 0) {
+        byName.put(sampleMatrix.getClassNameForIndex(c), (float) votes[c]);
+      }
+    }
+    return byName.toString();
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link NearestCentroidClassifier}. */
+@RunWith(JUnit4.class)
+public final class NearestCentroidClassifierTest {
+
+  @Test
+  public void classify_emptySampleSet_returnsEmptyResult() {
+    NearestCentroidClassifier classifier = new NearestCentroidClassifier(
+        new PoseSampleMatrix(Collections.<PoseSample>emptyList(), PoseClassifier.AXES_WEIGHTS),
+        /* cellsPerClass= */ 4);
+
+    ClassificationResult result =
+        classifier.classify(PoseClassifierTest.randomLandmarks(new Random(0)));
+
+    assertEquals(0, classifier.getCentroidCount());
+    assertTrue(result.getAllClasses().isEmpty());
+  }
+
+  @Test
+  public void classify_nanLandmarks_returnsEmptyResult() {
+    NearestCentroidClassifier classifier = new NearestCentroidClassifier(
+        new PoseSampleMatrix(Collections.singletonList(new PoseSample("sample", "squats_down",
+            PoseClassifierTest.randomLandmarks(new Random(1)))), PoseClassifier.AXES_WEIGHTS),
+        /* cellsPerClass= */ 4);
+    List<PointF3D> landmarks = new ArrayList<>(PoseEmbedding.LANDMARKS);
+    for (int i = 0; i < PoseEmbedding.LANDMARKS; i++) {
+      landmarks.add(PointF3D.from(Float.NaN, Float.NaN, Float.NaN));
+    }
+
+    ClassificationResult result = classifier.classify(landmarks);
+
+    assertTrue(result.getAllClasses().isEmpty());
+  }
+
+  @Test
+  public void classify_sample_votesForItsClass() {
+    List<PointF3D> landmarks = PoseClassifierTest.randomLandmarks(new Random(1));
+    NearestCentroidClassifier classifier = new NearestCentroidClassifier(
+        new PoseSampleMatrix(Collections.singletonList(new PoseSample("sample", "squats_down",
+            landmarks)), PoseClassifier.AXES_WEIGHTS),
+        /* cellsPerClass= */ 4);
+
+    ClassificationResult result = classifier.classify(landmarks);
+
+    assertEquals(classifier.confidenceRange(), result.getClassConfidence("squats_down"), 0f);
+  }
+}
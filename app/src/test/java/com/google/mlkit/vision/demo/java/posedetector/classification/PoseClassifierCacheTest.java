@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PoseClassifierCache}. */
+@RunWith(JUnit4.class)
+public final class PoseClassifierCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void get_hitReturnsWhileOtherKeyLoads() throws Exception {
+    PoseClassifierCache cache = new PoseClassifierCache();
+    PoseClassifierCache.Entry entryA = cache.get("A", PoseClassifierCacheTest::newEntry);
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    Future<PoseClassifierCache.Entry> entryB = executor.submit(() -> cache.get("B", () -> {
+      loadStarted.countDown();
+      awaitUninterruptibly(finishLoad);
+      return newEntry();
+    }));
+    assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+
+    Future<PoseClassifierCache.Entry> hitA =
+        executor.submit(() -> cache.get("A", PoseClassifierCacheTest::failingLoad));
+    assertSame(entryA, hitA.get(5, TimeUnit.SECONDS));
+
+    finishLoad.countDown();
+    assertNotSame(entryA, entryB.get(5, TimeUnit.SECONDS));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void get_concurrentCallersForOneKeyLoadOnce() throws Exception {
+    PoseClassifierCache cache = new PoseClassifierCache();
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    PoseClassifierCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      loadStarted.countDown();
+      awaitUninterruptibly(finishLoad);
+      return newEntry();
+    };
+    Future<PoseClassifierCache.Entry> first = executor.submit(() -> cache.get("A", loader));
+    assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+    Future<PoseClassifierCache.Entry> second = executor.submit(() -> cache.get("A", loader));
+
+    finishLoad.countDown();
+    assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void get_failedLoadIsRetried() {
+    PoseClassifierCache cache = new PoseClassifierCache();
+    try {
+      cache.get("A", PoseClassifierCacheTest::failingLoad);
+      fail("Expected the load to fail");
+    } catch (IllegalStateException expected) {
+      // The next caller loads again.
+    }
+    PoseClassifierCache.Entry entry = cache.get("A", PoseClassifierCacheTest::newEntry);
+    assertSame(entry, cache.get("A", PoseClassifierCacheTest::failingLoad));
+  }
+
+  private static PoseClassifierCache.Entry newEntry() {
+    return new PoseClassifierCache.Entry(new PoseClassifier(new ArrayList<>()), null);
+  }
+
+  private static PoseClassifierCache.Entry failingLoad() {
+    throw new IllegalStateException("Unexpected load");
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
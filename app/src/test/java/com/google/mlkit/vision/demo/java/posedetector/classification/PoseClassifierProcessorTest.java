@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for how {@link PoseClassifierProcessor} builds its kNN classifier, i.e. which search
+ * path each sample set size takes and where stream frames are seeded from the previous one.
+ */
+@RunWith(JUnit4.class)
+public final class PoseClassifierProcessorTest {
+
+  @Test
+  public void newKnnClassifier_bundledSamples_searchesSampleStoreGroups() {
+    PoseClassifier classifier =
+        PoseClassifierProcessor.newKnnClassifier(bundledSamples(), /* quantized= */ false);
+
+    assertNotNull(classifier.getSampleStore());
+    assertNull(classifier.getSampleIndex());
+    assertNull(classifier.getParallelScan());
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void newKnnClassifier_justBelowIndexSize_searchesSampleStoreGroups() throws IOException {
+    PoseClassifier classifier = PoseClassifierProcessor.newKnnClassifier(
+        jitteredSamples(PoseClassifierProcessor.SAMPLE_INDEX_MIN_SAMPLES - 1),
+        /* quantized= */ false);
+
+    assertNotNull(classifier.getSampleStore());
+    assertNull(classifier.getSampleIndex());
+    assertNull(classifier.getParallelScan());
+  }
+
+  @Test
+  public void newKnnClassifier_indexSize_searchesVantagePointTree() throws IOException {
+    PoseClassifier classifier = PoseClassifierProcessor.newKnnClassifier(
+        jitteredSamples(PoseClassifierProcessor.SAMPLE_INDEX_MIN_SAMPLES),
+        /* quantized= */ false);
+
+    assertNull(classifier.getSampleStore());
+    assertNotNull(classifier.getSampleIndex());
+    assertNull(classifier.getParallelScan());
+  }
+
+  @Test
+  public void newKnnClassifier_quantized_scansQuantizedSamples() throws IOException {
+    PoseClassifier classifier = PoseClassifierProcessor.newKnnClassifier(
+        jitteredSamples(PoseClassifierProcessor.SAMPLE_INDEX_MIN_SAMPLES),
+        /* quantized= */ true);
+
+    assertNotNull(classifier.getQuantizedSamples());
+    assertNull(classifier.getSampleStore());
+    assertNull(classifier.getSampleIndex());
+    assertNull(classifier.getParallelScan());
+  }
+
+  @Test
+  public void setUpTemporalSeeding_sampleStore_staysOff() {
+    PoseClassifier classifier =
+        PoseClassifierProcessor.newKnnClassifier(bundledSamples(), /* quantized= */ false);
+
+    PoseClassifierProcessor.setUpTemporalSeeding(classifier, /* isStreamMode= */ true);
+
+    assertFalse(classifier.isTemporalSeeding());
+  }
+
+  @Test
+  public void setUpTemporalSeeding_vantagePointTree_onInStreamMode() throws IOException {
+    PoseClassifier classifier = PoseClassifierProcessor.newKnnClassifier(
+        jitteredSamples(PoseClassifierProcessor.SAMPLE_INDEX_MIN_SAMPLES),
+        /* quantized= */ false);
+
+    PoseClassifierProcessor.setUpTemporalSeeding(classifier, /* isStreamMode= */ false);
+    assertFalse(classifier.isTemporalSeeding());
+    PoseClassifierProcessor.setUpTemporalSeeding(classifier, /* isStreamMode= */ true);
+    assertTrue(classifier.isTemporalSeeding());
+  }
+
+  @Test
+  public void setUpTemporalSeeding_quantized_onInStreamMode() {
+    PoseClassifier classifier =
+        PoseClassifierProcessor.newKnnClassifier(bundledSamples(), /* quantized= */ true);
+
+    PoseClassifierProcessor.setUpTemporalSeeding(classifier, /* isStreamMode= */ true);
+
+    assertTrue(classifier.isTemporalSeeding());
+  }
+
+  private static PoseSampleMatrix bundledSamples() {
+    return new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+  }
+
+  private static PoseSampleMatrix jitteredSamples(int count) throws IOException {
+    return new PoseSampleMatrix(
+        Benchmarks.jitteredSamples(TestPoseSamples.CSV_FILE, count, /* sigma= */ 0.05f,
+            /* seed= */ 1),
+        PoseClassifier.AXES_WEIGHTS);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PoseClassifier}. */
+@RunWith(JUnit4.class)
+public final class PoseClassifierTest {
+
+  @Test
+  public void classify_emptySampleSet_returnsEmptyResult() {
+    PoseClassifier classifier = new PoseClassifier(Collections.<PoseSample>emptyList());
+
+    ClassificationResult result = classifier.classify(randomLandmarks(new Random(0)));
+
+    assertTrue(result.getAllClasses().isEmpty());
+  }
+
+  @Test
+  public void classify_emptyQuantizedSampleSet_returnsEmptyResult() {
+    PoseClassifier classifier = new PoseClassifier(new QuantizedSampleMatrix(
+        new PoseSampleMatrix(Collections.<PoseSample>emptyList(), PoseClassifier.AXES_WEIGHTS)));
+
+    ClassificationResult result = classifier.classify(randomLandmarks(new Random(0)));
+
+    assertTrue(result.getAllClasses().isEmpty());
+  }
+
+  @Test
+  public void classify_storeWithAllSamplesRemoved_returnsEmptyResult() {
+    PoseSample sample = new PoseSample("sample", "squats_down", randomLandmarks(new Random(1)));
+    PoseSampleStore store = new PoseSampleStore(
+        new PoseSampleMatrix(Collections.singletonList(sample), PoseClassifier.AXES_WEIGHTS));
+    PoseClassifier classifier = new PoseClassifier(store);
+    store.remove(0);
+
+    ClassificationResult result = classifier.classify(randomLandmarks(new Random(0)));
+
+    assertTrue(result.getAllClasses().isEmpty());
+  }
+
+  @Test
+  public void classify_singleSample_votesForItsClass() {
+    List<PointF3D> landmarks = randomLandmarks(new Random(1));
+    PoseClassifier classifier = new PoseClassifier(
+        Collections.singletonList(new PoseSample("sample", "squats_down", landmarks)));
+
+    ClassificationResult result = classifier.classify(landmarks);
+
+    assertEquals(1f, result.getClassConfidence("squats_down"), 0f);
+  }
+
+  @Test
+  public void classify_bundledSamples_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void classify_withTemporalSeeding_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setTemporalSeeding(true);
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void classify_withEarlyExit_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setEarlyExit(/* margin= */ 0);
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void classify_withParallelScan_matchesBaseline() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+      classifier.setParallelScan(
+          new ParallelSampleScan(executor, /* shardCount= */ 3, /* minSamples= */ 0));
+
+      assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void newInstance_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setEarlyExit(/* margin= */ 0);
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier.newInstance()));
+  }
+
+  static List<PointF3D> randomLandmarks(Random random) {
+    List<PointF3D> landmarks = new ArrayList<>(PoseEmbedding.LANDMARKS);
+    for (int i = 0; i < PoseEmbedding.LANDMARKS; i++) {
+      landmarks.add(PointF3D.from(
+          500 * random.nextFloat(), 500 * random.nextFloat(), 500 * random.nextFloat()));
+    }
+    return landmarks;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PoseEmbedding}. */
+@RunWith(JUnit4.class)
+public final class PoseEmbeddingTest {
+
+  @Test
+  public void writePoseEmbedding_matchesListEmbedding() {
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      assertArrayEquals(toArray(PoseEmbedding.getPoseEmbedding(landmarks)),
+          packedEmbedding(landmarks, /* dimensions= */ null), 0f);
+    }
+  }
+
+  @Test
+  public void writePoseEmbedding_selectedDimensions_matchesListEmbedding() {
+    int[] dimensions = {0, 3, 7, 8, 15, PoseEmbedding.DIMENSIONS - 1};
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      assertArrayEquals(toArray(PoseEmbedding.getPoseEmbedding(landmarks, dimensions)),
+          packedEmbedding(landmarks, dimensions), 0f);
+    }
+  }
+
+  @Test
+  public void writePoseEmbedding_writesAtOffset() {
+    List<PointF3D> landmarks = TestPoseSamples.queries().get(0);
+    float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    float[] out = new float[5 + 3 * PoseEmbedding.DIMENSIONS];
+
+    PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, out, 5);
+
+    float[] expected = new float[out.length];
+    float[] embedding = toArray(PoseEmbedding.getPoseEmbedding(landmarks));
+    System.arraycopy(embedding, 0, expected, 5, embedding.length);
+    assertArrayEquals(expected, out, 0f);
+  }
+
+  private static float[] packedEmbedding(List<PointF3D> landmarks, int[] dimensions) {
+    float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    int count = dimensions == null ? PoseEmbedding.DIMENSIONS : dimensions.length;
+    float[] embedding = new float[3 * count];
+    PoseEmbedding.writePoseEmbedding(packedLandmarks, dimensions, embedding, 0);
+    return embedding;
+  }
+
+  private static float[] toArray(List<PointF3D> embedding) {
+    float[] values = new float[3 * embedding.size()];
+    for (int i = 0; i < embedding.size(); i++) {
+      values[3 * i] = embedding.get(i).getX();
+      values[3 * i + 1] = embedding.get(i).getY();
+      values[3 * i + 2] = embedding.get(i).getZ();
+    }
+    return values;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.PACKED_LANDMARK_VALUES;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.pose.PoseLandmark;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates pose samples from real ones, to benchmark classifiers at sample counts far beyond a
+ * hand-labelled csv.
+ *
+ * <p>Every generated sample starts from a real sample, or half of the time from a random point
+ * between two real samples of the same class, after both are normalized like
+ * {@link PoseEmbedding}. It then gets body proportions of its own: the bones of each body part,
+ * e.g. both forearms, are scaled by one factor around 1. Every landmark coordinate is jittered like
+ * a detector would, and half of the samples are mirrored, swapping left and right landmarks. The
+ * result is placed at a random size and position in a camera frame, so samples look like raw
+ * detector output in the {@link PoseSample} csv format.
+ *
+ * <p>Generated samples are only as varied as the real ones: they fill in around the real poses of
+ * each class, but add no poses of their own. The same real samples and seed give the same samples.
+ *
+ * <p>Used by benchmarks, and as an offline tool like {@link PoseSamplePackTool}.
+ */
+public final class PoseSampleGenerator {
+  // Chance that a sample interpolates two real samples rather than starting from one.
+  private static final float INTERPOLATE_PROBABILITY = 0.5f;
+  private static final float MIRROR_PROBABILITY = 0.5f;
+  // Standard deviation of the factor each body part's bones are scaled by, and its largest change.
+  private static final float PROPORTION_SIGMA = 0.08f;
+  private static final float MAX_PROPORTION_CHANGE = 0.25f;
+  // Standard deviation of landmark jitter in 1% of the pose size, see PoseEmbedding.
+  private static final float JITTER_SIGMA = 0.5f;
+  // Range of the pose size, and of the hips center, in camera pixels.
+  private static final float MIN_POSE_SIZE = 300f;
+  private static final float MAX_POSE_SIZE = 900f;
+  private static final float MAX_CENTER = 1000f;
+
+  // Body parts, each scaled by its own factor.
+  private static final int PELVIS = 0;
+  private static final int TORSO = 1;
+  private static final int HEAD = 2;
+  private static final int UPPER_ARM = 3;
+  private static final int FOREARM = 4;
+  private static final int HAND = 5;
+  private static final int THIGH = 6;
+  private static final int SHIN = 7;
+  private static final int FOOT = 8;
+  private static final int BODY_PARTS = 9;
+  // Pseudo landmarks for the bone table: the centers between the hips and the shoulders.
+  private static final int HIPS_CENTER = -1;
+  private static final int SHOULDERS_CENTER = -2;
+
+  // Bone i moves landmark BONES[3 * i] with BONES[3 * i + 1], already moved, and scales its length
+  // by the factor of body part BONES[3 * i + 2]. Parents come before their children.
+  private static final int[] BONES = {
+    PoseLandmark.LEFT_HIP, HIPS_CENTER, PELVIS,
+    PoseLandmark.RIGHT_HIP, HIPS_CENTER, PELVIS,
+    PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_HIP, TORSO,
+    PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_HIP, TORSO,
+    PoseLandmark.NOSE, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_EYE_INNER, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_EYE, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_EYE_OUTER, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.RIGHT_EYE_INNER, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.RIGHT_EYE, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.RIGHT_EYE_OUTER, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_EAR, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.RIGHT_EAR, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_MOUTH, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.RIGHT_MOUTH, SHOULDERS_CENTER, HEAD,
+    PoseLandmark.LEFT_ELBOW, PoseLandmark.LEFT_SHOULDER, UPPER_ARM,
+    PoseLandmark.RIGHT_ELBOW, PoseLandmark.RIGHT_SHOULDER, UPPER_ARM,
+    PoseLandmark.LEFT_WRIST, PoseLandmark.LEFT_ELBOW, FOREARM,
+    PoseLandmark.RIGHT_WRIST, PoseLandmark.RIGHT_ELBOW, FOREARM,
+    PoseLandmark.LEFT_PINKY, PoseLandmark.LEFT_WRIST, HAND,
+    PoseLandmark.RIGHT_PINKY, PoseLandmark.RIGHT_WRIST, HAND,
+    PoseLandmark.LEFT_INDEX, PoseLandmark.LEFT_WRIST, HAND,
+    PoseLandmark.RIGHT_INDEX, PoseLandmark.RIGHT_WRIST, HAND,
+    PoseLandmark.LEFT_THUMB, PoseLandmark.LEFT_WRIST, HAND,
+    PoseLandmark.RIGHT_THUMB, PoseLandmark.RIGHT_WRIST, HAND,
+    PoseLandmark.LEFT_KNEE, PoseLandmark.LEFT_HIP, THIGH,
+    PoseLandmark.RIGHT_KNEE, PoseLandmark.RIGHT_HIP, THIGH,
+    PoseLandmark.LEFT_ANKLE, PoseLandmark.LEFT_KNEE, SHIN,
+    PoseLandmark.RIGHT_ANKLE, PoseLandmark.RIGHT_KNEE, SHIN,
+    PoseLandmark.LEFT_HEEL, PoseLandmark.LEFT_ANKLE, FOOT,
+    PoseLandmark.RIGHT_HEEL, PoseLandmark.RIGHT_ANKLE, FOOT,
+    PoseLandmark.LEFT_FOOT_INDEX, PoseLandmark.LEFT_ANKLE, FOOT,
+    PoseLandmark.RIGHT_FOOT_INDEX, PoseLandmark.RIGHT_ANKLE, FOOT,
+  };
+  // The landmark on the other side of the body, or the landmark itself.
+  private static final int[] MIRRORED = {
+    PoseLandmark.NOSE,
+    PoseLandmark.RIGHT_EYE_INNER, PoseLandmark.RIGHT_EYE, PoseLandmark.RIGHT_EYE_OUTER,
+    PoseLandmark.LEFT_EYE_INNER, PoseLandmark.LEFT_EYE, PoseLandmark.LEFT_EYE_OUTER,
+    PoseLandmark.RIGHT_EAR, PoseLandmark.LEFT_EAR,
+    PoseLandmark.RIGHT_MOUTH, PoseLandmark.LEFT_MOUTH,
+    PoseLandmark.RIGHT_SHOULDER, PoseLandmark.LEFT_SHOULDER,
+    PoseLandmark.RIGHT_ELBOW, PoseLandmark.LEFT_ELBOW,
+    PoseLandmark.RIGHT_WRIST, PoseLandmark.LEFT_WRIST,
+    PoseLandmark.RIGHT_PINKY, PoseLandmark.LEFT_PINKY,
+    PoseLandmark.RIGHT_INDEX, PoseLandmark.LEFT_INDEX,
+    PoseLandmark.RIGHT_THUMB, PoseLandmark.LEFT_THUMB,
+    PoseLandmark.RIGHT_HIP, PoseLandmark.LEFT_HIP,
+    PoseLandmark.RIGHT_KNEE, PoseLandmark.LEFT_KNEE,
+    PoseLandmark.RIGHT_ANKLE, PoseLandmark.LEFT_ANKLE,
+    PoseLandmark.RIGHT_HEEL, PoseLandmark.LEFT_HEEL,
+    PoseLandmark.RIGHT_FOOT_INDEX, PoseLandmark.LEFT_FOOT_INDEX,
+  };
+
+  private final List<String> classNames = new ArrayList<>();
+  // Normalized packed landmarks of every real sample, and the rows of every class.
+  private final float[][] rows;
+  private final int[] rowClasses;
+  private final int[][] classRows;
+  private final Random random;
+  private int generated;
+
+  // Per-sample scratch.
+  private final float[] pose = new float[PACKED_LANDMARK_VALUES];
+  private final float[] scaled = new float[PACKED_LANDMARK_VALUES];
+  private final float[] factors = new float[BODY_PARTS];
+
+  /**
+   * Generates from real samples: {@code landmarks.get(i)}, 33 raw landmarks, of class
+   * {@code classNames.get(i)}. At least one sample is needed; the lists are not referenced
+   * afterwards.
+   */
+  public PoseSampleGenerator(
+      List<String> classNames, List<List<PointF3D>> landmarks, long seed) {
+    Preconditions.checkArgument(!landmarks.isEmpty() && classNames.size() == landmarks.size(),
+        "Expected a class name for each of at least one sample");
+    this.rows = new float[landmarks.size()][PACKED_LANDMARK_VALUES];
+    this.rowClasses = new int[rows.length];
+    Map<String, Integer> classIds = new HashMap<>();
+    List<List<Integer>> rowsByClass = new ArrayList<>();
+    for (int row = 0; row < rows.length; row++) {
+      Preconditions.checkArgument(landmarks.get(row).size() == PoseEmbedding.LANDMARKS,
+          "Expected %s landmarks in sample %s", PoseEmbedding.LANDMARKS, row);
+      PoseEmbedding.packLandmarks(landmarks.get(row), rows[row], 0);
+      PoseEmbedding.normalize(rows[row]);
+      Integer classId = classIds.get(classNames.get(row));
+      if (classId == null) {
+        classId = this.classNames.size();
+        classIds.put(classNames.get(row), classId);
+        this.classNames.add(classNames.get(row));
+        rowsByClass.add(new ArrayList<>());
+      }
+      rowClasses[row] = classId;
+      rowsByClass.get(classId).add(row);
+    }
+    this.classRows = new int[rowsByClass.size()][];
+    for (int c = 0; c < classRows.length; c++) {
+      classRows[c] = new int[rowsByClass.get(c).size()];
+      for (int i = 0; i < classRows[c].length; i++) {
+        classRows[c][i] = rowsByClass.get(c).get(i);
+      }
+    }
+    this.random = new Random(seed);
+  }
+
+  /** Generates from the valid rows of a sample csv. */
+  public static PoseSampleGenerator fromCsv(BufferedReader reader, long seed)
+      throws IOException {
+    List<String> classNames = new ArrayList<>();
+    List<List<PointF3D>> landmarks = new ArrayList<>();
+    String[] nameAndClass = new String[2];
+    float[] values = new float[PACKED_LANDMARK_VALUES];
+    for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+      if (PoseSampleLoader.parseRow(csvLine, nameAndClass, values) != null) {
+        continue;
+      }
+      List<PointF3D> points = new ArrayList<>(PoseEmbedding.LANDMARKS);
+      for (int i = 0; i < PACKED_LANDMARK_VALUES; i += 3) {
+        points.add(PointF3D.from(values[i], values[i + 1], values[i + 2]));
+      }
+      classNames.add(nameAndClass[1]);
+      landmarks.add(points);
+    }
+    return new PoseSampleGenerator(classNames, landmarks, seed);
+  }
+
+  /**
+   * Writes the raw landmarks of the next sample into {@code landmarks} as a packed pose, see
+   * {@link PoseEmbedding#PACKED_LANDMARK_VALUES}, and returns its class name.
+   */
+  public String next(float[] landmarks) {
+    int row = random.nextInt(rows.length);
+    int classId = rowClasses[row];
+    System.arraycopy(rows[row], 0, pose, 0, PACKED_LANDMARK_VALUES);
+    if (random.nextFloat() < INTERPOLATE_PROBABILITY) {
+      float[] other = rows[classRows[classId][random.nextInt(classRows[classId].length)]];
+      float t = random.nextFloat();
+      for (int i = 0; i < PACKED_LANDMARK_VALUES; i++) {
+        pose[i] += t * (other[i] - pose[i]);
+      }
+    }
+
+    for (int part = 0; part < BODY_PARTS; part++) {
+      factors[part] = 1 + max(-MAX_PROPORTION_CHANGE,
+          min(MAX_PROPORTION_CHANGE, PROPORTION_SIGMA * (float) random.nextGaussian()));
+    }
+    for (int i = 0; i < BONES.length; i += 3) {
+      int child = BONES[i];
+      int parent = BONES[i + 1];
+      float factor = factors[BONES[i + 2]];
+      for (int axis = 0; axis < 3; axis++) {
+        scaled[3 * child + axis] = landmark(scaled, parent, axis)
+            + factor * (pose[3 * child + axis] - landmark(pose, parent, axis));
+      }
+    }
+
+    boolean mirror = random.nextFloat() < MIRROR_PROBABILITY;
+    float poseSize = MIN_POSE_SIZE + random.nextFloat() * (MAX_POSE_SIZE - MIN_POSE_SIZE);
+    // Normalized poses are 100 units in size.
+    float scale = poseSize / 100;
+    float centerX = random.nextFloat() * MAX_CENTER;
+    float centerY = random.nextFloat() * MAX_CENTER;
+    for (int i = 0; i < PoseEmbedding.LANDMARKS; i++) {
+      int from = 3 * (mirror ? MIRRORED[i] : i);
+      float x = scaled[from] + JITTER_SIGMA * (float) random.nextGaussian();
+      float y = scaled[from + 1] + JITTER_SIGMA * (float) random.nextGaussian();
+      float z = scaled[from + 2] + JITTER_SIGMA * (float) random.nextGaussian();
+      landmarks[3 * i] = centerX + scale * (mirror ? -x : x);
+      landmarks[3 * i + 1] = centerY + scale * y;
+      landmarks[3 * i + 2] = scale * z;
+    }
+    generated++;
+    return classNames.get(classId);
+  }
+
+  private static float landmark(float[] pose, int landmark, int axis) {
+    if (landmark == HIPS_CENTER) {
+      // Normalized poses are centered between the hips, and the pelvis is scaled around it.
+      return 0;
+    }
+    if (landmark == SHOULDERS_CENTER) {
+      return (pose[3 * PoseLandmark.LEFT_SHOULDER + axis]
+          + pose[3 * PoseLandmark.RIGHT_SHOULDER + axis]) * 0.5f;
+    }
+    return pose[3 * landmark + axis];
+  }
+
+  /** Generates {@code count} samples named {@code synthetic_<n>}. */
+  public List<PoseSample> generate(int count) {
+    float[] landmarks = new float[PACKED_LANDMARK_VALUES];
+    List<PoseSample> poseSamples = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String name = "synthetic_" + generated;
+      String className = next(landmarks);
+      List<PointF3D> points = new ArrayList<>(PoseEmbedding.LANDMARKS);
+      for (int j = 0; j < PACKED_LANDMARK_VALUES; j += 3) {
+        points.add(PointF3D.from(landmarks[j], landmarks[j + 1], landmarks[j + 2]));
+      }
+      poseSamples.add(new PoseSample(name, className, points));
+    }
+    return poseSamples;
+  }
+
+  /**
+   * Writes {@code count} samples named {@code synthetic_<n>} as csv rows, one at a time, so that
+   * sample sets larger than the heap can be written.
+   */
+  public void writeCsv(Writer out, int count) throws IOException {
+    float[] landmarks = new float[PACKED_LANDMARK_VALUES];
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      line.setLength(0);
+      line.append("synthetic_").append(generated).append(',');
+      line.append(next(landmarks));
+      for (float value : landmarks) {
+        line.append(',').append(value);
+      }
+      out.write(line.append('\n').toString());
+    }
+  }
+
+  /**
+   * Writes generated samples from a sample csv to another csv. Run it with
+   * {@code ./gradlew :app:runPoseClassifierTool -Ptool=PoseSampleGenerator -PtoolArgs=...}.
+   *
+   * <p>Usage: {@code PoseSampleGenerator <samples.csv> <generated.csv> <count> [<seed>]}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3 && args.length != 4) {
+      System.err.println(
+          "Usage: PoseSampleGenerator <samples.csv> <generated.csv> <count> [<seed>]");
+      System.exit(2);
+    }
+    int count = Integer.parseInt(args[2]);
+    long seed = args.length == 4 ? Long.parseLong(args[3]) : 0;
+    PoseSampleGenerator generator;
+    try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+      generator = fromCsv(reader, seed);
+    }
+    long startNs = System.nanoTime();
+    try (Writer out = new BufferedWriter(new FileWriter(args[1]))) {
+      generator.writeCsv(out, count);
+    }
+    System.out.printf(Locale.US, "Wrote %d pose samples to %s in %.0f ms%n", count, args[1],
+        (System.nanoTime() - startNs) / 1e6);
+  }
+}
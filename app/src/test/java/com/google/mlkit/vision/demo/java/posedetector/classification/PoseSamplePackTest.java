@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.mlkit.vision.demo.BuildConfig;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PoseSamplePack}. */
+@RunWith(JUnit4.class)
+public final class PoseSamplePackTest {
+  private static final String PACK_FILE = "src/main/assets/pose/fitness_pose_samples.pack";
+
+  @Test
+  public void bundledPack_matchesBundledCsv() throws IOException {
+    PoseSampleMatrix fromCsv =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+
+    // Fails when the csv changed without running the generatePoseSamplePack Gradle task again.
+    PoseSampleMatrix fromPack = PoseSamplePack.read(readFile(PACK_FILE),
+        PoseSamplePackTool.sourceHash(TestPoseSamples.CSV_FILE), PoseClassifier.AXES_WEIGHTS);
+
+    assertEquals(fromCsv.size(), fromPack.size());
+    assertArrayEquals(fromCsv.embeddings(), fromPack.embeddings(), 0f);
+  }
+
+  @Test
+  public void buildConfigHash_isSourceHashOfBundledCsv() throws IOException {
+    // The app checks the bundled pack against the hash the build computed.
+    assertEquals(PoseSamplePackTool.sourceHash(TestPoseSamples.CSV_FILE),
+        BuildConfig.POSE_SAMPLES_CSV_HASH);
+  }
+
+  @Test
+  public void read_writtenPack_matchesSamples() throws IOException {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+
+    PoseSampleMatrix read = PoseSamplePack.read(
+        write(samples, /* sourceHash= */ 42), /* sourceHash= */ 42, PoseClassifier.AXES_WEIGHTS);
+
+    assertEquals(samples.size(), read.size());
+    assertArrayEquals(samples.embeddings(), read.embeddings(), 0f);
+    for (int row = 0; row < samples.size(); row++) {
+      assertEquals(samples.getClassNameForIndex(samples.getClassIndex(row)),
+          read.getClassNameForIndex(read.getClassIndex(row)));
+      assertEquals(samples.getSampleName(row), read.getSampleName(row));
+    }
+  }
+
+  @Test
+  public void read_otherSourceHash_throws() throws IOException {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    ByteBuffer pack = write(samples, /* sourceHash= */ 42);
+
+    try {
+      PoseSamplePack.read(pack, /* sourceHash= */ 43, PoseClassifier.AXES_WEIGHTS);
+      fail("Expected a stale pack to be rejected");
+    } catch (IOException expected) {
+      // The caller loads the csv instead.
+    }
+  }
+
+  private static ByteBuffer write(PoseSampleMatrix samples, int sourceHash) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PoseSamplePack.write(samples, sourceHash, bytes);
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  static ByteBuffer readFile(String path) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+      return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    }
+  }
+}
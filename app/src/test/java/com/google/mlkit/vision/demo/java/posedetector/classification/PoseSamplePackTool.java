@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Converts a sample csv into a {@link PoseSamplePack} with the classifier's default axes weights.
+ * Like the other offline tools, it lives in the unit test sources so that it is not shipped in
+ * the app, and runs on the unit test classpath; the {@code generatePoseSamplePack} Gradle task
+ * regenerates the bundled pack with it.
+ *
+ * <p>Usage: {@code PoseSamplePackTool <samples.csv> <samples.pack>}
+ */
+public final class PoseSamplePackTool {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: PoseSamplePackTool <samples.csv> <samples.pack>");
+      System.exit(2);
+    }
+    List<PoseSample> poseSamples = readCsv(args[0]);
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      PoseSamplePack.write(new PoseSampleMatrix(poseSamples, PoseClassifier.AXES_WEIGHTS),
+          sourceHash(args[0]), out);
+    }
+    System.out.println("Wrote " + poseSamples.size() + " pose samples to " + args[1]);
+  }
+
+  /** The valid samples of a csv file, in order; shared by the offline tools. */
+  static List<PoseSample> readCsv(String path) throws IOException {
+    List<PoseSample> poseSamples = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
+        if (poseSample != null) {
+          poseSamples.add(poseSample);
+        }
+      }
+    }
+    return poseSamples;
+  }
+
+  /**
+   * CRC32 of everything left in {@code in}, e.g. a sample csv, to store in what is produced from
+   * it as its source hash. The build computes the same for {@code BuildConfig}. Does not close
+   * {@code in}.
+   */
+  static int sourceHash(InputStream in) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[8192];
+    for (int n = in.read(chunk); n > 0; n = in.read(chunk)) {
+      crc.update(chunk, 0, n);
+    }
+    return (int) crc.getValue();
+  }
+
+  /** {@link #sourceHash} of a file. */
+  static int sourceHash(String path) throws IOException {
+    try (InputStream in = new FileInputStream(path)) {
+      return sourceHash(in);
+    }
+  }
+
+  private PoseSamplePackTool() {}
+}
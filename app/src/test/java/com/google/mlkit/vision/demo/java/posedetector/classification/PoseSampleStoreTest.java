@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link PoseSampleStore}: a classifier over the store must vote like the baseline
+ * search over the samples the store holds, whichever way they got there.
+ */
+@RunWith(JUnit4.class)
+public final class PoseSampleStoreTest {
+
+  @Test
+  public void add_matchesBaselineOverAllSamples() {
+    assertAddMatchesBaseline(/* withGroups= */ false);
+  }
+
+  @Test
+  public void add_withGroups_matchesBaselineOverAllSamples() {
+    assertAddMatchesBaseline(/* withGroups= */ true);
+  }
+
+  @Test
+  public void remove_fewSamples_keepsTombstonesAndMatchesBaseline() {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    PoseSampleStore store = newStore(samples, /* withGroups= */ true);
+    PoseClassifier classifier = new PoseClassifier(store);
+    List<PoseSample> kept = new ArrayList<>();
+    for (int id = 0; id < samples.size(); id++) {
+      // Every tenth sample, fewer than the quarter that triggers compaction.
+      if (id % 10 == 0) {
+        assertTrue(store.remove(id));
+      } else {
+        kept.add(samples.get(id));
+      }
+    }
+
+    PoseSampleStore.Snapshot snapshot = store.snapshot();
+    assertEquals(samples.size(), snapshot.getSampleMatrix().size());
+    assertEquals(kept.size(), snapshot.getSampleCount());
+    assertEquals(0, TestPoseSamples.countMismatches(classifier, new BaselinePoseClassifier(kept)));
+  }
+
+  @Test
+  public void remove_manySamples_compactsAndMatchesBaseline() {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    PoseSampleStore store = newStore(samples, /* withGroups= */ true);
+    PoseClassifier classifier = new PoseClassifier(store);
+    List<PoseSample> kept = new ArrayList<>();
+    for (int id = 0; id < samples.size(); id++) {
+      if (id % 3 == 0) {
+        assertTrue(store.remove(id));
+      } else {
+        kept.add(samples.get(id));
+      }
+    }
+
+    PoseSampleStore.Snapshot snapshot = store.snapshot();
+    assertTrue("Expected removed rows to be compacted away",
+        snapshot.getSampleMatrix().size() < samples.size());
+    assertEquals(kept.size(), snapshot.getSampleCount());
+    assertEquals(0, TestPoseSamples.countMismatches(classifier, new BaselinePoseClassifier(kept)));
+  }
+
+  @Test
+  public void remove_afterCompaction_findsSamplesById() {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    PoseSampleStore store = newStore(samples, /* withGroups= */ true);
+    for (int id = 0; id < samples.size(); id += 2) {
+      store.remove(id);
+    }
+    PoseClassifier classifier = new PoseClassifier(store);
+    List<PoseSample> kept = new ArrayList<>();
+    for (int id = 1; id < samples.size(); id += 2) {
+      // Ids were assigned before the rows moved.
+      if (id % 4 == 1) {
+        assertTrue(store.remove(id));
+      } else {
+        kept.add(samples.get(id));
+      }
+    }
+
+    assertFalse(store.remove(0));
+    assertFalse(store.remove(samples.size()));
+    assertEquals(kept.size(), store.snapshot().getSampleCount());
+    assertEquals(0, TestPoseSamples.countMismatches(classifier, new BaselinePoseClassifier(kept)));
+  }
+
+  @Test
+  public void add_doesNotChangePublishedSnapshots() {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    PoseSampleStore store = newStore(samples.subList(0, 10), /* withGroups= */ true);
+    PoseSampleStore.Snapshot before = store.snapshot();
+
+    for (int i = 10; i < samples.size(); i++) {
+      store.add(samples.get(i));
+    }
+    store.remove(0);
+
+    assertEquals(10, before.getSampleCount());
+    assertEquals(0, before.getSampleMatrix().removedCount());
+    assertNotNull(before.getSampleGroups());
+    assertEquals(10, sampleGroupSize(before.getSampleGroups()));
+    assertEquals(samples.size() - 1, store.snapshot().getSampleCount());
+    assertTrue(store.snapshot().getVersion() > before.getVersion());
+  }
+
+  private static void assertAddMatchesBaseline(boolean withGroups) {
+    List<PoseSample> samples = TestPoseSamples.samples();
+    int initial = samples.size() / 2;
+    PoseSampleStore store = newStore(samples.subList(0, initial), withGroups);
+    PoseClassifier classifier = new PoseClassifier(store);
+
+    for (int i = initial; i < samples.size(); i++) {
+      assertEquals(i, store.add(samples.get(i)));
+    }
+
+    assertEquals(samples.size(), store.snapshot().getSampleCount());
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  private static PoseSampleStore newStore(List<PoseSample> samples, boolean withGroups) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(samples, PoseClassifier.AXES_WEIGHTS);
+    return withGroups
+        ? new PoseSampleStore(sampleMatrix, /* cellsPerClass= */ 8, /* seed= */ 0)
+        : new PoseSampleStore(sampleMatrix);
+  }
+
+  private static int sampleGroupSize(SampleGroupIndex groups) {
+    int size = 0;
+    for (int group = 0; group < groups.groupCount(); group++) {
+      size += groups.getGroupSize(group);
+    }
+    return size;
+  }
+}
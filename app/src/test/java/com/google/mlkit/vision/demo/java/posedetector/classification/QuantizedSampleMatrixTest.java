@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link QuantizedSampleMatrix}. */
+@RunWith(JUnit4.class)
+public final class QuantizedSampleMatrixTest {
+  // Quantization may reorder near ties, so votes can differ from the float search. These bounds
+  // leave some headroom over what the bundled samples give.
+  private static final float MIN_SAME_VOTES = 0.95f;
+  private static final float MIN_SAME_TOP_CLASS = 0.99f;
+
+  @Test
+  public void scanMaxDistance_keepsBruteForceTopK() {
+    QuantizedSampleMatrix samples = new QuantizedSampleMatrix(
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS));
+    long[] queryLanes = new long[4 * samples.words()];
+    ClassificationStats stats = new ClassificationStats();
+    long abandoned = 0;
+
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      float[] query = ScalarDistanceKernelTest.weightedQuery(landmarks, samples.getAxesWeights());
+      samples.writeQuery(query, ScalarDistanceKernelTest.flipped(query), queryLanes);
+      TopKHeap heap = new TopKHeap(PoseClassifier.MAX_DISTANCE_TOP_K);
+      stats.startFrame();
+      samples.scanMaxDistance(queryLanes, 0, samples.size(), heap, stats);
+      abandoned += stats.getLastFrameSamplesAbandoned();
+      // A heap as large as the sample set never fills, so nothing is abandoned.
+      TopKHeap all = new TopKHeap(samples.size());
+      samples.scanMaxDistance(queryLanes, 0, samples.size(), all, new ClassificationStats());
+
+      long[] expected = ScalarDistanceKernelTest.sortedEntries(all);
+      assertArrayEquals(Arrays.copyOf(expected, heap.capacity()),
+          ScalarDistanceKernelTest.sortedEntries(heap));
+    }
+    assertTrue("Expected samples to be abandoned", abandoned > 0);
+  }
+
+  @Test
+  public void classify_mostlyMatchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(new QuantizedSampleMatrix(
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS)));
+    BaselinePoseClassifier baseline = new BaselinePoseClassifier(TestPoseSamples.samples());
+    List<List<PointF3D>> queries = TestPoseSamples.queries();
+    List<String> expected = TestPoseSamples.baselineVotes();
+    int sameVotes = 0;
+    int sameTopClass = 0;
+
+    for (int i = 0; i < queries.size(); i++) {
+      ClassificationResult result = classifier.classify(queries.get(i));
+      if (expected.get(i).equals(TestPoseSamples.votes(result))) {
+        sameVotes++;
+      }
+      if (baseline.classify(queries.get(i)).getMaxConfidenceClass()
+          .equals(result.getMaxConfidenceClass())) {
+        sameTopClass++;
+      }
+    }
+
+    assertTrue("Same votes for " + sameVotes + " of " + queries.size(),
+        sameVotes >= MIN_SAME_VOTES * queries.size());
+    assertTrue("Same top class for " + sameTopClass + " of " + queries.size(),
+        sameTopClass >= MIN_SAME_TOP_CLASS * queries.size());
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Condenses a sample csv into a {@link PoseSamplePack} with {@link SampleCondenser} and prints a
+ * report; with a third argument, also how often csv rows of another file classify differently.
+ * An offline tool like {@link PoseSamplePackTool}; run it with
+ * {@code ./gradlew :app:runPoseClassifierTool -Ptool=SampleCondenserTool -PtoolArgs="..."}.
+ *
+ * <p>Usage: {@code SampleCondenserTool <samples.csv> <condensed.pack> [<queries.csv>]}
+ */
+public final class SampleCondenserTool {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println(
+          "Usage: SampleCondenserTool <samples.csv> <condensed.pack> [<queries.csv>]");
+      System.exit(2);
+    }
+    List<PoseSample> poseSamples = PoseSamplePackTool.readCsv(args[0]);
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, PoseClassifier.AXES_WEIGHTS);
+    long startNs = System.nanoTime();
+    SampleCondenser.Result result = new SampleCondenser().condense(sampleMatrix);
+    System.out.printf(Locale.US, "Condensed in %.0f ms: %s%n",
+        (System.nanoTime() - startNs) / 1e6, result);
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      PoseSamplePack.write(
+          result.getSampleMatrix(), PoseSamplePackTool.sourceHash(args[0]), out);
+    }
+
+    if (args.length == 3) {
+      PoseClassifier full = new PoseClassifier(sampleMatrix);
+      PoseClassifier condensed = new PoseClassifier(result.getSampleMatrix());
+      int queries = 0;
+      int differentTopClass = 0;
+      int differentOutcome = 0;
+      try (BufferedReader reader = new BufferedReader(new FileReader(args[2]))) {
+        for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+          List<PointF3D> landmarks = PoseSample.getLandmarks(csvLine, ",");
+          if (landmarks == null) {
+            continue;
+          }
+          ClassificationResult a = full.classify(landmarks);
+          ClassificationResult b = condensed.classify(landmarks);
+          queries++;
+          if (!a.getMaxConfidenceClass().equals(b.getMaxConfidenceClass())) {
+            differentTopClass++;
+          }
+          if (!SampleCondenser.sameOutcome(a, b)) {
+            differentOutcome++;
+          }
+        }
+      }
+      System.out.printf(Locale.US,
+          "Queries: %d, %d with a different top class, %d with a different outcome%n",
+          queries, differentTopClass, differentOutcome);
+    }
+    System.out.println("Wrote " + result.getSampleMatrix().size() + " pose samples to " + args[1]);
+  }
+
+  private SampleCondenserTool() {}
+}
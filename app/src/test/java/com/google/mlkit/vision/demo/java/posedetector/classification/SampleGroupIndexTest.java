@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SampleGroupIndex}. */
+@RunWith(JUnit4.class)
+public final class SampleGroupIndexTest {
+
+  @Test
+  public void build_coversEverySampleOnce() {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    SampleGroupIndex groups =
+        SampleGroupIndex.build(samples, /* cellsPerClass= */ 8, /* seed= */ 0);
+
+    int grouped = 0;
+    for (int group = 0; group < groups.groupCount(); group++) {
+      grouped += groups.getGroupSize(group);
+    }
+
+    assertEquals(samples.size(), grouped);
+    assertTrue(groups.groupCount() >= samples.classCount());
+  }
+
+  @Test
+  public void classify_withOneGroupPerClass_matchesBaseline() {
+    assertGroupsMatchBaseline(/* cellsPerClass= */ 1);
+  }
+
+  @Test
+  public void classify_withEightGroupsPerClass_matchesBaseline() {
+    assertGroupsMatchBaseline(/* cellsPerClass= */ 8);
+  }
+
+  @Test
+  public void classify_withGroupsAndEarlyExit_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setSampleGroups(SampleGroupIndex.build(
+        classifier.getSampleMatrix(), /* cellsPerClass= */ 8, /* seed= */ 0));
+    classifier.setEarlyExit(/* margin= */ 0);
+    classifier.setTemporalSeeding(true);
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  private static void assertGroupsMatchBaseline(int cellsPerClass) {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setSampleGroups(
+        SampleGroupIndex.build(classifier.getSampleMatrix(), cellsPerClass, /* seed= */ 0));
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+    assertTrue("Expected groups to be skipped", classifier.getStats().getSamplesSkipped() > 0);
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.WARM_UP_ROUNDS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.log;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.logLatencies;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.sameVotes;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.AXES_WEIGHTS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MAX_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MEAN_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getPoseEmbedding;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.maxAbs;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks for how samples are stored, read and compared: the csv against
+ * {@link PoseSamplePack}, {@link PoseSampleMatrix} against lists of points, the
+ * {@link PoseEmbedding} paths, {@link QuantizedSampleMatrix}, and the {@link DistanceKernel}s. See
+ * {@link Benchmarks} for how to run them.
+ */
+@RunWith(JUnit4.class)
+public final class SampleLayoutBenchmark {
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void sampleLoading() throws IOException {
+    compareSampleLoading(CSV_FILE, Benchmarks.PACK_FILE, /* rounds= */ 10);
+  }
+
+  @Test
+  public void sampleLayouts() throws IOException {
+    compareSampleLayouts(readPoseSamples(CSV_FILE), readLandmarks(CSV_FILE), /* rounds= */ 3);
+  }
+
+  @Test
+  public void embeddingPaths() throws IOException {
+    compareEmbeddingPaths(readLandmarks(CSV_FILE), /* rounds= */ 20);
+  }
+
+  @Test
+  public void quantizedVotes() throws IOException {
+    compareQuantizedVotes(readPoseSamples(CSV_FILE), "bundled", TestPoseSamples.queries(),
+        /* rounds= */ 3);
+  }
+
+  /**
+   * Compares the time to get a {@link PoseSampleMatrix} from the sample csv, parsing rows and
+   * computing embeddings serially or with {@link PoseSampleLoader}, against mapping the equivalent
+   * {@link PoseSamplePack}.
+   */
+  static void compareSampleLoading(String csvFile, String packFile, int rounds)
+      throws IOException {
+    long csvNs = 0;
+    long loaderNs = 0;
+    long packNs = 0;
+    int mismatches = 0;
+    List<PoseSampleLoader.Source> sources =
+        Arrays.asList(PoseSampleLoader.Source.file(new File(csvFile)));
+    int csvHash = PoseSamplePackTool.sourceHash(csvFile);
+    for (int i = 0; i < rounds; i++) {
+      long startNs = System.nanoTime();
+      PoseSampleMatrix fromCsv = new PoseSampleMatrix(readPoseSamples(csvFile), AXES_WEIGHTS);
+      long csvEndNs = System.nanoTime();
+      // File sources need no Context.
+      PoseSampleLoader.Result loaded =
+          new PoseSampleLoader().load(/* context= */ null, sources, AXES_WEIGHTS);
+      long loaderEndNs = System.nanoTime();
+      PoseSampleMatrix fromPack =
+          PoseSamplePack.read(PoseSamplePackTest.readFile(packFile), csvHash, AXES_WEIGHTS);
+      packNs += System.nanoTime() - loaderEndNs;
+      loaderNs += loaderEndNs - csvEndNs;
+      csvNs += csvEndNs - startNs;
+      if (!Arrays.equals(fromCsv.embeddings(), fromPack.embeddings())
+          || !Arrays.equals(fromCsv.embeddings(), loaded.getSampleMatrix().embeddings())) {
+        mismatches++;
+      }
+      if (i == rounds - 1) {
+        log("Sample loader: " + loaded.getSourceStats());
+      }
+    }
+    log(String.format(Locale.US,
+        "Sample loading, %d rounds: csv %.1f ms, loader %.1f ms, pack %.1f ms, "
+            + "%d mismatching rounds",
+        rounds, csvNs / 1e6 / rounds, loaderNs / 1e6 / rounds, packNs / 1e6 / rounds,
+        mismatches));
+  }
+
+  /**
+   * Compares per-frame classification latency of the packed {@link PoseSampleMatrix} against the
+   * original {@code List<PoseSample>} layout, where every sample is a list of boxed points.
+   */
+  static void compareSampleLayouts(
+      List<PoseSample> poseSamples, List<List<PointF3D>> queries, int rounds) {
+    BaselinePoseClassifier baseline = new BaselinePoseClassifier(poseSamples);
+    PoseClassifier packed = new PoseClassifier(poseSamples);
+
+    long checksum = 0;
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> query : queries) {
+        checksum += baseline.classify(query).getAllClasses().size();
+        checksum += packed.classify(query).getAllClasses().size();
+      }
+    }
+
+    long listNs = 0;
+    long packedNs = 0;
+    int mismatches = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (List<PointF3D> query : queries) {
+        long startNs = System.nanoTime();
+        ClassificationResult listResult = baseline.classify(query);
+        long midNs = System.nanoTime();
+        ClassificationResult packedResult = packed.classify(query);
+        long endNs = System.nanoTime();
+        listNs += midNs - startNs;
+        packedNs += endNs - midNs;
+        if (!sameVotes(listResult, packedResult)) {
+          mismatches++;
+        }
+      }
+    }
+
+    int frames = rounds * queries.size();
+    log(String.format(Locale.US,
+        "Sample layout, %d samples, %d frames: list %.3f ms/frame, packed %.3f ms/frame "
+            + "(%.2fx), %d vote mismatches [%d]",
+        poseSamples.size(), frames, listNs / 1e6 / frames, packedNs / 1e6 / frames,
+        (double) listNs / max(1, packedNs), mismatches, checksum));
+  }
+
+  /**
+   * Compares the per-frame embedding cost of the two {@link PoseEmbedding} paths: the list-based
+   * {@link PoseEmbedding#getPoseEmbedding(List)} of the pose and of its mirror, as the classifier
+   * used to compute them, against {@link PoseEmbedding#writePoseEmbedding} into reused buffers
+   * with the mirror derived by negating X. Logs the time per frame and the largest difference
+   * between the two paths' values.
+   */
+  static void compareEmbeddingPaths(List<List<PointF3D>> queries, int rounds) {
+    float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+    float[] embedding = new float[3 * PoseEmbedding.DIMENSIONS];
+    float[] flippedEmbedding = new float[embedding.length];
+    List<List<PointF3D>> flippedQueries = new ArrayList<>();
+    for (List<PointF3D> query : queries) {
+      List<PointF3D> flippedQuery = new ArrayList<>(query);
+      multiplyAll(flippedQuery, PointF3D.from(-1, 1, 1));
+      flippedQueries.add(flippedQuery);
+    }
+
+    // A frame takes a few microseconds, so each path is timed over whole rounds.
+    long listNs = 0;
+    long packedNs = 0;
+    long checksum = 0;
+    for (int i = -WARM_UP_ROUNDS; i < rounds; i++) {
+      long startNs = System.nanoTime();
+      for (int q = 0; q < queries.size(); q++) {
+        checksum += getPoseEmbedding(queries.get(q)).size();
+        checksum += getPoseEmbedding(flippedQueries.get(q)).size();
+      }
+      long midNs = System.nanoTime();
+      for (List<PointF3D> query : queries) {
+        PoseEmbedding.packLandmarks(query, packedLandmarks, 0);
+        PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, embedding, 0);
+        writeFlipped(embedding, flippedEmbedding);
+        checksum += (long) flippedEmbedding[0];
+      }
+      long endNs = System.nanoTime();
+      if (i >= 0) {
+        listNs += midNs - startNs;
+        packedNs += endNs - midNs;
+      }
+    }
+
+    float maxDifference = 0;
+    for (int q = 0; q < queries.size(); q++) {
+      List<PointF3D> listEmbedding = getPoseEmbedding(queries.get(q));
+      List<PointF3D> listFlippedEmbedding = getPoseEmbedding(flippedQueries.get(q));
+      PoseEmbedding.packLandmarks(queries.get(q), packedLandmarks, 0);
+      PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, embedding, 0);
+      writeFlipped(embedding, flippedEmbedding);
+      for (int p = 0; p < PoseEmbedding.DIMENSIONS; p++) {
+        maxDifference = max(maxDifference,
+            maxAbs(subtract(listEmbedding.get(p), pointAt(embedding, p))));
+        maxDifference = max(maxDifference,
+            maxAbs(subtract(listFlippedEmbedding.get(p), pointAt(flippedEmbedding, p))));
+      }
+    }
+
+    int frames = rounds * queries.size();
+    log(String.format(Locale.US,
+        "Embedding paths, %d frames: list %.4f ms/frame, packed %.4f ms/frame (%.2fx), "
+            + "largest difference %g [%d]",
+        frames, listNs / 1e6 / frames, packedNs / 1e6 / frames,
+        (double) listNs / max(1, packedNs), maxDifference, checksum));
+  }
+
+  private static void writeFlipped(float[] embedding, float[] flippedEmbedding) {
+    for (int i = 0; i < embedding.length; i += 3) {
+      flippedEmbedding[i] = -embedding[i];
+      flippedEmbedding[i + 1] = embedding[i + 1];
+      flippedEmbedding[i + 2] = embedding[i + 2];
+    }
+  }
+
+  private static PointF3D pointAt(float[] embedding, int point) {
+    return PointF3D.from(embedding[3 * point], embedding[3 * point + 1], embedding[3 * point + 2]);
+  }
+
+  /**
+   * Measures how often the votes of a {@link QuantizedSampleMatrix} classifier differ from the
+   * float classifier, along with latency and sample memory of both. {@code label} names the query
+   * set, e.g. the bundled csv rows (see {@link Benchmarks#readLandmarks}) or a recorded session
+   * stored as landmark rows in the same csv format.
+   */
+  static void compareQuantizedVotes(List<PoseSample> poseSamples, String label,
+      List<List<PointF3D>> queries, int rounds) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+    QuantizedSampleMatrix quantizedSamples = new QuantizedSampleMatrix(sampleMatrix);
+    PoseClassifier floats =
+        new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    PoseClassifier quantized =
+        new PoseClassifier(quantizedSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> query : queries) {
+        floats.classify(query);
+        quantized.classify(query);
+      }
+    }
+
+    long[] floatNs = new long[rounds * queries.size()];
+    long[] quantizedNs = new long[rounds * queries.size()];
+    int voteMismatches = 0;
+    int topClassMismatches = 0;
+    int frame = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (List<PointF3D> query : queries) {
+        long startNs = System.nanoTime();
+        ClassificationResult floatResult = floats.classify(query);
+        long midNs = System.nanoTime();
+        ClassificationResult quantizedResult = quantized.classify(query);
+        quantizedNs[frame] = System.nanoTime() - midNs;
+        floatNs[frame++] = midNs - startNs;
+        if (!sameVotes(floatResult, quantizedResult)) {
+          voteMismatches++;
+          if (!floatResult.getMaxConfidenceClass()
+              .equals(quantizedResult.getMaxConfidenceClass())) {
+            topClassMismatches++;
+          }
+        }
+      }
+    }
+
+    log(String.format(Locale.US,
+        "Quantized samples, %s, %d samples: %d KB codes vs %d KB floats, scale %.4f, "
+            + "%d of %d frames with different votes, %d with a different top class",
+        label, poseSamples.size(), quantizedSamples.getCodeBytes() / 1024,
+        4L * sampleMatrix.size() * sampleMatrix.stride() / 1024, quantizedSamples.getScale(),
+        voteMismatches, frame, topClassMismatches));
+    logLatencies(String.format(Locale.US, "Float samples, %s", label), floatNs, 0);
+    logLatencies(
+        String.format(Locale.US, "Quantized samples, %s", label), quantizedNs, voteMismatches);
+  }
+
+  /**
+   * Times the scalar {@link DistanceKernel} against the default one for this runtime on a plain
+   * scan of {@code poseSamples}, and checks that both give the same votes for every query. Only
+   * useful where the default is {@code VectorDistanceKernel}, so it is run by
+   * {@code VectorDistanceKernelBenchmark} in the {@code classification-jvm} module.
+   */
+  static void compareDistanceKernels(List<PoseSample> poseSamples, String label,
+      List<List<PointF3D>> queries, int rounds) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+    DistanceKernel defaultKernel = DistanceKernels.getDefault();
+    PoseClassifier scalar =
+        new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    scalar.setDistanceKernel(ScalarDistanceKernel.INSTANCE);
+    PoseClassifier candidate =
+        new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    candidate.setDistanceKernel(defaultKernel);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> query : queries) {
+        scalar.classify(query);
+        candidate.classify(query);
+      }
+    }
+    scalar.getStats().reset();
+    candidate.getStats().reset();
+
+    long[] scalarNs = new long[rounds * queries.size()];
+    long[] candidateNs = new long[rounds * queries.size()];
+    int mismatches = 0;
+    int frame = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (List<PointF3D> query : queries) {
+        long startNs = System.nanoTime();
+        ClassificationResult scalarResult = scalar.classify(query);
+        long midNs = System.nanoTime();
+        ClassificationResult candidateResult = candidate.classify(query);
+        candidateNs[frame] = System.nanoTime() - midNs;
+        scalarNs[frame++] = midNs - startNs;
+        if (!sameVotes(scalarResult, candidateResult)) {
+          mismatches++;
+        }
+      }
+    }
+
+    String kernelName = defaultKernel.getClass().getSimpleName();
+    log(String.format(Locale.US, "Distance kernels, %s, %d samples: scalar %s; %s %s",
+        label, poseSamples.size(), scalar.getStats(), kernelName, candidate.getStats()));
+    logLatencies(String.format(Locale.US, "ScalarDistanceKernel, %s", label), scalarNs, 0);
+    logLatencies(String.format(Locale.US, "%s, %s", kernelName, label), candidateNs, mismatches);
+  }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.WARM_UP_ROUNDS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.jitteredSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.log;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.logLatencies;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.packLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.sameVotes;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.usedHeapBytes;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.AXES_WEIGHTS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MAX_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MEAN_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks for how {@link PoseClassifier} searches its samples as their number grows: the plain
+ * scan, {@link SampleGroupIndex}, {@link VantagePointTree}, {@link ParallelSampleScan} and
+ * {@link PoseClassifier#classifyBatch}. See {@link Benchmarks} for how to run them.
+ */
+@RunWith(JUnit4.class)
+public final class SampleSearchBenchmark {
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void scaling() throws IOException {
+    List<List<PointF3D>> landmarks = readLandmarks(CSV_FILE);
+    List<List<PointF3D>> queries = new ArrayList<>();
+    for (int i = 0; i < landmarks.size(); i += 8) {
+      queries.add(landmarks.get(i));
+    }
+    benchmarkScaling(CSV_FILE, queries, new int[] {1_000, 10_000, 100_000}, /* rounds= */ 3,
+        /* seed= */ 0);
+  }
+
+  @Test
+  public void sampleIndex() throws IOException {
+    benchmarkSampleIndex(CSV_FILE, readLandmarks(CSV_FILE).subList(0, 200),
+        new int[] {812, 10_000, 100_000}, /* rounds= */ 1);
+  }
+
+  @Test
+  public void parallelScan() throws IOException {
+    benchmarkParallelScan(CSV_FILE, readLandmarks(CSV_FILE).subList(0, 200),
+        new int[] {1_000, 10_000, 100_000}, new int[] {1, 2, 4}, /* rounds= */ 1);
+  }
+
+  @Test
+  public void batch() throws IOException {
+    benchmarkBatch(CSV_FILE, readLandmarks(CSV_FILE), new int[] {812, 10_000, 50_000},
+        /* rounds= */ 3);
+  }
+
+  /**
+   * Measures how the kNN {@link PoseClassifier} scales with the number of samples. For every entry
+   * of {@code sampleCounts}, writes that many {@link PoseSampleGenerator} samples, generated from
+   * the rows of {@code csvFile}, to a temporary csv. It then logs:
+   *
+   * <ul>
+   *   <li>the time {@link PoseSampleLoader} takes to load the csv,
+   *   <li>the heap the loaded samples retain,
+   *   <li>the per-frame latency of classifying {@code queries}, both with a plain scan and as
+   *       {@link PoseClassifierProcessor} would search: {@link SampleGroupIndex} below 4096
+   *       samples, {@link VantagePointTree} from there on.
+   * </ul>
+   *
+   * <p>Sizes that do not fit the heap are logged as such, and larger ones are skipped. Also logs
+   * how many generated samples a classifier over the csv rows gives their own class, as a check
+   * that they are still poses of that class.
+   */
+  static void benchmarkScaling(String csvFile, List<List<PointF3D>> queries, int[] sampleCounts,
+      int rounds, long seed) throws IOException {
+    PoseSampleGenerator generator;
+    try (BufferedReader reader = Benchmarks.openCsv(csvFile)) {
+      generator = PoseSampleGenerator.fromCsv(reader, seed);
+    }
+    PoseClassifier real = new PoseClassifier(new PoseSampleMatrix(
+        readPoseSamples(csvFile), AXES_WEIGHTS), MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+    int checked = 1000;
+    int ownClass = 0;
+    for (int i = 0; i < checked; i++) {
+      String className = generator.next(packedLandmarks);
+      List<PointF3D> landmarks = new ArrayList<>(PoseEmbedding.LANDMARKS);
+      for (int j = 0; j < packedLandmarks.length; j += 3) {
+        landmarks.add(PointF3D.from(
+            packedLandmarks[j], packedLandmarks[j + 1], packedLandmarks[j + 2]));
+      }
+      if (real.classify(landmarks).getMaxConfidenceClass().equals(className)) {
+        ownClass++;
+      }
+    }
+    log(String.format(Locale.US,
+        "Generated samples the csv samples give their own class: %d of %d", ownClass, checked));
+
+    for (int sampleCount : sampleCounts) {
+      File generatedFile = File.createTempFile("synthetic_pose_samples", ".csv");
+      try {
+        long startNs = System.nanoTime();
+        try (Writer out = new BufferedWriter(new FileWriter(generatedFile))) {
+          generator.writeCsv(out, sampleCount);
+        }
+        long writeNs = System.nanoTime() - startNs;
+
+        long heapBeforeBytes = usedHeapBytes();
+        startNs = System.nanoTime();
+        // File sources need no Context.
+        PoseSampleMatrix sampleMatrix = new PoseSampleLoader()
+            .load(/* context= */ null, Arrays.asList(PoseSampleLoader.Source.file(generatedFile)),
+                AXES_WEIGHTS)
+            .getSampleMatrix();
+        long loadNs = System.nanoTime() - startNs;
+        long heapBytes = usedHeapBytes() - heapBeforeBytes;
+
+        PoseClassifier scan =
+            new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        PoseClassifier indexed =
+            new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        startNs = System.nanoTime();
+        if (sampleMatrix.size() >= 4096) {
+          indexed.setSampleIndex(VantagePointTree.build(sampleMatrix, /* seed= */ 0));
+        } else {
+          indexed.setSampleGroups(SampleGroupIndex.build(sampleMatrix, 8, /* seed= */ 0));
+        }
+        long indexNs = System.nanoTime() - startNs;
+        log(String.format(Locale.US,
+            "Scaling, %d samples: csv of %.1f MB written in %.0f ms, loaded in %.0f ms; "
+                + "%.1f MB of embeddings, %.1f MB retained; index built in %.0f ms",
+            sampleMatrix.size(), generatedFile.length() / 1e6, writeNs / 1e6, loadNs / 1e6,
+            4e-6 * sampleMatrix.embeddings().length, heapBytes / 1e6, indexNs / 1e6));
+
+        for (PoseClassifier classifier : Arrays.asList(scan, indexed)) {
+          for (List<PointF3D> query : queries) {
+            classifier.classify(query);
+          }
+          long[] latenciesNs = new long[rounds * queries.size()];
+          int mismatches = 0;
+          int frame = 0;
+          for (int i = 0; i < rounds; i++) {
+            for (List<PointF3D> query : queries) {
+              long frameStartNs = System.nanoTime();
+              ClassificationResult result = classifier.classify(query);
+              latenciesNs[frame++] = System.nanoTime() - frameStartNs;
+              if (classifier != scan && !sameVotes(result, scan.classify(query))) {
+                mismatches++;
+              }
+            }
+          }
+          logLatencies(String.format(Locale.US, "Scaling, %d samples, %s", sampleMatrix.size(),
+              classifier == scan ? "scan" : sampleMatrix.size() >= 4096 ? "tree" : "groups"),
+              latenciesNs, mismatches);
+        }
+      } catch (OutOfMemoryError e) {
+        log(String.format(Locale.US,
+            "Scaling, %d samples: does not fit the heap of %.0f MB", sampleCount,
+            Runtime.getRuntime().maxMemory() / 1e6));
+        break;
+      } finally {
+        generatedFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Measures build time, serialized size and query latency of a {@link VantagePointTree} against
+   * the linear scan for every sample count, checking that the votes are identical. The tree is
+   * round-tripped through its serialized form before it is queried.
+   */
+  static void benchmarkSampleIndex(String csvFile, List<List<PointF3D>> queries,
+      int[] sampleCounts, int rounds) throws IOException {
+    for (int sampleCount : sampleCounts) {
+      List<PoseSample> poseSamples =
+          jitteredSamples(csvFile, sampleCount, /* sigma= */ 5f, /* seed= */ 1);
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+
+      long buildStartNs = System.nanoTime();
+      VantagePointTree built = VantagePointTree.build(sampleMatrix, /* seed= */ 1);
+      long buildNs = System.nanoTime() - buildStartNs;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      built.writeTo(new DataOutputStream(bytes));
+      VantagePointTree index = VantagePointTree.readFrom(
+          new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), sampleMatrix);
+      log(String.format(Locale.US, "Sample index, %d samples: built in %.1f ms, %d KB",
+          sampleCount, buildNs / 1e6, bytes.size() / 1024));
+
+      PoseClassifier linear =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      PoseClassifier indexed =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      indexed.setSampleIndex(index);
+      for (PoseClassifier classifier : new PoseClassifier[] {linear, indexed}) {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+          for (List<PointF3D> query : queries) {
+            classifier.classify(query);
+          }
+        }
+        classifier.getStats().reset();
+      }
+
+      long[] linearNs = new long[rounds * queries.size()];
+      long[] indexedNs = new long[rounds * queries.size()];
+      int mismatches = 0;
+      int frame = 0;
+      for (int i = 0; i < rounds; i++) {
+        for (List<PointF3D> query : queries) {
+          long startNs = System.nanoTime();
+          ClassificationResult linearResult = linear.classify(query);
+          long midNs = System.nanoTime();
+          ClassificationResult indexedResult = indexed.classify(query);
+          indexedNs[frame] = System.nanoTime() - midNs;
+          linearNs[frame++] = midNs - startNs;
+          if (!sameVotes(linearResult, indexedResult)) {
+            mismatches++;
+          }
+        }
+      }
+      logLatencies(String.format(Locale.US, "Linear scan, %d samples (%s)", sampleCount,
+          linear.getStats()), linearNs, 0);
+      logLatencies(String.format(Locale.US, "Sample index, %d samples (%s)", sampleCount,
+          indexed.getStats()), indexedNs, mismatches);
+    }
+  }
+
+  /**
+   * Measures latency and throughput of {@link ParallelSampleScan} for every combination of sample
+   * count and shard count, against the serial scan. Shard count 1 is the serial scan. Votes are
+   * compared with the serial results on every frame.
+   */
+  static void benchmarkParallelScan(String csvFile, List<List<PointF3D>> queries,
+      int[] sampleCounts, int[] shardCounts, int rounds) throws IOException {
+    for (int sampleCount : sampleCounts) {
+      List<PoseSample> poseSamples =
+          jitteredSamples(csvFile, sampleCount, /* sigma= */ 5f, /* seed= */ 1);
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+      PoseClassifier serial =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      for (int shardCount : shardCounts) {
+        ExecutorService executor =
+            shardCount > 1 ? Executors.newFixedThreadPool(shardCount - 1) : null;
+        PoseClassifier classifier =
+            new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        if (executor != null) {
+          classifier.setParallelScan(
+              new ParallelSampleScan(executor, shardCount, /* minSamples= */ 0));
+        }
+        try {
+          for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            for (List<PointF3D> query : queries) {
+              classifier.classify(query);
+            }
+          }
+          long[] latenciesNs = new long[rounds * queries.size()];
+          int mismatches = 0;
+          int frame = 0;
+          for (int i = 0; i < rounds; i++) {
+            for (List<PointF3D> query : queries) {
+              long startNs = System.nanoTime();
+              ClassificationResult result = classifier.classify(query);
+              latenciesNs[frame++] = System.nanoTime() - startNs;
+              if (!sameVotes(result, serial.classify(query))) {
+                mismatches++;
+              }
+            }
+          }
+          logLatencies(
+              String.format(Locale.US, "Parallel scan, %d samples, %d shards", sampleCount,
+                  shardCount),
+              latenciesNs, mismatches);
+        } finally {
+          if (executor != null) {
+            executor.shutdown();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Compares the throughput of {@link PoseClassifier#classifyBatch} against calling
+   * {@link PoseClassifier#classify} frame by frame, for every sample count, checking that the votes
+   * are identical.
+   */
+  static void benchmarkBatch(String csvFile, List<List<PointF3D>> queries, int[] sampleCounts,
+      int rounds) throws IOException {
+    float[] landmarks = packLandmarks(queries);
+    for (int sampleCount : sampleCounts) {
+      List<PoseSample> poseSamples =
+          jitteredSamples(csvFile, sampleCount, /* sigma= */ 5f, /* seed= */ 1);
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+      PoseClassifier classifier =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      int classCount = sampleMatrix.classCount();
+      int[] frameVotes = new int[queries.size() * classCount];
+      int[] batchVotes = null;
+      long frameNs = 0;
+      long batchNs = 0;
+      for (int i = -WARM_UP_ROUNDS; i < rounds; i++) {
+        long startNs = System.nanoTime();
+        for (int frame = 0; frame < queries.size(); frame++) {
+          ClassificationResult result = classifier.classify(queries.get(frame));
+          for (int c = 0; c < classCount; c++) {
+            frameVotes[frame * classCount + c] =
+                (int) result.getClassConfidence(sampleMatrix.getClassNameForIndex(c));
+          }
+        }
+        long midNs = System.nanoTime();
+        batchVotes = classifier.classifyBatch(landmarks, queries.size());
+        long endNs = System.nanoTime();
+        if (i >= 0) {
+          frameNs += midNs - startNs;
+          batchNs += endNs - midNs;
+        }
+      }
+
+      int mismatches = 0;
+      for (int frame = 0; frame < queries.size(); frame++) {
+        for (int c = 0; c < classCount; c++) {
+          if (frameVotes[frame * classCount + c] != batchVotes[frame * classCount + c]) {
+            mismatches++;
+            break;
+          }
+        }
+      }
+      long frames = (long) rounds * queries.size();
+      log(String.format(Locale.US,
+          "Batch, %d samples: per frame %.0f frames/s, batch %.0f frames/s (%.2fx), "
+              + "%d vote mismatches",
+          sampleCount, frames * 1e9 / max(1, frameNs), frames * 1e9 / max(1, batchNs),
+          (double) frameNs / max(1, batchNs), mismatches));
+    }
+  }
+}
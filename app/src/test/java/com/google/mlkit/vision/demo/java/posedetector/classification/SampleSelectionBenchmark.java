@@ -0,0 +1,262 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.WARM_UP_ROUNDS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.countReps;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.log;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.logLatencies;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.repSession;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.AXES_WEIGHTS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MAX_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MEAN_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks for the offline tools that pick what the classifier keeps: the samples
+ * {@link SampleCondenser} keeps, the embedding points {@link EmbeddingDimensionSelector} keeps,
+ * and the settings {@link LeaveOneOutEvaluator} scores. See {@link Benchmarks} for how to run
+ * them.
+ */
+@RunWith(JUnit4.class)
+public final class SampleSelectionBenchmark {
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void condensedSamples() throws IOException {
+    List<PoseSample> poseSamples = readPoseSamples(CSV_FILE);
+    String[] exercises = {"pushups", "squats"};
+    for (float sigma : new float[] {1f, 4f}) {
+      compareCondensedSamples(poseSamples,
+          repSession(poseSamples, readLandmarks(CSV_FILE), exercises, /* reps= */ 40, sigma),
+          new String[] {"pushups_down", "squats_down"});
+    }
+  }
+
+  @Test
+  public void dimensionMasks() throws IOException {
+    // The agreement the points in PoseClassifierProcessor were picked at.
+    compareDimensionMasks(readPoseSamples(CSV_FILE), readLandmarks(CSV_FILE),
+        PoseClassifierProcessor.OTHER_SAMPLES_PER_CLASS, /* minAgreement= */ 0.995f);
+  }
+
+  @Test
+  public void leaveOneOut() throws IOException {
+    benchmarkLeaveOneOut(CSV_FILE, /* generatedCount= */ 5_000,
+        Runtime.getRuntime().availableProcessors(), /* checkedRows= */ 200, /* seed= */ 0);
+  }
+
+  /**
+   * Condenses {@code poseSamples} with {@link SampleCondenser} and replays {@code session} through
+   * classifiers on the full and the condensed set, logging how many frames classify differently,
+   * the rep counts of {@code repClasses} after {@link EMASmoothing}, and the time per frame.
+   */
+  static void compareCondensedSamples(List<PoseSample> poseSamples,
+      List<List<PointF3D>> session, String[] repClasses) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+    long startNs = System.nanoTime();
+    SampleCondenser.Result condensed = new SampleCondenser().condense(sampleMatrix);
+    long condenseNs = System.nanoTime() - startNs;
+    PoseClassifier full = new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    PoseClassifier small = new PoseClassifier(
+        condensed.getSampleMatrix(), MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> landmarks : session) {
+        full.classify(landmarks);
+        small.classify(landmarks);
+      }
+    }
+
+    List<ClassificationResult> fullResults = new ArrayList<>();
+    List<ClassificationResult> smallResults = new ArrayList<>();
+    long fullNs = 0;
+    long smallNs = 0;
+    int topClassMismatches = 0;
+    int outcomeMismatches = 0;
+    for (List<PointF3D> landmarks : session) {
+      long frameStartNs = System.nanoTime();
+      ClassificationResult fullResult = full.classify(landmarks);
+      long midNs = System.nanoTime();
+      ClassificationResult smallResult = small.classify(landmarks);
+      smallNs += System.nanoTime() - midNs;
+      fullNs += midNs - frameStartNs;
+      fullResults.add(fullResult);
+      smallResults.add(smallResult);
+      if (!fullResult.getMaxConfidenceClass().equals(smallResult.getMaxConfidenceClass())) {
+        topClassMismatches++;
+      }
+      if (!SampleCondenser.sameOutcome(fullResult, smallResult)) {
+        outcomeMismatches++;
+      }
+    }
+    log(String.format(Locale.US,
+        "Condensed samples: %s in %.0f ms; %d of %d frames with a different top class, %d with a "
+            + "different outcome; reps %s vs %s with all samples; %.3f vs %.3f ms/frame",
+        condensed, condenseNs / 1e6, topClassMismatches, session.size(), outcomeMismatches,
+        Arrays.toString(countReps(smallResults, repClasses)),
+        Arrays.toString(countReps(fullResults, repClasses)), smallNs / 1e6 / session.size(),
+        fullNs / 1e6 / session.size()));
+  }
+
+  /**
+   * Compares classifying each exercise over all embedding points with classifying it over the
+   * points {@link EmbeddingDimensionSelector} keeps at {@code minAgreement}. Points are ranked on
+   * the {@link ExercisePartitions} partitions, with {@code otherSamplesPerClass} representatives,
+   * of the even rows of {@code poseSamples}; the odd rows of {@code landmarks} of each exercise are
+   * then classified by both, embedding included. Logs the points kept, the time per frame, and how
+   * many held-out frames get another outcome, see {@link SampleCondenser#sameOutcome}.
+   */
+  static void compareDimensionMasks(List<PoseSample> poseSamples,
+      List<List<PointF3D>> landmarks, int otherSamplesPerClass, float minAgreement) {
+    List<PoseSample> trainSamples = new ArrayList<>();
+    for (int i = 0; i < poseSamples.size(); i += 2) {
+      trainSamples.add(poseSamples.get(i));
+    }
+    ExercisePartitions partitions = new ExercisePartitions(
+        new PoseSampleMatrix(trainSamples, AXES_WEIGHTS), otherSamplesPerClass);
+    for (String exercise : partitions.getExercises()) {
+      List<List<PointF3D>> session = new ArrayList<>();
+      for (int i = 1; i < poseSamples.size(); i += 2) {
+        if (ExercisePartitions.exerciseOf(poseSamples.get(i).getClassName()).equals(exercise)) {
+          session.add(landmarks.get(i));
+        }
+      }
+      PoseSampleMatrix partition = partitions.getSamples(exercise);
+      long startNs = System.nanoTime();
+      int[] dimensions =
+          new EmbeddingDimensionSelector().rank(partition).selectDimensions(minAgreement);
+      long rankNs = System.nanoTime() - startNs;
+      PoseClassifier full =
+          new PoseClassifier(partition, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      PoseClassifier masked = new PoseClassifier(
+          partition.selectDimensions(dimensions), MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+        for (List<PointF3D> frame : session) {
+          full.classify(frame);
+          masked.classify(frame);
+        }
+      }
+
+      long[] fullNs = new long[session.size()];
+      long[] maskedNs = new long[session.size()];
+      int outcomeMismatches = 0;
+      for (int i = 0; i < session.size(); i++) {
+        long frameStartNs = System.nanoTime();
+        ClassificationResult fullResult = full.classify(session.get(i));
+        long midNs = System.nanoTime();
+        ClassificationResult maskedResult = masked.classify(session.get(i));
+        maskedNs[i] = System.nanoTime() - midNs;
+        fullNs[i] = midNs - frameStartNs;
+        if (!SampleCondenser.sameOutcome(fullResult, maskedResult)) {
+          outcomeMismatches++;
+        }
+      }
+      log(String.format(Locale.US,
+          "Dimension mask %s, %d samples: %d of %d points %s, ranked in %.0f ms; "
+              + "%d of %d held-out frames with another outcome",
+          exercise, partition.size(), dimensions.length, partition.dimensions(),
+          Arrays.toString(dimensions), rankNs / 1e6, outcomeMismatches, session.size()));
+      logLatencies("All points, " + exercise, fullNs, 0);
+      logLatencies("Masked points, " + exercise, maskedNs, 0);
+    }
+  }
+
+  /**
+   * Runs the {@link LeaveOneOutEvaluator} grid on the samples of a csv and on
+   * {@code generatedCount} samples generated from it, on {@code threads} threads, and logs how
+   * long it took and every setting's accuracy and time per frame. Also classifies up to
+   * {@code checkedRows} left-out samples of each set with a {@link PoseClassifier} over all other
+   * samples at the default setting, and logs how many get other votes than the evaluator's.
+   */
+  static void benchmarkLeaveOneOut(String csvFile, int generatedCount, int threads,
+      int checkedRows, long seed) throws IOException {
+    List<PoseSample> csvSamples = readPoseSamples(csvFile);
+    PoseSampleGenerator generator;
+    try (BufferedReader reader = Benchmarks.openCsv(csvFile)) {
+      generator = PoseSampleGenerator.fromCsv(reader, seed);
+    }
+    List<PointF3D> axesWeights = new ArrayList<>();
+    for (float z : new float[] {0f, 0.2f, 0.5f, 1f}) {
+      axesWeights.add(PointF3D.from(1, 1, z));
+    }
+    for (List<PoseSample> poseSamples
+        : Arrays.asList(csvSamples, generator.generate(generatedCount))) {
+      LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(poseSamples);
+      long startNs = System.nanoTime();
+      List<LeaveOneOutEvaluator.Result> results = evaluator.evaluate(
+          new int[] {10, 20, 30, 50}, new int[] {5, 10, 15}, axesWeights, threads);
+      long evaluateNs = System.nanoTime() - startNs;
+      startNs = System.nanoTime();
+      evaluator.measureCost(results, /* frames= */ 500);
+      log(String.format(Locale.US,
+          "Leave-one-out, %d samples: %d settings evaluated in %.1f s on %d threads, "
+              + "timed in %.1f s",
+          evaluator.size(), results.size(), evaluateNs / 1e9, threads,
+          (System.nanoTime() - startNs) / 1e9));
+      for (LeaveOneOutEvaluator.Result result : results) {
+        log("Leave-one-out, " + evaluator.size() + " samples, " + result);
+      }
+
+      LeaveOneOutEvaluator.Setting setting = new LeaveOneOutEvaluator.Setting(
+          MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+      int step = max(1, sampleMatrix.size() / checkedRows);
+      int checked = 0;
+      int mismatches = 0;
+      for (int row = 0; row < sampleMatrix.size(); row += step) {
+        int[] others = new int[sampleMatrix.size() - 1];
+        for (int i = 0; i < others.length; i++) {
+          others[i] = i < row ? i : i + 1;
+        }
+        PoseClassifier classifier = new PoseClassifier(
+            sampleMatrix.select(others), MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        ClassificationResult result =
+            classifier.classifyWeighted(sampleMatrix.embeddings(), row * sampleMatrix.stride());
+        int[] votes = evaluator.classifyLeftOut(row, setting);
+        for (int c = 0; c < votes.length; c++) {
+          if (votes[c] != result.getClassConfidence(sampleMatrix.getClassNameForIndex(c))) {
+            mismatches++;
+            break;
+          }
+        }
+        checked++;
+      }
+      log(String.format(Locale.US,
+          "Leave-one-out, %d samples: %d of %d left-out samples with other votes than %s",
+          sampleMatrix.size(), mismatches, checked, setting));
+    }
+  }
+}
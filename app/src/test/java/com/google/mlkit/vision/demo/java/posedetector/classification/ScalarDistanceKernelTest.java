@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link ScalarDistanceKernel}: abandoning samples early must keep exactly the
+ * samples, with exactly the distances, of computing every distance in full.
+ */
+@RunWith(JUnit4.class)
+public final class ScalarDistanceKernelTest {
+
+  @Test
+  public void offerMaxDistance_keepsBruteForceTopK() {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    ClassificationStats stats = new ClassificationStats();
+    long abandoned = 0;
+
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      float[] query = weightedQuery(landmarks, samples.getAxesWeights());
+      float[] flippedQuery = flipped(query);
+      TopKHeap heap = new TopKHeap(PoseClassifier.MAX_DISTANCE_TOP_K);
+      stats.startFrame();
+      for (int row = 0; row < samples.size(); row++) {
+        ScalarDistanceKernel.INSTANCE.offerMaxDistance(
+            samples.embeddings(), query, flippedQuery, row, heap, stats);
+      }
+      abandoned += stats.getLastFrameSamplesAbandoned();
+
+      assertArrayEquals(bruteForceTopK(samples, query, flippedQuery, /* sum= */ false,
+          heap.capacity()), sortedEntries(heap));
+    }
+    assertTrue("Expected samples to be abandoned", abandoned > 0);
+  }
+
+  @Test
+  public void offerSumDistance_keepsBruteForceTopK() {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    ClassificationStats stats = new ClassificationStats();
+    long abandoned = 0;
+
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      float[] query = weightedQuery(landmarks, samples.getAxesWeights());
+      float[] flippedQuery = flipped(query);
+      TopKHeap heap = new TopKHeap(PoseClassifier.MEAN_DISTANCE_TOP_K);
+      stats.startFrame();
+      for (int row = 0; row < samples.size(); row++) {
+        ScalarDistanceKernel.INSTANCE.offerSumDistance(
+            samples.embeddings(), query, flippedQuery, row, heap, stats);
+      }
+      abandoned += stats.getLastFrameSamplesAbandoned();
+
+      assertArrayEquals(bruteForceTopK(samples, query, flippedQuery, /* sum= */ true,
+          heap.capacity()), sortedEntries(heap));
+    }
+    assertTrue("Expected samples to be abandoned", abandoned > 0);
+  }
+
+  /** The embedding of {@code landmarks}, weighted like the samples. */
+  static float[] weightedQuery(List<PointF3D> landmarks, PointF3D axesWeights) {
+    float[] packedLandmarks = new float[PoseEmbedding.PACKED_LANDMARK_VALUES];
+    PoseEmbedding.packLandmarks(landmarks, packedLandmarks, 0);
+    float[] query = new float[3 * PoseEmbedding.DIMENSIONS];
+    PoseEmbedding.writePoseEmbedding(packedLandmarks, /* dimensions= */ null, query, 0);
+    PoseSampleMatrix.applyWeights(query, 0, query.length, axesWeights);
+    return query;
+  }
+
+  /** {@code query} of the mirrored pose. */
+  static float[] flipped(float[] query) {
+    float[] flippedQuery = query.clone();
+    for (int i = 0; i < flippedQuery.length; i += 3) {
+      flippedQuery[i] = -flippedQuery[i];
+    }
+    return flippedQuery;
+  }
+
+  /**
+   * The {@code k} closest rows by the min of the original and flipped max or sum distance, computed
+   * in full, as {@link #sortedEntries} would encode them.
+   */
+  static long[] bruteForceTopK(
+      PoseSampleMatrix samples, float[] query, float[] flippedQuery, boolean sum, int k) {
+    float[] embeddings = samples.embeddings();
+    int stride = samples.stride();
+    long[] entries = new long[samples.size()];
+    for (int row = 0; row < samples.size(); row++) {
+      float original = 0;
+      float flipped = 0;
+      for (int i = row * stride, j = 0; j < stride; i += 3, j += 3) {
+        if (sum) {
+          // In embedding order, like ScalarDistanceKernel, as float addition is not associative.
+          original += abs(query[j] - embeddings[i]) + abs(query[j + 1] - embeddings[i + 1])
+              + abs(query[j + 2] - embeddings[i + 2]);
+          flipped += abs(flippedQuery[j] - embeddings[i])
+              + abs(flippedQuery[j + 1] - embeddings[i + 1])
+              + abs(flippedQuery[j + 2] - embeddings[i + 2]);
+        } else {
+          original = max(original, max(abs(query[j] - embeddings[i]),
+              max(abs(query[j + 1] - embeddings[i + 1]), abs(query[j + 2] - embeddings[i + 2]))));
+          flipped = max(flipped, max(abs(flippedQuery[j] - embeddings[i]), max(
+              abs(flippedQuery[j + 1] - embeddings[i + 1]),
+              abs(flippedQuery[j + 2] - embeddings[i + 2]))));
+        }
+      }
+      entries[row] = entry(min(original, flipped), row);
+    }
+    Arrays.sort(entries);
+    return Arrays.copyOf(entries, min(k, entries.length));
+  }
+
+  /** Entries of {@code heap} ordered by distance and then by row, like {@link TopKHeap}. */
+  static long[] sortedEntries(TopKHeap heap) {
+    long[] entries = new long[heap.size()];
+    for (int i = 0; i < heap.size(); i++) {
+      entries[i] = entry(heap.distanceAt(i), heap.rowAt(i));
+    }
+    Arrays.sort(entries);
+    return entries;
+  }
+
+  private static long entry(float distance, int row) {
+    // Bits of non-negative floats order like the floats.
+    return ((long) Float.floatToIntBits(distance) << 32) | row;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SoftmaxPoseClassifier}. */
+@RunWith(JUnit4.class)
+public final class SoftmaxPoseClassifierTest {
+  private static final String MODEL_FILE = "src/main/assets/pose/fitness_pose_softmax.model";
+
+  @Test
+  public void bundledModel_wasTrainedOnBundledCsv() throws IOException {
+    // Fails when the csv changed without running the generatePoseSoftmaxModel Gradle task again.
+    SoftmaxPoseClassifier model = SoftmaxPoseClassifier.read(
+        PoseSamplePackTest.readFile(MODEL_FILE),
+        PoseSamplePackTool.sourceHash(TestPoseSamples.CSV_FILE), PoseClassifier.AXES_WEIGHTS);
+    SoftmaxPoseClassifier trained = SoftmaxPoseClassifier.train(
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS));
+
+    assertSameVotes(trained, model);
+  }
+
+  @Test
+  public void read_writtenModel_classifiesAlike() throws IOException {
+    SoftmaxPoseClassifier model = SoftmaxPoseClassifier.train(
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS));
+
+    SoftmaxPoseClassifier read = SoftmaxPoseClassifier.read(
+        write(model, /* sourceHash= */ 42), /* sourceHash= */ 42, PoseClassifier.AXES_WEIGHTS);
+
+    assertSameVotes(model, read);
+  }
+
+  @Test
+  public void read_otherSourceHash_throws() throws IOException {
+    SoftmaxPoseClassifier model = SoftmaxPoseClassifier.train(
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS));
+    ByteBuffer bytes = write(model, /* sourceHash= */ 42);
+
+    try {
+      SoftmaxPoseClassifier.read(bytes, /* sourceHash= */ 43, PoseClassifier.AXES_WEIGHTS);
+      fail("Expected a stale model to be rejected");
+    } catch (IOException expected) {
+      // The caller trains a model instead.
+    }
+  }
+
+  private static void assertSameVotes(
+      SoftmaxPoseClassifier expected, SoftmaxPoseClassifier actual) {
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      assertEquals(TestPoseSamples.votes(expected.classify(landmarks)),
+          TestPoseSamples.votes(actual.classify(landmarks)));
+    }
+  }
+
+  private static ByteBuffer write(SoftmaxPoseClassifier model, int sourceHash)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    model.write(sourceHash, bytes);
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Trains a {@link SoftmaxPoseClassifier} on a sample csv with the classifier's default axes
+ * weights and writes the model. An offline tool like {@link PoseSamplePackTool}; the
+ * {@code generatePoseSoftmaxModel} Gradle task regenerates the bundled model with it.
+ *
+ * <p>Usage: {@code SoftmaxPoseClassifierTool <samples.csv> <model>}
+ */
+public final class SoftmaxPoseClassifierTool {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: SoftmaxPoseClassifierTool <samples.csv> <model>");
+      System.exit(2);
+    }
+    List<PoseSample> poseSamples = PoseSamplePackTool.readCsv(args[0]);
+    SoftmaxPoseClassifier model = SoftmaxPoseClassifier.train(
+        new PoseSampleMatrix(poseSamples, PoseClassifier.AXES_WEIGHTS));
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      model.write(PoseSamplePackTool.sourceHash(args[0]), out);
+    }
+    System.out.println("Trained on " + poseSamples.size() + " pose samples, wrote "
+        + model.getSizeBytes() + " bytes of weights to " + args[1]);
+  }
+
+  private SoftmaxPoseClassifierTool() {}
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.WARM_UP_ROUNDS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.countReps;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.heldSession;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.interpolatedSession;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.jitteredSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.log;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.logLatencies;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readLandmarks;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.readPoseSamples;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.repSession;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.Benchmarks.sameVotes;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.AXES_WEIGHTS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MAX_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier.MEAN_DISTANCE_TOP_K;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.TestPoseSamples.CSV_FILE;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks for what {@link PoseClassifier} does across the frames of a camera stream: the
+ * {@link MotionGate}, temporal seeding, early exit, and classifying while a
+ * {@link PoseSampleStore} changes. See {@link Benchmarks} for how to run them.
+ */
+@RunWith(JUnit4.class)
+public final class StreamBenchmark {
+  private static final String[] EXERCISES = {"pushups", "squats"};
+  private static final String[] REP_CLASSES = {"pushups_down", "squats_down"};
+
+  @Before
+  public void setUp() {
+    Benchmarks.assumeEnabled();
+  }
+
+  @Test
+  public void motionGate() throws IOException {
+    List<List<PointF3D>> keyPoses = readLandmarks(CSV_FILE).subList(0, 300);
+    for (float sigma : new float[] {0.5f, 2f}) {
+      benchmarkMotionGate(readPoseSamples(CSV_FILE),
+          heldSession(keyPoses, /* holdFrames= */ 20, /* moveFrames= */ 10, sigma, /* seed= */ 1),
+          new float[] {0f, 0.5f, 1f, 2f, 4f}, /* maxReuseFrames= */ 5);
+    }
+  }
+
+  @Test
+  public void temporalSeeding() throws IOException {
+    benchmarkTemporalSeeding(CSV_FILE,
+        interpolatedSession(readLandmarks(CSV_FILE).subList(0, 200), /* framesPerKeyPose= */ 10),
+        new int[] {812, 50_000}, /* rounds= */ 2);
+  }
+
+  @Test
+  public void earlyExit() throws IOException {
+    List<PoseSample> poseSamples = readPoseSamples(CSV_FILE);
+    for (float sigma : new float[] {1f, 4f}) {
+      replayEarlyExit(poseSamples,
+          repSession(poseSamples, readLandmarks(CSV_FILE), EXERCISES, /* reps= */ 40, sigma),
+          new int[] {0, 1, 3, 6}, REP_CLASSES);
+    }
+  }
+
+  @Test
+  public void sampleStore() throws IOException {
+    List<PoseSample> poseSamples = readPoseSamples(CSV_FILE);
+    // Some of every class, as a user would record them.
+    List<PoseSample> jittered =
+        jitteredSamples(CSV_FILE, poseSamples.size(), /* sigma= */ 3f, /* seed= */ 3);
+    List<PoseSample> userSamples = new ArrayList<>();
+    for (int i = 0; i < jittered.size(); i += 20) {
+      userSamples.add(jittered.get(i));
+    }
+    List<List<PointF3D>> session = repSession(
+        poseSamples, readLandmarks(CSV_FILE), EXERCISES, /* reps= */ 40, /* sigma= */ 1f);
+    for (long pauseMs : new long[] {1, 0}) {
+      benchmarkSampleStore(poseSamples, userSamples, session, /* cellsPerClass= */ 8, pauseMs);
+    }
+  }
+
+  /**
+   * Replays {@code session} through a {@link MotionGate} for every epsilon and logs the skipped
+   * frames and the time saved, together with how often the reused result has a different top
+   * class than classifying the frame would have.
+   */
+  static void benchmarkMotionGate(List<PoseSample> poseSamples, List<List<PointF3D>> session,
+      float[] epsilons, int maxReuseFrames) {
+    PoseClassifier classifier = new PoseClassifier(poseSamples);
+    PoseClassifier reference = new PoseClassifier(poseSamples);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> landmarks : session) {
+        classifier.classify(landmarks);
+        reference.classify(landmarks);
+      }
+    }
+    for (float epsilon : epsilons) {
+      MotionGate motionGate = new MotionGate(epsilon, maxReuseFrames);
+      int topClassMismatches = 0;
+      long startNs = System.nanoTime();
+      long referenceNs = 0;
+      for (List<PointF3D> landmarks : session) {
+        ClassificationResult result = motionGate.reuse(landmarks);
+        if (result == null) {
+          long classifyNs = System.nanoTime();
+          result = classifier.classify(landmarks);
+          motionGate.onClassified(result, System.nanoTime() - classifyNs);
+        }
+        // Not part of the gated stream's time.
+        long referenceStartNs = System.nanoTime();
+        ClassificationResult expected = reference.classify(landmarks);
+        referenceNs += System.nanoTime() - referenceStartNs;
+        if (!expected.getMaxConfidenceClass().equals(result.getMaxConfidenceClass())) {
+          topClassMismatches++;
+        }
+      }
+      long gatedNs = System.nanoTime() - startNs - referenceNs;
+      log(String.format(Locale.US,
+          "Motion gate, epsilon %.2f, max reuse %d: %s; %.1f ms gated vs %.1f ms ungated, "
+              + "%d of %d frames with a different top class",
+          epsilon, maxReuseFrames, motionGate, gatedNs / 1e6f, referenceNs / 1e6f,
+          topClassMismatches, session.size()));
+    }
+  }
+
+  /**
+   * Classifies {@code session} frame by frame with and without
+   * {@link PoseClassifier#setTemporalSeeding temporal seeding}, for every sample count, both on a
+   * plain scan and with the pruning {@link PoseClassifierProcessor} sets up. Logs the work counters
+   * and latencies of both and checks that the votes are identical on every frame.
+   */
+  static void benchmarkTemporalSeeding(String csvFile, List<List<PointF3D>> session,
+      int[] sampleCounts, int rounds) throws IOException {
+    for (int sampleCount : sampleCounts) {
+      PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(
+          jitteredSamples(csvFile, sampleCount, /* sigma= */ 5f, /* seed= */ 1), AXES_WEIGHTS);
+      for (boolean pruned : new boolean[] {false, true}) {
+        PoseClassifier cold =
+            new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        PoseClassifier seeded =
+            new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+        seeded.setTemporalSeeding(true);
+        String pruning = "scan";
+        if (pruned && sampleCount >= 4096) {
+          VantagePointTree sampleIndex = VantagePointTree.build(sampleMatrix, /* seed= */ 0);
+          cold.setSampleIndex(sampleIndex);
+          seeded.setSampleIndex(sampleIndex);
+          pruning = "vantage point tree";
+        } else if (pruned) {
+          SampleGroupIndex sampleGroups =
+              SampleGroupIndex.build(sampleMatrix, /* cellsPerClass= */ 8, /* seed= */ 0);
+          cold.setSampleGroups(sampleGroups);
+          seeded.setSampleGroups(sampleGroups);
+          pruning = "sample groups";
+        }
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+          for (List<PointF3D> frame : session) {
+            cold.classify(frame);
+            seeded.classify(frame);
+          }
+        }
+        cold.getStats().reset();
+        seeded.getStats().reset();
+
+        long[] coldNs = new long[rounds * session.size()];
+        long[] seededNs = new long[rounds * session.size()];
+        int mismatches = 0;
+        int frame = 0;
+        for (int i = 0; i < rounds; i++) {
+          for (List<PointF3D> landmarks : session) {
+            long startNs = System.nanoTime();
+            ClassificationResult coldResult = cold.classify(landmarks);
+            long midNs = System.nanoTime();
+            ClassificationResult seededResult = seeded.classify(landmarks);
+            seededNs[frame] = System.nanoTime() - midNs;
+            coldNs[frame++] = midNs - startNs;
+            if (!sameVotes(coldResult, seededResult)) {
+              mismatches++;
+            }
+          }
+        }
+
+        String label = String.format(Locale.US, "%d samples, %s", sampleCount, pruning);
+        log(String.format(Locale.US, "Temporal seeding, %s: cold %s; seeded %s",
+            label, cold.getStats(), seeded.getStats()));
+        logLatencies("Cold search, " + label, coldNs, 0);
+        logLatencies("Seeded search, " + label, seededNs, mismatches);
+      }
+    }
+  }
+
+  /**
+   * Replays {@code session} through a classifier with {@link PoseClassifier#setEarlyExit} at every
+   * margin and through one without, each followed by {@link EMASmoothing} and a
+   * {@link RepetitionCounter} per class of {@code repClasses}, as in
+   * {@link PoseClassifierProcessor}. Logs how many frames exited early, how many frames got
+   * different votes or a different top class, the rep counts of both, and the time per frame.
+   */
+  static void replayEarlyExit(List<PoseSample> poseSamples, List<List<PointF3D>> session,
+      int[] margins, String[] repClasses) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+    PoseClassifier reference =
+        new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> landmarks : session) {
+        reference.classify(landmarks);
+      }
+    }
+    List<ClassificationResult> expected = new ArrayList<>();
+    long referenceNs = 0;
+    for (List<PointF3D> landmarks : session) {
+      long startNs = System.nanoTime();
+      expected.add(reference.classify(landmarks));
+      referenceNs += System.nanoTime() - startNs;
+    }
+    int[] expectedReps = countReps(expected, repClasses);
+
+    for (int margin : margins) {
+      PoseClassifier classifier =
+          new PoseClassifier(sampleMatrix, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K);
+      classifier.setEarlyExit(margin);
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+        for (List<PointF3D> landmarks : session) {
+          classifier.classify(landmarks);
+        }
+      }
+      classifier.getStats().reset();
+      List<ClassificationResult> results = new ArrayList<>();
+      int voteMismatches = 0;
+      int topClassMismatches = 0;
+      long classifyNs = 0;
+      for (int f = 0; f < session.size(); f++) {
+        long startNs = System.nanoTime();
+        ClassificationResult result = classifier.classify(session.get(f));
+        classifyNs += System.nanoTime() - startNs;
+        results.add(result);
+        if (!sameVotes(expected.get(f), result)) {
+          voteMismatches++;
+          if (!expected.get(f).getMaxConfidenceClass().equals(result.getMaxConfidenceClass())) {
+            topClassMismatches++;
+          }
+        }
+      }
+      log(String.format(Locale.US,
+          "Early exit, margin %d: %d of %d frames exited early, %d with different votes, "
+              + "%d with a different top class; reps %s vs %s without; %.3f vs %.3f ms/frame",
+          margin, classifier.getStats().getEarlyExits(), session.size(), voteMismatches,
+          topClassMismatches, Arrays.toString(countReps(results, repClasses)),
+          Arrays.toString(expectedReps), classifyNs / 1e6 / session.size(),
+          referenceNs / 1e6 / session.size()));
+    }
+  }
+
+  /**
+   * Replays {@code session} through a classifier on a {@link PoseSampleStore} of
+   * {@code poseSamples} while another thread keeps adding {@code userSamples} to the store and
+   * removing them again, pausing {@code pauseMs} after every change. Logs the time per frame and
+   * the slowest frame next to a classifier on fixed samples, the time per change, and how many
+   * frames differ from a classifier rebuilt from the store's final samples.
+   */
+  static void benchmarkSampleStore(List<PoseSample> poseSamples, List<PoseSample> userSamples,
+      List<List<PointF3D>> session, int cellsPerClass, long pauseMs) {
+    PoseSampleMatrix sampleMatrix = new PoseSampleMatrix(poseSamples, AXES_WEIGHTS);
+    PoseClassifier fixed = new PoseClassifier(sampleMatrix);
+    fixed.setSampleGroups(SampleGroupIndex.build(sampleMatrix, cellsPerClass, /* seed= */ 0));
+    PoseSampleStore store = new PoseSampleStore(sampleMatrix, cellsPerClass, /* seed= */ 0);
+    PoseClassifier updated = new PoseClassifier(store);
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      for (List<PointF3D> landmarks : session) {
+        fixed.classify(landmarks);
+        updated.classify(landmarks);
+      }
+    }
+    long fixedNs = 0;
+    long fixedMaxNs = 0;
+    for (List<PointF3D> landmarks : session) {
+      long startNs = System.nanoTime();
+      fixed.classify(landmarks);
+      long frameNs = System.nanoTime() - startNs;
+      fixedNs += frameNs;
+      fixedMaxNs = max(fixedMaxNs, frameNs);
+    }
+
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicLong changes = new AtomicLong();
+    AtomicLong changeNs = new AtomicLong();
+    Thread writer = new Thread(() -> {
+      int[] sampleIds = new int[userSamples.size()];
+      try {
+        while (!done.get()) {
+          for (int i = 0; i < sampleIds.length; i++) {
+            long startNs = System.nanoTime();
+            sampleIds[i] = store.add(userSamples.get(i));
+            changeNs.addAndGet(System.nanoTime() - startNs);
+            changes.incrementAndGet();
+            Thread.sleep(pauseMs);
+          }
+          for (int sampleId : sampleIds) {
+            long startNs = System.nanoTime();
+            store.remove(sampleId);
+            changeNs.addAndGet(System.nanoTime() - startNs);
+            changes.incrementAndGet();
+            Thread.sleep(pauseMs);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    writer.start();
+    long updatedNs = 0;
+    long updatedMaxNs = 0;
+    for (List<PointF3D> landmarks : session) {
+      long startNs = System.nanoTime();
+      updated.classify(landmarks);
+      long frameNs = System.nanoTime() - startNs;
+      updatedNs += frameNs;
+      updatedMaxNs = max(updatedMaxNs, frameNs);
+    }
+    done.set(true);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    // The store now holds the original samples plus whatever the writer added last; a classifier
+    // rebuilt from its live rows must agree on every frame.
+    PoseSampleMatrix latest = store.snapshot().getSampleMatrix();
+    int[] liveRows = new int[latest.size() - latest.removedCount()];
+    for (int row = 0, i = 0; row < latest.size(); row++) {
+      if (!latest.isRemoved(row)) {
+        liveRows[i++] = row;
+      }
+    }
+    PoseClassifier rebuilt = new PoseClassifier(latest.select(liveRows));
+    int mismatches = 0;
+    for (List<PointF3D> landmarks : session) {
+      if (!sameVotes(rebuilt.classify(landmarks), updated.classify(landmarks))) {
+        mismatches++;
+      }
+    }
+    log(String.format(Locale.US,
+        "Sample store: %.3f ms/frame (max %.3f) with %d changes at %.1f us each vs %.3f ms/frame "
+            + "(max %.3f) on fixed samples; %d snapshots, %d of %d frames differ from a rebuilt "
+            + "classifier",
+        updatedNs / 1e6 / session.size(), updatedMaxNs / 1e6, changes.get(),
+        changes.get() == 0 ? 0 : changeNs.get() / 1e3 / changes.get(),
+        fixedNs / 1e6 / session.size(), fixedMaxNs / 1e6, store.snapshot().getVersion() + 1,
+        mismatches, session.size()));
+  }
+}
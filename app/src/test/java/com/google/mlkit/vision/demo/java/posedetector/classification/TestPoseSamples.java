@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * The bundled pose samples, queries made from them, and their classification by
+ * {@link BaselinePoseClassifier}, shared by the tests that compare against it.
+ *
+ * <p>Unit tests run in the app module directory, so the csv is read from the source tree.
+ */
+final class TestPoseSamples {
+  static final String CSV_FILE = "src/main/assets/pose/fitness_pose_samples.csv";
+  // Standard deviation, in pixels, of the noise added to a sample to make a query.
+  private static final float QUERY_NOISE = 20f;
+
+  private static List<String> csvLines;
+  private static List<PoseSample> samples;
+  private static List<List<PointF3D>> queries;
+  private static List<String> baselineVotes;
+
+  /** The bundled samples, in csv order. */
+  static synchronized List<PoseSample> samples() {
+    if (samples == null) {
+      List<PoseSample> loaded = new ArrayList<>();
+      for (String csvLine : csvLines()) {
+        loaded.add(PoseSample.getPoseSample(csvLine, ","));
+      }
+      samples = Collections.unmodifiableList(loaded);
+    }
+    return samples;
+  }
+
+  /**
+   * Two queries per sample: its landmarks as they are, which the sample itself matches exactly,
+   * and mirrored with noise added, so that the flipped distance and near ties are exercised too.
+   */
+  static synchronized List<List<PointF3D>> queries() {
+    if (queries == null) {
+      Random random = new Random(0);
+      List<List<PointF3D>> made = new ArrayList<>();
+      for (String csvLine : csvLines()) {
+        List<PointF3D> landmarks = PoseSample.getLandmarks(csvLine, ",");
+        made.add(landmarks);
+        List<PointF3D> mirrored = new ArrayList<>(landmarks.size());
+        for (PointF3D landmark : landmarks) {
+          mirrored.add(PointF3D.from(
+              -landmark.getX() + QUERY_NOISE * (float) random.nextGaussian(),
+              landmark.getY() + QUERY_NOISE * (float) random.nextGaussian(),
+              landmark.getZ() + QUERY_NOISE * (float) random.nextGaussian()));
+        }
+        made.add(mirrored);
+      }
+      queries = Collections.unmodifiableList(made);
+    }
+    return queries;
+  }
+
+  /** {@link #votes} of {@link BaselinePoseClassifier} for every query, in order. */
+  static synchronized List<String> baselineVotes() {
+    if (baselineVotes == null) {
+      BaselinePoseClassifier baseline = new BaselinePoseClassifier(samples());
+      List<String> votes = new ArrayList<>();
+      for (List<PointF3D> query : queries()) {
+        votes.add(votes(baseline.classify(query)));
+      }
+      baselineVotes = Collections.unmodifiableList(votes);
+    }
+    return baselineVotes;
+  }
+
+  /** The votes of {@code result} by class name, as a string that is equal for equal votes. */
+  static String votes(ClassificationResult result) {
+    Map<String, Float> votes = new TreeMap<>();
+    for (String className : result.getAllClasses()) {
+      votes.put(className, result.getClassConfidence(className));
+    }
+    return votes.toString();
+  }
+
+  /** Number of queries that {@code classifier} does not classify like the baseline. */
+  static int countBaselineMismatches(PoseClassificationBackend classifier) {
+    List<List<PointF3D>> queries = queries();
+    List<String> expected = baselineVotes();
+    int mismatches = 0;
+    for (int i = 0; i < queries.size(); i++) {
+      if (!expected.get(i).equals(votes(classifier.classify(queries.get(i))))) {
+        mismatches++;
+      }
+    }
+    return mismatches;
+  }
+
+  /**
+   * Number of queries that {@code classifier} does not classify like {@code baseline}, e.g. a
+   * baseline over a subset of the samples.
+   */
+  static int countMismatches(
+      PoseClassificationBackend classifier, BaselinePoseClassifier baseline) {
+    int mismatches = 0;
+    for (List<PointF3D> query : queries()) {
+      if (!votes(baseline.classify(query)).equals(votes(classifier.classify(query)))) {
+        mismatches++;
+      }
+    }
+    return mismatches;
+  }
+
+  /** The valid sample lines of the csv. */
+  private static synchronized List<String> csvLines() {
+    if (csvLines == null) {
+      List<String> read = new ArrayList<>();
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(CSV_FILE), StandardCharsets.UTF_8))) {
+        String csvLine;
+        while ((csvLine = reader.readLine()) != null) {
+          if (PoseSample.getLandmarks(csvLine, ",") != null) {
+            read.add(csvLine);
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot read " + CSV_FILE, e);
+      }
+      csvLines = read;
+    }
+    return csvLines;
+  }
+
+  private TestPoseSamples() {}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TopKHeap}. */
+@RunWith(JUnit4.class)
+public final class TopKHeapTest {
+
+  @Test
+  public void offer_keepsClosestRegardlessOfOrder() {
+    Random random = new Random(0);
+    float[] distances = new float[200];
+    for (int row = 0; row < distances.length; row++) {
+      // Few distinct values, so many ties have to be broken by row.
+      distances[row] = random.nextInt(20);
+    }
+    int[] expected = closestRows(distances, 30);
+
+    for (int shuffle = 0; shuffle < 10; shuffle++) {
+      List<Integer> order = new ArrayList<>();
+      for (int row = 0; row < distances.length; row++) {
+        order.add(row);
+      }
+      Collections.shuffle(order, random);
+      TopKHeap heap = new TopKHeap(30);
+      for (int row : order) {
+        heap.offer(distances[row], row);
+      }
+
+      assertArrayEquals(expected, sortedRows(heap));
+    }
+  }
+
+  @Test
+  public void bound_isFarthestKeptOnceFull() {
+    TopKHeap heap = new TopKHeap(3);
+    heap.offer(5f, 0);
+    heap.offer(1f, 1);
+
+    assertEquals(Float.POSITIVE_INFINITY, heap.bound(), 0f);
+
+    heap.offer(3f, 2);
+    assertTrue(heap.isFull());
+    assertEquals(5f, heap.bound(), 0f);
+    assertEquals(0, heap.topRow());
+
+    assertTrue(heap.offer(2f, 3));
+    assertEquals(3f, heap.bound(), 0f);
+    assertEquals(2, heap.topRow());
+  }
+
+  @Test
+  public void offer_tieWithFarthest_keepsLowerRow() {
+    TopKHeap heap = new TopKHeap(2);
+    heap.offer(1f, 0);
+    heap.offer(2f, 5);
+
+    assertFalse(heap.offer(2f, 7));
+    assertTrue(heap.offer(2f, 3));
+    assertArrayEquals(new int[] {0, 3}, sortedRows(heap));
+  }
+
+  @Test
+  public void clear_withCeiling_rejectsFartherCandidates() {
+    TopKHeap heap = new TopKHeap(3);
+    heap.offer(0f, 9);
+    heap.clear(/* ceiling= */ 2f);
+
+    assertEquals(0, heap.size());
+    assertEquals(2f, heap.bound(), 0f);
+    assertFalse(heap.offer(2.5f, 0));
+    assertTrue(heap.offer(2f, 1));
+    assertTrue(heap.offer(0.5f, 2));
+    assertArrayEquals(new int[] {2, 1}, sortedRows(heap));
+    assertEquals(2f, heap.bound(), 0f);
+
+    heap.clear();
+    assertEquals(Float.POSITIVE_INFINITY, heap.bound(), 0f);
+    assertTrue(heap.offer(100f, 3));
+  }
+
+  @Test
+  public void clear_withCeilingAboveKthBest_keepsSameSet() {
+    Random random = new Random(1);
+    float[] distances = new float[100];
+    for (int row = 0; row < distances.length; row++) {
+      distances[row] = random.nextFloat();
+    }
+    int[] expected = closestRows(distances, 10);
+    float kthBest = distances[expected[expected.length - 1]];
+    TopKHeap heap = new TopKHeap(10);
+    heap.clear(kthBest);
+
+    for (int row = 0; row < distances.length; row++) {
+      heap.offer(distances[row], row);
+    }
+
+    assertArrayEquals(expected, sortedRows(heap));
+  }
+
+  @Test
+  public void zeroCapacity_keepsNothing() {
+    TopKHeap heap = new TopKHeap(0);
+
+    assertFalse(heap.offer(0f, 0));
+    assertEquals(0, heap.size());
+  }
+
+  /** Rows of the {@code k} least distances, ordered by distance and then by row. */
+  private static int[] closestRows(float[] distances, int k) {
+    List<Integer> rows = new ArrayList<>();
+    for (int row = 0; row < distances.length; row++) {
+      rows.add(row);
+    }
+    Collections.sort(rows, (a, b) -> distances[a] != distances[b]
+        ? Float.compare(distances[a], distances[b]) : Integer.compare(a, b));
+    int[] closest = new int[k];
+    for (int i = 0; i < k; i++) {
+      closest[i] = rows.get(i);
+    }
+    return closest;
+  }
+
+  /** Kept rows ordered like {@link #closestRows}. */
+  private static int[] sortedRows(TopKHeap heap) {
+    long[] entries = new long[heap.size()];
+    for (int i = 0; i < heap.size(); i++) {
+      // Non-negative float bits order like the floats.
+      entries[i] = ((long) Float.floatToIntBits(heap.distanceAt(i)) << 32) | heap.rowAt(i);
+    }
+    Arrays.sort(entries);
+    int[] rows = new int[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      rows[i] = (int) entries[i];
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link VantagePointTree}. */
+@RunWith(JUnit4.class)
+public final class VantagePointTreeTest {
+
+  @Test
+  public void search_keepsBruteForceTopK() {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    VantagePointTree tree = VantagePointTree.build(samples, /* seed= */ 0);
+    int[] visitStamps = new int[samples.size()];
+    ClassificationStats stats = new ClassificationStats();
+    long skipped = 0;
+    int stamp = 0;
+
+    for (List<PointF3D> landmarks : TestPoseSamples.queries()) {
+      float[] query = ScalarDistanceKernelTest.weightedQuery(landmarks, samples.getAxesWeights());
+      float[] flippedQuery = ScalarDistanceKernelTest.flipped(query);
+      TopKHeap heap = new TopKHeap(PoseClassifier.MAX_DISTANCE_TOP_K);
+      stats.startFrame();
+      tree.search(ScalarDistanceKernel.INSTANCE, samples, query, flippedQuery, heap, stats,
+          visitStamps, ++stamp);
+      skipped += stats.getLastFrameSamplesSkipped();
+
+      assertArrayEquals(ScalarDistanceKernelTest.bruteForceTopK(samples, query, flippedQuery,
+          /* sum= */ false, heap.capacity()), ScalarDistanceKernelTest.sortedEntries(heap));
+    }
+    assertTrue("Expected the tree to skip samples", skipped > 0);
+  }
+
+  @Test
+  public void classify_withSampleIndex_matchesBaseline() {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    classifier.setSampleIndex(VantagePointTree.build(classifier.getSampleMatrix(), /* seed= */ 0));
+
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void readFrom_writtenTree_matchesBaseline() throws IOException {
+    PoseClassifier classifier = new PoseClassifier(TestPoseSamples.samples());
+    VantagePointTree tree = VantagePointTree.build(classifier.getSampleMatrix(), /* seed= */ 0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    tree.writeTo(new DataOutputStream(bytes));
+
+    VantagePointTree read = VantagePointTree.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        classifier.getSampleMatrix());
+    classifier.setSampleIndex(read);
+
+    assertEquals(tree.getSampleCount(), read.getSampleCount());
+    assertEquals(0, TestPoseSamples.countBaselineMismatches(classifier));
+  }
+
+  @Test
+  public void readFrom_negativeRadius_throws() throws IOException {
+    assertCorruptRootRejected(/* radius= */ -1f, /* split= */ null);
+  }
+
+  @Test
+  public void readFrom_nanRadius_throws() throws IOException {
+    assertCorruptRootRejected(Float.NaN, /* split= */ null);
+  }
+
+  @Test
+  public void readFrom_infiniteRadius_throws() throws IOException {
+    assertCorruptRootRejected(Float.POSITIVE_INFINITY, /* split= */ null);
+  }
+
+  @Test
+  public void readFrom_splitBeforeNode_throws() throws IOException {
+    assertCorruptRootRejected(/* radius= */ null, /* split= */ 0);
+  }
+
+  @Test
+  public void readFrom_splitPastSubtree_throws() throws IOException {
+    assertCorruptRootRejected(
+        /* radius= */ null, /* split= */ 2 * TestPoseSamples.samples().size() + 1);
+  }
+
+  @Test
+  public void readFrom_repeatedPoint_throws() throws IOException {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    ByteBuffer bytes = writeTree(samples);
+    bytes.putInt(nodeOffset(1), bytes.getInt(nodeOffset(0)));
+
+    assertRejected(bytes, samples);
+  }
+
+  private static void assertCorruptRootRejected(Float radius, Integer split) throws IOException {
+    PoseSampleMatrix samples =
+        new PoseSampleMatrix(TestPoseSamples.samples(), PoseClassifier.AXES_WEIGHTS);
+    ByteBuffer bytes = writeTree(samples);
+    if (radius != null) {
+      bytes.putFloat(nodeOffset(0) + 4, radius);
+    }
+    if (split != null) {
+      bytes.putInt(nodeOffset(0) + 8, split);
+    }
+
+    assertRejected(bytes, samples);
+  }
+
+  private static void assertRejected(ByteBuffer bytes, PoseSampleMatrix samples) {
+    try {
+      VantagePointTree.readFrom(
+          new DataInputStream(new ByteArrayInputStream(bytes.array())), samples);
+      fail("Expected a corrupt tree to be rejected");
+    } catch (IOException expected) {
+      // The caller builds the tree again.
+    }
+  }
+
+  private static ByteBuffer writeTree(PoseSampleMatrix samples) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    VantagePointTree.build(samples, /* seed= */ 0).writeTo(new DataOutputStream(bytes));
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  /** Byte offset of node {@code i}, after a header of five ints, at 12 bytes per node. */
+  private static int nodeOffset(int i) {
+    return 20 + 12 * i;
+  }
+}